@@ -30,6 +30,11 @@ import org.linqs.psl.model.rule.WeightedRule;
  * can be stored in it. If a {@link Rule} wants to add another GroundRule
  * that does the same thing over the same GroundAtoms, then it should retrieve
  * the original GroundRule, modify it, and call {@link #changedGroundRule(GroundRule)}.
+ * <p>
+ * Implementations need not be thread-safe. Components that use a store from
+ * several threads, such as
+ * {@link org.linqs.psl.application.util.Grounding#groundAll(org.linqs.psl.model.Model, org.linqs.psl.model.atom.AtomManager, GroundRuleStore, int)},
+ * must only call it from one thread at a time.
  */
 public interface GroundRuleStore {
 
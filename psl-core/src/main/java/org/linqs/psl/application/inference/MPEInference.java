@@ -95,7 +95,7 @@ public class MPEInference implements ModelApplication {
 		atomManager = new PersistedAtomManager(db);
 		
 		log.info("Grounding out model.");
-		Grounding.groundAll(model, atomManager, reasoner);
+		Grounding.groundAll(model, atomManager, reasoner, config);
 	}
 	
 	/**
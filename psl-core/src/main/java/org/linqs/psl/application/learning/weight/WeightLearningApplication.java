@@ -138,7 +138,7 @@ public abstract class WeightLearningApplication extends Observable implements Mo
 					"corresponding ObservedAtoms. Latent variables are not supported " +
 					"by this WeightLearningApplication. " +
 					"Example latent variable: " + trainingMap.getLatentVariables().iterator().next());
-		Grounding.groundAll(model, trainingMap, reasoner);
+		Grounding.groundAll(model, trainingMap, reasoner, config);
 	}
 	
 	protected void cleanUpGroundModel() {
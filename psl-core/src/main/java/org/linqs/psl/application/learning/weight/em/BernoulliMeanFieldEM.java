@@ -33,6 +33,7 @@ import org.linqs.psl.model.atom.RandomVariableAtom;
 import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.model.rule.misc.GroundValueConstraint;
+import org.linqs.psl.reasoner.bool.ChromaticGibbsSampler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,7 +45,8 @@ import org.slf4j.LoggerFactory;
  * <p>
  * During the M-step, the likelihood is maximized using the voted perceptron
  * algorithm with the expectation of the potential functions estimated using the
- * MPE state.
+ * MPE state, or, if {@link #GIBBS_SAMPLES_KEY} is positive, using samples
+ * drawn by a {@link ChromaticGibbsSampler}.
  * <p>
  * This algorithm does not support models with constraints.
  * 
@@ -70,14 +72,52 @@ public class BernoulliMeanFieldEM extends ExpectationMaximization {
 	/** Default value for MPE_INITIALIZATION_KEY property */
 	public static final boolean MPE_INITIALIZATION_DEFAULT = true;
 	
+	/**
+	 * Key for non-negative integer property. If positive, the expectations of
+	 * the M-step are estimated from this many Gibbs samples of the Boolean
+	 * atoms after burn-in, instead of from the MPE state.
+	 */
+	public static final String GIBBS_SAMPLES_KEY = CONFIG_PREFIX + ".gibbssamples";
+	/** Default value for GIBBS_SAMPLES_KEY property */
+	public static final int GIBBS_SAMPLES_DEFAULT = 0;
+	
+	/**
+	 * Key for non-negative integer property. Number of Gibbs samples discarded
+	 * before those counted in the expectations.
+	 */
+	public static final String GIBBS_BURN_IN_KEY = CONFIG_PREFIX + ".gibbsburnin";
+	/** Default value for GIBBS_BURN_IN_KEY property */
+	public static final int GIBBS_BURN_IN_DEFAULT = 100;
+	
+	/**
+	 * Key for positive integer property. Number of threads that draw the
+	 * Gibbs samples.
+	 */
+	public static final String NUM_THREADS_KEY = CONFIG_PREFIX + ".numthreads";
+	/** Default value for NUM_THREADS_KEY property */
+	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
+	
 	protected final Map<RandomVariableAtom, Double> means;
 	protected final boolean mpeInit;
+	protected final int gibbsSamples;
+	protected final int gibbsBurnIn;
+	protected final int numThreads;
+	protected ChromaticGibbsSampler sampler;
 
 	public BernoulliMeanFieldEM(Model model, Database rvDB, Database observedDB,
 			ConfigBundle config) {
 		super(model, rvDB, observedDB, config);
 		means = new HashMap<RandomVariableAtom, Double>();
 		mpeInit = config.getBoolean(MPE_INITIALIZATION_KEY, MPE_INITIALIZATION_DEFAULT);
+		gibbsSamples = config.getInt(GIBBS_SAMPLES_KEY, GIBBS_SAMPLES_DEFAULT);
+		if (gibbsSamples < 0)
+			throw new IllegalArgumentException("Property " + GIBBS_SAMPLES_KEY + " must be non-negative.");
+		gibbsBurnIn = config.getInt(GIBBS_BURN_IN_KEY, GIBBS_BURN_IN_DEFAULT);
+		if (gibbsBurnIn < 0)
+			throw new IllegalArgumentException("Property " + GIBBS_BURN_IN_KEY + " must be non-negative.");
+		numThreads = config.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Property " + NUM_THREADS_KEY + " must be positive.");
 	}
 	
 	@Override
@@ -223,6 +263,11 @@ public class BernoulliMeanFieldEM extends ExpectationMaximization {
 
 	@Override
 	protected double[] computeExpectedIncomp() {
+		if (gibbsSamples > 0) {
+			sampler.sample(gibbsBurnIn, gibbsSamples);
+			return sampler.getExpectedIncompatibility(kernels);
+		}
+		
 		double[] expIncomp = new double[kernels.size()];
 		
 		/* Computes the MPE state */
@@ -242,6 +287,8 @@ public class BernoulliMeanFieldEM extends ExpectationMaximization {
 	protected void initGroundModel()
 			throws ClassNotFoundException, IllegalAccessException, InstantiationException {
 		super.initGroundModel();
+		if (gibbsSamples > 0)
+			sampler = new ChromaticGibbsSampler(reasoner, numThreads);
 		
 		/* Sets all means to 0.5 if MPE_INITIALIZATION_KEY is false */
 		if (!mpeInit) {
@@ -29,6 +29,7 @@ import org.linqs.psl.model.atom.RandomVariableAtom;
 import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.reasoner.bool.ChromaticGibbsSampler;
 
 /**
  * Learns weights by optimizing the pseudo-log-likelihood of the data using
@@ -77,8 +78,27 @@ public class MaxPseudoLikelihood extends VotedPerceptron {
 	/** Default value for MIN_WIDTH_KEY */
 	public static final double MIN_WIDTH_DEFAULT = 1e-2;
 	
+	/**
+	 * Boolean property. If true, and BOOLEAN_KEY is true, the expected
+	 * incompatibilities are computed in parallel by a {@link ChromaticGibbsSampler}.
+	 */
+	public static final String CHROMATIC_KEY = CONFIG_PREFIX + ".chromatic";
+	/** Default value for CHROMATIC_KEY */
+	public static final boolean CHROMATIC_DEFAULT = false;
+	
+	/**
+	 * Key for positive integer property. Number of threads that compute the
+	 * expected incompatibilities if CHROMATIC_KEY is true.
+	 */
+	public static final String NUM_THREADS_KEY = CONFIG_PREFIX + ".numthreads";
+	/** Default value for NUM_THREADS_KEY */
+	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
+	
 	private ConstraintBlocker blocker;
+	private ChromaticGibbsSampler sampler;
 	private final boolean bool;
+	private final boolean chromatic;
+	private final int numThreads;
 	private final int numSamples;
 	private final double minWidth;
 	private final double constraintTol;
@@ -93,6 +113,12 @@ public class MaxPseudoLikelihood extends VotedPerceptron {
 	public MaxPseudoLikelihood(Model model, Database rvDB, Database observedDB, ConfigBundle config) {
 		super(model, rvDB, observedDB, config);
 		bool = config.getBoolean(BOOLEAN_KEY, BOOLEAN_DEFAULT);
+		chromatic = config.getBoolean(CHROMATIC_KEY, CHROMATIC_DEFAULT);
+		if (chromatic && !bool)
+			throw new IllegalArgumentException("Property " + CHROMATIC_KEY + " requires " + BOOLEAN_KEY + ".");
+		numThreads = config.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Property " + NUM_THREADS_KEY + " must be positive.");
 		numSamples = config.getInt(NUM_SAMPLES_KEY, NUM_SAMPLES_DEFAULT);
 		if (numSamples <= 0)
 			throw new IllegalArgumentException("Number of samples must be positive integer.");
@@ -114,6 +140,15 @@ public class MaxPseudoLikelihood extends VotedPerceptron {
 		super.initGroundModel();
 		blocker = new ConstraintBlocker(reasoner);
 		blocker.prepareBlocks(true);
+		if (chromatic)
+			sampler = new ChromaticGibbsSampler(reasoner, numThreads);
+	}
+	
+	@Override
+	protected void cleanUpGroundModel() {
+		super.cleanUpGroundModel();
+		blocker = null;
+		sampler = null;
 	}
 	
 	/**
@@ -123,6 +158,11 @@ public class MaxPseudoLikelihood extends VotedPerceptron {
 	 */
 	@Override
 	protected double[] computeExpectedIncomp() {
+		if (chromatic) {
+			sampler.computeConditionals();
+			return sampler.getExpectedIncompatibility(kernels);
+		}
+		
 		/* Puts RandomVariableAtoms in 2d array by block */
 		RandomVariableAtom[][] rvBlocks = blocker.getRVBlocks();
 		/* If true, exactly one Atom in the RV block must be 1.0. If false, at most one can. */
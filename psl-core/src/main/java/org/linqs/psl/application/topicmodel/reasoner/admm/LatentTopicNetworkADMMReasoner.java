@@ -18,7 +18,6 @@
 package org.linqs.psl.application.topicmodel.reasoner.admm;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import org.linqs.psl.application.topicmodel.reasoner.function.NegativeLogFunction;
@@ -60,12 +59,24 @@ public class LatentTopicNetworkADMMReasoner extends ADMMReasoner {
 	protected void buildGroundModel() {
 		super.buildGroundModel();
 		//TODO only the LDA variables!
-		for (int i = 0; i < lb.size(); i++) {
-			lb.set(i, new Double(lowerBoundEpsilon));
+		for (int i = 0; i < lb.length; i++) {
+			lb[i] = lowerBoundEpsilon;
 		}
 		initDirichletTerms();
 	}
 	
+	/* The lower bounds and Dirichlet initialization are applied to the whole model when it is built */
+	@Override
+	protected boolean supportsIncrementalUpdates() {
+		return false;
+	}
+
+	/* Log-loss terms take their coefficients from the function, so variables cannot be folded away */
+	@Override
+	protected boolean supportsPresolve() {
+		return false;
+	}
+
 	@Override
 	protected ADMMObjectiveTerm createTerm(GroundRule groundKernel) {
 		FunctionTerm function;
@@ -111,25 +122,25 @@ public class LatentTopicNetworkADMMReasoner extends ADMMReasoner {
 		System.out.println("Init Dirichlet terms");
 		Map<NegativeLogLossTerm, LtnLinearConstraintTerm> dirichletTerms = new HashMap<NegativeLogLossTerm, LtnLinearConstraintTerm>();
 		//Find NegativeLogLossTerm and LinearConstraintTerm pairs, and store them in a HashMap.
-		for (int i = 0; i < varLocations.size(); i++) {
-			List<VariableLocation> vlList = varLocations.get(i);
-			NegativeLogLossTerm NLLterm = null;
-			LtnLinearConstraintTerm linearConstraintTerm = null;
-			for (int j = 0; j < vlList.size(); j++) {
-				VariableLocation vl = vlList.get(j);
-				ADMMObjectiveTerm term = vl.getTerm();
+		NegativeLogLossTerm[] NLLterms = new NegativeLogLossTerm[z.length];
+		LtnLinearConstraintTerm[] linearConstraintTerms = new LtnLinearConstraintTerm[z.length];
+		for (ADMMObjectiveTerm term : terms) {
+			for (int j = 0; j < term.getSize(); j++) {
+				int zIndex = term.getZIndex(j);
 				if (term instanceof NegativeLogLossTerm) {
-					assert (NLLterm == null); //this code currently assumes only one of these per var
-					NLLterm = (NegativeLogLossTerm)term;
+					assert (NLLterms[zIndex] == null); //this code currently assumes only one of these per var
+					NLLterms[zIndex] = (NegativeLogLossTerm)term;
 				}
 				if (term instanceof LtnLinearConstraintTerm) {
-					assert (linearConstraintTerm == null); //this code currently assumes only one of these per var.
-					linearConstraintTerm = (LtnLinearConstraintTerm)term;
+					assert (linearConstraintTerms[zIndex] == null); //this code currently assumes only one of these per var.
+					linearConstraintTerms[zIndex] = (LtnLinearConstraintTerm)term;
 				}
 			}
-			if ((NLLterm != null) && (linearConstraintTerm != null)) {
+		}
+		for (int i = 0; i < z.length; i++) {
+			if ((NLLterms[i] != null) && (linearConstraintTerms[i] != null)) {
 				//found a Dirichlet potential.
-				dirichletTerms.put(NLLterm, linearConstraintTerm);
+				dirichletTerms.put(NLLterms[i], linearConstraintTerms[i]);
 			}
 		}
 		
@@ -19,6 +19,7 @@ package org.linqs.psl.application.topicmodel.reasoner.admm;
 
 import org.linqs.psl.reasoner.admm.ADMMReasoner;
 import org.linqs.psl.reasoner.admm.LinearConstraintTerm;
+import org.linqs.psl.reasoner.admm.LocalVariableStore;
 import org.linqs.psl.reasoner.function.FunctionComparator;
 
 /**
@@ -38,8 +39,9 @@ public class LtnLinearConstraintTerm extends LinearConstraintTerm {
 	 * for latent topic networks is to set the dual variables to minus the sum of the Dirichlet counts.
 	 */
 	protected void initDualVariablesAsDirichlet(double dirichletCoefficientSum) {
-		for (int i = 0; i < y.length; i++) {
-			y[i] = -dirichletCoefficientSum;
+		LocalVariableStore locals = getLocals();
+		for (int i = start; i < start + size; i++) {
+			locals.setY(i, -dirichletCoefficientSum);
 		}
 	}
 }
@@ -19,6 +19,7 @@ package org.linqs.psl.application.topicmodel.reasoner.admm;
 
 import org.linqs.psl.reasoner.admm.ADMMObjectiveTerm;
 import org.linqs.psl.reasoner.admm.ADMMReasoner;
+import org.linqs.psl.reasoner.admm.LocalVariableStore;
 import org.linqs.psl.reasoner.admm.WeightedObjectiveTerm;
 
 /**
@@ -29,12 +30,10 @@ import org.linqs.psl.reasoner.admm.WeightedObjectiveTerm;
  */
 public class NegativeLogLossTerm extends ADMMObjectiveTerm implements WeightedObjectiveTerm {
 	
-	private final double[] coeffs;
 	private double weight;
 	
 	NegativeLogLossTerm(ADMMReasoner reasoner, int[] zIndices, double[] coeffs, double weight) {
-		super(reasoner, zIndices);
-		this.coeffs = coeffs;
+		super(reasoner, zIndices, coeffs);
 		setWeight(weight);
 	}
 
@@ -45,12 +44,13 @@ public class NegativeLogLossTerm extends ADMMObjectiveTerm implements WeightedOb
 	
 	@Override
 	protected void minimize() {
+		LocalVariableStore locals = getLocals();
 		double a, b, c, sol1, sol2;
-		for (int i = 0; i < x.length; i++) {
+		for (int i = start; i < start + size; i++) {
 			//the updated value is the positive value of the two solutions to a quadratic equation
-			a = reasoner.stepSize;
-			b = (y[i] - a * reasoner.getConsensusVariableValue(zIndices[i]));
-			c = -coeffs[i] * weight;
+			a = reasoner.getStepSize();
+			b = (locals.getY(i) - a * reasoner.getConsensusVariableValue(locals.getZIndex(i)));
+			c = -locals.getCoeff(i) * weight;
 			sol1 = (-b + Math.sqrt(b*b - 4 * a * c)) / 2 * a;
 			sol2 = (-b - Math.sqrt(b*b - 4 * a * c)) / 2 * a;
 			/*if (sol1 >= 0) {
@@ -59,19 +59,19 @@ public class NegativeLogLossTerm extends ADMMObjectiveTerm implements WeightedOb
 			else {
 				x[i] = sol2;
 			}*/
-			x[i] = Math.max(sol1, sol2); //This should be equivalent but hopefully faster
+			locals.setX(i, Math.max(sol1, sol2)); //This should be equivalent but hopefully faster
 		}
 	}
 	
 	public double initAsDirichlet() {
+		LocalVariableStore locals = getLocals();
 		double coefficientSum = 0;
-		assert (x.length == coeffs.length);
-		for (int i = 0; i < coeffs.length; i++) {
-			coefficientSum += coeffs[i];
+		for (int i = start; i < start + size; i++) {
+			coefficientSum += locals.getCoeff(i);
 		}
-		for (int i = 0; i < coeffs.length; i++) {
-			x[i] = coeffs[i] / coefficientSum;
-			y[i] = coefficientSum;
+		for (int i = start; i < start + size; i++) {
+			locals.setX(i, locals.getCoeff(i) / coefficientSum);
+			locals.setY(i, coefficientSum);
 		}
 		
 		return coefficientSum;
@@ -17,16 +17,50 @@
  */
 package org.linqs.psl.application.util;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
 import org.linqs.psl.model.Model;
 import org.linqs.psl.model.atom.AtomManager;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.rule.GroundRule;
 import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.model.rule.UnweightedGroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.ThreadPool;
+
+import com.google.common.collect.Iterables;
 
 /**
  * Static utilities for common {@link Model}-grounding tasks.
  */
 public class Grounding {
 
+	/**
+	 * Prefix of property keys used by applications that ground with this class.
+	 * 
+	 * @see ConfigManager
+	 */
+	public static final String CONFIG_PREFIX = "grounding";
+	
+	/**
+	 * Key for positive integer property. The number of Rules grounded at the
+	 * same time.
+	 */
+	public static final String NUM_THREADS_KEY = CONFIG_PREFIX + ".numthreads";
+	/** Default value for NUM_THREADS_KEY property */
+	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
+
 	private final static com.google.common.base.Predicate<Rule> all = new com.google.common.base.Predicate<Rule>(){
 		@Override
 		public boolean apply(Rule el) {	return true; }
@@ -61,4 +95,246 @@ public class Grounding {
 		}
 	}
 	
+	/**
+	 * Calls {@link Rule#groundAll(AtomManager, GroundRuleStore)} on
+	 * each Kernel in a Model, grounding {@link #NUM_THREADS_KEY} Kernels at
+	 * the same time.
+	 * 
+	 * @param m  the Model with the Kernels to ground
+	 * @param atomManager  thread-safe AtomManager to use for grounding
+	 * @param gks  GroundKernelStore to use for grounding
+	 * @param config  configuration with {@link #NUM_THREADS_KEY}
+	 * @see #groundAll(Model, AtomManager, GroundRuleStore, com.google.common.base.Predicate, int)
+	 */
+	public static void groundAll(Model m, AtomManager atomManager, GroundRuleStore gks, ConfigBundle config) {
+		int numThreads = config.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Property " + NUM_THREADS_KEY + " must be positive.");
+		groundAll(m, atomManager, gks, all, numThreads);
+	}
+	
+	/**
+	 * Calls {@link Rule#groundAll(AtomManager, GroundRuleStore)} on
+	 * each Kernel in a Model, grounding several Kernels at the same time.
+	 * 
+	 * @see #groundAll(Model, AtomManager, GroundRuleStore, com.google.common.base.Predicate, int)
+	 */
+	public static void groundAll(Model m, AtomManager atomManager, GroundRuleStore gks, int numThreads) {
+		groundAll(m, atomManager, gks, all, numThreads);
+	}
+	
+	/**
+	 * Calls {@link Rule#groundAll(AtomManager, GroundRuleStore)} on
+	 * each Kernel in a Model which passes a filter, grounding several
+	 * Kernels at the same time.
+	 * <p>
+	 * Each Kernel is grounded into a buffer of its own, and gks is only used
+	 * by the calling thread, so it need not be thread-safe. As soon as a
+	 * Kernel and all the Kernels before it are grounded, its buffer is added
+	 * to gks and released. A GroundRule that its Kernel checked for with
+	 * {@link GroundRuleStore#containsGroundKernel(GroundRule)} is
+	 * skipped if gks contains it by then. So gks receives the same
+	 * GroundRules in the same order as when grounding one Kernel at a time.
+	 * <p>
+	 * The AtomManager must be thread-safe.
+	 * 
+	 * @param m  the Model with the Kernels to ground
+	 * @param atomManager  AtomManager to use for grounding
+	 * @param gks  GroundKernelStore to use for grounding
+	 * @param filter  filter for Kernels to ground
+	 * @param numThreads  the number of Kernels to ground at the same time
+	 */
+	public static void groundAll(Model m, final AtomManager atomManager, GroundRuleStore gks,
+			com.google.common.base.Predicate<Rule> filter, int numThreads) {
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Number of threads must be positive.");
+		
+		final List<Rule> rules = new ArrayList<Rule>();
+		for (Rule k : m.getRules()) {
+			if (filter.apply(k))
+				rules.add(k);
+		}
+		if (numThreads == 1 || rules.size() <= 1) {
+			for (Rule k : rules)
+				k.groundAll(atomManager, gks);
+			return;
+		}
+		
+		final GroundRuleBuffer[] buffers = new GroundRuleBuffer[rules.size()];
+		for (int i = 0; i < buffers.length; i++)
+			buffers[i] = new GroundRuleBuffer();
+		
+		/* Workers take the next Kernel until none are left, or one fails */
+		final AtomicInteger next = new AtomicInteger(0);
+		Runnable[] workers = new Runnable[Math.min(numThreads, rules.size())];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Runnable() {
+				@Override
+				public void run() {
+					int k;
+					while ((k = next.getAndIncrement()) < rules.size()) {
+						GroundRuleBuffer buffer = buffers[k];
+						try {
+							rules.get(k).groundAll(atomManager, buffer);
+						} catch (RuntimeException e) {
+							buffer.failure = e;
+						} catch (Error e) {
+							buffer.failure = e;
+						} finally {
+							buffer.done.countDown();
+						}
+						if (buffer.failure != null) {
+							next.set(rules.size());
+							return;
+						}
+					}
+				}
+			};
+		}
+		
+		List<Future<?>> futures = ThreadPool.getPool().submitGroup(workers);
+		try {
+			for (int k = 0; k < buffers.length; k++) {
+				GroundRuleBuffer buffer = buffers[k];
+				buffer.done.await();
+				/* Rethrows what grounding one Kernel at a time would have thrown */
+				if (buffer.failure instanceof RuntimeException)
+					throw (RuntimeException) buffer.failure;
+				else if (buffer.failure instanceof Error)
+					throw (Error) buffer.failure;
+				buffer.flush(gks);
+				buffers[k] = null;
+			}
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			/* Stops the workers early if this thread failed, and waits for them */
+			next.set(rules.size());
+			waitFor(futures);
+		}
+	}
+	
+	private static void waitFor(List<Future<?>> futures) {
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			/* Workers record failures in the buffers instead of throwing them */
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Collects the GroundRules of one Kernel until they are added to the
+	 * GroundRuleStore. The Kernel only sees its own GroundRules, and changes
+	 * to them are kept until they are added.
+	 */
+	private static class GroundRuleBuffer implements GroundRuleStore {
+		/** The GroundRules in the order they were added */
+		private final Set<GroundRule> groundRules;
+		/** GroundRules checked for and not yet added */
+		private final Set<GroundRule> checked;
+		/** GroundRules that were checked for before being added */
+		private final Set<GroundRule> conditional;
+		private final CountDownLatch done;
+		private volatile Throwable failure;
+		
+		public GroundRuleBuffer() {
+			groundRules = new LinkedHashSet<GroundRule>();
+			checked = new HashSet<GroundRule>();
+			conditional = new HashSet<GroundRule>();
+			done = new CountDownLatch(1);
+			failure = null;
+		}
+
+		@Override
+		public void addGroundRule(GroundRule gr) {
+			if (!groundRules.add(gr))
+				throw new IllegalArgumentException("GroundKernel has already been added: " + gr);
+			if (checked.remove(gr))
+				conditional.add(gr);
+		}
+
+		@Override
+		public void changedGroundRule(GroundRule gr) {
+			/* Intentionally blank */
+		}
+
+		@Override
+		public void changedGroundKernelWeight(WeightedGroundRule gk) {
+			/* Intentionally blank */
+		}
+
+		@Override
+		public void changedGroundKernelWeights() {
+			/* Intentionally blank */
+		}
+
+		@Override
+		public void removeGroundKernel(GroundRule gk) {
+			groundRules.remove(gk);
+			conditional.remove(gk);
+		}
+
+		/**
+		 * Only checks this buffer. Whether gks contains gk is checked when
+		 * the buffer is flushed.
+		 */
+		@Override
+		public boolean containsGroundKernel(GroundRule gk) {
+			if (groundRules.contains(gk))
+				return true;
+			checked.add(gk);
+			return false;
+		}
+
+		@Override
+		public Iterable<GroundRule> getGroundKernels() {
+			return groundRules;
+		}
+
+		@Override
+		public Iterable<WeightedGroundRule> getCompatibilityKernels() {
+			return Iterables.filter(groundRules, WeightedGroundRule.class);
+		}
+
+		@Override
+		public Iterable<UnweightedGroundRule> getConstraintKernels() {
+			return Iterables.filter(groundRules, UnweightedGroundRule.class);
+		}
+
+		@Override
+		public Iterable<GroundRule> getGroundKernels(final Rule k) {
+			return Iterables.filter(groundRules, new com.google.common.base.Predicate<GroundRule>() {
+				@Override
+				public boolean apply(GroundRule gr) {
+					return gr.getRule() == k;
+				}
+			});
+		}
+
+		@Override
+		public int size() {
+			return groundRules.size();
+		}
+		
+		/**
+		 * Adds the GroundRules to gks, except those checked for that gks
+		 * already contains. Those are unregistered from their atoms, as the
+		 * Kernel would have done.
+		 */
+		public void flush(GroundRuleStore gks) {
+			for (GroundRule groundRule : groundRules) {
+				if (conditional.contains(groundRule) && gks.containsGroundKernel(groundRule)) {
+					for (GroundAtom atom : groundRule.getAtoms())
+						atom.unregisterGroundKernel(groundRule);
+				}
+				else
+					gks.addGroundRule(groundRule);
+			}
+		}
+	}
+	
 }
@@ -22,7 +22,9 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -36,6 +38,7 @@ import org.linqs.psl.database.DatabaseQuery;
 import org.linqs.psl.database.Partition;
 import org.linqs.psl.database.ReadOnlyDatabase;
 import org.linqs.psl.database.ResultList;
+import org.linqs.psl.database.rdbms.driver.DatabaseDriver;
 import org.linqs.psl.model.atom.AtomCache;
 import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.atom.QueryAtom;
@@ -59,6 +62,10 @@ import com.healthmarketscience.sqlbuilder.UpdateQuery;
 import com.healthmarketscience.sqlbuilder.DeleteQuery;
 
 /**
+ * {@link #getAtom(Predicate, Constant...)} and
+ * {@link #executeQuery(DatabaseQuery)} may be called from several threads
+ * at the same time. Queries that overlap a query on the main connection run
+ * on additional connections from the {@link DatabaseDriver}.
  *
  * @author Eric Norris (enorris@cs.umd.edu)
  *
@@ -75,6 +82,14 @@ public class RDBMSDatabase implements Database {
 	 */
 	protected final Connection dbConnection;
 
+	/**
+	 * Additional connections for concurrent queries, and those not in use.
+	 * Guarded by queryConnections.
+	 */
+	protected final List<Connection> queryConnections;
+	protected final Deque<Connection> idleQueryConnections;
+	private int mainConnectionQueries;
+
 	/**
 	 * The partition ID in which this database writes.
 	 */
@@ -136,6 +151,9 @@ public class RDBMSDatabase implements Database {
 		// Store the connection / DataStore information
 		this.parentDataStore = parent;
 		this.dbConnection = con;
+		this.queryConnections = new ArrayList<Connection>();
+		this.idleQueryConnections = new ArrayDeque<Connection>();
+		this.mainConnectionQueries = 0;
 
 		// Store the partition this class has write access to
 		this.writePartition = write;
@@ -353,13 +371,22 @@ public class RDBMSDatabase implements Database {
 		 * 			- Yes, instantiate as ObservedAtom
 		 * 			- No, instantiate as RandomVariableAtom
 		 * 		- No, instantiate as ObservedAtom.
+		 *
+		 * Atoms are only instantiated while holding the lock on this
+		 * database, so threads cannot instantiate the same atom twice.
 		 */
-		if (p instanceof StandardPredicate)
-			return getAtom((StandardPredicate)p, arguments);
-		else if (p instanceof FunctionalPredicate)
-			return getAtom((FunctionalPredicate)p, arguments);
-		else
-			throw new IllegalArgumentException("Unknown predicate type: " + p.getClass().toString());
+		GroundAtom result = cache.getCachedAtom(new QueryAtom(p, arguments));
+		if (result != null)
+			return result;
+
+		synchronized (this) {
+			if (p instanceof StandardPredicate)
+				return getAtom((StandardPredicate)p, arguments);
+			else if (p instanceof FunctionalPredicate)
+				return getAtom((FunctionalPredicate)p, arguments);
+			else
+				throw new IllegalArgumentException("Unknown predicate type: " + p.getClass().toString());
+		}
 	}
 
 	@Override
@@ -713,7 +740,9 @@ public class RDBMSDatabase implements Database {
 		if (closed)
 			throw new IllegalStateException("Cannot perform query on database that was closed.");
 
-		executePendingStatements();
+		synchronized (this) {
+			executePendingStatements();
+		}
 
 		Formula f = query.getFormula();
 		VariableAssignment partialGrounding = query.getPartialGrounding();
@@ -737,8 +766,9 @@ public class RDBMSDatabase implements Database {
 			if (projectTo.contains(query.getVariable(varIndex)))
 				results.setVariable(query.getVariable(varIndex), i++);
 
+		Connection connection = borrowQueryConnection();
 		try  {
-			Statement stmt = dbConnection.createStatement();
+			Statement stmt = connection.createStatement();
 			try {
 				ResultSet rs = stmt.executeQuery(queryString);
 				try {
@@ -762,11 +792,48 @@ public class RDBMSDatabase implements Database {
 			}
 		} catch (SQLException e) {
 			throw new RuntimeException("Error executing database query.", e);
+		} finally {
+			returnQueryConnection(connection);
 		}
 		log.trace("Number of results: {}",results.size());
 		return results;
 	}
 
+	/**
+	 * Returns the main connection if no query is running on it, otherwise
+	 * an additional connection. Falls back to sharing the main connection
+	 * if the driver cannot open more.
+	 */
+	protected Connection borrowQueryConnection() {
+		synchronized (queryConnections) {
+			if (mainConnectionQueries == 0) {
+				mainConnectionQueries++;
+				return dbConnection;
+			}
+			if (!idleQueryConnections.isEmpty())
+				return idleQueryConnections.pop();
+		}
+
+		Connection connection = parentDataStore.dbDriver.newConnection();
+		synchronized (queryConnections) {
+			if (connection == null) {
+				mainConnectionQueries++;
+				return dbConnection;
+			}
+			queryConnections.add(connection);
+			return connection;
+		}
+	}
+
+	protected void returnQueryConnection(Connection connection) {
+		synchronized (queryConnections) {
+			if (connection == dbConnection)
+				mainConnectionQueries--;
+			else
+				idleQueryConnections.push(connection);
+		}
+	}
+
 	@Override
 	public boolean isClosed(StandardPredicate predicate) {
 		return closedPredicates.contains(predicate);
@@ -807,5 +874,17 @@ public class RDBMSDatabase implements Database {
 		} catch (SQLException e) {
 			throw new RuntimeException("Error closing prepared statements.", e);
 		}
+
+		// Close the connections of concurrent queries
+		synchronized (queryConnections) {
+			try {
+				for (Connection connection : queryConnections)
+					connection.close();
+			} catch (SQLException e) {
+				throw new RuntimeException("Error closing query connections.", e);
+			}
+			queryConnections.clear();
+			idleQueryConnections.clear();
+		}
 	}
 }
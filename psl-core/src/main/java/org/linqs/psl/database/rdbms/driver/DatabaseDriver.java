@@ -28,6 +28,15 @@ public interface DatabaseDriver {
 	 */
 	public Connection getConnection();
 
+	/**
+	 * Opens another connection to the same database, so that queries can
+	 * run at the same time as queries on {@link #getConnection()}. The
+	 * caller closes it.
+	 * @return the new connection, or null if the database cannot be reached
+	 *         from more than one connection
+	 */
+	public Connection newConnection();
+
   /**
    * Returns whether the underline database supports external java functions. 
    * Distinguish from H2 Java External Function Support, which is very special.
@@ -31,6 +31,9 @@ public class H2DatabaseDriver implements DatabaseDriver {
 	// The connection to the H2 database
 	private final Connection dbConnection;
 
+	// The URL of the database, or null if it is private to dbConnection
+	private final String url;
+
 	/**
 	 * Constructor for the H2 database driver.
 	 * @param dbType	Type of database, either Disk or Memory.
@@ -50,9 +53,12 @@ public class H2DatabaseDriver implements DatabaseDriver {
 		switch (dbType) {
 		case Disk:
 			this.dbConnection = getDiskDatabase(path);
+			this.url = "jdbc:h2:" + path;
 			break;
 		case Memory:
 			this.dbConnection = getMemoryDatabase(path);
+			// An unnamed in-memory database cannot be shared
+			this.url = ("".equals(path)) ? null : "jdbc:h2:mem:" + path;
 			break;
 		default:
 			throw new IllegalArgumentException("Unknown database type: "
@@ -109,6 +115,17 @@ public class H2DatabaseDriver implements DatabaseDriver {
 		return dbConnection;
 	}
 
+	@Override
+	public Connection newConnection() {
+		if (url == null)
+			return null;
+		try {
+			return DriverManager.getConnection(url);
+		} catch (SQLException e) {
+			throw new RuntimeException("Could not connect to database: " + url, e);
+		}
+	}
+
   @Override
   public boolean isSupportExternalFunction() {
     return true;
@@ -30,6 +30,10 @@ public class MySQLDriver implements DatabaseDriver {
   // The connection to MySQL
   private final Connection dbConnection;
 
+  // The server and the database on it
+  private static final String URL = "jdbc:mysql://localhost/?user=root&password=";
+  private final String dbname;
+
   // Wrapper for rdbms DML
   private void executeUpdate(String query) throws SQLException {
     Statement stmt = null;
@@ -57,12 +61,13 @@ public class MySQLDriver implements DatabaseDriver {
    * @param clearDB whether to delete the database
    */
   public MySQLDriver(String dbname, boolean clearDB) {
+    this.dbname = dbname;
     try {
       // load driver
       Class.forName("com.mysql.jdbc.Driver").newInstance();
 
       // get connection
-      dbConnection = DriverManager.getConnection("jdbc:mysql://localhost/?user=root&password="); 
+      dbConnection = DriverManager.getConnection(URL);
 
       // clean db if specified
       if (clearDB) {
@@ -92,6 +97,19 @@ public class MySQLDriver implements DatabaseDriver {
     return dbConnection;
   }
 
+  @Override
+  public Connection newConnection() {
+    try {
+      Connection connection = DriverManager.getConnection(URL);
+      Statement stmt = connection.createStatement();
+      stmt.executeUpdate("USE " + dbname);
+      stmt.close();
+      return connection;
+    } catch (SQLException e) {
+      throw new RuntimeException("Database error: " + e.getMessage(), e);
+    }
+  }
+
   @Override
   public boolean isSupportExternalFunction() {
     return false;
@@ -32,6 +32,9 @@ import com.google.common.collect.Iterables;
  * always returns the same object for a GroundAtom.
  * <p>
  * Also serves as the factory for GroundAtoms for a Database.
+ * <p>
+ * Lookups, removals and instantiations are thread-safe. The Iterables
+ * returned are views that must not be used while atoms are added.
  */
 public class AtomCache {
 	
@@ -55,7 +58,7 @@ public class AtomCache {
 	 * @param atom  QueryAtom with all {@link Constant GroundTerms}
 	 * @return the requested GroundAtom, or NULL if it is not cached
 	 */
-	public GroundAtom getCachedAtom(QueryAtom atom) {
+	public synchronized GroundAtom getCachedAtom(QueryAtom atom) {
 		return cache.get(atom);
 	}
 	
@@ -86,7 +89,7 @@ public class AtomCache {
 	 * @param qAtom  the Atom to remove
 	 * @return whether an atom was removed from the cache
 	 */
-	public boolean removeCachedAtom(QueryAtom qAtom) {
+	public synchronized boolean removeCachedAtom(QueryAtom qAtom) {
 		if(cache.containsKey(qAtom)){
 			cache.remove(qAtom);
 			return true;
@@ -124,7 +127,7 @@ public class AtomCache {
 	 * @param confidence  the Atom's confidence value
 	 * @return the new ObservedAtom
 	 */
-	public ObservedAtom instantiateObservedAtom(Predicate p, Constant[] args,
+	public synchronized ObservedAtom instantiateObservedAtom(Predicate p, Constant[] args,
 			double value, double confidence) {
 		ObservedAtom atom = new ObservedAtom(p, args, db, value, confidence);
 		QueryAtom key = new QueryAtom(p, args);
@@ -148,7 +151,7 @@ public class AtomCache {
 	 * @param confidence  the Atom's confidence value
 	 * @return the new RandomVariableAtom
 	 */
-	public RandomVariableAtom instantiateRandomVariableAtom(StandardPredicate p,
+	public synchronized RandomVariableAtom instantiateRandomVariableAtom(StandardPredicate p,
 			Constant[] args, double value, double confidence) {
 		RandomVariableAtom atom = new RandomVariableAtom(p, args, db, value, confidence);
 		QueryAtom key = new QueryAtom(p, args);
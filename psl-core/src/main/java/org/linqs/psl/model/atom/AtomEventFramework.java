@@ -114,7 +114,7 @@ public class AtomEventFramework implements AtomManager {
 	 * @see #workOffJobQueue()
 	 */
 	@Override
-	public GroundAtom getAtom(Predicate p, Constant... arguments) {
+	public synchronized GroundAtom getAtom(Predicate p, Constant... arguments) {
 		Atom check = db.getAtomCache().getCachedAtom(new QueryAtom(p, arguments));
 		GroundAtom atom = db.getAtom(p,  arguments);
 		if (atom instanceof RandomVariableAtom && check == null) {
@@ -94,7 +94,7 @@ abstract public class GroundAtom extends Atom {
 	 * @param f A ground kernel
 	 * @return TRUE if successful; FALSE if kernel was already registered 
 	 */
-	public boolean registerGroundKernel(GroundRule f) {
+	public synchronized boolean registerGroundKernel(GroundRule f) {
 		if (registeredGroundKernels == null)
 			registeredGroundKernels = HashMultimap.create();
 		return registeredGroundKernels.put(f.getRule(), f);
@@ -106,7 +106,7 @@ abstract public class GroundAtom extends Atom {
 	 * @param f A ground kernel
 	 * @return TRUE if successful; FALSE if kernel was never registered
 	 */
-	public boolean unregisterGroundKernel(GroundRule f) {
+	public synchronized boolean unregisterGroundKernel(GroundRule f) {
 		if (registeredGroundKernels == null)
 			return false;
 		return registeredGroundKernels.remove(f.getRule(), f);
@@ -17,13 +17,18 @@
  */
 package org.linqs.psl.reasoner;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.linqs.psl.config.ConfigBundle;
@@ -41,9 +46,36 @@ import com.google.common.collect.Iterables;
 
 /**
  * An abstract superclass for reasoners implemented as command-line executables.
- * 
- * Ground models are provided to the executable and results are read via
- * temporary text files.
+ * <p>
+ * By default, each call to {@link #optimize()} writes the ground model to a
+ * temporary text file, runs the executable, and reads the results from
+ * another temporary text file. The files are unique to each call.
+ * <p>
+ * If {@link #STREAMING_KEY} is true, the executable is instead started once
+ * and kept running, and the ground model is streamed to its standard input
+ * in a binary format. Later calls only send the weights that changed, unless
+ * ground rules were added, removed or changed. The child's standard error is
+ * logged.
+ * <p>
+ * The binary protocol is a sequence of messages, each a type byte followed
+ * by a payload, in the big-endian encoding of {@link DataOutputStream}:
+ * <ul>
+ *   <li>{@link #MESSAGE_MODEL}: int numTerms, then for each term a byte
+ *   type (one of the types of {@link TermBatch}), double weight (0 for
+ *   constraints), double constant, int size, and size pairs of int
+ *   variable and double coefficient, describing the hyperplane
+ *   coeffs^T * x = constant. Then int numVariables and a double initial
+ *   value for each variable. Replaces any earlier model.</li>
+ *   <li>{@link #MESSAGE_WEIGHTS}: int count, then count pairs of int term
+ *   and double weight.</li>
+ *   <li>{@link #MESSAGE_OPTIMIZE}: no payload. The executable replies on its
+ *   standard output with a status byte. After {@link #STATUS_OK} come int
+ *   numVariables and a double value for each variable. After
+ *   {@link #STATUS_ERROR} comes a message, as written by
+ *   {@link DataOutputStream#writeUTF(String)}.</li>
+ *   <li>{@link #MESSAGE_CLOSE}: no payload. The executable exits, as it
+ *   should at the end of its input.</li>
+ * </ul>
  * 
  * @author Stephen Bach <bach@cs.umd.edu>
  */
@@ -65,23 +97,105 @@ abstract public class ExecutableReasoner implements Reasoner {
 	 */
 	public static final String EXECUTABLE_KEY = CONFIG_PREFIX + ".executable";
 	
+	/**
+	 * Key for boolean property. If true, the ground model is streamed to a
+	 * long-lived executable in the binary protocol. If false, it is written
+	 * to a text file for each call.
+	 */
+	public static final String STREAMING_KEY = CONFIG_PREFIX + ".streaming";
+	/** Default value for STREAMING_KEY property */
+	public static final boolean STREAMING_DEFAULT = false;
+	
+	/**
+	 * Key for String property which is the directory of the temporary text
+	 * files
+	 */
+	public static final String DIRECTORY_KEY = CONFIG_PREFIX + ".directory";
+	/** Default value for DIRECTORY_KEY property */
+	public static final String DIRECTORY_DEFAULT = System.getProperty("java.io.tmpdir");
+	
+	/* Types of messages of the binary protocol */
+	public static final byte MESSAGE_MODEL = 1;
+	public static final byte MESSAGE_WEIGHTS = 2;
+	public static final byte MESSAGE_OPTIMIZE = 3;
+	public static final byte MESSAGE_CLOSE = 4;
+	
+	/* Statuses of the replies of the binary protocol */
+	public static final byte STATUS_OK = 0;
+	public static final byte STATUS_ERROR = 1;
+	
 	/** Ground kernels defining the objective function */
 	protected SetValuedMap<Rule, GroundRule> groundKernels;
 	
 	protected final String executable;
+	protected final boolean streaming;
+	protected final File directory;
+	
+	/* Temporary text files of the current call */
+	private File modelFile;
+	private File resultsFile;
+	
+	/* The running executable, and the model it was last sent */
+	private Process process;
+	private DataOutputStream toReasoner;
+	private DataInputStream fromReasoner;
+	private boolean modelChanged;
+	private TermParser parser;
+	/** Weighted ground rule of each term sent, or null for constraints */
+	private WeightedGroundRule[] sentGroundRules;
+	private double[] sentWeights;
+	private int lastUpdateSize;
 	
 	public ExecutableReasoner(ConfigBundle config) {
 		executable = config.getString(EXECUTABLE_KEY, "");
 		if (executable.equals(""))
 			throw new IllegalArgumentException("Must specify executable.");
+		streaming = config.getBoolean(STREAMING_KEY, STREAMING_DEFAULT);
+		directory = new File(config.getString(DIRECTORY_KEY, DIRECTORY_DEFAULT));
 		
 		groundKernels = new HashSetValuedHashMap<Rule, GroundRule>();
+		modelChanged = true;
+	}
+	
+	/**
+	 * @return the number of terms sent in the last call to {@link #optimize()}
+	 *         in streaming mode: all of them if the model was sent, otherwise
+	 *         the number of changed weights
+	 */
+	public int getLastUpdateSize() {
+		return lastUpdateSize;
 	}
 
 	@Override
 	public void optimize() {
+		if (streaming)
+			optimizeStreaming();
+		else
+			optimizeWithFiles();
+	}
+	
+	private void optimizeWithFiles() {
+		try {
+			modelFile = File.createTempFile("psl-model-", ".txt", directory);
+			resultsFile = File.createTempFile("psl-results-", ".txt", directory);
+		}
+		catch (IOException e) {
+			throw new Error("IOException when creating temporary files.", e);
+		}
+		
+		try {
+			writeModelFile();
+		}
+		finally {
+			modelFile.delete();
+			resultsFile.delete();
+			modelFile = null;
+			resultsFile = null;
+		}
+	}
+	
+	private void writeModelFile() {
 		log.debug("Writing model file.");
-		File modelFile = new File(getModelFileName());
 		try {
 			BufferedWriter modelWriter = new BufferedWriter(new FileWriter(modelFile));
 			writeModel(modelWriter);
@@ -100,7 +214,6 @@ abstract public class ExecutableReasoner implements Reasoner {
 		}
 		
 		log.debug("Reasoner finished. Reading results file.");
-		File resultsFile = new File(getResultsFileName());
 		try {
 			BufferedReader resultsReader = new BufferedReader(new FileReader(resultsFile));
 			readResults(resultsReader);
@@ -111,8 +224,173 @@ abstract public class ExecutableReasoner implements Reasoner {
 		}
 		
 		log.debug("Finished reading results file.");
-		modelFile.delete();
-		resultsFile.delete();
+	}
+	
+	private void optimizeStreaming() {
+		try {
+			if (process == null) {
+				log.debug("Starting reasoner.");
+				process = startReasoner();
+				toReasoner = new DataOutputStream(new BufferedOutputStream(process.getOutputStream(), 1 << 16));
+				fromReasoner = new DataInputStream(new BufferedInputStream(process.getInputStream(), 1 << 16));
+				logErrors(process);
+				modelChanged = true;
+			}
+			
+			if (modelChanged) {
+				log.debug("Streaming model.");
+				writeStreamedModel();
+				modelChanged = false;
+			}
+			else
+				writeWeightChanges();
+			toReasoner.writeByte(MESSAGE_OPTIMIZE);
+			toReasoner.flush();
+			
+			log.debug("Waiting for results.");
+			readStreamedResults();
+		}
+		catch (IOException e) {
+			/* The executable might be gone, so the next call starts over */
+			stopReasoner();
+			throw new Error("IOException when streaming to reasoner.", e);
+		}
+	}
+	
+	/**
+	 * Starts the executable for streaming mode, with {@link #getArgs()}.
+	 */
+	protected Process startReasoner() throws IOException {
+		List<String> command = getArgs();
+		command.add(0, executable);
+		return new ProcessBuilder(command).start();
+	}
+	
+	/**
+	 * Logs the standard error of the executable, which must be read so that
+	 * the executable does not block on it.
+	 */
+	private static void logErrors(Process proc) {
+		final BufferedReader stderr = new BufferedReader(new InputStreamReader(proc.getErrorStream()));
+		Thread logger = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					String line;
+					while ((line = stderr.readLine()) != null)
+						log.trace(line);
+					stderr.close();
+				}
+				catch (IOException e) {
+					/* The executable has exited */
+				}
+			}
+		}, "ExecutableReasoner-stderr");
+		logger.setDaemon(true);
+		logger.start();
+	}
+	
+	private void writeStreamedModel() throws IOException {
+		parser = new TermParser();
+		List<GroundRule> groundRules = new ArrayList<GroundRule>(groundKernels.values());
+		sentGroundRules = new WeightedGroundRule[groundRules.size()];
+		sentWeights = new double[groundRules.size()];
+		
+		toReasoner.writeByte(MESSAGE_MODEL);
+		toReasoner.writeInt(groundRules.size());
+		for (int t = 0; t < groundRules.size(); t++) {
+			parser.parse(groundRules.get(t));
+			if (groundRules.get(t) instanceof WeightedGroundRule)
+				sentGroundRules[t] = (WeightedGroundRule) groundRules.get(t);
+			sentWeights[t] = parser.getWeight();
+			
+			toReasoner.writeByte(parser.getType());
+			toReasoner.writeDouble(parser.getWeight());
+			toReasoner.writeDouble(parser.getConstant());
+			toReasoner.writeInt(parser.getSize());
+			for (int j = 0; j < parser.getSize(); j++) {
+				toReasoner.writeInt(parser.getVariableIndex(j));
+				toReasoner.writeDouble(parser.getCoefficient(j));
+			}
+		}
+		
+		double[] values = parser.getValues();
+		toReasoner.writeInt(values.length);
+		for (double value : values)
+			toReasoner.writeDouble(value);
+		lastUpdateSize = groundRules.size();
+	}
+	
+	/**
+	 * Sends the weights that differ from those last sent.
+	 */
+	private void writeWeightChanges() throws IOException {
+		int count = 0;
+		for (int t = 0; t < sentGroundRules.length; t++)
+			if (sentGroundRules[t] != null && sentGroundRules[t].getWeight().getWeight() != sentWeights[t])
+				count++;
+		lastUpdateSize = count;
+		if (count == 0)
+			return;
+		
+		log.debug("Streaming {} changed weights.", count);
+		toReasoner.writeByte(MESSAGE_WEIGHTS);
+		toReasoner.writeInt(count);
+		for (int t = 0; t < sentGroundRules.length; t++) {
+			if (sentGroundRules[t] == null)
+				continue;
+			double weight = sentGroundRules[t].getWeight().getWeight();
+			if (weight != sentWeights[t]) {
+				toReasoner.writeInt(t);
+				toReasoner.writeDouble(weight);
+				sentWeights[t] = weight;
+			}
+		}
+	}
+	
+	private void readStreamedResults() throws IOException {
+		byte status = fromReasoner.readByte();
+		if (status == STATUS_ERROR)
+			throw new IllegalStateException("Reasoner failed: " + fromReasoner.readUTF());
+		else if (status != STATUS_OK)
+			throw new IOException("Unexpected status from reasoner: " + status);
+		
+		int numVariables = fromReasoner.readInt();
+		if (numVariables != parser.getNumVariables())
+			throw new IOException("Reasoner returned " + numVariables + " values for "
+					+ parser.getNumVariables() + " variables.");
+		for (int i = 0; i < numVariables; i++)
+			parser.getVariable(i).setValue(fromReasoner.readDouble());
+	}
+	
+	/**
+	 * Asks the executable to exit and waits for it, or kills it if the
+	 * request cannot be sent.
+	 */
+	private void stopReasoner() {
+		if (process == null)
+			return;
+		
+		try {
+			toReasoner.writeByte(MESSAGE_CLOSE);
+			toReasoner.close();
+			fromReasoner.close();
+			process.waitFor();
+		}
+		catch (IOException e) {
+			process.destroy();
+		}
+		catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+		}
+		process = null;
+		toReasoner = null;
+		fromReasoner = null;
+		parser = null;
+		sentGroundRules = null;
+		sentWeights = null;
+		modelChanged = true;
 	}
 	
 	protected void callReasoner() throws IOException {
@@ -137,28 +415,47 @@ abstract public class ExecutableReasoner implements Reasoner {
 			log.warn("Executable exited with unexpected value: {}", exitValue);
 	}
 	
+	/**
+	 * @return the arguments of the executable, which in text file mode
+	 *         usually include {@link #getModelFileName()} and
+	 *         {@link #getResultsFileName()}
+	 */
 	abstract protected List<String> getArgs();
 	
+	/**
+	 * Writes the model file in text file mode.
+	 */
 	abstract protected void writeModel(BufferedWriter modelWriter) throws IOException;
 	
+	/**
+	 * Reads the results file in text file mode.
+	 */
 	abstract protected void readResults(BufferedReader resultsReader) throws IOException;
 	
+	/**
+	 * @return the path of the model file of the current call in text file mode
+	 */
 	protected String getModelFileName() {
-		return "model";
+		return modelFile.getPath();
 	}
 	
+	/**
+	 * @return the path of the results file of the current call in text file mode
+	 */
 	protected String getResultsFileName() {
-		return "results";
+		return resultsFile.getPath();
 	}
 
 	@Override
 	public void addGroundRule(GroundRule gk) {
 		groundKernels.put(gk.getRule(), gk);
+		modelChanged = true;
 	}
 
 	@Override
 	public void removeGroundKernel(GroundRule gk) {
 		groundKernels.removeMapping(gk.getRule(), gk);
+		modelChanged = true;
 
 	}
 
@@ -193,21 +490,22 @@ abstract public class ExecutableReasoner implements Reasoner {
 
 	@Override
 	public void changedGroundRule(GroundRule gk) {
-		/* Intentionally empty */
+		modelChanged = true;
 	}
 
 	@Override
 	public void changedGroundKernelWeight(WeightedGroundRule gk) {
-		/* Intentionally empty */
+		/* Weights are compared with those last sent in the next call to optimize() */
 	}
 
 	@Override
 	public void changedGroundKernelWeights() {
-		/* Intentionally empty */
+		/* Weights are compared with those last sent in the next call to optimize() */
 	}
 
 	@Override
 	public void close() {
+		stopReasoner();
 		groundKernels = null;
 	}
 
@@ -0,0 +1,251 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner;
+
+import java.util.Arrays;
+
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+/**
+ * Terms of a hinge-loss objective in compressed sparse row form: term t has
+ * the variables varIndices[offsets[t]] to varIndices[offsets[t+1] - 1],
+ * with the coefficients at the same positions, and the hyperplane
+ * coeffs^T * x = constants[t].
+ */
+public final class TermBatch {
+
+	/* Types of terms */
+	public static final byte HINGE = 0;
+	public static final byte SQUARED_HINGE = 1;
+	public static final byte LINEAR = 2;
+	public static final byte SQUARED_LINEAR = 3;
+	public static final byte CONSTRAINT_LEQ = 4;
+	public static final byte CONSTRAINT_GEQ = 5;
+	public static final byte CONSTRAINT_EQ = 6;
+
+	int numTerms;
+	int[] offsets;
+	int[] varIndices;
+	double[] coeffs;
+	double[] constants;
+	/** Squared norm of the coefficients of each term */
+	double[] normSquared;
+	/** Weight of each term, or 0 for constraints */
+	double[] weights;
+	byte[] types;
+
+	public TermBatch(int termCapacity) {
+		termCapacity = Math.max(termCapacity, 1);
+		offsets = new int[termCapacity + 1];
+		varIndices = new int[2 * termCapacity];
+		coeffs = new double[varIndices.length];
+		constants = new double[termCapacity];
+		normSquared = new double[termCapacity];
+		weights = new double[termCapacity];
+		types = new byte[termCapacity];
+	}
+
+	public static boolean isConstraint(byte type) {
+		return type >= CONSTRAINT_LEQ;
+	}
+
+	/**
+	 * @return the comparator of a constraint type
+	 */
+	public static FunctionComparator getComparator(byte type) {
+		if (type == CONSTRAINT_LEQ)
+			return FunctionComparator.SmallerThan;
+		else if (type == CONSTRAINT_GEQ)
+			return FunctionComparator.LargerThan;
+		else if (type == CONSTRAINT_EQ)
+			return FunctionComparator.Equality;
+		throw new IllegalArgumentException("Not a constraint type: " + type);
+	}
+
+	/**
+	 * @return the number of terms
+	 */
+	public int size() {
+		return numTerms;
+	}
+
+	/**
+	 * @return the number of terms that fit without growing
+	 */
+	public int capacity() {
+		return types.length;
+	}
+
+	public void setWeight(int t, double weight) {
+		weights[t] = weight;
+	}
+
+	public void clear() {
+		numTerms = 0;
+	}
+
+	/**
+	 * Appends the term last parsed by a parser.
+	 */
+	public void add(TermParser parser) {
+		add(parser.type, parser.weight, parser.constant, parser.size, parser.varIndices, parser.coeffs);
+	}
+
+	/**
+	 * Appends a term.
+	 */
+	public void add(byte type, double weight, double constant, int size, int[] termVarIndices, double[] termCoeffs) {
+		if (numTerms == types.length) {
+			int capacity = 2 * numTerms;
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+			constants = Arrays.copyOf(constants, capacity);
+			normSquared = Arrays.copyOf(normSquared, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+			types = Arrays.copyOf(types, capacity);
+		}
+		int start = offsets[numTerms];
+		if (start + size > varIndices.length) {
+			int capacity = Math.max(2 * varIndices.length, start + size);
+			varIndices = Arrays.copyOf(varIndices, capacity);
+			coeffs = Arrays.copyOf(coeffs, capacity);
+		}
+
+		double norm = 0.0;
+		for (int j = 0; j < size; j++) {
+			varIndices[start + j] = termVarIndices[j];
+			coeffs[start + j] = termCoeffs[j];
+			norm += termCoeffs[j] * termCoeffs[j];
+		}
+		types[numTerms] = type;
+		weights[numTerms] = weight;
+		constants[numTerms] = constant;
+		normSquared[numTerms] = norm;
+		offsets[numTerms + 1] = start + size;
+		numTerms++;
+	}
+
+	/**
+	 * Releases the memory of unused capacity.
+	 */
+	public void trim() {
+		offsets = Arrays.copyOf(offsets, numTerms + 1);
+		varIndices = Arrays.copyOf(varIndices, offsets[numTerms]);
+		coeffs = Arrays.copyOf(coeffs, offsets[numTerms]);
+		constants = Arrays.copyOf(constants, numTerms);
+		normSquared = Arrays.copyOf(normSquared, numTerms);
+		weights = Arrays.copyOf(weights, numTerms);
+		types = Arrays.copyOf(types, numTerms);
+	}
+
+	/**
+	 * Applies the proximal operator of a term to its variables and clips them
+	 * to [0,1].
+	 *
+	 * @return the largest change of a variable
+	 */
+	public double step(int t, double stepSize, double[] values) {
+		int start = offsets[t];
+		int end = offsets[t + 1];
+		if (start == end || normSquared[t] == 0.0)
+			return 0.0;
+
+		double total = 0.0;
+		for (int j = start; j < end; j++)
+			total += coeffs[j] * values[varIndices[j]];
+		double violation = total - constants[t];
+		double stepWeight = stepSize * weights[t];
+
+		/* The variables move by alpha times the coefficients */
+		double alpha;
+		switch (types[t]) {
+		case HINGE:
+			if (violation <= 0.0)
+				return 0.0;
+			/* Stops at the hinge if a full step would cross it */
+			alpha = -Math.min(stepWeight, violation / normSquared[t]);
+			break;
+		case SQUARED_HINGE:
+			if (violation <= 0.0)
+				return 0.0;
+			alpha = -2 * stepWeight * violation / (1 + 2 * stepWeight * normSquared[t]);
+			break;
+		case LINEAR:
+			alpha = -stepWeight;
+			break;
+		case SQUARED_LINEAR:
+			alpha = -2 * stepWeight * violation / (1 + 2 * stepWeight * normSquared[t]);
+			break;
+		case CONSTRAINT_LEQ:
+			if (violation <= 0.0)
+				return 0.0;
+			alpha = -violation / normSquared[t];
+			break;
+		case CONSTRAINT_GEQ:
+			if (violation >= 0.0)
+				return 0.0;
+			alpha = -violation / normSquared[t];
+			break;
+		default:
+			alpha = -violation / normSquared[t];
+		}
+
+		double maxChange = 0.0;
+		for (int j = start; j < end; j++) {
+			int i = varIndices[j];
+			double value = Math.max(0.0, Math.min(1.0, values[i] + alpha * coeffs[j]));
+			maxChange = Math.max(maxChange, Math.abs(value - values[i]));
+			values[i] = value;
+		}
+		return maxChange;
+	}
+
+	/**
+	 * @return the unweighted incompatibility of a weighted term, or the
+	 *         infeasibility of a constraint
+	 */
+	double getIncompatibility(int t, double[] values) {
+		double total = 0.0;
+		for (int j = offsets[t]; j < offsets[t + 1]; j++)
+			total += coeffs[j] * values[varIndices[j]];
+		return getIncompatibility(types[t], total - constants[t]);
+	}
+
+	/**
+	 * @param violation  coeffs^T * x - constant
+	 * @return the unweighted incompatibility of a weighted term, or the
+	 *         infeasibility of a constraint
+	 */
+	public static double getIncompatibility(byte type, double violation) {
+		switch (type) {
+		case HINGE:
+			return Math.max(0.0, violation);
+		case SQUARED_HINGE:
+			return (violation > 0.0) ? violation * violation : 0.0;
+		case LINEAR:
+			return violation;
+		case SQUARED_LINEAR:
+			return violation * violation;
+		case CONSTRAINT_LEQ:
+			return Math.max(0.0, violation);
+		case CONSTRAINT_GEQ:
+			return Math.max(0.0, -violation);
+		default:
+			return Math.abs(violation);
+		}
+	}
+}
@@ -0,0 +1,268 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.UnweightedGroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.function.AtomFunctionVariable;
+import org.linqs.psl.reasoner.function.ConstantNumber;
+import org.linqs.psl.reasoner.function.ConstraintTerm;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+import org.linqs.psl.reasoner.function.FunctionSingleton;
+import org.linqs.psl.reasoner.function.FunctionSum;
+import org.linqs.psl.reasoner.function.FunctionSummand;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+import org.linqs.psl.reasoner.function.MaxFunction;
+import org.linqs.psl.reasoner.function.PowerOfTwo;
+
+/**
+ * Turns ground rules into terms of a hinge-loss objective and numbers the
+ * variables of the terms. This is the one place where the function of a
+ * ground rule is interpreted, so all reasoners agree on its terms.
+ * <p>
+ * After {@link #parse(GroundRule)}, the term is available from the getters
+ * of the parser until the next call. Its type is one of the types of
+ * {@link TermBatch}.
+ * <p>
+ * Subclasses can number the variables themselves by overriding
+ * {@link #getIndex(AtomFunctionVariable)}, in which case the other accessors
+ * of the variables do not apply, and can fold variables of known value into
+ * the constants by overriding {@link #getFixedValue(AtomFunctionVariable)}.
+ */
+public class TermParser {
+
+	private final Map<AtomFunctionVariable, Integer> variableIndices;
+	private AtomFunctionVariable[] variables;
+
+	/* The last term parsed */
+	byte type;
+	double weight;
+	double constant;
+	int size;
+	int[] varIndices;
+	double[] coeffs;
+
+	public TermParser() {
+		variableIndices = new HashMap<AtomFunctionVariable, Integer>();
+		variables = new AtomFunctionVariable[16];
+		varIndices = new int[8];
+		coeffs = new double[8];
+	}
+
+	public int getNumVariables() {
+		return variableIndices.size();
+	}
+
+	public AtomFunctionVariable getVariable(int index) {
+		return variables[index];
+	}
+
+	/**
+	 * @return the current values of the variables
+	 */
+	public double[] getValues() {
+		double[] values = new double[variableIndices.size()];
+		for (int i = 0; i < values.length; i++)
+			values[i] = variables[i].getValue();
+		return values;
+	}
+
+	/**
+	 * Parses a ground rule into the fields of this parser.
+	 *
+	 * @throws IllegalArgumentException  if the ground rule is not a
+	 *             (squared) hinge-loss, (squared) linear or linear constraint
+	 */
+	public void parse(GroundRule groundRule) {
+		FunctionSum sum;
+		double value = 0.0;
+		weight = 0.0;
+		if (groundRule instanceof WeightedGroundRule) {
+			FunctionTerm function = ((WeightedGroundRule) groundRule).getFunctionDefinition();
+			boolean squared = function instanceof PowerOfTwo;
+			if (squared)
+				function = ((PowerOfTwo) function).getInnerFunction();
+
+			if (function instanceof MaxFunction) {
+				sum = getHingeFunction((MaxFunction) function);
+				type = squared ? TermBatch.SQUARED_HINGE : TermBatch.HINGE;
+			}
+			else if (function instanceof FunctionSum) {
+				sum = (FunctionSum) function;
+				type = squared ? TermBatch.SQUARED_LINEAR : TermBatch.LINEAR;
+			}
+			else
+				throw new IllegalArgumentException("Unrecognized function: " + function);
+			weight = ((WeightedGroundRule) groundRule).getWeight().getWeight();
+		}
+		else if (groundRule instanceof UnweightedGroundRule) {
+			ConstraintTerm constraint = ((UnweightedGroundRule) groundRule).getConstraintDefinition();
+			if (!(constraint.getFunction() instanceof FunctionSum))
+				throw new IllegalArgumentException("Unrecognized constraint: " + constraint);
+			sum = (FunctionSum) constraint.getFunction();
+			if (constraint.getComparator().equals(FunctionComparator.SmallerThan))
+				type = TermBatch.CONSTRAINT_LEQ;
+			else if (constraint.getComparator().equals(FunctionComparator.LargerThan))
+				type = TermBatch.CONSTRAINT_GEQ;
+			else
+				type = TermBatch.CONSTRAINT_EQ;
+			value = constraint.getValue();
+		}
+		else
+			throw new IllegalArgumentException("Unsupported ground kernel: " + groundRule);
+
+		parseHyperplane(sum);
+		constant += value;
+	}
+
+	/**
+	 * Collects the hyperplane coeffs^T * x = constant of a linear function
+	 * into the variables, coefficients and constant of this parser, merging
+	 * repeated variables. The type and weight are left unchanged.
+	 *
+	 * @throws IllegalArgumentException  if a summand is not a constant or a
+	 *             variable
+	 */
+	public void parseHyperplane(FunctionSum sum) {
+		constant = 0.0;
+		size = 0;
+		for (Iterator<FunctionSummand> itr = sum.iterator(); itr.hasNext(); ) {
+			FunctionSummand summand = itr.next();
+			FunctionSingleton singleton = summand.getTerm();
+			Double fixedValue = (singleton instanceof AtomFunctionVariable)
+					? getFixedValue((AtomFunctionVariable) singleton) : null;
+			if (fixedValue != null) {
+				constant -= summand.getCoefficient() * fixedValue;
+			}
+			else if (singleton.isConstant()) {
+				/* Subtracts because the hyperplane is stored as coeffs^T * x = constant */
+				constant -= summand.getValue();
+			}
+			else if (singleton instanceof AtomFunctionVariable) {
+				int index = getIndex((AtomFunctionVariable) singleton);
+				int j = 0;
+				while (j < size && varIndices[j] != index)
+					j++;
+				if (j == size) {
+					if (size == varIndices.length) {
+						varIndices = Arrays.copyOf(varIndices, 2 * size);
+						coeffs = Arrays.copyOf(coeffs, 2 * size);
+					}
+					varIndices[size] = index;
+					coeffs[size] = 0.0;
+					size++;
+				}
+				coeffs[j] += summand.getCoefficient();
+			}
+			else
+				throw new IllegalArgumentException("Unexpected summand.");
+		}
+	}
+
+	public byte getType() {
+		return type;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+
+	public double getConstant() {
+		return constant;
+	}
+
+	/**
+	 * @return the number of variables of the term
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the index of the j-th variable of the term
+	 */
+	public int getVariableIndex(int j) {
+		return varIndices[j];
+	}
+
+	/**
+	 * @return the coefficient of the j-th variable of the term
+	 */
+	public double getCoefficient(int j) {
+		return coeffs[j];
+	}
+
+	/**
+	 * @return a copy of the indices of the variables of the term
+	 */
+	public int[] getVariableIndices() {
+		return Arrays.copyOf(varIndices, size);
+	}
+
+	/**
+	 * @return a copy of the coefficients of the variables of the term
+	 */
+	public double[] getCoefficients() {
+		return Arrays.copyOf(coeffs, size);
+	}
+
+	/**
+	 * @return the index of a variable, which is numbered if it is new
+	 */
+	public int getIndex(AtomFunctionVariable variable) {
+		Integer index = variableIndices.get(variable);
+		if (index == null) {
+			index = variableIndices.size();
+			variableIndices.put(variable, index);
+			if (index == variables.length)
+				variables = Arrays.copyOf(variables, 2 * index);
+			variables[index] = variable;
+		}
+		return index;
+	}
+
+	/**
+	 * @return the value of a variable that is folded into the constant of
+	 *         the term instead of becoming one of its variables, or null. By
+	 *         default, no variable is folded.
+	 */
+	protected Double getFixedValue(AtomFunctionVariable variable) {
+		return null;
+	}
+
+	/**
+	 * @return the linear function of a hinge max(0, function)
+	 */
+	private static FunctionSum getHingeFunction(MaxFunction function) {
+		if (function.size() == 2) {
+			FunctionTerm a = function.get(0);
+			FunctionTerm b = function.get(1);
+			if (a instanceof ConstantNumber && a.getValue() == 0.0 && b instanceof FunctionSum)
+				return (FunctionSum) b;
+			if (b instanceof ConstantNumber && b.getValue() == 0.0 && a instanceof FunctionSum)
+				return (FunctionSum) a;
+		}
+		throw new IllegalArgumentException("Max function must have one linear function and 0.0 as arguments.");
+	}
+}
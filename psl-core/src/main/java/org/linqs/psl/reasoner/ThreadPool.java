@@ -17,43 +17,257 @@
  */
 package org.linqs.psl.reasoner;
 
-import java.util.concurrent.ExecutorService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * A named, fixed-size pool of daemon threads shared by the parts of PSL
+ * that run in parallel.
+ * <p>
+ * Pools are created on first use with one thread per available processor,
+ * or explicitly with {@link #createPool(String, int, ThreadFactory)}. A
+ * pool that has been shut down is removed, and the next request for its
+ * name creates a new one.
+ * <p>
+ * Tasks that wait for each other, such as workers meeting at a barrier,
+ * must be submitted together with {@link #submitGroup(Runnable[])}, which
+ * guarantees that they all get threads at the same time.
+ */
 public class ThreadPool {
 
-	private static ThreadPool instance = null;
-	
-	private final ExecutorService pool;
-	
-	private ThreadPool() {
-		this.pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new DaemonThreadFactory());
+	/** Name of the pool returned by {@link #getPool()} */
+	public static final String DEFAULT_POOL = "default";
+
+	private static final Map<String, ThreadPool> pools = new HashMap<String, ThreadPool>();
+
+	/* Creates the threads of new pools, or null to use the default factory */
+	private static ThreadFactory threadFactory = null;
+
+	private final String name;
+	private final ThreadPoolExecutor pool;
+
+	/*
+	 * Threads not reserved by a running or queued group. Groups reserve one
+	 * permit per task, so groups together never need more threads than
+	 * the pool has, and a group cannot be left waiting for threads that
+	 * are held by another group.
+	 */
+	private final Semaphore groupPermits;
+
+	private ThreadPool(String name, int numThreads, ThreadFactory factory) {
+		this.name = name;
+		this.pool = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(name, factory));
+		/* Fair, so that large groups are not starved by small ones */
+		this.groupPermits = new Semaphore(numThreads, true);
 	}
-	
+
+	/**
+	 * @return the default pool
+	 */
 	public static ThreadPool getPool() {
-		if (instance == null)
-			instance = new ThreadPool();
-		
-		return instance;
+		return getPool(DEFAULT_POOL);
+	}
+
+	/**
+	 * @return the pool with the given name, which is created with one
+	 *         thread per available processor if it does not exist
+	 */
+	public static synchronized ThreadPool getPool(String name) {
+		ThreadPool pool = pools.get(name);
+		if (pool == null) {
+			pool = new ThreadPool(name, Runtime.getRuntime().availableProcessors(), threadFactory);
+			pools.put(name, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * Creates a pool with the given number of threads.
+	 *
+	 * @param name  name of the pool
+	 * @param numThreads  number of threads
+	 * @param factory  creates the threads of the pool, for example to pin
+	 *                     them to processors, or null to use the factory set
+	 *                     with {@link #setThreadFactory(ThreadFactory)}
+	 * @return the new pool
+	 * @throws IllegalStateException  if a pool with the name already exists
+	 */
+	public static synchronized ThreadPool createPool(String name, int numThreads, ThreadFactory factory) {
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Number of threads must be positive.");
+		if (pools.containsKey(name))
+			throw new IllegalStateException("Thread pool " + name + " already exists.");
+		ThreadPool pool = new ThreadPool(name, numThreads, (factory == null) ? threadFactory : factory);
+		pools.put(name, pool);
+		return pool;
+	}
+
+	/**
+	 * Creates a pool with the given number of threads.
+	 *
+	 * @see #createPool(String, int, ThreadFactory)
+	 */
+	public static ThreadPool createPool(String name, int numThreads) {
+		return createPool(name, numThreads, null);
+	}
+
+	/**
+	 * Sets the factory that creates the threads of pools created after this
+	 * call, for example to pin them to processors. Threads are made daemon
+	 * threads after the factory creates them.
+	 *
+	 * @param factory  the factory, or null to use the default factory
+	 */
+	public static synchronized void setThreadFactory(ThreadFactory factory) {
+		threadFactory = factory;
+	}
+
+	/**
+	 * Shuts down all pools. Running and queued tasks are completed.
+	 */
+	public static void shutdownAll() {
+		List<ThreadPool> all;
+		synchronized (ThreadPool.class) {
+			all = new ArrayList<ThreadPool>(pools.values());
+		}
+		for (ThreadPool pool : all)
+			pool.shutdown();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of threads of the pool
+	 */
+	public int getNumThreads() {
+		return pool.getMaximumPoolSize();
 	}
-	
+
+	/**
+	 * @return the approximate number of threads running tasks
+	 */
+	public int getActiveCount() {
+		return pool.getActiveCount();
+	}
+
+	/**
+	 * @return the number of tasks waiting for a thread
+	 */
+	public int getQueueSize() {
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * @return the approximate number of tasks that have completed
+	 */
+	public long getCompletedTaskCount() {
+		return pool.getCompletedTaskCount();
+	}
+
+	public boolean isShutdown() {
+		return pool.isShutdown();
+	}
+
 	public Future<?> submit(Runnable task) {
 		return pool.submit(task);
 	}
 
-	private class DaemonThreadFactory implements ThreadFactory {
+	/**
+	 * Submits tasks that must run at the same time, because they wait for
+	 * each other. Blocks until threads are available for all of them. If
+	 * there are more tasks than threads, the pool is first grown to the
+	 * number of tasks.
+	 * <p>
+	 * Tasks submitted with {@link #submit(Runnable)} can delay a group, but
+	 * not deadlock it, as long as they do not wait for the group themselves.
+	 *
+	 * @return the futures of the tasks, in order
+	 */
+	public List<Future<?>> submitGroup(Runnable[] tasks) {
+		ensureNumThreads(tasks.length);
+		groupPermits.acquireUninterruptibly(tasks.length);
 
-		private ThreadFactory defaultThreadFactory;
-		
-		public DaemonThreadFactory() {
-			this.defaultThreadFactory = Executors.defaultThreadFactory();
+		List<Future<?>> futures = new ArrayList<Future<?>>(tasks.length);
+		for (final Runnable task : tasks) {
+			futures.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} finally {
+						groupPermits.release();
+					}
+				}
+			}));
 		}
-		
+		return futures;
+	}
+
+	/**
+	 * Grows the pool to at least the given number of threads.
+	 */
+	private synchronized void ensureNumThreads(int numThreads) {
+		int current = pool.getMaximumPoolSize();
+		if (numThreads <= current)
+			return;
+
+		/* The maximum cannot be below the core size, so it is raised first */
+		pool.setMaximumPoolSize(numThreads);
+		pool.setCorePoolSize(numThreads);
+		groupPermits.release(numThreads - current);
+	}
+
+	/**
+	 * Stops accepting tasks and removes the pool, so that the next request
+	 * for its name creates a new one. Running and queued tasks are completed.
+	 */
+	public void shutdown() {
+		synchronized (ThreadPool.class) {
+			if (pools.get(name) == this)
+				pools.remove(name);
+		}
+		pool.shutdown();
+	}
+
+	/**
+	 * Waits for the tasks of a pool that has been shut down to complete.
+	 *
+	 * @return whether they completed before the timeout
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return pool.awaitTermination(timeout, unit);
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+
+		private final ThreadFactory delegate;
+		/* Prefix of the thread names, or null to keep the names the delegate gives */
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		public DaemonThreadFactory(String name, ThreadFactory delegate) {
+			this.delegate = (delegate == null) ? Executors.defaultThreadFactory() : delegate;
+			this.prefix = (delegate == null) ? "psl-" + name + "-" : null;
+		}
+
 		@Override
 		public Thread newThread(Runnable r) {
-			Thread thread = defaultThreadFactory.newThread(r);
+			Thread thread = delegate.newThread(r);
+			if (prefix != null)
+				thread.setName(prefix + count.incrementAndGet());
 			thread.setDaemon(true);
 			return thread;
 		}
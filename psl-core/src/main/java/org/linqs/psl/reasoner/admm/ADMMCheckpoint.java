@@ -0,0 +1,284 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Saves and restores the iteration state of an {@link ADMMReasoner}: the
+ * consensus vector, the local copies and dual variables of the terms, the
+ * iteration count, the step size and the last residuals.
+ * <p>
+ * The state is written in a canonical order that does not depend on the
+ * order in which ground rules were added: consensus variables are sorted
+ * by the names of their atoms and terms by their structure. A fingerprint
+ * of that structure, which leaves out the weights, is stored with the state
+ * so that it is only restored into a ground model with the same variables
+ * and terms. Terms with the same structure are interchangeable, since a
+ * restored state is only a starting point for further iterations.
+ * <p>
+ * Each instance describes the ground model of its reasoner at the time it
+ * was created, and must be recreated when the model changes.
+ */
+class ADMMCheckpoint {
+
+	/* "PSLC" */
+	private static final int MAGIC = 0x50534c43;
+	private static final int VERSION = 1;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final ADMMReasoner reasoner;
+	/** Consensus variables in canonical order */
+	private final int[] varOrder;
+	/** Live terms in canonical order */
+	private final int[] termOrder;
+	private final int numLocalVariables;
+	private final long fingerprint;
+
+	/** Iteration state of the last checkpoint read */
+	private int iterations;
+	private double stepSize, primalRes, dualRes;
+
+	ADMMCheckpoint(ADMMReasoner reasoner) {
+		this.reasoner = reasoner;
+		final List<ADMMObjectiveTerm> terms = reasoner.terms;
+		final LocalVariableStore locals = reasoner.locals;
+
+		/* Sorts the consensus variables by name */
+		final String[] names = new String[reasoner.z.length];
+		List<Integer> vars = new ArrayList<Integer>(names.length);
+		for (int i = 0; i < names.length; i++) {
+			names[i] = reasoner.variables.get(i).toString();
+			vars.add(i);
+		}
+		Collections.sort(vars, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return names[a].compareTo(names[b]);
+			}
+		});
+		varOrder = new int[names.length];
+		final int[] ranks = new int[names.length];
+		for (int r = 0; r < varOrder.length; r++) {
+			varOrder[r] = vars.get(r);
+			ranks[varOrder[r]] = r;
+		}
+
+		/* Sorts the live terms by class, constant, variables and coefficients */
+		List<Integer> liveTerms = new ArrayList<Integer>(terms.size());
+		int count = 0;
+		for (int t = 0; t < terms.size(); t++) {
+			if (terms.get(t) != null) {
+				liveTerms.add(t);
+				count += terms.get(t).size;
+			}
+		}
+		Collections.sort(liveTerms, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				ADMMObjectiveTerm termA = terms.get(a);
+				ADMMObjectiveTerm termB = terms.get(b);
+				int result = termA.getClass().getName().compareTo(termB.getClass().getName());
+				if (result == 0)
+					result = Double.compare(ADMMReasoner.getConstant(termA), ADMMReasoner.getConstant(termB));
+				if (result == 0)
+					result = Integer.compare(termA.size, termB.size);
+				for (int i = 0; i < termA.size && result == 0; i++) {
+					result = Integer.compare(ranks[locals.getZIndex(termA.start + i)], ranks[locals.getZIndex(termB.start + i)]);
+					if (result == 0)
+						result = Float.compare((float) locals.getCoeff(termA.start + i), (float) locals.getCoeff(termB.start + i));
+				}
+				return result;
+			}
+		});
+		termOrder = new int[liveTerms.size()];
+		for (int k = 0; k < termOrder.length; k++)
+			termOrder[k] = liveTerms.get(k);
+		numLocalVariables = count;
+
+		/*
+		 * Hashes the structure in canonical order. Coefficients are hashed
+		 * in single precision, so that the fingerprint does not depend on
+		 * the precision of the local variable store.
+		 */
+		long hash = FNV_OFFSET_BASIS;
+		hash = mix(hash, names.length);
+		for (int r = 0; r < varOrder.length; r++) {
+			String name = names[varOrder[r]];
+			for (int i = 0; i < name.length(); i++)
+				hash = mix(hash, name.charAt(i));
+			hash = mix(hash, -1);
+		}
+		hash = mix(hash, termOrder.length);
+		for (int t : termOrder) {
+			ADMMObjectiveTerm term = terms.get(t);
+			hash = mix(hash, term.getClass().getName().hashCode());
+			long constantBits = Double.doubleToLongBits(ADMMReasoner.getConstant(term));
+			hash = mix(hash, (int) constantBits);
+			hash = mix(hash, (int) (constantBits >>> 32));
+			hash = mix(hash, term.size);
+			for (int i = term.start; i < term.start + term.size; i++) {
+				hash = mix(hash, ranks[locals.getZIndex(i)]);
+				hash = mix(hash, Float.floatToIntBits((float) locals.getCoeff(i)));
+			}
+		}
+		fingerprint = hash;
+	}
+
+	/**
+	 * Folds the four bytes of a value into an FNV-1a hash.
+	 */
+	private static long mix(long hash, int value) {
+		for (int shift = 0; shift < 32; shift += 8) {
+			hash ^= (value >>> shift) & 0xff;
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * @return the fingerprint of the structure of the ground model
+	 */
+	long getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Writes the current state of the reasoner. The file is replaced
+	 * atomically, so that a failure while writing leaves the previous
+	 * checkpoint intact.
+	 */
+	void write(File file, int iterations, double primalRes, double dualRes) throws IOException {
+		double[] z = reasoner.z;
+		LocalVariableStore locals = reasoner.locals;
+
+		File temp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(fingerprint);
+			out.writeInt(iterations);
+			out.writeDouble(reasoner.getStepSize());
+			out.writeDouble(primalRes);
+			out.writeDouble(dualRes);
+
+			out.writeInt(varOrder.length);
+			for (int i : varOrder)
+				out.writeDouble(z[i]);
+
+			out.writeInt(numLocalVariables);
+			for (int t : termOrder) {
+				ADMMObjectiveTerm term = reasoner.terms.get(t);
+				for (int i = term.start; i < term.start + term.size; i++) {
+					out.writeDouble(locals.getX(i));
+					out.writeDouble(locals.getY(i));
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Restores the state of the reasoner from a checkpoint, if the
+	 * checkpoint was written from a ground model with the same structure.
+	 * The restored iteration count, step size and residuals are then
+	 * available from this object.
+	 *
+	 * @return whether the state was restored
+	 */
+	boolean read(File file) throws IOException {
+		double[] z = reasoner.z;
+		LocalVariableStore locals = reasoner.locals;
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not an ADMM checkpoint.");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported checkpoint version " + version + " in " + file + ".");
+			if (in.readLong() != fingerprint)
+				return false;
+
+			int savedIterations = in.readInt();
+			double savedStepSize = in.readDouble();
+			double savedPrimalRes = in.readDouble();
+			double savedDualRes = in.readDouble();
+
+			if (in.readInt() != varOrder.length)
+				throw new IOException("Inconsistent checkpoint " + file + ".");
+			double[] newZ = new double[varOrder.length];
+			for (int i : varOrder)
+				newZ[i] = in.readDouble();
+
+			if (in.readInt() != numLocalVariables)
+				throw new IOException("Inconsistent checkpoint " + file + ".");
+			for (int t : termOrder) {
+				ADMMObjectiveTerm term = reasoner.terms.get(t);
+				for (int i = term.start; i < term.start + term.size; i++) {
+					locals.setX(i, in.readDouble());
+					locals.setY(i, in.readDouble());
+				}
+			}
+			System.arraycopy(newZ, 0, z, 0, z.length);
+
+			iterations = savedIterations;
+			stepSize = savedStepSize;
+			primalRes = savedPrimalRes;
+			dualRes = savedDualRes;
+			return true;
+		} finally {
+			in.close();
+		}
+	}
+
+	int getIterations() {
+		return iterations;
+	}
+
+	double getStepSize() {
+		return stepSize;
+	}
+
+	double getPrimalRes() {
+		return primalRes;
+	}
+
+	double getDualRes() {
+		return dualRes;
+	}
+}
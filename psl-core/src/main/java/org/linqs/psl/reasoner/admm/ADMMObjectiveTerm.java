@@ -19,26 +19,30 @@ package org.linqs.psl.reasoner.admm;
 
 /**
  * A term in the objective to be optimized by an {@link ADMMReasoner}.
+ * <p>
+ * A term does not own its local variables. Its local copies, dual variables,
+ * consensus indices and coefficients live in a contiguous range
+ * [start, start + size) of its reasoner's {@link LocalVariableStore}, so that
+ * iterating over the terms in order sweeps the store linearly.
  * 
  * @author Stephen Bach <bach@cs.umd.edu>
  */
 public abstract class ADMMObjectiveTerm {
 	protected final ADMMReasoner reasoner;
-	protected final double[] x;
-	protected final double[] y;
-	protected final int[] zIndices;
+	/**
+	 * Index of this term's first local variable in the reasoner's local store.
+	 * Only changes when the reasoner compacts its store.
+	 */
+	protected int start;
+	/** Number of local variables of this term */
+	protected final int size;
 	
-	public ADMMObjectiveTerm(ADMMReasoner reasoner, int[] zIndices) {
+	public ADMMObjectiveTerm(ADMMReasoner reasoner, int[] zIndices, double[] coeffs) {
 		this.reasoner = reasoner;
+		this.size = zIndices.length;
 		
-		x = new double[zIndices.length];
-		y = new double[zIndices.length];
-		
-		this.zIndices = zIndices;
-		
-		/* This loop ensures that the reasoner, when it first computes y, will keep it at 0 */
-		for (int i = 0; i < x.length; i++)
-			x[i] = reasoner.z.get(zIndices[i]);
+		/* Initializes x to z, which ensures that the reasoner, when it first computes y, will keep it at 0 */
+		this.start = reasoner.allocateLocalVariables(zIndices, coeffs);
 	}
 	
 	/**
@@ -48,14 +52,128 @@ public abstract class ADMMObjectiveTerm {
 	 */
 	abstract protected void minimize();
 	
+	/**
+	 * Stores the point to be moved, z - y / stepSize, in x. Arities 1 to 3
+	 * are unrolled.
+	 *
+	 * @return coeffs^T * x
+	 */
+	protected final double loadPoint() {
+		LocalVariableStore locals = reasoner.locals;
+		double[] z = reasoner.z;
+		double stepSize = reasoner.stepSize;
+		int s0 = start, s1 = start + 1, s2 = start + 2;
+		
+		switch (size) {
+		case 1: {
+			double x0 = z[locals.getZIndex(s0)] - locals.getY(s0) / stepSize;
+			locals.setX(s0, x0);
+			return locals.getCoeff(s0) * x0;
+		}
+		case 2: {
+			double x0 = z[locals.getZIndex(s0)] - locals.getY(s0) / stepSize;
+			double x1 = z[locals.getZIndex(s1)] - locals.getY(s1) / stepSize;
+			locals.setX(s0, x0);
+			locals.setX(s1, x1);
+			return locals.getCoeff(s0) * x0 + locals.getCoeff(s1) * x1;
+		}
+		case 3: {
+			double x0 = z[locals.getZIndex(s0)] - locals.getY(s0) / stepSize;
+			double x1 = z[locals.getZIndex(s1)] - locals.getY(s1) / stepSize;
+			double x2 = z[locals.getZIndex(s2)] - locals.getY(s2) / stepSize;
+			locals.setX(s0, x0);
+			locals.setX(s1, x1);
+			locals.setX(s2, x2);
+			return locals.getCoeff(s0) * x0 + locals.getCoeff(s1) * x1 + locals.getCoeff(s2) * x2;
+		}
+		default: {
+			double total = 0.0;
+			for (int i = start; i < start + size; i++) {
+				double xi = z[locals.getZIndex(i)] - locals.getY(i) / stepSize;
+				locals.setX(i, xi);
+				total += locals.getCoeff(i) * xi;
+			}
+			return total;
+		}
+		}
+	}
+	
+	/**
+	 * Moves x by -alpha * coeffs. Arities 1 to 3 are unrolled.
+	 */
+	protected final void shift(double alpha) {
+		LocalVariableStore locals = reasoner.locals;
+		int s0 = start, s1 = start + 1, s2 = start + 2;
+		
+		switch (size) {
+		case 1:
+			locals.setX(s0, locals.getX(s0) - alpha * locals.getCoeff(s0));
+			break;
+		case 2:
+			locals.setX(s0, locals.getX(s0) - alpha * locals.getCoeff(s0));
+			locals.setX(s1, locals.getX(s1) - alpha * locals.getCoeff(s1));
+			break;
+		case 3:
+			locals.setX(s0, locals.getX(s0) - alpha * locals.getCoeff(s0));
+			locals.setX(s1, locals.getX(s1) - alpha * locals.getCoeff(s1));
+			locals.setX(s2, locals.getX(s2) - alpha * locals.getCoeff(s2));
+			break;
+		default:
+			for (int i = start; i < start + size; i++)
+				locals.setX(i, locals.getX(i) - alpha * locals.getCoeff(i));
+		}
+	}
+	
+	/**
+	 * @return the squared length of a coefficient vector
+	 */
+	protected static double squaredNorm(double[] coeffs) {
+		double norm = 0.0;
+		for (int i = 0; i < coeffs.length; i++)
+			norm += coeffs[i] * coeffs[i];
+		return norm;
+	}
+	
+	/**
+	 * Called when the reasoner changes its step size. Terms that cache values
+	 * depending on the step size should recompute them.
+	 */
+	protected void stepSizeChanged() {
+	}
+	
 	/**
 	 * @return this for convenience
 	 */
 	protected ADMMObjectiveTerm updateLagrange() {
-		for (int i = 0; i < y.length; i++) {
-			y[i] = y[i] + reasoner.stepSize * (x[i] - reasoner.z.get(zIndices[i]));
+		LocalVariableStore locals = reasoner.locals;
+		double[] z = reasoner.z;
+		
+		for (int i = start; i < start + size; i++) {
+			locals.setY(i, locals.getY(i) + reasoner.stepSize * (locals.getX(i) - z[locals.getZIndex(i)]));
 		}
 		
 		return this;
 	}
+	
+	/**
+	 * @return the number of local variables of this term
+	 */
+	public int getSize() {
+		return size;
+	}
+	
+	/**
+	 * @param i  the position of a local variable within this term
+	 * @return the index into the consensus vector of that local variable
+	 */
+	public int getZIndex(int i) {
+		return reasoner.locals.getZIndex(start + i);
+	}
+	
+	/**
+	 * @return the reasoner's store of local variables
+	 */
+	protected final LocalVariableStore getLocals() {
+		return reasoner.locals;
+	}
 }
@@ -17,14 +17,21 @@
  */
 package org.linqs.psl.reasoner.admm;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.commons.collections4.BidiMap;
 import org.apache.commons.collections4.bidimap.DualHashBidiMap;
@@ -36,16 +43,15 @@ import org.linqs.psl.model.rule.Rule;
 import org.linqs.psl.model.rule.UnweightedGroundRule;
 import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.TermBatch;
+import org.linqs.psl.reasoner.TermParser;
 import org.linqs.psl.reasoner.ThreadPool;
 import org.linqs.psl.reasoner.function.AtomFunctionVariable;
-import org.linqs.psl.reasoner.function.ConstantNumber;
 import org.linqs.psl.reasoner.function.ConstraintTerm;
+import org.linqs.psl.reasoner.function.FunctionComparator;
 import org.linqs.psl.reasoner.function.FunctionSingleton;
 import org.linqs.psl.reasoner.function.FunctionSum;
 import org.linqs.psl.reasoner.function.FunctionSummand;
-import org.linqs.psl.reasoner.function.FunctionTerm;
-import org.linqs.psl.reasoner.function.MaxFunction;
-import org.linqs.psl.reasoner.function.PowerOfTwo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,6 +92,79 @@ public class ADMMReasoner implements Reasoner {
 	/** Default value for STEP_SIZE_KEY property */
 	public static final double STEP_SIZE_DEFAULT = 1;
 
+	/**
+	 * Key for boolean property. If true, the step size is adapted during
+	 * optimization by residual balancing: it is multiplied by
+	 * {@link #STEP_SIZE_SCALE_KEY} when the primal residual exceeds the dual
+	 * residual by more than a factor of {@link #RESIDUAL_BALANCE_KEY}, and
+	 * divided by it in the opposite case, at most
+	 * {@link #MAX_STEP_SIZE_CHANGES_KEY} times.
+	 */
+	public static final String ADAPTIVE_STEP_SIZE_KEY = CONFIG_PREFIX + ".adaptivestepsize";
+	/** Default value for ADAPTIVE_STEP_SIZE_KEY property */
+	public static final boolean ADAPTIVE_STEP_SIZE_DEFAULT = false;
+
+	/**
+	 * Key for double property greater than 1. Maximum ratio between the primal
+	 * and dual residuals before an adaptive step size is changed.
+	 */
+	public static final String RESIDUAL_BALANCE_KEY = CONFIG_PREFIX + ".residualbalance";
+	/** Default value for RESIDUAL_BALANCE_KEY property */
+	public static final double RESIDUAL_BALANCE_DEFAULT = 10.0;
+
+	/**
+	 * Key for double property greater than 1. Factor by which an adaptive
+	 * step size is changed.
+	 */
+	public static final String STEP_SIZE_SCALE_KEY = CONFIG_PREFIX + ".stepsizescale";
+	/** Default value for STEP_SIZE_SCALE_KEY property */
+	public static final double STEP_SIZE_SCALE_DEFAULT = 2.0;
+
+	/**
+	 * Key for non-negative integer property. Maximum number of times an
+	 * adaptive step size is changed during one optimization. The step size is
+	 * then kept fixed, which guarantees convergence.
+	 */
+	public static final String MAX_STEP_SIZE_CHANGES_KEY = CONFIG_PREFIX + ".maxstepsizechanges";
+	/** Default value for MAX_STEP_SIZE_CHANGES_KEY property */
+	public static final int MAX_STEP_SIZE_CHANGES_DEFAULT = 10;
+
+	/* Iterations after a step size change before the residuals are balanced again */
+	private static final int STEP_SIZE_COOLDOWN = 10;
+
+	/**
+	 * Key for double property in (0, 2). Relaxation parameter alpha. Values
+	 * greater than 1 (over-relaxation) often speed up convergence; 1 gives
+	 * standard ADMM.
+	 */
+	public static final String RELAXATION_KEY = CONFIG_PREFIX + ".relaxation";
+	/** Default value for RELAXATION_KEY property */
+	public static final double RELAXATION_DEFAULT = 1.0;
+
+	/**
+	 * Key for boolean property. If true, the consensus and dual variables are
+	 * extrapolated with Nesterov momentum, which is restarted whenever the
+	 * combined residual fails to decrease. Cannot be combined with
+	 * {@link #RELAXATION_KEY}. Since the restart test needs the residuals
+	 * of every iteration, {@link #STOP_CHECK_KEY} is ignored and convergence
+	 * is checked every iteration.
+	 */
+	public static final String ACCELERATE_KEY = CONFIG_PREFIX + ".accelerate";
+	/** Default value for ACCELERATE_KEY property */
+	public static final boolean ACCELERATE_DEFAULT = false;
+
+	/* Fraction of the previous combined residual below which momentum is kept */
+	private static final double RESTART_FACTOR = 0.999;
+
+	/**
+	 * Key for boolean property. If true, the connected components of the
+	 * ground model are tested for convergence separately, and each stops
+	 * being updated once it converges.
+	 */
+	public static final String COMPONENTWISE_KEY = CONFIG_PREFIX + ".componentwise";
+	/** Default value for COMPONENTWISE_KEY property */
+	public static final boolean COMPONENTWISE_DEFAULT = false;
+
 	/**
 	 * Key for positive double property. Absolute error component of stopping
 	 * criteria.
@@ -104,7 +183,8 @@ public class ADMMReasoner implements Reasoner {
 
 	/**
 	 * Key for positive integer. The number of ADMM iterations after which the
-	 * termination criteria will be checked.
+	 * termination criteria will be checked. Ignored if {@link #ACCELERATE_KEY}
+	 * is true.
 	 */
 	public static final String STOP_CHECK_KEY = CONFIG_PREFIX + ".stopcheck";
 	/** Default value for STOP_CHECK_KEY property */
@@ -118,14 +198,180 @@ public class ADMMReasoner implements Reasoner {
 	 * (by default uses the number of processors in the system) */
 	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
 
+	/**
+	 * Key for String property. Name of the {@link ThreadPool} the worker
+	 * threads run in. The pool is grown to {@link #NUM_THREADS_KEY} threads
+	 * if it is smaller.
+	 */
+	public static final String THREAD_POOL_KEY = CONFIG_PREFIX + ".threadpool";
+	/** Default value for THREAD_POOL_KEY property */
+	public static final String THREAD_POOL_DEFAULT = ThreadPool.DEFAULT_POOL;
+
+	/**
+	 * Key for boolean property. If true, rebuilding the ground model keeps the
+	 * local and dual variables of the terms whose ground rules are still
+	 * present, so that the next call to {@link #optimize()} starts from the
+	 * previous solution. (Ground rules added or removed incrementally always
+	 * keep the state of the other terms.)
+	 */
+	public static final String WARM_START_KEY = CONFIG_PREFIX + ".warmstart";
+	/** Default value for WARM_START_KEY property */
+	public static final boolean WARM_START_DEFAULT = false;
+
+	/**
+	 * Key for boolean property. If true, consensus variables and terms are
+	 * renumbered for memory locality when the ground model is built.
+	 */
+	public static final String REORDER_KEY = CONFIG_PREFIX + ".reorder";
+	/** Default value for REORDER_KEY property */
+	public static final boolean REORDER_DEFAULT = false;
+
+	/**
+	 * Key for boolean property. If true, the worker threads update the terms
+	 * and consensus variables they own without waiting for each other at the
+	 * end of every iteration, and convergence is checked periodically by the
+	 * main thread from the residuals each worker publishes. Cannot be combined
+	 * with {@link #ADAPTIVE_STEP_SIZE_KEY}, {@link #RELAXATION_KEY},
+	 * {@link #ACCELERATE_KEY} or {@link #COMPONENTWISE_KEY}.
+	 */
+	public static final String ASYNCHRONOUS_KEY = CONFIG_PREFIX + ".asynchronous";
+	/** Default value for ASYNCHRONOUS_KEY property */
+	public static final boolean ASYNCHRONOUS_DEFAULT = false;
+
+	/**
+	 * Key for non-negative integer property. In asynchronous mode, the maximum
+	 * number of iterations a worker thread may be ahead of the slowest one.
+	 */
+	public static final String MAX_STALENESS_KEY = CONFIG_PREFIX + ".maxstaleness";
+	/** Default value for MAX_STALENESS_KEY property */
+	public static final int MAX_STALENESS_DEFAULT = 4;
+
+	/**
+	 * Key for boolean property. If true, the local variables of the terms
+	 * (their values, dual variables and coefficients) and the index from
+	 * consensus variables to them are kept in a memory-mapped temporary file
+	 * instead of on the heap, which makes room on the heap for larger ground
+	 * models. The term objects, consensus variables and ground rules remain on
+	 * the heap. Cannot be combined with {@link #ACCELERATE_KEY}.
+	 */
+	public static final String MAPPED_STORAGE_KEY = CONFIG_PREFIX + ".mappedstorage";
+	/** Default value for MAPPED_STORAGE_KEY property */
+	public static final boolean MAPPED_STORAGE_DEFAULT = false;
+
+	/**
+	 * Key for String property. Directory in which the files of
+	 * {@link #MAPPED_STORAGE_KEY} are created.
+	 */
+	public static final String STORAGE_DIRECTORY_KEY = CONFIG_PREFIX + ".storagedirectory";
+	/** Default value for STORAGE_DIRECTORY_KEY property */
+	public static final String STORAGE_DIRECTORY_DEFAULT = System.getProperty("java.io.tmpdir");
+
+	/**
+	 * Key for String property, either "double" or "float". With "float", the
+	 * local copies, dual variables and coefficients of the terms are stored
+	 * in single precision, which halves the memory they take and the memory
+	 * traffic of each iteration. Arithmetic is still done in double
+	 * precision. Cannot be combined with {@link #MAPPED_STORAGE_KEY}.
+	 */
+	public static final String PRECISION_KEY = CONFIG_PREFIX + ".precision";
+	/** Default value for PRECISION_KEY property */
+	public static final String PRECISION_DEFAULT = "double";
+
+	/**
+	 * Key for boolean property. If true, the ground model is simplified when
+	 * it is built: variables whose values are determined by equality
+	 * constraints with a single free variable are fixed and folded into the
+	 * constants of the other terms, hinge-loss terms that cannot be active
+	 * anywhere within the variables' bounds are dropped, and weighted terms
+	 * over the same hyperplane are merged by summing their weights.
+	 */
+	public static final String PRESOLVE_KEY = CONFIG_PREFIX + ".presolve";
+	/** Default value for PRESOLVE_KEY property */
+	public static final boolean PRESOLVE_DEFAULT = false;
+
+	/**
+	 * Key for String property. If not empty, the path of a file to which the
+	 * iteration state (consensus vector, local copies, dual variables,
+	 * iteration count, step size and residuals) is written every
+	 * {@link #CHECKPOINT_INTERVAL_KEY} iterations and when optimization
+	 * ends. Cannot be combined with {@link #ASYNCHRONOUS_KEY}.
+	 */
+	public static final String CHECKPOINT_FILE_KEY = CONFIG_PREFIX + ".checkpointfile";
+	/** Default value for CHECKPOINT_FILE_KEY property */
+	public static final String CHECKPOINT_FILE_DEFAULT = "";
+
+	/**
+	 * Key for positive integer property. Number of iterations between
+	 * checkpoints. Checkpoints are only written on iterations at which
+	 * convergence is checked (see {@link #STOP_CHECK_KEY}).
+	 */
+	public static final String CHECKPOINT_INTERVAL_KEY = CONFIG_PREFIX + ".checkpointinterval";
+	/** Default value for CHECKPOINT_INTERVAL_KEY property */
+	public static final int CHECKPOINT_INTERVAL_DEFAULT = 1000;
+
+	/**
+	 * Key for boolean property. If true, the first call to optimize resumes
+	 * from the state in {@link #CHECKPOINT_FILE_KEY} if that file exists and
+	 * was written from a ground model with the same variables and terms.
+	 * Weights may differ. Otherwise optimization starts as usual.
+	 */
+	public static final String RESUME_KEY = CONFIG_PREFIX + ".resume";
+	/** Default value for RESUME_KEY property */
+	public static final boolean RESUME_DEFAULT = false;
+
+	/* Distance outside [0, 1] within which the value of a determined variable is clamped */
+	private static final double PRESOLVE_BOUND_TOLERANCE = 1e-9;
+
+	/* Violation within which a constraint without free variables is satisfied */
+	private static final double EMPTY_CONSTRAINT_TOLERANCE = 1e-9;
+
+	/* Time the main thread waits between convergence checks in asynchronous mode */
+	private static final long ASYNC_CHECK_INTERVAL_NANOS = 100000;
+
 	private int maxIter;
 	/* Sometimes called rho or eta */
-	public final double stepSize;
+	protected double stepSize;
+	private final boolean adaptiveStepSize;
+	private final int maxStepSizeChanges;
+	private final double residualBalance, stepSizeScale;
+	private final double relaxation;
+	private final boolean accelerate;
+	/* Momentum coefficient of the next extrapolation, set by the main thread */
+	private double momentum;
+	/* Consensus and dual values of the previous iteration, for extrapolation */
+	private double[] zPrev, yPrev;
 
 	private double epsilonRel, epsilonAbs;
 	private final int stopCheck;
 	private int n;
 	private boolean rebuildModel;
+	/** Creates the terms of ground rules */
+	private final TermParser parser = new ConsensusTermParser();
+	private boolean updateModel;
+	private int numRemovedLocalVariables;
+	private final boolean warmStart;
+	private final boolean reorder;
+	private final boolean componentwise;
+	private final boolean asynchronous;
+	private final int maxStaleness;
+	/* Tells asynchronous workers to stop */
+	private volatile boolean stopAsync;
+	/* Directory of the mapped local variable store, or null to keep it on the heap */
+	private final File storageDirectory;
+	/* Whether local variables are stored in single precision */
+	private final boolean singlePrecision;
+	private final boolean presolve;
+	private int numFixedVariables, numRemovedTerms;
+	/* Constraints without free variables found violated since the ground model was last built */
+	private int numViolatedConstraints;
+	/* File the iteration state is checkpointed to, or null */
+	private final File checkpointFile;
+	private final int checkpointInterval;
+	/* Whether the next call to optimize should try to resume from checkpointFile */
+	private boolean resume;
+	/* Canonical layout of the current ground model, created on first use */
+	private ADMMCheckpoint checkpoint;
+	private int lastIterations;
 	private double lagrangePenalty, augmentedLagrangePenalty;
 
 	/** Ground kernels defining the objective function */
@@ -137,6 +383,22 @@ public class ADMMReasoner implements Reasoner {
 	 */
 	protected Map<GroundRule, Integer> orderedGroundKernels;
 
+	/**
+	 * Values of the variables fixed by presolving, which are folded into the
+	 * constants of the terms instead of becoming consensus variables. Null
+	 * if the model was not presolved.
+	 */
+	protected Map<AtomFunctionVariable, Double> fixedVariables;
+
+	/* Constraints that fixed variables when presolving, and so have no terms */
+	private Set<GroundRule> fixingGroundKernels;
+
+	/*
+	 * Ground rules sharing a term after presolving merged them, indexed by
+	 * the term. Ground rules with terms of their own are not included.
+	 */
+	private Map<Integer, List<WeightedGroundRule>> mergedGroundKernels;
+
 	/** Ground kernels wrapped to be objective function terms for ADMM */
 	protected List<ADMMObjectiveTerm> terms;
 
@@ -147,29 +409,148 @@ public class ADMMReasoner implements Reasoner {
 	protected BidiMap<Integer, AtomFunctionVariable> variables;
 
 	/** Consensus vector */
-	protected List<Double> z;
+	protected double[] z;
 	/** Lower bounds on variables */
-	protected List<Double> lb;
+	protected double[] lb;
 	/** Upper bounds on variables */
-	protected List<Double> ub;
-	/** Lists of local variable locations for updating consensus variables */
-	protected List<List<VariableLocation>> varLocations;
+	protected double[] ub;
+
+	/**
+	 * Local variables of all terms: their local copies of consensus variables
+	 * (x), scaled dual variables (y), indices into z and coefficients. Each
+	 * term owns the contiguous range [term.start, term.start + term.size).
+	 */
+	protected LocalVariableStore locals;
+	/** Number of local variables allocated in locals */
+	protected int numLocalVariables;
+
+	/*
+	 * Locations of the local copies of each consensus variable, in compressed
+	 * sparse row form: the local copies of z[i] are the local variables at
+	 * locals.getLocation(varLocationOffsets[i]) to
+	 * locals.getLocation(varLocationOffsets[i+1] - 1).
+	 */
+	/** Offsets into the locations of locals, indexed by consensus variable */
+	protected int[] varLocationOffsets;
 
 	/* Multithreading variables */
 	private final int numThreads;
+	private final String threadPoolName;
+
+	/* Number of work chunks per thread in each phase of an iteration */
+	private static final int CHUNKS_PER_THREAD = 16;
+
+	/*
+	 * Boundaries of the chunks of terms and consensus variables that worker
+	 * threads claim during each phase. Chunks have roughly equal cost, so
+	 * large terms and heavily shared variables do not unbalance the threads.
+	 */
+	/** Offsets into terms of the term chunks */
+	private int[] termChunkOffsets;
+	/** Offsets into z of the consensus variable chunks */
+	private int[] zChunkOffsets;
+	/* Next chunk to claim in the current phase */
+	private final AtomicInteger nextTermChunk = new AtomicInteger();
+	private final AtomicInteger nextZChunk = new AtomicInteger();
+
+	/*
+	 * Connected components of the graph of terms and consensus variables.
+	 * Without componentwise convergence, the whole model is one component
+	 * and the per-variable and per-term arrays are null.
+	 */
+	private int numComponents = 1;
+	/** Component of each consensus variable */
+	private int[] varComponents;
+	/** Component of each term */
+	private int[] termComponents;
+	/** Number of local variables in each component */
+	private int[] componentSizes;
+	/** Whether each component is still being optimized */
+	private boolean[] activeComponents;
+
+	/* Positions of the residual sums of a component in the workers' accumulators */
+	private static final int PRIMAL_RES = 0;
+	private static final int DUAL_RES = 1;
+	private static final int AX_NORM = 2;
+	private static final int BZ_NORM = 3;
+	private static final int AY_NORM = 4;
+	private static final int LAGRANGE_PENALTY = 5;
+	private static final int AUGMENTED_LAGRANGE_PENALTY = 6;
+	private static final int NUM_RESIDUALS = 7;
 
 	public ADMMReasoner(ConfigBundle config) {
 		maxIter = config.getInt(MAX_ITER_KEY, MAX_ITER_DEFAULT);
 		stepSize = config.getDouble(STEP_SIZE_KEY, STEP_SIZE_DEFAULT);
+		adaptiveStepSize = config.getBoolean(ADAPTIVE_STEP_SIZE_KEY, ADAPTIVE_STEP_SIZE_DEFAULT);
+		maxStepSizeChanges = config.getInt(MAX_STEP_SIZE_CHANGES_KEY, MAX_STEP_SIZE_CHANGES_DEFAULT);
+		if (maxStepSizeChanges < 0)
+			throw new IllegalArgumentException("Property " + MAX_STEP_SIZE_CHANGES_KEY + " must be non-negative.");
+		residualBalance = config.getDouble(RESIDUAL_BALANCE_KEY, RESIDUAL_BALANCE_DEFAULT);
+		if (residualBalance <= 1.0)
+			throw new IllegalArgumentException("Property " + RESIDUAL_BALANCE_KEY + " must be greater than 1.");
+		stepSizeScale = config.getDouble(STEP_SIZE_SCALE_KEY, STEP_SIZE_SCALE_DEFAULT);
+		if (stepSizeScale <= 1.0)
+			throw new IllegalArgumentException("Property " + STEP_SIZE_SCALE_KEY + " must be greater than 1.");
+		relaxation = config.getDouble(RELAXATION_KEY, RELAXATION_DEFAULT);
+		if (relaxation <= 0.0 || relaxation >= 2.0)
+			throw new IllegalArgumentException("Property " + RELAXATION_KEY + " must be in (0, 2).");
+		accelerate = config.getBoolean(ACCELERATE_KEY, ACCELERATE_DEFAULT);
+		if (accelerate && relaxation != 1.0)
+			throw new IllegalArgumentException("Property " + ACCELERATE_KEY + " cannot be combined with " + RELAXATION_KEY + ".");
 		epsilonAbs = config.getDouble(EPSILON_ABS_KEY, EPSILON_ABS_DEFAULT);
 		if (epsilonAbs <= 0)
 			throw new IllegalArgumentException("Property " + EPSILON_ABS_KEY + " must be positive.");
 		epsilonRel = config.getDouble(EPSILON_REL_KEY, EPSILON_REL_DEFAULT);
 		if (epsilonRel <= 0)
 			throw new IllegalArgumentException("Property " + EPSILON_REL_KEY + " must be positive.");
-		stopCheck = config.getInt(STOP_CHECK_KEY, STOP_CHECK_DEFAULT);
+		int interval = config.getInt(STOP_CHECK_KEY, STOP_CHECK_DEFAULT);
+		if (interval <= 0)
+			throw new IllegalArgumentException("Property " + STOP_CHECK_KEY + " must be positive.");
+		if (accelerate && interval != 1) {
+			log.warn("Property {} is ignored when {} is true. Checking convergence every iteration.",
+					STOP_CHECK_KEY, ACCELERATE_KEY);
+			interval = 1;
+		}
+		stopCheck = interval;
 
 		rebuildModel = true;
+		warmStart = config.getBoolean(WARM_START_KEY, WARM_START_DEFAULT);
+		reorder = config.getBoolean(REORDER_KEY, REORDER_DEFAULT);
+		componentwise = config.getBoolean(COMPONENTWISE_KEY, COMPONENTWISE_DEFAULT);
+		asynchronous = config.getBoolean(ASYNCHRONOUS_KEY, ASYNCHRONOUS_DEFAULT);
+		if (asynchronous && (adaptiveStepSize || relaxation != 1.0 || accelerate || componentwise))
+			throw new IllegalArgumentException("Property " + ASYNCHRONOUS_KEY + " cannot be combined with "
+					+ ADAPTIVE_STEP_SIZE_KEY + ", " + RELAXATION_KEY + ", " + ACCELERATE_KEY + " or " + COMPONENTWISE_KEY + ".");
+		maxStaleness = config.getInt(MAX_STALENESS_KEY, MAX_STALENESS_DEFAULT);
+		if (maxStaleness < 0)
+			throw new IllegalArgumentException("Property " + MAX_STALENESS_KEY + " must be non-negative.");
+		if (config.getBoolean(MAPPED_STORAGE_KEY, MAPPED_STORAGE_DEFAULT)) {
+			if (accelerate)
+				throw new IllegalArgumentException("Property " + MAPPED_STORAGE_KEY + " cannot be combined with " + ACCELERATE_KEY + ".");
+			storageDirectory = new File(config.getString(STORAGE_DIRECTORY_KEY, STORAGE_DIRECTORY_DEFAULT));
+		}
+		else
+			storageDirectory = null;
+		String precision = config.getString(PRECISION_KEY, PRECISION_DEFAULT);
+		if (precision.equals("float"))
+			singlePrecision = true;
+		else if (precision.equals("double"))
+			singlePrecision = false;
+		else
+			throw new IllegalArgumentException("Property " + PRECISION_KEY + " must be \"double\" or \"float\".");
+		if (singlePrecision && storageDirectory != null)
+			throw new IllegalArgumentException("Property " + PRECISION_KEY + " cannot be \"float\" with " + MAPPED_STORAGE_KEY + ".");
+		presolve = config.getBoolean(PRESOLVE_KEY, PRESOLVE_DEFAULT);
+		String checkpointPath = config.getString(CHECKPOINT_FILE_KEY, CHECKPOINT_FILE_DEFAULT);
+		checkpointFile = (checkpointPath == null || checkpointPath.isEmpty()) ? null : new File(checkpointPath);
+		if (checkpointFile != null && asynchronous)
+			throw new IllegalArgumentException("Property " + CHECKPOINT_FILE_KEY + " cannot be combined with " + ASYNCHRONOUS_KEY + ".");
+		checkpointInterval = config.getInt(CHECKPOINT_INTERVAL_KEY, CHECKPOINT_INTERVAL_DEFAULT);
+		if (checkpointInterval <= 0)
+			throw new IllegalArgumentException("Property " + CHECKPOINT_INTERVAL_KEY + " must be positive.");
+		resume = config.getBoolean(RESUME_KEY, RESUME_DEFAULT);
+		if (resume && checkpointFile == null)
+			throw new IllegalArgumentException("Property " + RESUME_KEY + " requires " + CHECKPOINT_FILE_KEY + ".");
 
 		groundKernels = new HashSetValuedHashMap<Rule, GroundRule>();
 
@@ -177,6 +558,7 @@ public class ADMMReasoner implements Reasoner {
 		numThreads = config.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
 		if (numThreads <= 0)
 			throw new IllegalArgumentException("Property " + NUM_THREADS_KEY + " must be positive.");
+		threadPoolName = config.getString(THREAD_POOL_KEY, THREAD_POOL_DEFAULT);
 	}
 
 	public int getMaxIter() {
@@ -203,6 +585,55 @@ public class ADMMReasoner implements Reasoner {
 		this.epsilonAbs = epsilonAbs;
 	}
 
+	public double getStepSize() {
+		return stepSize;
+	}
+
+	/**
+	 * Changes the step size and updates any term state that depends on it.
+	 * <p>
+	 * The dual variables are stored unscaled, so they remain valid.
+	 */
+	protected void setStepSize(double stepSize) {
+		this.stepSize = stepSize;
+		if (terms != null)
+			for (ADMMObjectiveTerm term : terms)
+				if (term != null)
+					term.stepSizeChanged();
+	}
+
+	/**
+	 * @return the number of iterations performed by the last call to {@link #optimize()}
+	 */
+	public int getLastIterations() {
+		return lastIterations;
+	}
+
+	/**
+	 * @return the number of variables fixed by presolving when the ground
+	 *         model was last built
+	 */
+	public int getNumFixedVariables() {
+		return numFixedVariables;
+	}
+
+	/**
+	 * @return the number of ground rules that presolving left without a term
+	 *         of their own when the ground model was last built
+	 */
+	public int getNumRemovedTerms() {
+		return numRemovedTerms;
+	}
+
+	/**
+	 * @return the number of constraints without free variables, such as
+	 *         those whose variables were all fixed by presolving, that were
+	 *         found violated since the ground model was last built
+	 */
+	public int getNumViolatedConstraints() {
+		return numViolatedConstraints;
+	}
+
 	public double getLagrangianPenalty() {
 		return this.lagrangePenalty;
 	}
@@ -213,21 +644,33 @@ public class ADMMReasoner implements Reasoner {
 
 	@Override
 	public void addGroundRule(GroundRule gk) {
-		groundKernels.put(gk.getRule(), gk);
-		rebuildModel = true;
+		if (!groundKernels.put(gk.getRule(), gk))
+			return;
+
+		if (rebuildModel || !supportsIncrementalUpdates())
+			rebuildModel = true;
+		else
+			addTerm(gk);
 	}
 
 	@Override
 	public void changedGroundRule(GroundRule gk) {
-		rebuildModel = true;
+		if (rebuildModel || !supportsIncrementalUpdates() || fixingGroundKernels.contains(gk))
+			rebuildModel = true;
+		else {
+			removeTerm(gk);
+			addTerm(gk);
+		}
 	}
 
 	@Override
 	public void changedGroundKernelWeight(WeightedGroundRule gk) {
 		if (!rebuildModel) {
-			int index = orderedGroundKernels.get(gk);
-			if (index != -1) {
-				((WeightedObjectiveTerm) terms.get(index)).setWeight(gk.getWeight().getWeight());
+			Integer index = orderedGroundKernels.get(gk);
+			if (index != null) {
+				List<WeightedGroundRule> group = mergedGroundKernels.get(index);
+				((WeightedObjectiveTerm) terms.get(index)).setWeight(
+						(group != null) ? totalWeight(group) : gk.getWeight().getWeight());
 			}
 		}
 	}
@@ -241,8 +684,13 @@ public class ADMMReasoner implements Reasoner {
 
 	@Override
 	public void removeGroundKernel(GroundRule gk) {
-		groundKernels.removeMapping(gk.getRule(), gk);
-		rebuildModel = true;
+		if (!groundKernels.removeMapping(gk.getRule(), gk))
+			return;
+
+		if (rebuildModel || !supportsIncrementalUpdates() || fixingGroundKernels.contains(gk))
+			rebuildModel = true;
+		else
+			removeTerm(gk);
 	}
 
 	@Override
@@ -253,124 +701,761 @@ public class ADMMReasoner implements Reasoner {
 	protected void buildGroundModel() {
 		log.debug("(Re)building reasoner data structures");
 
+		/* Keeps the previous local state if it is to be reused */
+		WarmStartState previousState = null;
+		if (warmStart && terms != null)
+			previousState = new WarmStartState();
+		else if (locals != null)
+			locals.close();
+		int restored = 0;
+
 		/* Initializes data structures */
 		orderedGroundKernels = new HashMap<GroundRule, Integer>(groundKernels.size());
 		terms = new ArrayList<ADMMObjectiveTerm>(groundKernels.size());
 
 		variables = new DualHashBidiMap<Integer, AtomFunctionVariable>();
 
-		z = new ArrayList<Double>(groundKernels.size() * 2);
-		lb = new ArrayList<Double>(groundKernels.size() * 2);
-		ub = new ArrayList<Double>(groundKernels.size() * 2);
-		varLocations = new ArrayList<List<VariableLocation>>(groundKernels.size() * 2);
+		z = new double[Math.max(groundKernels.size() * 2, 16)];
+		lb = new double[z.length];
+		ub = new double[z.length];
 		n = 0;
 
+		locals = createLocalVariableStore(Math.max(groundKernels.size() * 2, 16));
+		numLocalVariables = 0;
+
+		boolean presolving = presolve && supportsPresolve();
+		fixedVariables = null;
+		fixingGroundKernels = new HashSet<GroundRule>();
+		mergedGroundKernels = new HashMap<Integer, List<WeightedGroundRule>>();
+		if (presolving)
+			fixDeterminedVariables();
+		/* First ground rule of each distinct weighted term, for merging the others into it */
+		Map<TermKey, WeightedGroundRule> distinctTerms = new HashMap<TermKey, WeightedGroundRule>();
+		int numEmpty = 0, numInactive = 0, numMerged = 0;
+		numViolatedConstraints = 0;
+
 		/* Initializes objective terms from ground kernels */
 		log.debug("Initializing objective terms for {} ground kernels", groundKernels.size());
 		for (GroundRule groundKernel : groundKernels.values()) {
+			if (fixingGroundKernels.contains(groundKernel))
+				continue;
+
 			ADMMObjectiveTerm term = createTerm(groundKernel);
+			if (term.size == 0) {
+				checkEmptyConstraint(groundKernel);
+				numEmpty++;
+				continue;
+			}
 
-			if (term.x.length > 0) {
-				registerLocalVariableCopies(term);
-				orderedGroundKernels.put(groundKernel, orderedGroundKernels.size());
-				terms.add(term);
+			if (presolving) {
+				if (isNeverActive(term)) {
+					releaseTerm(term);
+					numInactive++;
+					continue;
+				}
+
+				if (isMergeable(term)) {
+					TermKey key = new TermKey(term);
+					WeightedGroundRule first = distinctTerms.get(key);
+					if (first != null) {
+						releaseTerm(term);
+						mergeGroundKernel(first, (WeightedGroundRule) groundKernel);
+						numMerged++;
+						continue;
+					}
+					distinctTerms.put(key, (WeightedGroundRule) groundKernel);
+				}
 			}
+
+			if (previousState != null && previousState.restore(groundKernel, term))
+				restored++;
+			orderedGroundKernels.put(groundKernel, terms.size());
+			terms.add(term);
+		}
+
+		for (Map.Entry<Integer, List<WeightedGroundRule>> entry : mergedGroundKernels.entrySet())
+			((WeightedObjectiveTerm) terms.get(entry.getKey())).setWeight(totalWeight(entry.getValue()));
+
+		if (presolving) {
+			numFixedVariables = fixedVariables.size();
+			numRemovedTerms = fixingGroundKernels.size() + numEmpty + numInactive + numMerged;
+			log.info("Presolve fixed {} variables and removed {} of {} terms " +
+					"({} fixing constraints, {} without free variables, {} never active, {} merged duplicates)",
+					new Object[] {numFixedVariables, numRemovedTerms, groundKernels.size(),
+					fixingGroundKernels.size(), numEmpty, numInactive, numMerged});
+		}
+		else {
+			numFixedVariables = 0;
+			numRemovedTerms = 0;
+		}
+
+		if (previousState != null) {
+			previousState.locals.close();
+			log.debug("Warm started {} of {} terms", restored, terms.size());
 		}
 
+		trimArrays();
+		if (reorder)
+			reorderForLocality();
+		indexVariableLocations();
+		partitionWork();
+		if (componentwise)
+			findComponents();
+
+		numRemovedLocalVariables = 0;
 		rebuildModel = false;
+		updateModel = false;
 	}
 
 	/**
-	 * Processes a {@link GroundRule} to create a corresponding
-	 * {@link ADMMObjectiveTerm}
-	 *
-	 * @param groundKernel  the GroundKernel to be added to the ADMM objective
-	 * @return  the created ADMMObjectiveTerm
+	 * Whether ground rules can be added to and removed from a built ground
+	 * model without rebuilding it. Subclasses that initialize state over the
+	 * whole model in {@link #buildGroundModel()} should return false.
 	 */
-	protected ADMMObjectiveTerm createTerm(GroundRule groundKernel) {
-		boolean squared;
-		FunctionTerm function, innerFunction, zeroTerm, innerFunctionA, innerFunctionB;
-		ADMMObjectiveTerm term;
+	protected boolean supportsIncrementalUpdates() {
+		return true;
+	}
 
-		if (groundKernel instanceof WeightedGroundRule) {
-			function = ((WeightedGroundRule) groundKernel).getFunctionDefinition();
+	/**
+	 * Whether {@link #PRESOLVE_KEY} may simplify the ground model. Subclasses
+	 * whose terms depend on more than the linear functions of their ground
+	 * rules should return false.
+	 */
+	protected boolean supportsPresolve() {
+		return true;
+	}
 
-			/* Checks if the function is wrapped in a PowerOfTwo */
-			if (function instanceof PowerOfTwo) {
-				squared = true;
-				function = ((PowerOfTwo) function).getInnerFunction();
+	/**
+	 * Finds the variables whose values are determined by equality constraints
+	 * in which all other variables are observed or already fixed, repeating
+	 * until no more are found, and records them in {@link #fixedVariables}.
+	 */
+	private void fixDeterminedVariables() {
+		fixedVariables = new HashMap<AtomFunctionVariable, Double>();
+
+		List<UnweightedGroundRule> equalities = new ArrayList<UnweightedGroundRule>();
+		List<ConstraintTerm> constraints = new ArrayList<ConstraintTerm>();
+		for (UnweightedGroundRule groundKernel : getConstraintKernels()) {
+			ConstraintTerm constraint = groundKernel.getConstraintDefinition();
+			if (constraint.getComparator().equals(FunctionComparator.Equality)
+					&& constraint.getFunction() instanceof FunctionSum) {
+				equalities.add(groundKernel);
+				constraints.add(constraint);
 			}
-			else
-				squared = false;
+		}
 
-			/*
-			 * If the FunctionTerm is a MaxFunction, ensures that it has two arguments, a linear
-			 * function and zero, and constructs the objective term (a hinge loss)
-			 */
-			if (function instanceof MaxFunction) {
-				if (((MaxFunction) function).size() != 2)
-					throw new IllegalArgumentException("Max function must have one linear function and 0.0 as arguments.");
-				innerFunction = null;
-				zeroTerm = null;
-				innerFunctionA = ((MaxFunction) function).get(0);
-				innerFunctionB = ((MaxFunction) function).get(1);
-
-				if (innerFunctionA instanceof ConstantNumber && innerFunctionA.getValue() == 0.0) {
-					zeroTerm = innerFunctionA;
-					innerFunction = innerFunctionB;
-				}
-				else if (innerFunctionB instanceof ConstantNumber && innerFunctionB.getValue() == 0.0) {
-					zeroTerm = innerFunctionB;
-					innerFunction = innerFunctionA;
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int i = 0; i < equalities.size(); i++) {
+				if (fixingGroundKernels.contains(equalities.get(i)))
+					continue;
+				if (fixFreeVariable(constraints.get(i))) {
+					fixingGroundKernels.add(equalities.get(i));
+					changed = true;
 				}
+			}
+		}
+	}
+
+	/**
+	 * Fixes the only free variable of an equality constraint to the value
+	 * that satisfies it, if there is exactly one and the value is within
+	 * [0, 1].
+	 *
+	 * @return whether a variable was fixed
+	 */
+	private boolean fixFreeVariable(ConstraintTerm constraint) {
+		AtomFunctionVariable free = null;
+		double coeff = 0.0;
+		double value = constraint.getValue();
+		for (FunctionSummand summand : (FunctionSum) constraint.getFunction()) {
+			FunctionSingleton singleton = summand.getTerm();
+			Double fixedValue = fixedVariables.get(singleton);
+			if (fixedValue != null)
+				value -= summand.getCoefficient() * fixedValue;
+			else if (singleton.isConstant())
+				value -= summand.getValue();
+			else if (singleton instanceof AtomFunctionVariable && (free == null || free.equals(singleton))) {
+				free = (AtomFunctionVariable) singleton;
+				coeff += summand.getCoefficient();
+			}
+			else
+				return false;
+		}
 
-				if (zeroTerm == null)
-					throw new IllegalArgumentException("Max function must have one linear function and 0.0 as arguments.");
+		if (free == null || coeff == 0.0)
+			return false;
+		value /= coeff;
+		if (value < -PRESOLVE_BOUND_TOLERANCE || value > 1.0 + PRESOLVE_BOUND_TOLERANCE)
+			return false;
 
-				if (innerFunction instanceof FunctionSum) {
-					Hyperplane hp = processHyperplane((FunctionSum) innerFunction);
-					if (squared) {
-						term = new SquaredHingeLossTerm(this, hp.zIndices, hp.coeffs, hp.constant,
-								((WeightedGroundRule) groundKernel).getWeight().getWeight());
-					}
-					else {
-						term = new HingeLossTerm(this, hp.zIndices, hp.coeffs, hp.constant,
-								((WeightedGroundRule) groundKernel).getWeight().getWeight());
+		fixedVariables.put(free, Math.min(1.0, Math.max(0.0, value)));
+		return true;
+	}
+
+	/**
+	 * Logs an error if the ground rule last parsed is a constraint without
+	 * free variables that does not hold. Its term has nothing to optimize, so
+	 * the violation would otherwise go unnoticed.
+	 */
+	private void checkEmptyConstraint(GroundRule groundKernel) {
+		byte type = parser.getType();
+		if (!TermBatch.isConstraint(type))
+			return;
+
+		/* Without variables, the hyperplane is 0 [?] constant */
+		double constant = parser.getConstant();
+		double violation;
+		switch (TermBatch.getComparator(type)) {
+		case SmallerThan:
+			violation = -constant;
+			break;
+		case LargerThan:
+			violation = constant;
+			break;
+		default:
+			violation = Math.abs(constant);
+		}
+
+		if (violation > EMPTY_CONSTRAINT_TOLERANCE) {
+			numViolatedConstraints++;
+			log.error("Constraint {} has no free variables and is violated by {}", groundKernel, violation);
+		}
+	}
+
+	/**
+	 * @return whether a term is a hinge loss that is zero everywhere within
+	 *         the bounds of its variables
+	 */
+	private boolean isNeverActive(ADMMObjectiveTerm term) {
+		double constant;
+		if (term instanceof HingeLossTerm)
+			constant = ((HingeLossTerm) term).constant;
+		else if (term instanceof SquaredHingeLossTerm)
+			constant = ((SquaredHingeLossTerm) term).constant;
+		else
+			return false;
+
+		double max = 0.0;
+		for (int i = term.start; i < term.start + term.size; i++) {
+			double coeff = locals.getCoeff(i);
+			max += coeff * ((coeff > 0) ? ub[locals.getZIndex(i)] : lb[locals.getZIndex(i)]);
+		}
+		return max <= constant;
+	}
+
+	/**
+	 * @return whether a term is fully described by its class, variables,
+	 *         coefficients and constant, times its weight
+	 */
+	private static boolean isMergeable(ADMMObjectiveTerm term) {
+		return term instanceof HingeLossTerm || term instanceof SquaredHyperplaneTerm
+				|| term instanceof LinearLossTerm;
+	}
+
+	/**
+	 * Makes a ground rule share the term of an identical ground rule. The
+	 * weight of the term is set after all ground rules are merged.
+	 */
+	private void mergeGroundKernel(WeightedGroundRule first, WeightedGroundRule groundKernel) {
+		int index = orderedGroundKernels.get(first);
+		List<WeightedGroundRule> group = mergedGroundKernels.get(index);
+		if (group == null) {
+			group = new ArrayList<WeightedGroundRule>(2);
+			group.add(first);
+			mergedGroundKernels.put(index, group);
+		}
+		group.add(groundKernel);
+		orderedGroundKernels.put(groundKernel, index);
+	}
+
+	private static double totalWeight(List<WeightedGroundRule> groundKernels) {
+		double weight = 0.0;
+		for (WeightedGroundRule groundKernel : groundKernels)
+			weight += groundKernel.getWeight().getWeight();
+		return weight;
+	}
+
+	/**
+	 * Returns the local variables of the most recently created term, which
+	 * is discarded, to the local store.
+	 */
+	private void releaseTerm(ADMMObjectiveTerm term) {
+		numLocalVariables -= term.size;
+		n -= term.size;
+	}
+
+	/**
+	 * Appends the term of a ground rule to the built ground model,
+	 * registering any new consensus variables.
+	 */
+	private void addTerm(GroundRule groundKernel) {
+		ADMMObjectiveTerm term = createTerm(groundKernel);
+		if (term.size == 0)
+			checkEmptyConstraint(groundKernel);
+		else if (fixedVariables != null && isNeverActive(term))
+			releaseTerm(term);
+		else {
+			orderedGroundKernels.put(groundKernel, terms.size());
+			terms.add(term);
+		}
+		updateModel = true;
+	}
+
+	/**
+	 * Removes the term of a ground rule from the built ground model by
+	 * leaving a tombstone in its place. The space is reclaimed by
+	 * {@link #compactTerms()}.
+	 */
+	private void removeTerm(GroundRule groundKernel) {
+		Integer index = orderedGroundKernels.remove(groundKernel);
+		if (index == null)
+			return;
+
+		/* Keeps a merged term until its last ground rule is removed */
+		List<WeightedGroundRule> group = mergedGroundKernels.get(index);
+		if (group != null) {
+			group.remove(groundKernel);
+			if (group.size() == 1)
+				mergedGroundKernels.remove(index);
+			((WeightedObjectiveTerm) terms.get(index)).setWeight(totalWeight(group));
+			return;
+		}
+
+		ADMMObjectiveTerm term = terms.set(index, null);
+		for (int i = term.start; i < term.start + term.size; i++)
+			locals.setZIndex(i, -1);
+		n -= term.size;
+		numRemovedLocalVariables += term.size;
+		updateModel = true;
+	}
+
+	/**
+	 * Brings the data structures up to date after terms were added or removed
+	 * from a built ground model.
+	 */
+	private void updateGroundModel() {
+		log.debug("Updating reasoner data structures");
+
+		/* Reclaims the space of removed terms once it is a significant fraction */
+		if (numRemovedLocalVariables > numLocalVariables / 4)
+			compactTerms();
+
+		trimArrays();
+		indexVariableLocations();
+		partitionWork();
+		if (componentwise)
+			findComponents();
+
+		updateModel = false;
+	}
+
+	/**
+	 * Moves the local variables of all live terms to the front of the local
+	 * store, preserving their order, and drops the tombstones of removed terms.
+	 */
+	private void compactTerms() {
+		int[] newIndices = new int[terms.size()];
+		List<ADMMObjectiveTerm> liveTerms = new ArrayList<ADMMObjectiveTerm>(orderedGroundKernels.size());
+		int next = 0;
+		for (int i = 0; i < terms.size(); i++) {
+			ADMMObjectiveTerm term = terms.get(i);
+			if (term == null)
+				continue;
+
+			locals.move(term.start, next, term.size);
+			term.start = next;
+			next += term.size;
+
+			newIndices[i] = liveTerms.size();
+			liveTerms.add(term);
+		}
+
+		for (Map.Entry<GroundRule, Integer> entry : orderedGroundKernels.entrySet())
+			entry.setValue(newIndices[entry.getValue()]);
+		Map<Integer, List<WeightedGroundRule>> newMergedGroundKernels = new HashMap<Integer, List<WeightedGroundRule>>();
+		for (Map.Entry<Integer, List<WeightedGroundRule>> entry : mergedGroundKernels.entrySet())
+			newMergedGroundKernels.put(newIndices[entry.getKey()], entry.getValue());
+		mergedGroundKernels = newMergedGroundKernels;
+
+		log.debug("Compacted {} terms into {}", terms.size(), liveTerms.size());
+		terms = liveTerms;
+		numLocalVariables = next;
+		numRemovedLocalVariables = 0;
+	}
+
+	/**
+	 * Trims the consensus arrays and local store to the number of variables actually created.
+	 */
+	private void trimArrays() {
+		if (z.length != variables.size()) {
+			z = Arrays.copyOf(z, variables.size());
+			lb = Arrays.copyOf(lb, variables.size());
+			ub = Arrays.copyOf(ub, variables.size());
+		}
+
+		locals.trim(numLocalVariables);
+	}
+
+	/**
+	 * Creates an empty store for local variables, on the heap or memory
+	 * mapped according to {@link #MAPPED_STORAGE_KEY} and in the precision
+	 * of {@link #PRECISION_KEY}.
+	 */
+	private LocalVariableStore createLocalVariableStore(int capacity) {
+		if (storageDirectory != null)
+			return new MappedLocalVariableStore(storageDirectory, capacity);
+		else if (singlePrecision)
+			return new FloatLocalVariableStore(capacity);
+		else
+			return new HeapLocalVariableStore(capacity);
+	}
+
+	/**
+	 * Reserves a contiguous range of local variables for a new
+	 * {@link ADMMObjectiveTerm}. The local copies are initialized to the
+	 * current consensus values and the dual variables to zero.
+	 *
+	 * @param termZIndices  the indices into z of the term's variables
+	 * @param termCoeffs  the coefficients of the term's variables
+	 * @return  the index of the first reserved local variable
+	 */
+	protected int allocateLocalVariables(int[] termZIndices, double[] termCoeffs) {
+		if (locals == null)
+			locals = createLocalVariableStore(Math.max(termZIndices.length, 16));
+		else
+			locals.ensureCapacity(numLocalVariables + termZIndices.length);
+
+		int start = numLocalVariables;
+		for (int i = 0; i < termZIndices.length; i++) {
+			locals.setX(start + i, z[termZIndices[i]]);
+			locals.setY(start + i, 0.0);
+			locals.setZIndex(start + i, termZIndices[i]);
+			locals.setCoeff(start + i, termCoeffs[i]);
+		}
+		numLocalVariables += termZIndices.length;
+
+		return start;
+	}
+
+	/**
+	 * Renumbers the consensus variables and permutes the built terms and their
+	 * local variables so that terms sharing variables, and the variables they
+	 * share, are close together in memory. The order is a breadth-first
+	 * traversal of the bipartite graph of terms and variables (Cuthill-McKee
+	 * ordering) that starts each connected component from a variable of
+	 * minimum degree.
+	 * <p>
+	 * Terms added incrementally later are appended after the ordered ones.
+	 */
+	private void reorderForLocality() {
+		int numVariables = z.length;
+		int numTerms = terms.size();
+
+		/* Indexes the terms containing each variable */
+		int[] termOffsets = new int[numVariables + 1];
+		for (int i = 0; i < numLocalVariables; i++)
+			termOffsets[locals.getZIndex(i) + 1]++;
+		for (int i = 0; i < numVariables; i++)
+			termOffsets[i + 1] += termOffsets[i];
+		int[] varTerms = new int[termOffsets[numVariables]];
+		int[] next = Arrays.copyOf(termOffsets, numVariables);
+		for (int t = 0; t < numTerms; t++) {
+			ADMMObjectiveTerm term = terms.get(t);
+			for (int i = term.start; i < term.start + term.size; i++)
+				varTerms[next[locals.getZIndex(i)]++] = t;
+		}
+
+		/* Sorts the variables by degree, with a counting sort */
+		int maxDegree = 0;
+		for (int i = 0; i < numVariables; i++)
+			maxDegree = Math.max(maxDegree, termOffsets[i + 1] - termOffsets[i]);
+		int[] degreeOffsets = new int[maxDegree + 2];
+		for (int i = 0; i < numVariables; i++)
+			degreeOffsets[termOffsets[i + 1] - termOffsets[i] + 1]++;
+		for (int i = 0; i <= maxDegree; i++)
+			degreeOffsets[i + 1] += degreeOffsets[i];
+		int[] byDegree = new int[numVariables];
+		for (int i = 0; i < numVariables; i++)
+			byDegree[degreeOffsets[termOffsets[i + 1] - termOffsets[i]]++] = i;
+
+		/* Traverses the graph, numbering variables and terms as they are reached */
+		int[] newVarIndices = new int[numVariables];
+		Arrays.fill(newVarIndices, -1);
+		boolean[] termReached = new boolean[numTerms];
+		/* The variables and terms in their new order; varOrder doubles as the traversal queue */
+		int[] varOrder = new int[numVariables];
+		int[] termOrder = new int[numTerms];
+		int numOrderedVars = 0;
+		int numOrderedTerms = 0;
+		int head = 0;
+		for (int root : byDegree) {
+			if (newVarIndices[root] != -1)
+				continue;
+			newVarIndices[root] = numOrderedVars;
+			varOrder[numOrderedVars++] = root;
+
+			while (head < numOrderedVars) {
+				int var = varOrder[head++];
+				for (int j = termOffsets[var]; j < termOffsets[var + 1]; j++) {
+					int t = varTerms[j];
+					if (termReached[t])
+						continue;
+					termReached[t] = true;
+					termOrder[numOrderedTerms++] = t;
+
+					ADMMObjectiveTerm term = terms.get(t);
+					for (int i = term.start; i < term.start + term.size; i++) {
+						int neighbor = locals.getZIndex(i);
+						if (newVarIndices[neighbor] == -1) {
+							newVarIndices[neighbor] = numOrderedVars;
+							varOrder[numOrderedVars++] = neighbor;
+						}
 					}
 				}
-				else
-					throw new IllegalArgumentException("Max function must have one linear function and 0.0 as arguments.");
-			}
-			/* Else, if it's a FunctionSum, constructs the objective term (a linear loss) */
-			else if (function instanceof FunctionSum) {
-				Hyperplane hp = processHyperplane((FunctionSum) function);
-				if (squared) {
-					term = new SquaredLinearLossTerm(this, hp.zIndices, hp.coeffs, 0.0,
-							((WeightedGroundRule) groundKernel).getWeight().getWeight());
-				}
-				else {
-					term = new LinearLossTerm(this, hp.zIndices, hp.coeffs,
-							((WeightedGroundRule) groundKernel).getWeight().getWeight());
+			}
+		}
+
+		/* Permutes the consensus variables */
+		double[] newZ = new double[numVariables];
+		double[] newLb = new double[numVariables];
+		double[] newUb = new double[numVariables];
+		BidiMap<Integer, AtomFunctionVariable> newVariables = new DualHashBidiMap<Integer, AtomFunctionVariable>();
+		for (int i = 0; i < numVariables; i++) {
+			int old = varOrder[i];
+			newZ[i] = z[old];
+			newLb[i] = lb[old];
+			newUb[i] = ub[old];
+			newVariables.put(i, variables.get(old));
+		}
+		z = newZ;
+		lb = newLb;
+		ub = newUb;
+		variables = newVariables;
+
+		/* Assigns each term its position and the start of its local variables in the new order */
+		int[] newTermIndices = new int[numTerms];
+		int[] newStarts = new int[numTerms];
+		List<ADMMObjectiveTerm> newTerms = new ArrayList<ADMMObjectiveTerm>(numTerms);
+		int nextStart = 0;
+		for (int t : termOrder) {
+			ADMMObjectiveTerm term = terms.get(t);
+			newTermIndices[t] = newTerms.size();
+			newStarts[t] = nextStart;
+			nextStart += term.size;
+			newTerms.add(term);
+		}
+
+		/*
+		 * Permutes the local variables in place by following the cycles of
+		 * the permutation, renumbering their consensus variables on the way
+		 */
+		int[] newLocalIndices = new int[numLocalVariables];
+		for (int t = 0; t < numTerms; t++) {
+			ADMMObjectiveTerm term = terms.get(t);
+			for (int i = 0; i < term.size; i++)
+				newLocalIndices[term.start + i] = newStarts[t] + i;
+		}
+		for (int i = 0; i < numLocalVariables; i++)
+			locals.setZIndex(i, newVarIndices[locals.getZIndex(i)]);
+		BitSet placed = new BitSet(numLocalVariables);
+		for (int i = 0; i < numLocalVariables; i++) {
+			if (placed.get(i))
+				continue;
+
+			double x = locals.getX(i);
+			double y = locals.getY(i);
+			int zIndex = locals.getZIndex(i);
+			double coeff = locals.getCoeff(i);
+			int target = i;
+			do {
+				target = newLocalIndices[target];
+				double nextX = locals.getX(target);
+				double nextY = locals.getY(target);
+				int nextZIndex = locals.getZIndex(target);
+				double nextCoeff = locals.getCoeff(target);
+				locals.setX(target, x);
+				locals.setY(target, y);
+				locals.setZIndex(target, zIndex);
+				locals.setCoeff(target, coeff);
+				placed.set(target);
+				x = nextX;
+				y = nextY;
+				zIndex = nextZIndex;
+				coeff = nextCoeff;
+			} while (target != i);
+		}
+
+		/* Permutes the terms */
+		for (int t = 0; t < numTerms; t++)
+			terms.get(t).start = newStarts[t];
+		terms = newTerms;
+		for (Map.Entry<GroundRule, Integer> entry : orderedGroundKernels.entrySet())
+			entry.setValue(newTermIndices[entry.getValue()]);
+		Map<Integer, List<WeightedGroundRule>> newMergedGroundKernels = new HashMap<Integer, List<WeightedGroundRule>>();
+		for (Map.Entry<Integer, List<WeightedGroundRule>> entry : mergedGroundKernels.entrySet())
+			newMergedGroundKernels.put(newTermIndices[entry.getKey()], entry.getValue());
+		mergedGroundKernels = newMergedGroundKernels;
+	}
+
+	/**
+	 * Builds the compressed sparse row index from consensus variables to
+	 * their local copies. Local variables of removed terms are skipped.
+	 */
+	private void indexVariableLocations() {
+		varLocationOffsets = new int[z.length + 1];
+		for (int i = 0; i < numLocalVariables; i++)
+			if (locals.getZIndex(i) != -1)
+				varLocationOffsets[locals.getZIndex(i) + 1]++;
+		for (int i = 0; i < z.length; i++)
+			varLocationOffsets[i + 1] += varLocationOffsets[i];
+
+		int[] next = Arrays.copyOf(varLocationOffsets, z.length);
+		for (int i = 0; i < numLocalVariables; i++)
+			if (locals.getZIndex(i) != -1)
+				locals.setLocation(next[locals.getZIndex(i)]++, i);
+	}
+
+	/**
+	 * Divides the terms and the consensus variables into chunks of roughly
+	 * equal cost. A term costs its number of local variables and a consensus
+	 * variable its number of local copies, each plus one for its overhead.
+	 */
+	private void partitionWork() {
+		int numChunks = numThreads * CHUNKS_PER_THREAD;
+
+		int[] termCosts = new int[terms.size()];
+		for (int i = 0; i < termCosts.length; i++) {
+			ADMMObjectiveTerm term = terms.get(i);
+			termCosts[i] = (term == null) ? 0 : term.size + 1;
+		}
+		termChunkOffsets = chunkOffsets(termCosts, numChunks);
+
+		int[] zCosts = new int[z.length];
+		for (int i = 0; i < zCosts.length; i++)
+			zCosts[i] = varLocationOffsets[i + 1] - varLocationOffsets[i] + 1;
+		zChunkOffsets = chunkOffsets(zCosts, numChunks);
+	}
+
+	/**
+	 * Finds the connected components of the graph of live terms and the
+	 * consensus variables they share, with a union-find over zIndices.
+	 * Components are numbered in order of their first variable.
+	 */
+	private void findComponents() {
+		int[] parents = new int[z.length];
+		for (int i = 0; i < parents.length; i++)
+			parents[i] = i;
+
+		for (ADMMObjectiveTerm term : terms) {
+			if (term == null)
+				continue;
+			int root = findRoot(parents, locals.getZIndex(term.start));
+			for (int i = term.start + 1; i < term.start + term.size; i++) {
+				int other = findRoot(parents, locals.getZIndex(i));
+				if (other < root) {
+					parents[root] = other;
+					root = other;
 				}
+				else if (other > root)
+					parents[other] = root;
 			}
-			else
-				throw new IllegalArgumentException("Unrecognized function: " + ((WeightedGroundRule) groundKernel).getFunctionDefinition());
 		}
-		else if (groundKernel instanceof UnweightedGroundRule) {
-			ConstraintTerm constraint = ((UnweightedGroundRule) groundKernel).getConstraintDefinition();
-			function = constraint.getFunction();
-			if (function instanceof FunctionSum) {
-				Hyperplane hp = processHyperplane((FunctionSum) function);
-				term = new LinearConstraintTerm(this, hp.zIndices, hp.coeffs,
-						constraint.getValue() + hp.constant, constraint.getComparator());
+
+		/* Roots are the smallest variable in each component, so they come first */
+		varComponents = new int[z.length];
+		numComponents = 0;
+		for (int i = 0; i < z.length; i++) {
+			int root = findRoot(parents, i);
+			varComponents[i] = (root == i) ? numComponents++ : varComponents[root];
+		}
+
+		termComponents = new int[terms.size()];
+		componentSizes = new int[numComponents];
+		for (int i = 0; i < terms.size(); i++) {
+			ADMMObjectiveTerm term = terms.get(i);
+			if (term == null)
+				continue;
+			termComponents[i] = varComponents[locals.getZIndex(term.start)];
+			componentSizes[termComponents[i]] += term.size;
+		}
+
+		log.debug("Found {} connected components", numComponents);
+	}
+
+	private static int findRoot(int[] parents, int i) {
+		while (parents[i] != i) {
+			/* Halves the path on the way up */
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	/**
+	 * Splits a sequence of costs into at most numChunks contiguous chunks
+	 * whose total costs are as close as possible to equal without splitting
+	 * an element.
+	 *
+	 * @return the start index of each chunk, followed by costs.length
+	 */
+	private static int[] chunkOffsets(int[] costs, int numChunks) {
+		long totalCost = 0;
+		for (int cost : costs)
+			totalCost += cost;
+		long target = Math.max(1, (totalCost + numChunks - 1) / numChunks);
+
+		int[] offsets = new int[numChunks + 1];
+		int count = 0;
+		long chunkCost = 0;
+		boolean open = false;
+		for (int i = 0; i < costs.length; i++) {
+			/*
+			 * Elements without cost, such as removed terms, join the open
+			 * chunk, and any left once every chunk is full join the last one
+			 */
+			if (!open && count < numChunks) {
+				offsets[count++] = i;
+				open = true;
+			}
+			chunkCost += costs[i];
+			if (chunkCost >= target) {
+				chunkCost = 0;
+				open = false;
 			}
-			else
-				throw new IllegalArgumentException("Unrecognized constraint: " + constraint);
 		}
-		else
-			throw new IllegalArgumentException("Unsupported ground kernel: " + groundKernel);
+		offsets[count] = costs.length;
+		return Arrays.copyOf(offsets, count + 1);
+	}
 
-		return term;
+	/**
+	 * Processes a {@link GroundRule} to create a corresponding
+	 * {@link ADMMObjectiveTerm}
+	 *
+	 * @param groundKernel  the GroundKernel to be added to the ADMM objective
+	 * @return  the created ADMMObjectiveTerm
+	 */
+	protected ADMMObjectiveTerm createTerm(GroundRule groundKernel) {
+		parser.parse(groundKernel);
+		int[] zIndices = parser.getVariableIndices();
+		double[] coeffs = parser.getCoefficients();
+		n += zIndices.length;
+
+		double weight = parser.getWeight();
+		switch (parser.getType()) {
+		case TermBatch.HINGE:
+			return new HingeLossTerm(this, zIndices, coeffs, parser.getConstant(), weight);
+		case TermBatch.SQUARED_HINGE:
+			return new SquaredHingeLossTerm(this, zIndices, coeffs, parser.getConstant(), weight);
+		case TermBatch.LINEAR:
+			return new LinearLossTerm(this, zIndices, coeffs, weight);
+		case TermBatch.SQUARED_LINEAR:
+			return new SquaredLinearLossTerm(this, zIndices, coeffs, 0.0, weight);
+		default:
+			return new LinearConstraintTerm(this, zIndices, coeffs, parser.getConstant(),
+					TermBatch.getComparator(parser.getType()));
+		}
 	}
 
 	/**
@@ -380,11 +1465,13 @@ public class ADMMReasoner implements Reasoner {
 	 * @return local (dual) incompatibility
 	 */
 	public double getDualIncompatibility(GroundRule gk) {
-		int index = orderedGroundKernels.get(gk);
+		Integer index = orderedGroundKernels.get(gk);
+		/* Ground rules dropped by presolving have no local copies */
+		if (index == null)
+			return ((WeightedGroundRule) gk).getIncompatibility();
 		ADMMObjectiveTerm term = terms.get(index);
-		for (int i = 0; i < term.zIndices.length; i++) {
-			int zIndex = term.zIndices[i];
-			variables.get(zIndex).setValue(term.x[i]);
+		for (int i = term.start; i < term.start + term.size; i++) {
+			variables.get(locals.getZIndex(i)).setValue(locals.getX(i));
 		}
 		return ((WeightedGroundRule) gk).getIncompatibility();
 	}
@@ -394,43 +1481,108 @@ public class ADMMReasoner implements Reasoner {
 			throw new IllegalStateException("Consensus variables have not been initialized. "
 					+ "Must call optimize() first.");
 		}
-		return z.get(index);
+		return z[index];
+	}
+
+	/**
+	 * Worker thread of an optimization, with the consensus update shared by
+	 * the synchronous and asynchronous loops.
+	 */
+	private abstract class ADMMWorker implements Runnable {
+		/* Time spent working and waiting for other threads, in nanoseconds */
+		protected long busyTime, idleTime;
+
+		/* This thread's contributions to the residual sums, NUM_RESIDUALS per component */
+		protected final double[] residuals = new double[numComponents * NUM_RESIDUALS];
+
+		/**
+		 * Updates z[i] from its local copies and, if check is true,
+		 * accumulates its contributions to the residuals of its component,
+		 * which start at residuals[offset].
+		 */
+		protected void updateConsensus(int i, boolean check, int offset) {
+			int locationStart = varLocationOffsets[i];
+			int locationEnd = varLocationOffsets[i + 1];
+			int numLocations = locationEnd - locationStart;
+			/* Skips variables whose terms have all been removed */
+			if (numLocations == 0)
+				return;
+
+			LocalVariableStore locals = ADMMReasoner.this.locals;
+			double total = 0.0;
+			/* First pass computes newZ and dual residual */
+			for (int j = locationStart; j < locationEnd; j++) {
+				int location = locals.getLocation(j);
+				double xj = locals.getX(location);
+				double yj = locals.getY(location);
+				if (relaxation == 1.0)
+					total += xj + yj / stepSize;
+				else
+					total += relaxation * xj + (1 - relaxation) * z[i] + yj / stepSize;
+				if (check) {
+					residuals[offset + AX_NORM] += xj * xj;
+					residuals[offset + AY_NORM] += yj * yj;
+				}
+			}
+			double oldZ = z[i];
+			double newZ = total / numLocations;
+			if (newZ < lb[i])
+				newZ = lb[i];
+			else if (newZ > ub[i])
+				newZ = ub[i];
+
+			if (check) {
+				double diff = z[i] - newZ;
+				/* Residual is diff^2 * number of local variables mapped to z element */
+				residuals[offset + DUAL_RES] += diff * diff * numLocations;
+				residuals[offset + BZ_NORM] += newZ * newZ * numLocations;
+			}
+			z[i] = newZ;
+
+			/* Second pass computes primal residuals */
+			if (check) {
+				for (int j = locationStart; j < locationEnd; j++) {
+					int location = locals.getLocation(j);
+					double diff = locals.getX(location) - newZ;
+					residuals[offset + PRIMAL_RES] += diff * diff;
+					// computes Lagrangian penalties
+					residuals[offset + LAGRANGE_PENALTY] += locals.getY(location) * diff;
+					residuals[offset + AUGMENTED_LAGRANGE_PENALTY] += 0.5 * stepSize * diff * diff;
+				}
+			}
+
+			/*
+			 * Replaces the local copies with their relaxed values, which
+			 * the dual update then uses in place of x
+			 */
+			if (relaxation != 1.0)
+				for (int j = locationStart; j < locationEnd; j++) {
+					int location = locals.getLocation(j);
+					locals.setX(location, relaxation * locals.getX(location) + (1 - relaxation) * oldZ);
+				}
+
+			if (accelerate)
+				for (int j = locationStart; j < locationEnd; j++) {
+					int location = locals.getLocation(j);
+					locals.setY(location, locals.getY(location) + stepSize * (locals.getX(location) - newZ));
+				}
+		}
 	}
 
-	private class ADMMTask implements Runnable {
+	private class ADMMTask extends ADMMWorker {
 		public boolean flag;
-		private final int termStart, termEnd;
-		private final int zStart, zEnd;
 		private final CyclicBarrier workerBarrier, checkBarrier;
 		private final Semaphore notification;
 
-		public ADMMTask(int index, CyclicBarrier wBarrier, CyclicBarrier cBarrier, Semaphore notification) {
+		public ADMMTask(CyclicBarrier wBarrier, CyclicBarrier cBarrier, Semaphore notification) {
 			this.workerBarrier = wBarrier;
 			this.checkBarrier = cBarrier;
 			this.notification = notification;
 			this.flag = true;
-
-
-			// Determine the section of the terms this thread will look at
-			int tIncrement = (int)(Math.ceil((double)terms.size() / (double)numThreads));
-			this.termStart = tIncrement * index;
-			this.termEnd = Math.min(termStart + tIncrement, terms.size());
-
-			// Determine the section of the z vector this thread will look at
-			int zIncrement = (int)(Math.ceil((double)z.size() / (double)numThreads));
-			this.zStart = zIncrement * index;
-			this.zEnd = Math.min(zStart + zIncrement, z.size());
 		}
 
-		public double primalResInc = 0.0;
-		public double dualResInc = 0.0;
-		public double AxNormInc = 0.0;
-		public double BzNormInc = 0.0;
-		public double AyNormInc = 0.0;
-		protected double lagrangePenalty = 0.0;
-		protected double augmentedLagrangePenalty = 0.0;
-
 		private void awaitUninterruptibly(CyclicBarrier b) {
+			long start = System.nanoTime();
 			try {
 				b.await();
 			} catch (InterruptedException e) {
@@ -438,99 +1590,266 @@ public class ADMMReasoner implements Reasoner {
 			} catch (BrokenBarrierException e) {
 				throw new RuntimeException(e);
 			}
+			idleTime += System.nanoTime() - start;
 		}
 
 		@Override
 		public void run() {
 			awaitUninterruptibly(checkBarrier);
+			long start = System.nanoTime();
+			idleTime = 0;
 
 			int iter = 1;
 			while (flag) {
+				/* Must match the condition of the main loop, which waits for a notification */
 				boolean check = (iter-1) % stopCheck == 0;
 
+				if (accelerate) {
+					for (int chunk = nextZChunk.getAndIncrement(); chunk < zChunkOffsets.length - 1; chunk = nextZChunk.getAndIncrement())
+						extrapolate(zChunkOffsets[chunk], zChunkOffsets[chunk + 1]);
+					/* Terms may read extrapolated values from other sections */
+					if (momentum != 0.0)
+						awaitUninterruptibly(workerBarrier);
+				}
+
 				/* Solves each local function */
-				for (int i = termStart; i < termEnd; i ++)
-					terms.get(i).updateLagrange().minimize();
+				for (int chunk = nextTermChunk.getAndIncrement(); chunk < termChunkOffsets.length - 1; chunk = nextTermChunk.getAndIncrement()) {
+					for (int i = termChunkOffsets[chunk]; i < termChunkOffsets[chunk + 1]; i++) {
+						ADMMObjectiveTerm term = terms.get(i);
+						/* Skips removed terms and converged components */
+						if (term == null || (termComponents != null && !activeComponents[termComponents[i]]))
+							continue;
+						/* Accelerated dual updates are done with the consensus update */
+						if (accelerate)
+							term.minimize();
+						else
+							term.updateLagrange().minimize();
+					}
+				}
 
 				// Ensures all threads are at the same point
 				awaitUninterruptibly(workerBarrier);
 
-				if (check) {
-					primalResInc = 0.0;
-					dualResInc = 0.0;
-					AxNormInc = 0.0;
-					BzNormInc = 0.0;
-					AyNormInc = 0.0;
-					lagrangePenalty = 0.0;
-					augmentedLagrangePenalty = 0.0;
+				if (check)
+					Arrays.fill(residuals, 0.0);
+
+				for (int chunk = nextZChunk.getAndIncrement(); chunk < zChunkOffsets.length - 1; chunk = nextZChunk.getAndIncrement()) {
+					for (int i = zChunkOffsets[chunk]; i < zChunkOffsets[chunk + 1]; i++) {
+						if (varComponents == null)
+							updateConsensus(i, check, 0);
+						else if (activeComponents[varComponents[i]])
+							updateConsensus(i, check, varComponents[i] * NUM_RESIDUALS);
+					}
 				}
 
-				for (int i = zStart; i < zEnd; i++) {
-					double total = 0.0;
-					/* First pass computes newZ and dual residual */
-					for (Iterator<VariableLocation> itr = varLocations.get(i).iterator(); itr.hasNext(); ) {
-						VariableLocation location = itr.next();
-						total += location.term.x[location.localIndex] + location.term.y[location.localIndex] / stepSize;
-						if (check) {
-							AxNormInc += location.term.x[location.localIndex] * location.term.x[location.localIndex];
-							AyNormInc += location.term.y[location.localIndex] * location.term.y[location.localIndex];
+				if (check)
+					notification.release();
+
+				// Waits for main thread
+				awaitUninterruptibly(checkBarrier);
+				iter++;
+			}
+			busyTime = System.nanoTime() - start - idleTime;
+			awaitUninterruptibly(checkBarrier);
+		}
+
+		/**
+		 * Extrapolates a section of the consensus vector and the
+		 * dual variables of its local copies, and records the values they
+		 * were extrapolated from.
+		 */
+		private void extrapolate(int zStart, int zEnd) {
+			if (momentum == 0.0) {
+				System.arraycopy(z, zStart, zPrev, zStart, zEnd - zStart);
+				for (int j = varLocationOffsets[zStart]; j < varLocationOffsets[zEnd]; j++) {
+					int location = locals.getLocation(j);
+					yPrev[location] = locals.getY(location);
+				}
+				return;
+			}
+
+			for (int i = zStart; i < zEnd; i++) {
+				/* Leaves converged components where they are */
+				if (varComponents != null && !activeComponents[varComponents[i]])
+					continue;
+
+				double current = z[i];
+				z[i] = current + momentum * (current - zPrev[i]);
+				zPrev[i] = current;
+
+				for (int j = varLocationOffsets[i]; j < varLocationOffsets[i + 1]; j++) {
+					int location = locals.getLocation(j);
+					current = locals.getY(location);
+					locals.setY(location, current + momentum * (current - yPrev[location]));
+					yPrev[location] = current;
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Worker of the asynchronous loop. Each worker owns every numThreads-th
+	 * chunk of terms and of consensus variables and updates them in turn,
+	 * reading whatever values the other workers last wrote. It waits only to
+	 * stay within maxStaleness iterations of the slowest worker.
+	 */
+	private class AsyncADMMTask extends ADMMWorker {
+		private final int id;
+		private final AsyncADMMTask[] tasks;
+		private final Semaphore done;
+
+		/* Number of iterations this worker has completed */
+		private volatile int iterations;
+
+		/*
+		 * Copy of the residual sums of the last checked iteration, followed by
+		 * that iteration's number. Replaced as a whole so that the main thread
+		 * always reads sums from a single iteration.
+		 */
+		private volatile double[] publishedResiduals;
+
+		public AsyncADMMTask(int id, AsyncADMMTask[] tasks, Semaphore done) {
+			this.id = id;
+			this.tasks = tasks;
+			this.done = done;
+		}
+
+		@Override
+		public void run() {
+			long start = System.nanoTime();
+			try {
+				while (!stopAsync && iterations < maxIter) {
+					boolean check = iterations % stopCheck == 0;
+
+					awaitSlowestWorker();
+
+					for (int chunk = id; chunk < termChunkOffsets.length - 1; chunk += numThreads) {
+						for (int i = termChunkOffsets[chunk]; i < termChunkOffsets[chunk + 1]; i++) {
+							ADMMObjectiveTerm term = terms.get(i);
+							if (term != null)
+								term.updateLagrange().minimize();
 						}
 					}
-					double newZ = total / varLocations.get(i).size();
-					if (newZ < lb.get(i))
-						newZ = lb.get(i);
-					else if (newZ > ub.get(i))
-						newZ = ub.get(i);
 
-					if (check) {
-						double diff = z.get(i) - newZ;
-						/* Residual is diff^2 * number of local variables mapped to z element */
-						dualResInc += diff * diff * varLocations.get(i).size();
-						BzNormInc += newZ * newZ * varLocations.get(i).size();
-					}
-					z.set(i, newZ);
+					if (check)
+						Arrays.fill(residuals, 0.0);
+
+					for (int chunk = id; chunk < zChunkOffsets.length - 1; chunk += numThreads)
+						for (int i = zChunkOffsets[chunk]; i < zChunkOffsets[chunk + 1]; i++)
+							updateConsensus(i, check, 0);
 
-					/* Second pass computes primal residuals */
 					if (check) {
-						for (Iterator<VariableLocation> itr = varLocations.get(i).iterator(); itr.hasNext(); ) {
-							VariableLocation location = itr.next();
-							double diff = location.term.x[location.localIndex] - newZ;
-							primalResInc += diff * diff;
-							// computes Lagrangian penalties
-							lagrangePenalty += location.term.y[location.localIndex] * (location.term.x[location.localIndex] - z.get(i));
-							augmentedLagrangePenalty += 0.5 * stepSize * Math.pow(location.term.x[location.localIndex]-z.get(i), 2);
-						}
+						double[] published = Arrays.copyOf(residuals, NUM_RESIDUALS + 1);
+						published[NUM_RESIDUALS] = iterations;
+						publishedResiduals = published;
 					}
-				}
 
-				if (check)
-					notification.release();
+					iterations++;
+				}
+			}
+			catch (RuntimeException e) {
+				/* Keeps the other workers from waiting for this one */
+				stopAsync = true;
+				throw e;
+			}
+			finally {
+				busyTime = System.nanoTime() - start - idleTime;
+				done.release();
+			}
+		}
 
-				// Waits for main thread
-				awaitUninterruptibly(checkBarrier);
+		/**
+		 * Waits while this worker is more than maxStaleness iterations ahead
+		 * of the slowest worker. Reading the other workers' iteration counts
+		 * also makes their writes of earlier iterations visible to this one.
+		 */
+		private void awaitSlowestWorker() {
+			long start = 0;
+			while (!stopAsync && iterations - slowestIterations(tasks) > maxStaleness) {
+				if (start == 0)
+					start = System.nanoTime();
+				Thread.yield();
 			}
-			awaitUninterruptibly(checkBarrier);
+			if (start != 0)
+				idleTime += System.nanoTime() - start;
 		}
+	}
 
+	/**
+	 * @return the smallest number of iterations completed by any of the tasks
+	 */
+	private static int slowestIterations(AsyncADMMTask[] tasks) {
+		int min = Integer.MAX_VALUE;
+		for (AsyncADMMTask task : tasks)
+			min = Math.min(min, task.iterations);
+		return min;
 	}
 
 	@Override
 	public void optimize() {
+		if (rebuildModel || updateModel)
+			checkpoint = null;
 		if (rebuildModel)
 			buildGroundModel();
+		else if (updateModel)
+			updateGroundModel();
+
+		log.debug("Performing optimization with {} variables and {} terms.", z.length, orderedGroundKernels.size());
+
+		if (asynchronous) {
+			optimizeAsynchronously();
+			updateVariables();
+			return;
+		}
+
+		/* Iterations completed before this call, if resuming from a checkpoint */
+		int resumedIterations = 0;
+		if (resume) {
+			resume = false;
+			resumedIterations = resumeFromCheckpoint();
+		}
 
-		log.debug("Performing optimization with {} variables and {} terms.", z.size(), terms.size());
+		if (accelerate) {
+			zPrev = Arrays.copyOf(z, z.length);
+			yPrev = new double[numLocalVariables];
+			for (int i = 0; i < numLocalVariables; i++)
+				yPrev[i] = locals.getY(i);
+		}
+		momentum = 0.0;
+		double momentumWeight = 1.0;
+		double lastCombinedRes = Double.POSITIVE_INFINITY;
+
+		int numActiveComponents = numComponents;
+		double[] componentLagrangePenalties = null, componentAugmentedLagrangePenalties = null;
+		if (componentwise) {
+			activeComponents = new boolean[numComponents];
+			Arrays.fill(activeComponents, true);
+			componentLagrangePenalties = new double[numComponents];
+			componentAugmentedLagrangePenalties = new double[numComponents];
+		}
 
 		// Starts up the computation threads
 		ADMMTask[] tasks = new ADMMTask[numThreads];
-		CyclicBarrier workerBarrier = new CyclicBarrier(numThreads);
-		CyclicBarrier checkBarrier = new CyclicBarrier(numThreads + 1);
+		/* Each barrier opens the chunks of the phases that follow it */
+		CyclicBarrier workerBarrier = new CyclicBarrier(numThreads, new Runnable() {
+			@Override
+			public void run() {
+				nextZChunk.set(0);
+			}
+		});
+		CyclicBarrier checkBarrier = new CyclicBarrier(numThreads + 1, new Runnable() {
+			@Override
+			public void run() {
+				nextTermChunk.set(0);
+				nextZChunk.set(0);
+			}
+		});
 		Semaphore notifySem = new Semaphore(0);
-		ThreadPool threadPool = ThreadPool.getPool();
-		for (int i = 0; i < numThreads; i ++) {
-			tasks[i] = new ADMMTask(i, workerBarrier, checkBarrier, notifySem);
-			threadPool.submit(tasks[i]);
-		}
+		for (int i = 0; i < numThreads; i ++)
+			tasks[i] = new ADMMTask(workerBarrier, checkBarrier, notifySem);
+		/* The workers meet at barriers, so they must all run at once */
+		ThreadPool.getPool(threadPoolName).submitGroup(tasks);
 
 		/* Performs inference */
 		double primalRes = Double.POSITIVE_INFINITY;
@@ -540,8 +1859,12 @@ public class ADMMReasoner implements Reasoner {
 		double epsilonAbsTerm = Math.sqrt(n) * epsilonAbs;
 		double AxNorm = 0.0, BzNorm = 0.0, AyNorm = 0.0;
 		boolean check = false;
+		boolean converged = false;
 		int iter = 0;
-		while ((primalRes > epsilonPrimal || dualRes > epsilonDual) && iter < maxIter) {
+		int lastCheckpoint = 0;
+		int numStepSizeChanges = 0;
+		int lastStepSizeChange = -STEP_SIZE_COOLDOWN;
+		while (!converged && iter < maxIter - resumedIterations) {
 			check = iter % stopCheck == 0;
 
 			// Await check barrier
@@ -565,15 +1888,54 @@ public class ADMMReasoner implements Reasoner {
 				lagrangePenalty = 0.0;
 				augmentedLagrangePenalty = 0.0;
 
-				// Total values from threads
-				for (ADMMTask task : tasks) {
-					primalRes += task.primalResInc;
-					dualRes += task.dualResInc;
-					AxNorm += task.AxNormInc;
-					BzNorm += task.BzNormInc;
-					AyNorm += task.AyNormInc;
-					lagrangePenalty += task.lagrangePenalty;
-					augmentedLagrangePenalty += task.augmentedLagrangePenalty;
+				if (!componentwise) {
+					// Total values from threads
+					for (ADMMTask task : tasks) {
+						primalRes += task.residuals[PRIMAL_RES];
+						dualRes += task.residuals[DUAL_RES];
+						AxNorm += task.residuals[AX_NORM];
+						BzNorm += task.residuals[BZ_NORM];
+						AyNorm += task.residuals[AY_NORM];
+						lagrangePenalty += task.residuals[LAGRANGE_PENALTY];
+						augmentedLagrangePenalty += task.residuals[AUGMENTED_LAGRANGE_PENALTY];
+					}
+				}
+				else {
+					/*
+					 * Tests each active component and totals the residuals of
+					 * those that were active in this iteration
+					 */
+					double[] sums = new double[NUM_RESIDUALS];
+					for (int c = 0; c < numComponents; c++) {
+						if (!activeComponents[c])
+							continue;
+
+						Arrays.fill(sums, 0.0);
+						for (ADMMTask task : tasks)
+							for (int k = 0; k < NUM_RESIDUALS; k++)
+								sums[k] += task.residuals[c * NUM_RESIDUALS + k];
+						componentLagrangePenalties[c] = sums[LAGRANGE_PENALTY];
+						componentAugmentedLagrangePenalties[c] = sums[AUGMENTED_LAGRANGE_PENALTY];
+
+						double componentEpsilonAbsTerm = Math.sqrt(componentSizes[c]) * epsilonAbs;
+						if (Math.sqrt(sums[PRIMAL_RES]) <= componentEpsilonAbsTerm + epsilonRel * Math.max(Math.sqrt(sums[AX_NORM]), Math.sqrt(sums[BZ_NORM]))
+								&& stepSize * Math.sqrt(sums[DUAL_RES]) <= componentEpsilonAbsTerm + epsilonRel * Math.sqrt(sums[AY_NORM])) {
+							activeComponents[c] = false;
+							numActiveComponents--;
+						}
+
+						primalRes += sums[PRIMAL_RES];
+						dualRes += sums[DUAL_RES];
+						AxNorm += sums[AX_NORM];
+						BzNorm += sums[BZ_NORM];
+						AyNorm += sums[AY_NORM];
+					}
+
+					/* Converged components keep their last penalties */
+					for (int c = 0; c < numComponents; c++) {
+						lagrangePenalty += componentLagrangePenalties[c];
+						augmentedLagrangePenalty += componentAugmentedLagrangePenalties[c];
+					}
 				}
 
 				primalRes = Math.sqrt(primalRes);
@@ -581,6 +1943,56 @@ public class ADMMReasoner implements Reasoner {
 
 				epsilonPrimal = epsilonAbsTerm + epsilonRel * Math.max(Math.sqrt(AxNorm), Math.sqrt(BzNorm));
 				epsilonDual = epsilonAbsTerm + epsilonRel * Math.sqrt(AyNorm);
+
+				if (componentwise)
+					converged = numActiveComponents == 0;
+				else
+					converged = primalRes <= epsilonPrimal && dualRes <= epsilonDual;
+
+				if (accelerate) {
+					/*
+					 * Sets the momentum of the next extrapolation. It is
+					 * restarted if the combined primal and dual residual
+					 * does not decrease.
+					 */
+					double combinedRes = stepSize * primalRes * primalRes + dualRes * dualRes / stepSize;
+					if (combinedRes < RESTART_FACTOR * lastCombinedRes) {
+						double nextWeight = (1 + Math.sqrt(1 + 4 * momentumWeight * momentumWeight)) / 2;
+						momentum = (momentumWeight - 1) / nextWeight;
+						momentumWeight = nextWeight;
+						lastCombinedRes = combinedRes;
+					}
+					else {
+						momentum = 0.0;
+						momentumWeight = 1.0;
+						lastCombinedRes = lastCombinedRes / RESTART_FACTOR;
+					}
+				}
+
+				/* Balances the residuals while the worker threads wait at the barrier */
+				if (adaptiveStepSize && !converged && numStepSizeChanges < maxStepSizeChanges
+						&& iter - lastStepSizeChange >= STEP_SIZE_COOLDOWN) {
+					double oldStepSize = stepSize;
+					if (primalRes > residualBalance * dualRes)
+						setStepSize(stepSize * stepSizeScale);
+					else if (dualRes > residualBalance * primalRes)
+						setStepSize(stepSize / stepSizeScale);
+
+					/* Momentum does not carry over to a new step size */
+					if (stepSize != oldStepSize) {
+						numStepSizeChanges++;
+						lastStepSizeChange = iter;
+						momentum = 0.0;
+						momentumWeight = 1.0;
+						lastCombinedRes = Double.POSITIVE_INFINITY;
+					}
+				}
+
+				/* The worker threads are waiting, so the state is consistent */
+				if (checkpointFile != null && !converged && iter + 1 - lastCheckpoint >= checkpointInterval) {
+					writeCheckpoint(resumedIterations + iter + 1, primalRes, dualRes);
+					lastCheckpoint = iter + 1;
+				}
 			}
 
 			if (iter % (50 * stopCheck) == 0) {
@@ -607,13 +2019,162 @@ public class ADMMReasoner implements Reasoner {
 			throw new RuntimeException(e);
 		}
 
+		if (checkpointFile != null && iter > lastCheckpoint)
+			writeCheckpoint(resumedIterations + iter, primalRes, dualRes);
+
+		lastIterations = iter;
 		log.info("Optimization completed in  {} iterations. " +
 				"Primal res.: {}, Dual res.: {}", new Object[] {iter, primalRes, dualRes});
+		if (componentwise)
+			log.debug("{} of {} components converged", numComponents - numActiveComponents, numComponents);
+		if (adaptiveStepSize)
+			log.debug("Final step size: {}", stepSize);
+		logLoadBalance(tasks);
+
+		updateVariables();
+	}
+
+	/**
+	 * Restores the iteration state from {@link #checkpointFile} if it exists
+	 * and matches the structure of the ground model.
+	 *
+	 * @return the number of iterations completed when the checkpoint was
+	 *         written, or 0 if the state was not restored
+	 */
+	private int resumeFromCheckpoint() {
+		if (!checkpointFile.isFile()) {
+			log.warn("Checkpoint {} does not exist. Starting from the beginning.", checkpointFile);
+			return 0;
+		}
+
+		try {
+			if (checkpoint == null)
+				checkpoint = new ADMMCheckpoint(this);
+			if (!checkpoint.read(checkpointFile)) {
+				log.warn("Checkpoint {} was written from a different ground model. Starting from the beginning.", checkpointFile);
+				return 0;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+
+		setStepSize(checkpoint.getStepSize());
+		log.info("Resuming from checkpoint {} after {} iterations. Primal res.: {}, Dual res.: {}",
+				new Object[] {checkpointFile, checkpoint.getIterations(), checkpoint.getPrimalRes(), checkpoint.getDualRes()});
+		return checkpoint.getIterations();
+	}
+
+	/**
+	 * Writes the iteration state to {@link #checkpointFile}. Failures are
+	 * logged, since optimization can continue without the checkpoint.
+	 */
+	private void writeCheckpoint(int iterations, double primalRes, double dualRes) {
+		try {
+			if (checkpoint == null)
+				checkpoint = new ADMMCheckpoint(this);
+			checkpoint.write(checkpointFile, iterations, primalRes, dualRes);
+			log.debug("Wrote checkpoint {} after {} iterations.", checkpointFile, iterations);
+		} catch (IOException e) {
+			log.warn("Could not write checkpoint " + checkpointFile + ".", e);
+		}
+	}
+
+	/**
+	 * Runs the asynchronous loop until the residuals published by the
+	 * workers meet the stopping criteria or every worker reaches maxIter.
+	 */
+	private void optimizeAsynchronously() {
+		stopAsync = false;
+		AsyncADMMTask[] tasks = new AsyncADMMTask[numThreads];
+		Semaphore done = new Semaphore(0);
+		for (int i = 0; i < numThreads; i++)
+			tasks[i] = new AsyncADMMTask(i, tasks, done);
+		/* Workers wait for the slowest one when it falls too far behind */
+		ThreadPool.getPool(threadPoolName).submitGroup(tasks);
+
+		double primalRes = Double.POSITIVE_INFINITY;
+		double dualRes = Double.POSITIVE_INFINITY;
+		double epsilonAbsTerm = Math.sqrt(n) * epsilonAbs;
+		/* Newest iteration whose residuals have been tested */
+		double lastChecked = -1;
+		boolean converged = false;
+		boolean finished = false;
+		while (!converged && !finished && !stopAsync) {
+			LockSupport.parkNanos(ASYNC_CHECK_INTERVAL_NANOS);
+			finished = slowestIterations(tasks) >= maxIter;
+
+			/* Tests once every worker has published residuals newer than the last test */
+			double oldestPublished = Double.POSITIVE_INFINITY;
+			double newestPublished = -1;
+			for (AsyncADMMTask task : tasks) {
+				double[] published = task.publishedResiduals;
+				double publishedIter = (published == null) ? -1 : published[NUM_RESIDUALS];
+				oldestPublished = Math.min(oldestPublished, publishedIter);
+				newestPublished = Math.max(newestPublished, publishedIter);
+			}
+			if (oldestPublished <= lastChecked)
+				continue;
+			lastChecked = newestPublished;
+
+			double[] sums = new double[NUM_RESIDUALS];
+			for (AsyncADMMTask task : tasks) {
+				double[] published = task.publishedResiduals;
+				for (int k = 0; k < NUM_RESIDUALS; k++)
+					sums[k] += published[k];
+			}
+			lagrangePenalty = sums[LAGRANGE_PENALTY];
+			augmentedLagrangePenalty = sums[AUGMENTED_LAGRANGE_PENALTY];
+
+			primalRes = Math.sqrt(sums[PRIMAL_RES]);
+			dualRes = stepSize * Math.sqrt(sums[DUAL_RES]);
+			double epsilonPrimal = epsilonAbsTerm + epsilonRel * Math.max(Math.sqrt(sums[AX_NORM]), Math.sqrt(sums[BZ_NORM]));
+			double epsilonDual = epsilonAbsTerm + epsilonRel * Math.sqrt(sums[AY_NORM]);
+			converged = primalRes <= epsilonPrimal && dualRes <= epsilonDual;
+
+			log.trace("Residuals at iter {} -- Primal: {} -- Dual: {}", new Object[] {(int) lastChecked, primalRes, dualRes});
+		}
 
-		/* Updates variables */
+		/* Stops the workers and waits for them to leave the model alone */
+		stopAsync = true;
+		done.acquireUninterruptibly(numThreads);
+
+		lastIterations = slowestIterations(tasks);
+		log.info("Asynchronous optimization completed in {} iterations. " +
+				"Primal res.: {}, Dual res.: {}", new Object[] {lastIterations, primalRes, dualRes});
+		logLoadBalance(tasks);
+	}
+
+	/**
+	 * Writes the consensus values to the ground atoms' variables.
+	 */
+	private void updateVariables() {
 		for (int i = 0; i < variables.size(); i++) {
-			variables.get(i).setValue(z.get(i));
+			variables.get(i).setValue(z[i]);
+		}
+		if (fixedVariables != null)
+			for (Map.Entry<AtomFunctionVariable, Double> entry : fixedVariables.entrySet())
+				entry.getKey().setValue(entry.getValue());
+	}
+
+	/**
+	 * Logs how long each worker thread spent working and waiting, and the
+	 * ratio of the longest working time to the mean.
+	 */
+	private void logLoadBalance(ADMMWorker[] tasks) {
+		if (!log.isDebugEnabled())
+			return;
+
+		long maxBusyTime = 0, totalBusyTime = 0;
+		for (int i = 0; i < tasks.length; i++) {
+			log.debug("Thread {} busy for {} ms and idle for {} ms", new Object[] {i,
+					tasks[i].busyTime / 1000000, tasks[i].idleTime / 1000000});
+			maxBusyTime = Math.max(maxBusyTime, tasks[i].busyTime);
+			totalBusyTime += tasks[i].busyTime;
 		}
+
+		if (totalBusyTime > 0)
+			log.debug("Load imbalance (max / mean busy time): {}",
+					(double) maxBusyTime * tasks.length / totalBusyTime);
 	}
 
 	@Override
@@ -644,12 +2205,19 @@ public class ADMMReasoner implements Reasoner {
 	public void close() {
 		groundKernels = null;
 		orderedGroundKernels = null;
+		fixedVariables = null;
+		fixingGroundKernels = null;
+		mergedGroundKernels = null;
+		checkpoint = null;
 		terms = null;
 		variables = null;
 		z = null;
 		lb = null;
 		ub = null;
-		varLocations = null;
+		if (locals != null)
+			locals.close();
+		locals = null;
+		varLocationOffsets = null;
 
 //		try {
 //			log.debug("Shutting down thread pool.");
@@ -660,86 +2228,161 @@ public class ADMMReasoner implements Reasoner {
 //		}
 	}
 
-	private void registerLocalVariableCopies(ADMMObjectiveTerm term) {
-		for (int i = 0; i < term.x.length; i++) {
-			VariableLocation varLocation = new VariableLocation(term, i);
-			varLocations.get(term.zIndices[i]).add(varLocation);
-		}
-	}
-
+	/**
+	 * Collects the hyperplane of a linear function with the parser of
+	 * {@link #createTerm(GroundRule)}, creating the consensus variables
+	 * encountered for the first time and counting the local variables.
+	 */
 	protected Hyperplane processHyperplane(FunctionSum sum) {
+		parser.parseHyperplane(sum);
 		Hyperplane hp = new Hyperplane();
-		HashMap<AtomFunctionVariable, Integer> localVarLocations = new HashMap<AtomFunctionVariable, Integer>();
-		ArrayList<Integer> tempZIndices = new ArrayList<Integer>(sum.size());
-		ArrayList<Double> tempCoeffs = new ArrayList<Double>(sum.size());
+		hp.zIndices = parser.getVariableIndices();
+		hp.coeffs = parser.getCoefficients();
+		hp.constant = parser.getConstant();
+		n += hp.zIndices.length;
+		return hp;
+	}
 
-		for (Iterator<FunctionSummand> sItr = sum.iterator(); sItr.hasNext(); ) {
-			FunctionSummand summand = sItr.next();
-			FunctionSingleton singleton = summand.getTerm();
-			if (singleton instanceof AtomFunctionVariable && !singleton.isConstant()) {
-				/*
-				 * If this variable has been encountered before in any hyperplane...
-				 */
-				if (variables.containsValue(singleton)) {
-					int zIndex = variables.getKey(singleton).intValue();
+	/**
+	 * Numbers the variables of terms by their consensus variables, creating
+	 * a consensus variable when a variable is first encountered, and folds
+	 * the variables fixed by presolving into the constants.
+	 */
+	private class ConsensusTermParser extends TermParser {
+		@Override
+		public int getIndex(AtomFunctionVariable variable) {
+			Integer zIndex = variables.getKey(variable);
+			if (zIndex != null)
+				return zIndex;
+
+			zIndex = variables.size();
+			variables.put(zIndex, variable);
+			if (zIndex >= z.length) {
+				z = Arrays.copyOf(z, z.length * 2);
+				lb = Arrays.copyOf(lb, z.length);
+				ub = Arrays.copyOf(ub, z.length);
+			}
+			z[zIndex] = variable.getValue();
+			lb[zIndex] = 0.0;
+			ub[zIndex] = 1.0;
+			return zIndex;
+		}
 
-					/*
-					 * Checks if the variable has already been encountered
-					 * in THIS hyperplane
-					 */
-					Integer localIndex = localVarLocations.get(singleton);
-					/* If it has, just adds the coefficient... */
-					if (localIndex != null) {
-						tempCoeffs.set(localIndex, tempCoeffs.get(localIndex) + summand.getCoefficient());
-					}
-					/* Else, creates a new local variable */
-					else {
-						tempZIndices.add(zIndex);
-						tempCoeffs.add(summand.getCoefficient());
-						localVarLocations.put((AtomFunctionVariable) singleton, tempZIndices.size()-1);
+		@Override
+		protected Double getFixedValue(AtomFunctionVariable variable) {
+			return (fixedVariables != null) ? fixedVariables.get(variable) : null;
+		}
+	}
 
-						/* Increments count of local variables */
-						n++;
-					}
-				}
-				/* Else, creates a new global variable and a local variable */
-				else {
-					/* Creates the global variable */
-					variables.put(variables.size(), (AtomFunctionVariable)singleton);
+	/**
+	 * Snapshot of the local and dual variables of a ground model, used to
+	 * warm start the terms of a rebuilt model whose ground rules did not change.
+	 */
+	private class WarmStartState {
+		private final Map<GroundRule, Integer> orderedGroundKernels;
+		private final List<ADMMObjectiveTerm> terms;
+		private final BidiMap<Integer, AtomFunctionVariable> variables;
+		private final LocalVariableStore locals;
+
+		private WarmStartState() {
+			orderedGroundKernels = ADMMReasoner.this.orderedGroundKernels;
+			terms = ADMMReasoner.this.terms;
+			variables = ADMMReasoner.this.variables;
+			locals = ADMMReasoner.this.locals;
+		}
 
-					z.add(singleton.getValue());
-					lb.add(0.0);
-					ub.add(1.0);
+		/**
+		 * Copies the previous local and dual variables of a ground rule into
+		 * its new term, if the ground rule was present and its term has the
+		 * same variables in the same order.
+		 *
+		 * @return whether the term was restored
+		 */
+		private boolean restore(GroundRule groundKernel, ADMMObjectiveTerm term) {
+			Integer index = orderedGroundKernels.get(groundKernel);
+			if (index == null)
+				return false;
+
+			ADMMObjectiveTerm oldTerm = terms.get(index);
+			if (oldTerm.size != term.size)
+				return false;
+
+			for (int i = 0; i < term.size; i++) {
+				AtomFunctionVariable oldVariable = variables.get(locals.getZIndex(oldTerm.start + i));
+				AtomFunctionVariable newVariable = ADMMReasoner.this.variables.get(ADMMReasoner.this.locals.getZIndex(term.start + i));
+				if (!oldVariable.equals(newVariable))
+					return false;
+			}
 
-					/* Creates a list of local variable locations for the new variable */
-					varLocations.add(new ArrayList<ADMMReasoner.VariableLocation>());
+			for (int i = 0; i < term.size; i++) {
+				ADMMReasoner.this.locals.setX(term.start + i, locals.getX(oldTerm.start + i));
+				ADMMReasoner.this.locals.setY(term.start + i, locals.getY(oldTerm.start + i));
+			}
+			return true;
+		}
+	}
 
-					/* Creates the local variable */
-					tempZIndices.add(z.size()-1);
-					tempCoeffs.add(summand.getCoefficient());
-					localVarLocations.put((AtomFunctionVariable) singleton, tempZIndices.size()-1);
+	/**
+	 * @return the constant of a hyperplane-based term, or 0 for other terms
+	 */
+	static double getConstant(ADMMObjectiveTerm term) {
+		if (term instanceof HyperplaneTerm)
+			return ((HyperplaneTerm) term).constant;
+		else if (term instanceof SquaredHyperplaneTerm)
+			return ((SquaredHyperplaneTerm) term).constant;
+		else
+			return 0.0;
+	}
 
-					/* Increments count of local variables */
-					n++;
+	/**
+	 * Identifies a weighted term by its class, constant and variables with
+	 * their coefficients, so that terms that differ only in weight are equal.
+	 */
+	private class TermKey {
+		private final Class<?> type;
+		private final double constant;
+		private final int[] zIndices;
+		private final double[] coeffs;
+		private final int hashCode;
+
+		private TermKey(ADMMObjectiveTerm term) {
+			type = term.getClass();
+			constant = getConstant(term);
+
+			/* Sorts the variables by index with an insertion sort, since terms are small */
+			zIndices = new int[term.size];
+			coeffs = new double[term.size];
+			for (int i = 0; i < term.size; i++) {
+				int zIndex = locals.getZIndex(term.start + i);
+				double coeff = locals.getCoeff(term.start + i);
+				int j = i;
+				for (; j > 0 && zIndices[j - 1] > zIndex; j--) {
+					zIndices[j] = zIndices[j - 1];
+					coeffs[j] = coeffs[j - 1];
 				}
+				zIndices[j] = zIndex;
+				coeffs[j] = coeff;
 			}
-			else if (singleton.isConstant()) {
-				/* Subtracts because hyperplane is stored as coeffs^T * x = constant */
-				hp.constant -= summand.getValue();
-			}
-			else
-				throw new IllegalArgumentException("Unexpected summand.");
-		}
 
-		hp.zIndices = new int[tempZIndices.size()];
-		hp.coeffs = new double[tempCoeffs.size()];
+			int hash = type.hashCode();
+			hash = 31 * hash + Double.valueOf(constant).hashCode();
+			hash = 31 * hash + Arrays.hashCode(zIndices);
+			hashCode = 31 * hash + Arrays.hashCode(coeffs);
+		}
 
-		for (int i = 0; i < tempZIndices.size(); i++) {
-			hp.zIndices[i] = tempZIndices.get(i);
-			hp.coeffs[i] = tempCoeffs.get(i);
+		@Override
+		public int hashCode() {
+			return hashCode;
 		}
 
-		return hp;
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof TermKey))
+				return false;
+			TermKey key = (TermKey) other;
+			return type == key.type && Double.compare(constant, key.constant) == 0
+					&& Arrays.equals(zIndices, key.zIndices) && Arrays.equals(coeffs, key.coeffs);
+		}
 	}
 
 	protected class Hyperplane {
@@ -748,21 +2391,4 @@ public class ADMMReasoner implements Reasoner {
 		public double constant;
 	}
 
-	public class VariableLocation {
-		private final ADMMObjectiveTerm term;
-		private final int localIndex;
-
-		private VariableLocation(ADMMObjectiveTerm term, int localIndex) {
-			this.term = term;
-			this.localIndex = localIndex;
-		}
-		public ADMMObjectiveTerm getTerm() {
-			return term;
-		}
-
-		public int getLocalIndex() {
-			return localIndex;
-		}
-	}
-
 }
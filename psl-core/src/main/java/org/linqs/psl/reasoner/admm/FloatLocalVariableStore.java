@@ -0,0 +1,135 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import java.util.Arrays;
+
+/**
+ * Keeps local variables in primitive arrays on the heap, with the local
+ * copies, dual variables and coefficients in single precision.
+ * <p>
+ * Values are rounded when they are stored. Computations on them are still
+ * done in double precision by the terms and the reasoner.
+ */
+final class FloatLocalVariableStore extends LocalVariableStore {
+	private float[] x;
+	private float[] y;
+	private int[] zIndices;
+	private float[] coeffs;
+	private int[] locations;
+
+	FloatLocalVariableStore(int capacity) {
+		x = new float[capacity];
+		y = new float[capacity];
+		zIndices = new int[capacity];
+		coeffs = new float[capacity];
+		locations = new int[capacity];
+	}
+
+	@Override
+	public double getX(int i) {
+		return x[i];
+	}
+
+	@Override
+	public void setX(int i, double value) {
+		x[i] = (float) value;
+	}
+
+	@Override
+	public double getY(int i) {
+		return y[i];
+	}
+
+	@Override
+	public void setY(int i, double value) {
+		y[i] = (float) value;
+	}
+
+	@Override
+	public int getZIndex(int i) {
+		return zIndices[i];
+	}
+
+	@Override
+	public void setZIndex(int i, int value) {
+		zIndices[i] = value;
+	}
+
+	@Override
+	public double getCoeff(int i) {
+		return coeffs[i];
+	}
+
+	@Override
+	public void setCoeff(int i, double value) {
+		coeffs[i] = (float) value;
+	}
+
+	@Override
+	public int getLocation(int j) {
+		return locations[j];
+	}
+
+	@Override
+	public void setLocation(int j, int value) {
+		locations[j] = value;
+	}
+
+	@Override
+	public int capacity() {
+		return x.length;
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		if (capacity > x.length)
+			resize(Math.max(x.length * 2, capacity));
+	}
+
+	@Override
+	public void trim(int size) {
+		if (size != x.length)
+			resize(size);
+	}
+
+	private void resize(int capacity) {
+		x = Arrays.copyOf(x, capacity);
+		y = Arrays.copyOf(y, capacity);
+		zIndices = Arrays.copyOf(zIndices, capacity);
+		coeffs = Arrays.copyOf(coeffs, capacity);
+		locations = Arrays.copyOf(locations, capacity);
+	}
+
+	@Override
+	public void move(int from, int to, int length) {
+		System.arraycopy(x, from, x, to, length);
+		System.arraycopy(y, from, y, to, length);
+		System.arraycopy(zIndices, from, zIndices, to, length);
+		System.arraycopy(coeffs, from, coeffs, to, length);
+	}
+
+	@Override
+	public void close() {
+		x = null;
+		y = null;
+		zIndices = null;
+		coeffs = null;
+		locations = null;
+	}
+}
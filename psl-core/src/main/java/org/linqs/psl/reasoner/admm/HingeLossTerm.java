@@ -44,17 +44,11 @@ class HingeLossTerm extends HyperplaneTerm implements WeightedObjectiveTerm {
 	
 	@Override
 	protected void minimize() {
-		/* Initializes scratch data */
-		double total = 0.0;
-		
 		/*
 		 * Minimizes without the linear loss, i.e., solves
 		 * argmin stepSize/2 * \|x - z + y / stepSize \|_2^2
 		 */
-		for (int i = 0; i < x.length; i++) {
-			x[i] = reasoner.z.get(zIndices[i]) - y[i] / reasoner.stepSize;
-			total += coeffs[i] * x[i];
-		}
+		double total = loadPoint();
 		
 		/* If the linear loss is NOT active at the computed point, it is the solution... */
 		if (total <= constant) {
@@ -65,12 +59,8 @@ class HingeLossTerm extends HyperplaneTerm implements WeightedObjectiveTerm {
 		 * Else, minimizes with the linear loss, i.e., solves
 		 * argmin weight * coeffs^T * x + stepSize/2 * \|x - z + y / stepSize \|_2^2
 		 */
-		total = 0.0;
-		for (int i = 0; i < x.length; i++) {
-			x[i] = reasoner.z.get(zIndices[i]) - y[i] / reasoner.stepSize;
-			x[i] -= weight * coeffs[i] / reasoner.stepSize;
-			total += coeffs[i] * x[i];
-		}
+		shift(weight / reasoner.stepSize);
+		total -= weight / reasoner.stepSize * normSquared;
 		
 		/* If the linear loss IS active at the computed point, it is the solution... */
 		if (total >= constant) {
@@ -78,6 +68,6 @@ class HingeLossTerm extends HyperplaneTerm implements WeightedObjectiveTerm {
 		}
 		
 		/* Else, the solution is on the hinge */
-		project();
+		project(total);
 	}
 }
@@ -29,32 +29,15 @@ package org.linqs.psl.reasoner.admm;
  */
 abstract class HyperplaneTerm extends ADMMObjectiveTerm {
 	
-	protected final double[] coeffs;
 	protected final double constant;
-	protected final double[] unitNormal;
+	/* Squared length of the coefficient vector, the normal of the hyperplane */
+	protected final double normSquared;
 	
 	HyperplaneTerm(ADMMReasoner reasoner, int[] zIndices, double[] coeffs, double constant) {
-		super(reasoner, zIndices);
+		super(reasoner, zIndices, coeffs);
 		
-		this.coeffs = coeffs;
 		this.constant = constant;
-		
-		if (x.length >= 3) {
-			/* 
-			 * Finds a unit vector normal to the hyperplane and a point in the
-			 * hyperplane for future projections
-			 */
-			double length = 0.0;
-			for (int i = 0; i < coeffs.length; i++)
-				length += coeffs[i] * coeffs[i];
-			length = Math.sqrt(length);
-			
-			unitNormal = new double[coeffs.length];
-			for (int i = 0; i< unitNormal.length; i++)
-				unitNormal[i] = coeffs[i] / length;
-		}
-		else
-			unitNormal = null;
+		this.normSquared = squaredNorm(coeffs);
 	}
 	
 	/**
@@ -62,32 +45,12 @@ abstract class HyperplaneTerm extends ADMMObjectiveTerm {
 	 * argmin stepSize/2 * \|x - z + y / stepSize \|_2^2 <br />
 	 * such that coeffs^T * x = constant
 	 * <p>
-	 * Stores the result in x.
+	 * Expects x to hold z - y / stepSize, or any point that differs from it
+	 * by a multiple of coeffs, and stores the result in x.
+	 *
+	 * @param total  coeffs^T * x
 	 */
-	protected void project() {
-		if (x.length == 1) {
-			x[0] = constant / coeffs[0];
-		}
-		else if (x.length == 2) {
-			x[0] = reasoner.stepSize * reasoner.z.get(zIndices[0]) - y[0];
-			x[0] -= reasoner.stepSize * coeffs[0] / coeffs[1] * (-1 * constant / coeffs[1] + reasoner.z.get(zIndices[1]) - y[1]/reasoner.stepSize);
-			x[0] /= reasoner.stepSize * (1 + coeffs[0] * coeffs[0] / coeffs[1] / coeffs[1]);
-			
-			x[1] = (constant - coeffs[0] * x[0]) / coeffs[1];
-		}
-		else {
-			double[] point = new double[x.length];
-			for (int i = 0; i < x.length; i++)
-				point[i] = reasoner.z.get(zIndices[i]) - y[i] / reasoner.stepSize;
-			
-			/* For point (constant / coeffs[0], 0,...) in hyperplane dotted with unitNormal */
-			double multiplier = -1 * constant / coeffs[0] * unitNormal[0];
-			
-			for (int i = 0; i < x.length; i++)
-				multiplier += point[i] * unitNormal[i];
-			
-			for (int i = 0; i < x.length; i++)
-				x[i] = point[i] - multiplier * unitNormal[i];
-		}
+	protected void project(double total) {
+		shift((total - constant) / normSquared);
 	}
 }
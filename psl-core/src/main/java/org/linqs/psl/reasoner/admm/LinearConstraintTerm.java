@@ -17,6 +17,8 @@
  */
 package org.linqs.psl.reasoner.admm;
 
+import java.util.Arrays;
+
 import org.linqs.psl.reasoner.function.FunctionComparator;
 
 /**
@@ -26,6 +28,11 @@ import org.linqs.psl.reasoner.function.FunctionComparator;
  * where [?] is ==, >=, or <=
  * <p>
  * All coeffs must be non-zero.
+ * <p>
+ * If there are at least three coeffs and they are all equal, as for
+ * arithmetic rules summing over many atoms, the constraint is intersected
+ * with the bounds of the consensus variables, which does not change the
+ * optimum, and x is projected onto the resulting capped simplex.
  * 
  * @author Stephen Bach <bach@cs.umd.edu>
  */
@@ -33,46 +40,162 @@ public class LinearConstraintTerm extends HyperplaneTerm {
 	
 	private final FunctionComparator comparator;
 	
+	/* Whether all coefficients are equal, so the capped simplex projection applies */
+	private final boolean uniform;
+	
+	/* Scratch space for the breakpoints of capped simplex projections, one per thread */
+	private static final ThreadLocal<double[]> breakpoints = new ThreadLocal<double[]>() {
+		@Override
+		protected double[] initialValue() {
+			return new double[0];
+		}
+	};
+	
 	protected LinearConstraintTerm(ADMMReasoner reasoner, int[] zIndices, double[] coeffs,
 			double constant, FunctionComparator comparator) {
 		super(reasoner, zIndices, coeffs, constant);
 		this.comparator = comparator;
+		
+		boolean allEqual = coeffs.length >= 3;
+		for (int i = 1; i < coeffs.length && allEqual; i++)
+			allEqual = coeffs[i] == coeffs[0];
+		uniform = allEqual;
 	}
 	
 	@Override
 	protected void minimize() {
-		/* If it's not an equality constraint, first tries to minimize without the constraint */
-		if (!comparator.equals(FunctionComparator.Equality)) {
+		if (uniform) {
+			minimizeUniform();
+			return;
+		}
 		
-			/* Initializes scratch data */
-			double total = 0.0;
-			
-			/*
-			 * Minimizes without regard for the constraint, i.e., solves
-			 * argmin stepSize/2 * \|x - z + y / stepSize \|_2^2
-			 */
-			for (int i = 0; i < x.length; i++) {
-				x[i] = reasoner.z.get(zIndices[i]) - y[i] / reasoner.stepSize;
-				
-				total += coeffs[i] * x[i];
-			}
-			
-			/*
-			 * Checks if the solution satisfies the constraint. If so, updates
-			 * the local primal variables and returns.
-			 */
-			if ( (comparator.equals(FunctionComparator.SmallerThan) && total <= constant)
-					||
-				 (comparator.equals(FunctionComparator.LargerThan) && total >= constant)
-			   ) {
-				return;
-			}
+		/*
+		 * Minimizes without regard for the constraint, i.e., solves
+		 * argmin stepSize/2 * \|x - z + y / stepSize \|_2^2
+		 */
+		double total = loadPoint();
+		
+		/*
+		 * If it's not an equality constraint, checks if the solution
+		 * satisfies the constraint. If so, returns.
+		 */
+		if ( (comparator.equals(FunctionComparator.SmallerThan) && total <= constant)
+				||
+			 (comparator.equals(FunctionComparator.LargerThan) && total >= constant)
+		   ) {
+			return;
 		}
 		
 		/*
 		 * If the naive minimization didn't work, or if it's an equality constraint,
 		 * projects onto the hyperplane
 		 */
-		project();
+		project(total);
+	}
+	
+	/**
+	 * Solves <br />
+	 * argmin stepSize/2 * \|x - z + y / stepSize \|_2^2 <br />
+	 * such that sum(x) [?] constant / coeff and lb <= x <= ub
+	 * <p>
+	 * Falls back to {@link #project(double)} if the bounds cannot satisfy the constraint.
+	 */
+	private void minimizeUniform() {
+		LocalVariableStore locals = reasoner.locals;
+		double[] z = reasoner.z;
+		double[] lb = reasoner.lb;
+		double[] ub = reasoner.ub;
+		
+		double coeff = locals.getCoeff(start);
+		double target = constant / coeff;
+		/* Dividing by a negative coefficient flips the inequality */
+		FunctionComparator sumComparator = comparator;
+		if (coeff < 0 && comparator.equals(FunctionComparator.SmallerThan))
+			sumComparator = FunctionComparator.LargerThan;
+		else if (coeff < 0 && comparator.equals(FunctionComparator.LargerThan))
+			sumComparator = FunctionComparator.SmallerThan;
+		
+		/* Stores the point to project in x and finds the range of the sum over the bounds */
+		double lowerSum = 0.0, upperSum = 0.0, pointSum = 0.0, total = 0.0;
+		for (int i = start; i < start + size; i++) {
+			int zIndex = locals.getZIndex(i);
+			double xi = z[zIndex] - locals.getY(i) / reasoner.stepSize;
+			locals.setX(i, xi);
+			pointSum += xi;
+			lowerSum += lb[zIndex];
+			upperSum += ub[zIndex];
+			total += Math.max(lb[zIndex], Math.min(ub[zIndex], xi));
+		}
+		
+		if (target < lowerSum || target > upperSum) {
+			project(coeff * pointSum);
+			return;
+		}
+		
+		/* An inequality is inactive if the point clipped to the bounds satisfies it */
+		if ( (sumComparator.equals(FunctionComparator.SmallerThan) && total <= target)
+				||
+			 (sumComparator.equals(FunctionComparator.LargerThan) && total >= target)
+		   ) {
+			for (int i = start; i < start + size; i++) {
+				int zIndex = locals.getZIndex(i);
+				locals.setX(i, Math.max(lb[zIndex], Math.min(ub[zIndex], locals.getX(i))));
+			}
+			return;
+		}
+		
+		/*
+		 * Otherwise the sum is at the target. The solution is
+		 * x_i = min(ub_i, max(lb_i, v_i - tau)) for the shift tau that makes
+		 * the sum equal the target. The sum decreases piecewise linearly in
+		 * tau, so tau is found by sweeping its breakpoints in order: variable
+		 * i leaves its upper bound at v_i - ub_i and reaches its lower bound
+		 * at v_i - lb_i.
+		 */
+		double[] scratch = breakpoints.get();
+		if (scratch.length < 2 * size) {
+			scratch = new double[2 * size];
+			breakpoints.set(scratch);
+		}
+		for (int i = 0; i < size; i++) {
+			int zIndex = locals.getZIndex(start + i);
+			double vi = locals.getX(start + i);
+			scratch[i] = vi - ub[zIndex];
+			scratch[size + i] = vi - lb[zIndex];
+		}
+		Arrays.sort(scratch, 0, size);
+		Arrays.sort(scratch, size, 2 * size);
+		
+		/* Starts with every variable at its upper bound */
+		double tau = scratch[0];
+		double sum = upperSum;
+		int numFree = 0;
+		int leave = 0, reach = size;
+		while (leave < size || reach < 2 * size) {
+			boolean leaving = leave < size && (reach == 2 * size || scratch[leave] <= scratch[reach]);
+			double next = leaving ? scratch[leave] : scratch[reach];
+			double nextSum = sum - numFree * (next - tau);
+			if (nextSum <= target) {
+				if (numFree > 0)
+					tau += (sum - target) / numFree;
+				break;
+			}
+			
+			sum = nextSum;
+			tau = next;
+			if (leaving) {
+				numFree++;
+				leave++;
+			}
+			else {
+				numFree--;
+				reach++;
+			}
+		}
+		
+		for (int i = start; i < start + size; i++) {
+			int zIndex = locals.getZIndex(i);
+			locals.setX(i, Math.max(lb[zIndex], Math.min(ub[zIndex], locals.getX(i) - tau)));
+		}
 	}
 }
@@ -25,12 +25,10 @@ package org.linqs.psl.reasoner.admm;
  */
 class LinearLossTerm extends ADMMObjectiveTerm implements WeightedObjectiveTerm {
 	
-	private final double[] coeffs;
 	private double weight;
 	
 	LinearLossTerm(ADMMReasoner reasoner, int[] zIndices, double[] coeffs, double weight) {
-		super(reasoner, zIndices);
-		this.coeffs = coeffs;
+		super(reasoner, zIndices, coeffs);
 		setWeight(weight);
 	}
 
@@ -41,9 +39,13 @@ class LinearLossTerm extends ADMMObjectiveTerm implements WeightedObjectiveTerm
 	
 	@Override
 	protected void minimize() {
-		for (int i = 0; i < x.length; i++) {
-			x[i] = reasoner.z.get(zIndices[i]) - y[i] / reasoner.stepSize;
-			x[i] -= weight * coeffs[i] / reasoner.stepSize;
+		LocalVariableStore locals = reasoner.locals;
+		double[] z = reasoner.z;
+		
+		for (int i = start; i < start + size; i++) {
+			double xi = z[locals.getZIndex(i)] - locals.getY(i) / reasoner.stepSize;
+			xi -= weight * locals.getCoeff(i) / reasoner.stepSize;
+			locals.setX(i, xi);
 		}
 	}
 }
@@ -0,0 +1,94 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+/**
+ * Storage for the local variables of the terms of an {@link ADMMReasoner}.
+ * <p>
+ * Each local variable i has a local copy x, a scaled dual variable y, the
+ * index into the consensus vector of the variable it copies and its
+ * coefficient in its term. The store also holds the reasoner's index from
+ * consensus variables to their local copies, which has at most as many
+ * entries as there are local variables.
+ * <p>
+ * Distinct indices may be read and written from different threads.
+ */
+public abstract class LocalVariableStore {
+
+	/** @return the local copy of local variable i */
+	public abstract double getX(int i);
+
+	public abstract void setX(int i, double value);
+
+	/** @return the dual variable of local variable i */
+	public abstract double getY(int i);
+
+	public abstract void setY(int i, double value);
+
+	/** @return the index into the consensus vector of local variable i */
+	public abstract int getZIndex(int i);
+
+	public abstract void setZIndex(int i, int value);
+
+	/** @return the coefficient of local variable i in its term */
+	public abstract double getCoeff(int i);
+
+	public abstract void setCoeff(int i, double value);
+
+	/** @return entry j of the index from consensus variables to local variables */
+	public abstract int getLocation(int j);
+
+	public abstract void setLocation(int j, int value);
+
+	/**
+	 * @return the number of local variables that can be stored without
+	 *         calling {@link #ensureCapacity(int)}
+	 */
+	public abstract int capacity();
+
+	/**
+	 * Makes room for at least the given number of local variables, keeping
+	 * the current contents.
+	 */
+	public abstract void ensureCapacity(int capacity);
+
+	/**
+	 * Releases any space beyond the given number of local variables, if the
+	 * store can do so.
+	 */
+	public abstract void trim(int size);
+
+	/**
+	 * Copies local variables [from, from + length) to [to, to + length).
+	 * The index of consensus variables is not moved. The target must not be
+	 * after the source.
+	 */
+	public void move(int from, int to, int length) {
+		for (int i = 0; i < length; i++) {
+			setX(to + i, getX(from + i));
+			setY(to + i, getY(from + i));
+			setZIndex(to + i, getZIndex(from + i));
+			setCoeff(to + i, getCoeff(from + i));
+		}
+	}
+
+	/**
+	 * Releases the resources held by this store. It cannot be used afterwards.
+	 */
+	public abstract void close();
+}
@@ -0,0 +1,219 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps local variables in a memory-mapped temporary file, so that the
+ * operating system pages them in and out as needed and they do not count
+ * against the heap.
+ * <p>
+ * The file is a sequence of segments of {@link #SEGMENT_SIZE} local
+ * variables. Each segment is mapped separately and holds the x, y,
+ * coefficient, consensus index and location columns of its variables one
+ * after the other, so that sweeping the terms in order reads each column
+ * sequentially. The store grows by appending segments.
+ * <p>
+ * Only this per-variable state is mapped. The term objects, with their
+ * weights and constants, the consensus variables and the ground rules stay
+ * on the heap. The file is deleted by {@link #close()}.
+ */
+final class MappedLocalVariableStore extends LocalVariableStore {
+
+	private static final Logger log = LoggerFactory.getLogger(MappedLocalVariableStore.class);
+
+	private static final int SEGMENT_SHIFT = 20;
+	/** Number of local variables in a segment */
+	static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	/* Size of a segment in the file: three double columns and two int columns */
+	private static final long SEGMENT_BYTES = (long) SEGMENT_SIZE * (3 * 8 + 2 * 4);
+
+	private final File file;
+	private final RandomAccessFile randomAccessFile;
+	private final FileChannel channel;
+
+	private int numSegments;
+	private DoubleBuffer[] x;
+	private DoubleBuffer[] y;
+	private DoubleBuffer[] coeffs;
+	private IntBuffer[] zIndices;
+	private IntBuffer[] locations;
+
+	/**
+	 * Creates a store backed by a new temporary file in the given directory.
+	 */
+	MappedLocalVariableStore(File directory, int capacity) {
+		try {
+			file = File.createTempFile("psl-admm-", ".bin", directory);
+			randomAccessFile = new RandomAccessFile(file, "rw");
+			channel = randomAccessFile.getChannel();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		log.debug("Storing local variables in {}", file);
+
+		numSegments = 0;
+		x = new DoubleBuffer[0];
+		y = new DoubleBuffer[0];
+		coeffs = new DoubleBuffer[0];
+		zIndices = new IntBuffer[0];
+		locations = new IntBuffer[0];
+		ensureCapacity(capacity);
+	}
+
+	@Override
+	public double getX(int i) {
+		return x[i >>> SEGMENT_SHIFT].get(i & SEGMENT_MASK);
+	}
+
+	@Override
+	public void setX(int i, double value) {
+		x[i >>> SEGMENT_SHIFT].put(i & SEGMENT_MASK, value);
+	}
+
+	@Override
+	public double getY(int i) {
+		return y[i >>> SEGMENT_SHIFT].get(i & SEGMENT_MASK);
+	}
+
+	@Override
+	public void setY(int i, double value) {
+		y[i >>> SEGMENT_SHIFT].put(i & SEGMENT_MASK, value);
+	}
+
+	@Override
+	public int getZIndex(int i) {
+		return zIndices[i >>> SEGMENT_SHIFT].get(i & SEGMENT_MASK);
+	}
+
+	@Override
+	public void setZIndex(int i, int value) {
+		zIndices[i >>> SEGMENT_SHIFT].put(i & SEGMENT_MASK, value);
+	}
+
+	@Override
+	public double getCoeff(int i) {
+		return coeffs[i >>> SEGMENT_SHIFT].get(i & SEGMENT_MASK);
+	}
+
+	@Override
+	public void setCoeff(int i, double value) {
+		coeffs[i >>> SEGMENT_SHIFT].put(i & SEGMENT_MASK, value);
+	}
+
+	@Override
+	public int getLocation(int j) {
+		return locations[j >>> SEGMENT_SHIFT].get(j & SEGMENT_MASK);
+	}
+
+	@Override
+	public void setLocation(int j, int value) {
+		locations[j >>> SEGMENT_SHIFT].put(j & SEGMENT_MASK, value);
+	}
+
+	@Override
+	public int capacity() {
+		return (int) Math.min(Integer.MAX_VALUE, (long) numSegments * SEGMENT_SIZE);
+	}
+
+	@Override
+	public void ensureCapacity(int capacity) {
+		int newNumSegments = (int) (((long) capacity + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT);
+		if (newNumSegments <= numSegments)
+			return;
+
+		x = Arrays.copyOf(x, newNumSegments);
+		y = Arrays.copyOf(y, newNumSegments);
+		coeffs = Arrays.copyOf(coeffs, newNumSegments);
+		zIndices = Arrays.copyOf(zIndices, newNumSegments);
+		locations = Arrays.copyOf(locations, newNumSegments);
+
+		for (int segment = numSegments; segment < newNumSegments; segment++) {
+			ByteBuffer buffer;
+			try {
+				/* Mapping past the end of the file extends it */
+				buffer = channel.map(FileChannel.MapMode.READ_WRITE, segment * SEGMENT_BYTES, SEGMENT_BYTES);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+
+			x[segment] = column(buffer, 0, 8).asDoubleBuffer();
+			y[segment] = column(buffer, 8, 8).asDoubleBuffer();
+			coeffs[segment] = column(buffer, 16, 8).asDoubleBuffer();
+			zIndices[segment] = column(buffer, 24, 4).asIntBuffer();
+			locations[segment] = column(buffer, 28, 4).asIntBuffer();
+		}
+		numSegments = newNumSegments;
+	}
+
+	/**
+	 * @return the part of a segment that starts after the given number of
+	 *         bytes per local variable and has the given width in bytes per
+	 *         local variable, in native byte order
+	 */
+	private static ByteBuffer column(ByteBuffer segment, int offset, int width) {
+		ByteBuffer column = segment.duplicate();
+		column.position(offset * SEGMENT_SIZE);
+		column.limit(column.position() + width * SEGMENT_SIZE);
+		return column.slice().order(ByteOrder.nativeOrder());
+	}
+
+	/**
+	 * Does nothing. Segments are only released by {@link #close()}.
+	 */
+	@Override
+	public void trim(int size) {
+	}
+
+	/**
+	 * Closes and deletes the backing file. The mapped segments are unmapped
+	 * when they are garbage collected.
+	 */
+	@Override
+	public void close() {
+		x = null;
+		y = null;
+		coeffs = null;
+		zIndices = null;
+		locations = null;
+		numSegments = 0;
+
+		try {
+			channel.close();
+			randomAccessFile.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		if (!file.delete())
+			log.warn("Could not delete {}", file);
+	}
+}
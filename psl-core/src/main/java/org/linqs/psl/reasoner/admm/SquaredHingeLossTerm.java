@@ -32,17 +32,11 @@ class SquaredHingeLossTerm extends SquaredHyperplaneTerm {
 
 	@Override
 	protected void minimize() {
-		/* Initializes scratch data */
-		double total = 0.0;
-		
 		/*
 		 * Minimizes without the quadratic loss, i.e., solves
 		 * argmin stepSize/2 * \|x - z + y / stepSize \|_2^2
 		 */
-		for (int i = 0; i < x.length; i++) {
-			x[i] = reasoner.z.get(zIndices[i]) - y[i] / reasoner.stepSize;
-			total += coeffs[i] * x[i];
-		}
+		double total = loadPoint();
 		
 		/* If the quadratic loss is NOT active at the computed point, it is the solution... */
 		if (total <= constant) {
@@ -53,7 +47,7 @@ class SquaredHingeLossTerm extends SquaredHyperplaneTerm {
 		 * Else, minimizes with the quadratic loss, i.e., solves
 		 * argmin weight * (coeffs^T * x - constant)^2 + stepSize/2 * \|x - z + y / stepSize \|_2^2
 		 */
-		minWeightedSquaredHyperplane();
+		minWeightedSquaredHyperplane(total);
 	}
 
 }
@@ -32,6 +32,6 @@ class SquaredLinearLossTerm extends SquaredHyperplaneTerm {
 	
 	@Override
 	protected void minimize() {
-		minWeightedSquaredHyperplane();
+		minWeightedSquaredHyperplane(loadPoint());
 	}
 }
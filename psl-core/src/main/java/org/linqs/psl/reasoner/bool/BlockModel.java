@@ -0,0 +1,300 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.bool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.model.ConstraintBlocker;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.TermBatch;
+import org.linqs.psl.reasoner.TermParser;
+
+/**
+ * The blocks of a {@link ConstraintBlocker} and the
+ * {@link WeightedGroundRule WeightedGroundRules} of a store, compiled into
+ * arrays so that assignments can be scored without touching the atoms.
+ * <p>
+ * An assignment is an array of values indexed like the variables. The
+ * setting of block b is the index of its atom that is 1.0, or
+ * blockVars[b].length if all of its atoms are 0.0.
+ */
+class BlockModel {
+
+	/** Increment of the seeds of {@link #getSeed(long, int)} */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	final int numBlocks;
+	/** Variable indices of the atoms of each block */
+	final int[][] blockVars;
+	/** Whether exactly one atom of each block must be 1.0 */
+	final boolean[] exactlyOne;
+	/** Rules with at least one atom in each block */
+	final int[][] blockRules;
+
+	final int numRules;
+	final WeightedGroundRule[] rules;
+	/** Distinct blocks with atoms in each rule */
+	final int[][] ruleBlocks;
+	/* Linear part of each rule, as in TermBatch */
+	final int[] ruleOffsets;
+	final int[] ruleVars;
+	final double[] ruleCoeffs;
+	final double[] ruleConstants;
+	final byte[] ruleTypes;
+	final double[] ruleWeights;
+
+	private final TermParser parser;
+	private final RandomVariableAtom[][] rvBlocks;
+
+	/**
+	 * @param blocker  a blocker on which {@link ConstraintBlocker#prepareBlocks(boolean)}
+	 *             was called with true
+	 */
+	BlockModel(ConstraintBlocker blocker, GroundRuleStore store) {
+		parser = new TermParser();
+		rvBlocks = blocker.getRVBlocks();
+		exactlyOne = blocker.getExactlyOne();
+		numBlocks = rvBlocks.length;
+		blockVars = new int[numBlocks][];
+		for (int b = 0; b < numBlocks; b++) {
+			blockVars[b] = new int[rvBlocks[b].length];
+			for (int p = 0; p < rvBlocks[b].length; p++)
+				blockVars[b][p] = parser.getIndex(rvBlocks[b][p].getVariable());
+		}
+
+		List<WeightedGroundRule> ruleList = new ArrayList<WeightedGroundRule>();
+		for (WeightedGroundRule rule : store.getCompatibilityKernels())
+			ruleList.add(rule);
+		numRules = ruleList.size();
+		rules = ruleList.toArray(new WeightedGroundRule[numRules]);
+		Map<WeightedGroundRule, Integer> ruleIndices = new HashMap<WeightedGroundRule, Integer>(2 * numRules);
+
+		ruleOffsets = new int[numRules + 1];
+		ruleConstants = new double[numRules];
+		ruleTypes = new byte[numRules];
+		ruleWeights = new double[numRules];
+		List<Integer> vars = new ArrayList<Integer>();
+		List<Double> coeffs = new ArrayList<Double>();
+		for (int r = 0; r < numRules; r++) {
+			ruleIndices.put(rules[r], r);
+			parser.parse(rules[r]);
+			ruleTypes[r] = parser.getType();
+			ruleWeights[r] = parser.getWeight();
+			ruleConstants[r] = parser.getConstant();
+			for (int j = 0; j < parser.getSize(); j++) {
+				vars.add(parser.getVariableIndex(j));
+				coeffs.add(parser.getCoefficient(j));
+			}
+			ruleOffsets[r + 1] = vars.size();
+		}
+		ruleVars = new int[vars.size()];
+		ruleCoeffs = new double[vars.size()];
+		for (int j = 0; j < ruleVars.length; j++) {
+			ruleVars[j] = vars.get(j);
+			ruleCoeffs[j] = coeffs.get(j);
+		}
+
+		/* Inverts the incident rules of the blocks */
+		WeightedGroundRule[][] incidentGKs = blocker.getIncidentGKs();
+		blockRules = new int[numBlocks][];
+		int[] numRuleBlocks = new int[numRules];
+		for (int b = 0; b < numBlocks; b++) {
+			int[] incident = new int[incidentGKs[b].length];
+			int size = 0;
+			for (WeightedGroundRule rule : incidentGKs[b]) {
+				Integer r = ruleIndices.get(rule);
+				if (r != null) {
+					incident[size++] = r;
+					numRuleBlocks[r]++;
+				}
+			}
+			blockRules[b] = (size == incident.length) ? incident : Arrays.copyOf(incident, size);
+		}
+		ruleBlocks = new int[numRules][];
+		for (int r = 0; r < numRules; r++)
+			ruleBlocks[r] = new int[numRuleBlocks[r]];
+		int[] filled = new int[numRules];
+		for (int b = 0; b < numBlocks; b++)
+			for (int r : blockRules[b])
+				ruleBlocks[r][filled[r]++] = b;
+	}
+
+	/**
+	 * @return the current values of the atoms, indexed like the variables
+	 */
+	double[] getValues() {
+		return parser.getValues();
+	}
+
+	/**
+	 * Reads the current weights of the rules, after they have been changed.
+	 */
+	void updateWeights() {
+		for (int r = 0; r < numRules; r++)
+			ruleWeights[r] = rules[r].getWeight().getWeight();
+	}
+	
+	/**
+	 * @return the incompatibility of a rule under an assignment
+	 */
+	double getIncompatibility(int r, double[] values) {
+		double total = 0.0;
+		for (int j = ruleOffsets[r]; j < ruleOffsets[r + 1]; j++)
+			total += ruleCoeffs[j] * values[ruleVars[j]];
+		return TermBatch.getIncompatibility(ruleTypes[r], total - ruleConstants[r]);
+	}
+	
+	/**
+	 * @return the weighted incompatibility of a rule under an assignment
+	 */
+	double getWeightedIncompatibility(int r, double[] values) {
+		return ruleWeights[r] * getIncompatibility(r, values);
+	}
+	
+	/**
+	 * @return the number of feasible settings of a block, or 0 if it has no atoms
+	 */
+	int getNumSettings(int b) {
+		int length = blockVars[b].length;
+		/* If all RVs in block assigned 0.0 is valid, considers that too */
+		if (length == 0)
+			return 0;
+		return (exactlyOne[b]) ? length : length + 1;
+	}
+	
+	/**
+	 * Computes the distribution of the settings of a block given the rest of
+	 * an assignment. Leaves the block at its last setting.
+	 *
+	 * @param p  filled with the probability of each setting
+	 * @return the number of settings
+	 */
+	int getConditional(int b, double[] values, double[] p) {
+		int numSettings = getNumSettings(b);
+		double minEnergy = Double.POSITIVE_INFINITY;
+		for (int s = 0; s < numSettings; s++) {
+			setBlock(b, s, values);
+			double energy = 0.0;
+			for (int r : blockRules[b])
+				energy += getWeightedIncompatibility(r, values);
+			p[s] = energy;
+			minEnergy = Math.min(minEnergy, energy);
+		}
+		
+		/* Shifts the energies so that the most likely setting has probability 1 before normalizing */
+		double total = 0.0;
+		for (int s = 0; s < numSettings; s++) {
+			p[s] = Math.exp(minEnergy - p[s]);
+			total += p[s];
+		}
+		for (int s = 0; s < numSettings; s++)
+			p[s] /= total;
+		return numSettings;
+	}
+	
+	/**
+	 * Draws a setting of a block from its distribution given the rest of
+	 * an assignment.
+	 *
+	 * @param p  a buffer with room for the settings of the block
+	 */
+	void sampleBlock(int b, double[] values, Random rand, double[] p) {
+		int numSettings = getConditional(b, values, p);
+		/* Just in case an RV block is empty */
+		if (numSettings == 0)
+			return;
+		
+		double cutoff = rand.nextDouble();
+		int sample = numSettings - 1;
+		double cumulative = 0.0;
+		for (int s = 0; s < numSettings; s++) {
+			cumulative += p[s];
+			if (cumulative >= cutoff) {
+				sample = s;
+				break;
+			}
+		}
+		setBlock(b, sample, values);
+	}
+	
+	/**
+	 * @return the largest number of settings of any block
+	 */
+	int getMaxSettings() {
+		int maxSettings = 0;
+		for (int b = 0; b < numBlocks; b++)
+			maxSettings = Math.max(maxSettings, blockVars[b].length + 1);
+		return maxSettings;
+	}
+
+	/**
+	 * @return the setting of a block under an assignment
+	 */
+	int getSetting(int b, double[] values) {
+		for (int p = 0; p < blockVars[b].length; p++)
+			if (values[blockVars[b][p]] == 1.0)
+				return p;
+		return blockVars[b].length;
+	}
+
+	/**
+	 * Changes the setting of a block in an assignment.
+	 */
+	void setBlock(int b, int setting, double[] values) {
+		for (int p = 0; p < blockVars[b].length; p++)
+			values[blockVars[b][p]] = (p == setting) ? 1.0 : 0.0;
+	}
+
+	/**
+	 * Sets each block to a random feasible setting, as
+	 * {@link ConstraintBlocker#randomlyInitializeRVs()} does.
+	 */
+	void randomlyInitialize(double[] values, Random rand) {
+		for (int b = 0; b < numBlocks; b++) {
+			int length = blockVars[b].length;
+			setBlock(b, (length > 0 && exactlyOne[b]) ? rand.nextInt(length) : length, values);
+		}
+	}
+
+	/**
+	 * @return the index-th seed of a sequence that starts from a base seed,
+	 *         as in SplitMix64
+	 */
+	static long getSeed(long base, int index) {
+		long z = base + (index + 1) * GOLDEN_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * Sets the atoms of the blocks to an assignment.
+	 */
+	void apply(double[] values) {
+		for (int b = 0; b < numBlocks; b++)
+			for (int p = 0; p < rvBlocks[b].length; p++)
+				rvBlocks[b][p].setValue(values[blockVars[b][p]]);
+	}
+}
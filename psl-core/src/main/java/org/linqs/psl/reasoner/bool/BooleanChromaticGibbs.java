@@ -0,0 +1,130 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.bool;
+
+import org.linqs.psl.application.groundrulestore.MemoryGroundKernelStore;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.reasoner.Reasoner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Approximates the marginal probability that each atom has value 1 in a
+ * Boolean domain with a {@link ChromaticGibbsSampler}, which samples the
+ * blocks of each color in parallel.
+ * <p>
+ * Marginal probabilities will be set as the atoms' truth values.
+ * <p>
+ * This class supports free {@link RandomVariableAtom RandomVariableAtoms}
+ * and RandomVariableAtoms that are each constrained by a single
+ * {@link GroundDomainRangeConstraint}. It also assumes that all ObservedAtoms
+ * have Boolean truth values. Its behavior is not defined otherwise.
+ */
+public class BooleanChromaticGibbs extends MemoryGroundKernelStore implements Reasoner {
+
+	private static final Logger log = LoggerFactory.getLogger(BooleanChromaticGibbs.class);
+
+	/**
+	 * Prefix of property keys used by this class.
+	 * 
+	 * @see ConfigManager
+	 */
+	public static final String CONFIG_PREFIX = "booleanchromaticgibbs";
+
+	/**
+	 * Key for length of Markov chain
+	 */
+	public static final String NUM_SAMPLES_KEY = CONFIG_PREFIX + ".numsamples";
+	/** Default value for NUM_SAMPLES_KEY */
+	public static final int NUM_SAMPLES_DEFAULT = 2500;
+
+	/**
+	 * Number of burn-in samples
+	 */
+	public static final String NUM_BURN_IN_KEY = CONFIG_PREFIX + ".numburnin";
+	/** Default value for NUM_BURN_IN_KEY */
+	public static final int NUM_BURN_IN_DEFAULT = 500;
+
+	/**
+	 * Number of threads that sample the blocks of a color
+	 */
+	public static final String NUM_THREADS_KEY = CONFIG_PREFIX + ".numthreads";
+	/** Default value for NUM_THREADS_KEY */
+	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
+
+	private final int numSamples;
+	private final int numBurnIn;
+	private final int numThreads;
+
+	private int lastNumColors;
+	private double lastBlockSamplesPerSecond;
+
+	public BooleanChromaticGibbs(ConfigBundle config) {
+		super();
+		numSamples = config.getInt(NUM_SAMPLES_KEY, NUM_SAMPLES_DEFAULT);
+		if (numSamples <= 0)
+			throw new IllegalArgumentException("Number of samples must be positive.");
+		numBurnIn = config.getInt(NUM_BURN_IN_KEY, NUM_BURN_IN_DEFAULT);
+		if (numBurnIn < 0)
+			throw new IllegalArgumentException("Number of burn in samples must be non-negative.");
+		if (numBurnIn >= numSamples)
+			throw new IllegalArgumentException("Number of burn in samples must be less than number of samples.");
+		numThreads = config.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Property " + NUM_THREADS_KEY + " must be positive.");
+	}
+
+	/**
+	 * @return the number of colors of the blocks in the last call to
+	 *         {@link #optimize()}
+	 */
+	public int getLastNumColors() {
+		return lastNumColors;
+	}
+
+	/**
+	 * @return the number of blocks sampled per second in the last call to
+	 *         {@link #optimize()}, including burn-in
+	 */
+	public double getLastBlockSamplesPerSecond() {
+		return lastBlockSamplesPerSecond;
+	}
+
+	@Override
+	public void optimize() {
+		ChromaticGibbsSampler sampler = new ChromaticGibbsSampler(this, numThreads);
+		lastNumColors = sampler.getNumColors();
+
+		log.info("Beginning inference.");
+		sampler.sample(numBurnIn, numSamples - numBurnIn);
+		lastBlockSamplesPerSecond = sampler.getLastBlockSamplesPerSecond();
+		log.info("Inference complete after {} samples with {} colors, {} block samples per second.",
+				numSamples, lastNumColors, (long) lastBlockSamplesPerSecond);
+
+		/* Sets truth values of RandomVariableAtoms to marginal probabilities */
+		sampler.applyMarginals();
+	}
+
+	@Override
+	public void close() {
+		/* Intentionally blank */
+	}
+
+}
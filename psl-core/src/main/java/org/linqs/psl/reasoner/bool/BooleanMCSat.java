@@ -17,15 +17,18 @@
  */
 package org.linqs.psl.reasoner.bool;
 
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.linqs.psl.application.groundrulestore.MemoryGroundKernelStore;
 import org.linqs.psl.config.ConfigBundle;
 import org.linqs.psl.config.ConfigManager;
 import org.linqs.psl.model.ConstraintBlocker;
 import org.linqs.psl.model.atom.RandomVariableAtom;
-import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +42,12 @@ import org.slf4j.LoggerFactory;
  * and RandomVariableAtoms that are each constrained by a single
  * {@link GroundDomainRangeConstraint}. It also assumes that all ObservedAtoms
  * have Boolean truth values. Its behavior is not defined otherwise.
+ * <p>
+ * Several independent chains, each from a random assignment and with its own
+ * random number generator, can run in parallel. Their samples after burn-in
+ * are pooled into the marginals. With more than one chain, the chains stop
+ * early once the potential scale reduction factor (R-hat) of Gelman and
+ * Rubin of every atom is at most {@link #MAX_RHAT_KEY}.
  * 
  * @author Stephen Bach <bach@cs.umd.edu>
  */
@@ -67,9 +76,46 @@ public class BooleanMCSat extends MemoryGroundKernelStore implements Reasoner {
 	/** Default value for NUM_BURN_IN_KEY */
 	public static final int NUM_BURN_IN_DEFAULT = 500;
 	
+	/**
+	 * Number of independent Markov chains, each of which draws up to
+	 * NUM_SAMPLES_KEY samples
+	 */
+	public static final String NUM_CHAINS_KEY = CONFIG_PREFIX + ".numchains";
+	/** Default value for NUM_CHAINS_KEY */
+	public static final int NUM_CHAINS_DEFAULT = 1;
+	
+	/**
+	 * Number of chains to run at once
+	 */
+	public static final String NUM_THREADS_KEY = CONFIG_PREFIX + ".numthreads";
+	/** Default value for NUM_THREADS_KEY */
+	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Largest R-hat of any atom at which multiple chains stop early
+	 */
+	public static final String MAX_RHAT_KEY = CONFIG_PREFIX + ".maxrhat";
+	/** Default value for MAX_RHAT_KEY */
+	public static final double MAX_RHAT_DEFAULT = 1.01;
+	
+	/**
+	 * Number of samples between computations of R-hat
+	 */
+	public static final String CHECK_INTERVAL_KEY = CONFIG_PREFIX + ".checkinterval";
+	/** Default value for CHECK_INTERVAL_KEY */
+	public static final int CHECK_INTERVAL_DEFAULT = 100;
+	
 	private final Random rand;
 	private final int numSamples;
 	private final int numBurnIn;
+	private final int numChains;
+	private final int numThreads;
+	private final double maxRHat;
+	private final int checkInterval;
+	
+	private BlockModel model;
+	private int lastSamples;
+	private double lastRHat;
 	
 	public BooleanMCSat(ConfigBundle config) {
 		super();
@@ -78,117 +124,190 @@ public class BooleanMCSat extends MemoryGroundKernelStore implements Reasoner {
 		if (numSamples <= 0)
 			throw new IllegalArgumentException("Number of samples must be positive.");
 		numBurnIn = config.getInt(NUM_BURN_IN_KEY, NUM_BURN_IN_DEFAULT);
-		if (numSamples <= 0)
-			throw new IllegalArgumentException("Number of burn in samples must be positive.");
+		if (numBurnIn < 0)
+			throw new IllegalArgumentException("Number of burn in samples must be non-negative.");
 		if (numBurnIn >= numSamples)
 			throw new IllegalArgumentException("Number of burn in samples must be less than number of samples.");
+		numChains = config.getInt(NUM_CHAINS_KEY, NUM_CHAINS_DEFAULT);
+		if (numChains <= 0)
+			throw new IllegalArgumentException("Property " + NUM_CHAINS_KEY + " must be positive.");
+		numThreads = config.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Property " + NUM_THREADS_KEY + " must be positive.");
+		maxRHat = config.getDouble(MAX_RHAT_KEY, MAX_RHAT_DEFAULT);
+		if (maxRHat < 1.0)
+			throw new IllegalArgumentException("Property " + MAX_RHAT_KEY + " must be at least 1.");
+		checkInterval = config.getInt(CHECK_INTERVAL_KEY, CHECK_INTERVAL_DEFAULT);
+		if (checkInterval <= 0)
+			throw new IllegalArgumentException("Property " + CHECK_INTERVAL_KEY + " must be positive.");
+	}
+	
+	/**
+	 * @return the number of samples each chain drew in the last call to
+	 *         {@link #optimize()}, including burn-in
+	 */
+	public int getLastSamples() {
+		return lastSamples;
+	}
+	
+	/**
+	 * @return the largest R-hat of any atom after the last call to
+	 *         {@link #optimize()}, or NaN if it was not computed
+	 */
+	public double getLastRHat() {
+		return lastRHat;
 	}
 	
 	@Override
 	public void optimize() {
 		ConstraintBlocker blocker = new ConstraintBlocker(this);
 		blocker.prepareBlocks(false);
+		model = new BlockModel(blocker, this);
 		
-		/* Puts RandomVariableAtoms in 2d array by block */
-		RandomVariableAtom[][] rvBlocks = blocker.getRVBlocks();
-		/* If true, exactly one Atom in the RV block must be 1.0. If false, at most one can. */
-		boolean[] exactlyOne = blocker.getExactlyOne();
-		/* Collects GroundCompatibilityKernels incident on each block of RandomVariableAtoms */
-		WeightedGroundRule[][] incidentGKs = blocker.getIncidentGKs();
-		/* Initializes arrays for totaling samples */
-		double[][] totals = blocker.getEmptyDouble2DArray();
+		/* Each chain has a generator seeded from a SplitMix64 sequence */
+		long seed = rand.nextLong();
+		final Chain[] chains = new Chain[numChains];
+		for (int c = 0; c < numChains; c++)
+			chains[c] = new Chain(model.getValues(), new Random(BlockModel.getSeed(seed, c)));
 		
-		/* Randomly initializes the RVs to a feasible state */
-		blocker.randomlyInitializeRVs();
+		/* Workers advance their chains in rounds, between which R-hat is computed */
+		int numWorkers = Math.min(numThreads, numChains);
+		Runnable[] workers = new Runnable[numWorkers];
+		final int[] roundSamples = new int[1];
+		for (int w = 0; w < numWorkers; w++) {
+			final int worker = w;
+			final int step = numWorkers;
+			workers[w] = new Runnable() {
+				@Override
+				public void run() {
+					for (int c = worker; c < chains.length; c += step)
+						chains[c].sample(roundSamples[0]);
+				}
+			};
+		}
 		
-		/* Samples RV assignments */
 		log.info("Beginning inference.");
-		double[] p;
-		for (int sampleIndex = 0; sampleIndex < numSamples; sampleIndex++) {
-			for (int i = 0; i < rvBlocks.length; i++) {
-				if (rvBlocks.length == 0)
-					continue;
-				
-				p = new double[(exactlyOne[i]) ? rvBlocks[i].length : (rvBlocks[i].length + 1)];
-				
-				/* Computes probability for assignment of 1.0 to each RV */
-				for (int j = 0; j < rvBlocks[i].length; j++) {
-					/* Sets RVs */
-					for (int k = 0; k < rvBlocks[i].length; k++)
-						rvBlocks[i][k].setValue((k == j) ? 1.0 : 0.0);
-					
-					/* Computes probability */
-					p[j] = computeProbability(incidentGKs[i]);
-				}
-				
-				/* If all RVs in block assigned 0.0 is valid, computes probability */
-				if (!exactlyOne[i]) {
-					/* Sets all RVs to 0.0 */
-					for (RandomVariableAtom atom : rvBlocks[i])
-						atom.setValue(0.0);
-					
-					/* Computes probability */
-					p[p.length - 1] = computeProbability(incidentGKs[i]);
-				}
-				
-				/* Draws sample */
-				double[] sample = sampleWithProbability(p);
-				for (int j = 0; j < rvBlocks[i].length; j++) {
-					rvBlocks[i][j].setValue(sample[j]);
-					
-					if (sampleIndex >= numBurnIn)
-						totals[i][j] += sample[j];
-				}
+		int drawn = 0;
+		lastRHat = Double.NaN;
+		boolean converged = false;
+		while (!converged && drawn < numSamples) {
+			roundSamples[0] = Math.min(checkInterval, numSamples - drawn);
+			if (numWorkers == 1)
+				workers[0].run();
+			else
+				runAll(workers);
+			drawn += roundSamples[0];
+			
+			if (numChains > 1 && drawn > numBurnIn + 1) {
+				lastRHat = computeMaxRHat(chains, drawn - numBurnIn);
+				converged = lastRHat <= maxRHat;
+				log.debug("R-hat after {} samples: {}", drawn, lastRHat);
 			}
 		}
-		
-		log.info("Inference complete.");
+		lastSamples = drawn;
+		log.info("Inference complete after {} samples in each of {} chains.", drawn, numChains);
 		
 		/* Sets truth values of RandomVariableAtoms to marginal probabilities */
-		for (int i = 0; i < rvBlocks.length; i++)
-			for (int j = 0; j < rvBlocks[i].length; j++)
-				rvBlocks[i][j].setValue(totals[i][j] / (numSamples - numBurnIn));
+		double[] marginals = new double[chains[0].totals.length];
+		for (Chain chain : chains)
+			for (int v = 0; v < marginals.length; v++)
+				marginals[v] += chain.totals[v];
+		for (int v = 0; v < marginals.length; v++)
+			marginals[v] /= (double) numChains * (drawn - numBurnIn);
+		model.apply(marginals);
+		model = null;
 	}
 	
-	private double computeProbability(WeightedGroundRule incidentGKs[]) {
-		double probability = 0.0;
-		for (WeightedGroundRule gk : incidentGKs) {
-			probability += ((WeightedGroundRule) gk).getWeight().getWeight()
-					* ((WeightedGroundRule) gk).getIncompatibility();
+	private static void runAll(Runnable[] workers) {
+		List<Future<?>> futures = ThreadPool.getPool().submitGroup(workers);
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e);
 		}
-		return Math.exp(-1 * probability);
 	}
 	
-	private double[] sampleWithProbability(double[] distribution) {
-		/* Just in case an RV block is empty */
-		if (distribution.length == 0)
-			return new double[0];
+	/**
+	 * Computes the R-hat of each atom from the chains' means and variances of
+	 * its value after burn-in.
+	 *
+	 * @param n  the number of samples of each chain after burn-in
+	 * @return the largest R-hat
+	 */
+	private double computeMaxRHat(Chain[] chains, int n) {
+		int m = chains.length;
+		double max = 1.0;
+		for (int b = 0; b < model.numBlocks; b++) {
+			for (int v : model.blockVars[b]) {
+				double meanOfMeans = 0.0;
+				double w = 0.0;
+				for (Chain chain : chains) {
+					/* Values are 0 or 1, so the sum of squares is the sum */
+					double mean = chain.totals[v] / n;
+					meanOfMeans += mean;
+					w += mean * (1 - mean) * n / (n - 1);
+				}
+				meanOfMeans /= m;
+				w /= m;
+				double between = 0.0;
+				for (Chain chain : chains) {
+					double diff = chain.totals[v] / n - meanOfMeans;
+					between += diff * diff;
+				}
+				between *= (double) n / (m - 1);
+				
+				/*
+				 * Leaves out the factor (n - 1) / n of the within-chain variance,
+				 * so R-hat is at least 1 and short chains cannot pass by chance
+				 */
+				double rHat;
+				if (w > 0.0)
+					rHat = Math.sqrt((w + between / n) / w);
+				else
+					rHat = (between > 0.0) ? Double.POSITIVE_INFINITY : 1.0;
+				max = Math.max(max, rHat);
+			}
+		}
+		return max;
+	}
+	
+	/**
+	 * A Markov chain with its own assignment, random number generator and
+	 * buffers.
+	 */
+	private class Chain {
+		private final Random rand;
+		private final double[] values;
+		/** Sum of the values of each variable after burn-in */
+		private final double[] totals;
+		/* Probabilities of the settings of a block */
+		private final double[] p;
+		private int numDrawn;
 		
-		/* Normalizes distribution */
-		double total = 0.0;
-		for (double pValue : distribution)
-			total += pValue;
-		for (int i = 0; i < distribution.length; i++)
-			distribution[i] /= total;
+		private Chain(double[] values, Random rand) {
+			this.values = values;
+			this.rand = rand;
+			totals = new double[values.length];
+			p = new double[model.getMaxSettings()];
+			
+			/* Randomly initializes the RVs to a feasible state */
+			model.randomlyInitialize(values, rand);
+		}
 		
-		/* Draws sample */
-		double[] sample = new double[distribution.length];
-		double cutoff = rand.nextDouble();
-		total = 0.0;
-		for (int i = 0; i < distribution.length; i++) {
-			total += distribution[i];
-			if (total >= cutoff) {
-				sample[i] = 1.0;
-				return sample;
+		private void sample(int numDraws) {
+			for (int k = 0; k < numDraws; k++) {
+				for (int b = 0; b < model.numBlocks; b++)
+					model.sampleBlock(b, values, rand, p);
+				
+				if (numDrawn++ >= numBurnIn)
+					for (int b = 0; b < model.numBlocks; b++)
+						for (int v : model.blockVars[b])
+							totals[v] += values[v];
 			}
 		}
-
-		/*
-		 * Just in case a rounding error and a very high cutoff prevents the loop
-		 * from returning, returns the last assignment
-		 */
-		sample[sample.length-1] = 1.0;
-		return sample;
 	}
 	
 	@Override
@@ -17,22 +17,21 @@
  */
 package org.linqs.psl.reasoner.bool;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.linqs.psl.application.groundrulestore.MemoryGroundKernelStore;
-import org.linqs.psl.application.util.GroundKernels;
 import org.linqs.psl.config.ConfigBundle;
 import org.linqs.psl.config.ConfigManager;
 import org.linqs.psl.model.ConstraintBlocker;
-import org.linqs.psl.model.atom.GroundAtom;
 import org.linqs.psl.model.atom.RandomVariableAtom;
-import org.linqs.psl.model.rule.GroundRule;
-import org.linqs.psl.model.rule.WeightedGroundRule;
 import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.ThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,7 +49,19 @@ import org.slf4j.LoggerFactory;
  * <p>
  * It also assumes that all ObservedAtoms have values in {0.0, 1.0}.
  * Its behavior is not defined otherwise.
- * 
+ * <p>
+ * The search keeps the weighted incompatibility of each ground rule and an
+ * indexed set of the unsatisfied ground rules, and caches the best change
+ * to each block of RandomVariableAtoms with its make (decrease of
+ * incompatibility) and break (increase) scores. Changing a block updates
+ * only the ground rules incident on it and marks the cached changes of the
+ * blocks that share those ground rules as stale, so each flip takes time
+ * proportional to the degree of the changed block.
+ * <p>
+ * Several independent tries, each from a random assignment, can run in
+ * parallel. They share the best assignment found so far, which is the
+ * result, and all stop once any of them satisfies every ground rule.
+ *
  * @author Stephen Bach <bach@cs.umd.edu>
  */
 public class BooleanMaxWalkSat extends MemoryGroundKernelStore implements Reasoner {
@@ -80,9 +91,38 @@ public class BooleanMaxWalkSat extends MemoryGroundKernelStore implements Reason
 	/** Default value for NOISE_KEY */
 	public static final double NOISE_DEFAULT = (double) 1 / 100;
 	
+	/**
+	 * Key for positive integer property that is the number of independent
+	 * tries, each of which makes up to {@link #MAX_FLIPS_KEY} flips
+	 */
+	public static final String TRIES_KEY = CONFIG_PREFIX + ".tries";
+	/** Default value for TRIES_KEY */
+	public static final int TRIES_DEFAULT = 1;
+	
+	/**
+	 * Key for positive integer property that is the number of tries to run
+	 * at once
+	 */
+	public static final String NUM_THREADS_KEY = CONFIG_PREFIX + ".numthreads";
+	/** Default value for NUM_THREADS_KEY */
+	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
+	
+	/** Number of flips between checks whether another try solved the model */
+	private static final int STOP_CHECK_FLIPS = 1024;
+	
 	private Random rand;
 	private final int maxFlips;
 	private final double noise;
+	private final int numTries;
+	private final int numThreads;
+	
+	/* State shared by the tries of one call to optimize() */
+	private BlockModel model;
+	private final AtomicInteger nextTry;
+	private final AtomicLong totalFlips;
+	private double[] bestValues;
+	private double bestIncompatibility;
+	private volatile boolean solved;
 	
 	public BooleanMaxWalkSat(ConfigBundle config) {
 		super();
@@ -93,175 +133,332 @@ public class BooleanMaxWalkSat extends MemoryGroundKernelStore implements Reason
 		noise = config.getDouble(NOISE_KEY, NOISE_DEFAULT);
 		if (noise < 0.0 || noise > 1.0)
 			throw new IllegalArgumentException("Noise must be in [0,1].");
+		numTries = config.getInt(TRIES_KEY, TRIES_DEFAULT);
+		if (numTries <= 0)
+			throw new IllegalArgumentException("Property " + TRIES_KEY + " must be positive.");
+		numThreads = config.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Property " + NUM_THREADS_KEY + " must be positive.");
+		nextTry = new AtomicInteger();
+		totalFlips = new AtomicLong();
+	}
+	
+	/**
+	 * @return the number of flips made by all tries in the last call to
+	 *         {@link #optimize()}
+	 */
+	public long getLastFlips() {
+		return totalFlips.get();
+	}
+	
+	/**
+	 * @return the total weighted incompatibility of the assignment found by
+	 *         the last call to {@link #optimize()}
+	 */
+	public double getLastIncompatibility() {
+		return bestIncompatibility;
 	}
 	
 	@Override
 	public void optimize() {
 		ConstraintBlocker blocker = new ConstraintBlocker(this);
 		blocker.prepareBlocks(true);
+		model = new BlockModel(blocker, this);
 		
-		/* Puts RandomVariableAtoms in 2d array by block */
-		RandomVariableAtom[][] rvBlocks = blocker.getRVBlocks();
-		/* If true, exactly one Atom in the RV block must be 1.0. If false, at most one can. */
-		boolean[] exactlyOne = blocker.getExactlyOne();
-		/* Collects GroundCompatibilityKernels incident on each block of RandomVariableAtoms */
-		WeightedGroundRule[][] incidentGKs = blocker.getIncidentGKs();
-		/* Maps RandomVariableAtoms to their block index */
-		Map<RandomVariableAtom, Integer> rvMap = blocker.getRVMap();
+		bestValues = null;
+		bestIncompatibility = Double.POSITIVE_INFINITY;
+		solved = false;
+		nextTry.set(0);
+		totalFlips.set(0);
 		
-		/* Randomly initializes the RVs to a feasible state */
-		blocker.randomlyInitializeRVs();
+		int numWorkers = Math.min(numThreads, numTries);
+		Search[] workers = new Search[numWorkers];
+		for (int i = 0; i < numWorkers; i++)
+			workers[i] = new Search(model.getValues(), new Random(rand.nextLong()));
 		
-		Set<GroundRule> unsatGKs = new HashSet<GroundRule>();
-		Set<RandomVariableAtom> rvsToInclude = new HashSet<RandomVariableAtom>();
-		Set<Integer> blocksToInclude = new HashSet<Integer>(rvsToInclude.size());
-		RandomVariableAtom[][] candidateRVBlocks;
-		WeightedGroundRule[][] candidateIncidentGKs;
-		boolean[] candidateExactlyOne;
-		double currentIncompatibility;
-		double bestIncompatibility;
-		int changeBlock;
-		int newBlockSetting;
+		if (numWorkers == 1)
+			workers[0].run();
+		else {
+			List<Future<?>> futures = ThreadPool.getPool().submitGroup(workers);
+			try {
+				for (Future<?> future : futures)
+					future.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		model.apply(bestValues);
+		log.info("Total weighted incompatibility: {} after {} flips in {} tries",
+				new Object[] {bestIncompatibility, totalFlips.get(), Math.min(nextTry.get(), numTries)});
+		model = null;
+		bestValues = null;
+	}
+	
+	/**
+	 * Makes an assignment the result if it is better than the best one so far.
+	 */
+	private synchronized void offer(double[] values, double incompatibility) {
+		if (incompatibility < bestIncompatibility) {
+			bestIncompatibility = incompatibility;
+			bestValues = values.clone();
+			if (incompatibility <= 0.0)
+				solved = true;
+		}
+	}
+	
+	/**
+	 * Runs tries until none are left, with its own assignment and random
+	 * number generator.
+	 */
+	private class Search implements Runnable {
+		private final Random rand;
+		private final double[] values;
+		private final int[] settings;
 		
-		/* Finds initially unsatisfied GroundKernels */
-		for (GroundRule gk : getGroundKernels())
-			if (gk instanceof WeightedGroundRule && ((WeightedGroundRule) gk).getIncompatibility() > 0.0)
-				unsatGKs.add(gk);
+		/* Weighted incompatibility of each rule and their total */
+		private final double[] costs;
+		private double total;
 		
-		/* Changes some RV blocks */
-		for (int flip = 0; flip < maxFlips; flip++) {
-			
-			/* Just in case... */
-			if (unsatGKs.size() == 0)
-				return;
-			
-			GroundRule gk = (GroundRule) selectAtRandom(unsatGKs);
-			
-			/* Collects the RV blocks with at least one RV in gk */
-			rvsToInclude.clear();
-			blocksToInclude.clear();
-			for (GroundAtom atom : gk.getAtoms()) {
-				if (atom instanceof RandomVariableAtom) {
-					Integer blockIndex = rvMap.get(atom);
-					/* Ignore RVs forced to 0.0 */
-					if (blockIndex != null)
-						rvsToInclude.add((RandomVariableAtom) atom);
-				}
+		/* Indexed set of unsatisfied rules that have a block */
+		private final int[] unsat;
+		private final int[] unsatPositions;
+		private int numUnsat;
+		
+		/* Best change to each block, valid unless stale */
+		private final int[] moveSettings;
+		private final double[] moveMakes;
+		private final double[] moveBreaks;
+		private final boolean[] stale;
+		
+		/*
+		 * Changes since the best assignment of this try, as pairs of block and
+		 * old setting, so that the best assignment can be restored without
+		 * copying it after every improvement. Once there are as many changes
+		 * as blocks, the best assignment is copied instead.
+		 */
+		private final int[] trailBlocks;
+		private final int[] trailSettings;
+		private int trailLength;
+		private final int[] bestSettings;
+		private boolean bestCopied;
+		private double bestTotal;
+		
+		private Search(double[] values, Random rand) {
+			this.values = values;
+			this.rand = rand;
+			settings = new int[model.numBlocks];
+			costs = new double[model.numRules];
+			unsat = new int[model.numRules];
+			unsatPositions = new int[model.numRules];
+			moveSettings = new int[model.numBlocks];
+			moveMakes = new double[model.numBlocks];
+			moveBreaks = new double[model.numBlocks];
+			stale = new boolean[model.numBlocks];
+			trailBlocks = new int[model.numBlocks];
+			trailSettings = new int[model.numBlocks];
+			bestSettings = new int[model.numBlocks];
+		}
+		
+		@Override
+		public void run() {
+			int tryIndex;
+			while (!solved && (tryIndex = nextTry.getAndIncrement()) < numTries) {
+				search(tryIndex);
+				restoreBest();
+				/* Recomputes the total, which drifts as it is updated */
+				double incompatibility = 0.0;
+				for (int r = 0; r < model.numRules; r++)
+					incompatibility += model.getWeightedIncompatibility(r, values);
+				offer(values, incompatibility);
 			}
-			for (RandomVariableAtom atom : rvsToInclude)
-				blocksToInclude.add(rvMap.get(atom));
-			candidateRVBlocks = new RandomVariableAtom[blocksToInclude.size()][];
-			candidateIncidentGKs = new WeightedGroundRule[blocksToInclude.size()][];
-			candidateExactlyOne = new boolean[blocksToInclude.size()];
-			int i = 0;
-			for (Integer blockIndex : blocksToInclude) {
-				candidateRVBlocks[i] = rvBlocks[blockIndex];
-				candidateExactlyOne[i] = exactlyOne[blockIndex];
-				candidateIncidentGKs[i++] = incidentGKs[blockIndex];
+		}
+		
+		private void search(int tryIndex) {
+			/* Randomly initializes the blocks to a feasible state */
+			model.randomlyInitialize(values, rand);
+			for (int b = 0; b < model.numBlocks; b++) {
+				settings[b] = model.getSetting(b, values);
+				stale[b] = true;
 			}
-			
-			if (candidateRVBlocks.length == 0) {
-				flip--;
-				continue;
+			total = 0.0;
+			numUnsat = 0;
+			Arrays.fill(unsatPositions, -1);
+			for (int r = 0; r < model.numRules; r++) {
+				costs[r] = model.getWeightedIncompatibility(r, values);
+				total += costs[r];
+				if (costs[r] > 0.0)
+					addUnsat(r);
 			}
+			trailLength = 0;
+			bestCopied = false;
+			bestTotal = total;
 			
-			/* With probability noise, changes an RV block in gk at random */
-			if (rand.nextDouble() <= noise) {
-				changeBlock = rand.nextInt(candidateRVBlocks.length);
-				int blockSize = candidateRVBlocks[changeBlock].length;
-								
-				do {
-					newBlockSetting = rand.nextInt(blockSize);
-				}
-				while (candidateExactlyOne[changeBlock] && candidateRVBlocks[changeBlock][newBlockSetting].getValue() == 1.0);
+			int flip;
+			for (flip = 0; flip < maxFlips && numUnsat > 0; flip++) {
+				if (flip % STOP_CHECK_FLIPS == 0 && solved)
+					break;
 				
-				/* 
-				 * If the random setting is the current setting, but all 0.0 is also valid,
-				 * switches to that
-				 */
-				if (candidateRVBlocks[changeBlock][newBlockSetting].getValue() == 1.0)
-					newBlockSetting = candidateRVBlocks[changeBlock].length;
-			}
-			/* With probability 1 - noise, makes the best change to an RV block in gk */
-			else {
-				changeBlock = 0;
-				newBlockSetting = 0;
-				bestIncompatibility = Double.POSITIVE_INFINITY;
-				double[] currentState;
-				double currentStateTotal;
+				int[] candidates = model.ruleBlocks[unsat[rand.nextInt(numUnsat)]];
+				int changeBlock;
+				int newSetting;
 				
-				/* Considers each block */
-				for (int iBlock = 0; iBlock < candidateRVBlocks.length; iBlock++) {
-					/* Saves current state of block */
-					currentState = new double[candidateRVBlocks[iBlock].length];
-					currentStateTotal = 0.0;
-					for (int iRV = 0 ; iRV < candidateRVBlocks[iBlock].length; iRV++) {
-						currentState[iRV] = candidateRVBlocks[iBlock][iRV].getValue();
-						currentStateTotal += currentState[iRV];
+				/* With probability noise, changes a block in the rule at random */
+				if (rand.nextDouble() <= noise) {
+					changeBlock = candidates[rand.nextInt(candidates.length)];
+					int blockSize = model.blockVars[changeBlock].length;
+					/* A block with one atom that must be 1.0 cannot change */
+					if (model.exactlyOne[changeBlock] && blockSize == 1)
+						continue;
+					do {
+						newSetting = rand.nextInt(blockSize);
 					}
+					while (model.exactlyOne[changeBlock] && newSetting == settings[changeBlock]);
 					
-					/* Considers each setting to the block */
-					int lastRVIndex = candidateRVBlocks[iBlock].length;
-					/* If all 0.0 is a valid assignment and not the current one, tries that too */
-					if (!candidateExactlyOne[iBlock] && currentStateTotal > 0.0)
-						lastRVIndex++;
-					for (int iSetRV = 0; iSetRV < lastRVIndex; iSetRV++) {
-						/* Only considers this setting if it is not the current setting*/
-						if (iSetRV == candidateRVBlocks[iBlock].length || currentState[iSetRV] != 1.0) {
-							/* Changes to the current setting to consider */
-							for (int iChangeRV = 0; iChangeRV < candidateRVBlocks[iBlock].length; iChangeRV++)
-								candidateRVBlocks[iBlock][iChangeRV].setValue((iChangeRV == iSetRV) ? 1.0 : 0.0);
-							
-							/* Computes weighted incompatibility */
-							currentIncompatibility = 0.0;
-							for (WeightedGroundRule incidentGK : candidateIncidentGKs[iBlock]) {
-								if (!unsatGKs.contains(incidentGK)) {
-									if (incidentGK.getIncompatibility() > 0.0)
-										currentIncompatibility += ((WeightedGroundRule) incidentGK).getWeight().getWeight() * ((WeightedGroundRule) incidentGK).getIncompatibility();
-								}
-							}
-							
-							if (currentIncompatibility < bestIncompatibility) {
-								bestIncompatibility = currentIncompatibility;
-								changeBlock = iBlock;
-								newBlockSetting = iSetRV;
-							}
+					/*
+					 * If the random setting is the current setting, but all 0.0 is also valid,
+					 * switches to that
+					 */
+					if (newSetting == settings[changeBlock])
+						newSetting = blockSize;
+				}
+				/* With probability 1 - noise, makes the best change to a block in the rule */
+				else {
+					changeBlock = -1;
+					newSetting = -1;
+					double bestDelta = Double.POSITIVE_INFINITY;
+					for (int b : candidates) {
+						if (stale[b])
+							scoreBlock(b);
+						double delta = moveBreaks[b] - moveMakes[b];
+						if (moveSettings[b] >= 0 && delta < bestDelta) {
+							bestDelta = delta;
+							changeBlock = b;
+							newSetting = moveSettings[b];
 						}
 					}
-					
-					/* Restores current state */
-					for (int iRV = 0 ; iRV < candidateRVBlocks[iBlock].length; iRV++)
-						candidateRVBlocks[iBlock][iRV].setValue(currentState[iRV]);
+					/* No block in the rule can change */
+					if (changeBlock == -1)
+						continue;
+				}
+				
+				changeBlock(changeBlock, newSetting);
+				
+				if (total < bestTotal) {
+					bestTotal = total;
+					trailLength = 0;
+					bestCopied = false;
 				}
+				
+				if (flip == 0 || (flip+1) % 5000 == 0)
+					log.debug("Try {}, flip {}: total weighted incompatibility {}",
+							new Object[] {tryIndex, flip + 1, total});
 			}
+			totalFlips.addAndGet(flip);
+		}
+		
+		/**
+		 * Finds the best change to a block and its make and break scores.
+		 */
+		private void scoreBlock(int b) {
+			int[] rules = model.blockRules[b];
+			int length = model.blockVars[b].length;
+			int current = settings[b];
 			
-			/* Changes assignment to RV block */
-			for (int iChangeRV = 0; iChangeRV < candidateRVBlocks[changeBlock].length; iChangeRV++)
-				candidateRVBlocks[changeBlock][iChangeRV].setValue((iChangeRV == newBlockSetting) ? 1.0 : 0.0);
-			
-			/* Computes change to set of unsatisfied GroundCompatibilityKernels */
-			for (WeightedGroundRule incidentGK : candidateIncidentGKs[changeBlock])
-				if (incidentGK.getIncompatibility() > 0.0)
-					unsatGKs.add(incidentGK);
-				else
-					unsatGKs.remove(incidentGK);
+			moveSettings[b] = -1;
+			double bestDelta = Double.POSITIVE_INFINITY;
+			/* If all 0.0 is a valid assignment and not the current one, tries that too */
+			int lastSetting = (model.exactlyOne[b] || current == length) ? length - 1 : length;
+			for (int s = 0; s <= lastSetting; s++) {
+				if (s == current)
+					continue;
+				model.setBlock(b, s, values);
+				double make = 0.0;
+				double brk = 0.0;
+				for (int r : rules) {
+					double change = model.getWeightedIncompatibility(r, values) - costs[r];
+					if (change > 0.0)
+						brk += change;
+					else
+						make -= change;
+				}
+				if (brk - make < bestDelta) {
+					bestDelta = brk - make;
+					moveSettings[b] = s;
+					moveMakes[b] = make;
+					moveBreaks[b] = brk;
+				}
+			}
+			model.setBlock(b, current, values);
+			stale[b] = false;
+		}
+		
+		/**
+		 * Changes the setting of a block and updates the incompatibilities
+		 * and the unsatisfied rules.
+		 */
+		private void changeBlock(int b, int setting) {
+			if (!bestCopied) {
+				if (trailLength == trailBlocks.length) {
+					restoreBest(bestSettings);
+					bestCopied = true;
+				}
+				else {
+					trailBlocks[trailLength] = b;
+					trailSettings[trailLength++] = settings[b];
+				}
+			}
 			
-			if (flip == 0 || (flip+1) % 5000 == 0) {
-				log.info("Total weighted incompatibility: {}, Infeasbility norm: {}",
-						GroundKernels.getTotalWeightedIncompatibility(getCompatibilityKernels()),
-						GroundKernels.getInfeasibilityNorm(getConstraintKernels()));
+			model.setBlock(b, setting, values);
+			settings[b] = setting;
+			for (int r : model.blockRules[b]) {
+				double cost = model.getWeightedIncompatibility(r, values);
+				total += cost - costs[r];
+				costs[r] = cost;
+				if (cost > 0.0 && unsatPositions[r] == -1)
+					addUnsat(r);
+				else if (cost <= 0.0 && unsatPositions[r] != -1)
+					removeUnsat(r);
+				for (int c : model.ruleBlocks[r])
+					stale[c] = true;
 			}
 		}
-	}
-	
-	private Object selectAtRandom(Collection<? extends Object> collection) {
-		int i = 0;
-		int selection = rand.nextInt(collection.size());
-		for (Object o : collection)
-			if (i++ == selection)
-				return o;
 		
-		return null;
+		private void addUnsat(int r) {
+			/* Rules without blocks cannot be satisfied by flips */
+			if (model.ruleBlocks[r].length == 0)
+				return;
+			unsatPositions[r] = numUnsat;
+			unsat[numUnsat++] = r;
+		}
+		
+		private void removeUnsat(int r) {
+			int last = unsat[--numUnsat];
+			unsat[unsatPositions[r]] = last;
+			unsatPositions[last] = unsatPositions[r];
+			unsatPositions[r] = -1;
+		}
+		
+		/**
+		 * Writes the settings of the best assignment of this try into an array.
+		 */
+		private void restoreBest(int[] target) {
+			System.arraycopy(settings, 0, target, 0, settings.length);
+			for (int i = trailLength - 1; i >= 0; i--)
+				target[trailBlocks[i]] = trailSettings[i];
+		}
+		
+		/**
+		 * Sets the assignment to the best assignment of this try.
+		 */
+		private void restoreBest() {
+			if (!bestCopied)
+				restoreBest(bestSettings);
+			for (int b = 0; b < model.numBlocks; b++)
+				model.setBlock(b, bestSettings[b], values);
+		}
 	}
 
 	@Override
@@ -0,0 +1,415 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.bool;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.model.ConstraintBlocker;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.reasoner.ThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A Gibbs sampler over the blocks of a {@link ConstraintBlocker} that
+ * samples many blocks at once.
+ * <p>
+ * The blocks are colored so that no two blocks of the same color share a
+ * {@link WeightedGroundRule}. The distribution of a block given the rest of
+ * the assignment only depends on the blocks it shares rules with, so the
+ * blocks of one color are sampled concurrently, and a sweep over the colors
+ * is an exact Gibbs sweep.
+ * <p>
+ * Besides the marginal probabilities of the atoms, the sampler estimates the
+ * expected incompatibility of each ground rule, which weight learning needs.
+ * It can also compute the expectations of the pseudo-likelihood, in which
+ * each block follows its distribution given the current values of all other
+ * atoms.
+ * <p>
+ * Like {@link BooleanMCSat}, this class supports free
+ * {@link RandomVariableAtom RandomVariableAtoms} and RandomVariableAtoms that
+ * are each constrained by a single {@link GroundDomainRangeConstraint}, and
+ * assumes that all ObservedAtoms have Boolean truth values.
+ */
+public class ChromaticGibbsSampler {
+
+	private static final Logger log = LoggerFactory.getLogger(ChromaticGibbsSampler.class);
+
+	private final BlockModel model;
+	private final int numThreads;
+	private final Random rand;
+	/** Blocks with atoms of each color */
+	private final int[][] colorBlocks;
+	private final int numSampledBlocks;
+
+	/* Sums of the values and incompatibilities, and the number of terms in them */
+	private final double[] totals;
+	private final double[] ruleTotals;
+	private int numTotaled;
+
+	private double lastBlockSamplesPerSecond;
+
+	/**
+	 * Blocks and colors the ground rules of a store. The sampler does not see
+	 * ground rules added to the store later.
+	 *
+	 * @param numThreads  the number of threads that sample the blocks of a color
+	 */
+	public ChromaticGibbsSampler(GroundRuleStore store, int numThreads) {
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Number of threads must be positive.");
+		this.numThreads = numThreads;
+		rand = new Random();
+
+		ConstraintBlocker blocker = new ConstraintBlocker(store);
+		blocker.prepareBlocks(false);
+		model = new BlockModel(blocker, store);
+		colorBlocks = color();
+		int sampled = 0;
+		for (int[] blocks : colorBlocks)
+			sampled += blocks.length;
+		numSampledBlocks = sampled;
+		totals = new double[model.getValues().length];
+		ruleTotals = new double[model.numRules];
+		log.debug("Colored {} blocks with {} colors.", numSampledBlocks, colorBlocks.length);
+	}
+
+	/**
+	 * @return the number of colors of the blocks
+	 */
+	public int getNumColors() {
+		return colorBlocks.length;
+	}
+
+	/**
+	 * @return the number of blocks sampled per second by the last call to
+	 *         {@link #sample(int, int)}, including burn-in
+	 */
+	public double getLastBlockSamplesPerSecond() {
+		return lastBlockSamplesPerSecond;
+	}
+
+	/**
+	 * Colors the blocks greedily, those with the most incident rules first.
+	 *
+	 * @return the blocks with atoms of each color, in increasing order
+	 */
+	private int[][] color() {
+		Integer[] order = new Integer[model.numBlocks];
+		for (int b = 0; b < model.numBlocks; b++)
+			order[b] = b;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer b1, Integer b2) {
+				return model.blockRules[b2].length - model.blockRules[b1].length;
+			}
+		});
+
+		int[] colors = new int[model.numBlocks];
+		Arrays.fill(colors, -1);
+		/* The last block next to a block of each color */
+		int[] marks = new int[model.numBlocks];
+		Arrays.fill(marks, -1);
+		int[] sizes = new int[model.numBlocks];
+		int numColors = 0;
+		for (int b : order) {
+			if (model.getNumSettings(b) == 0)
+				continue;
+
+			for (int r : model.blockRules[b])
+				for (int neighbor : model.ruleBlocks[r])
+					if (colors[neighbor] >= 0)
+						marks[colors[neighbor]] = b;
+			int color = 0;
+			while (marks[color] == b)
+				color++;
+			colors[b] = color;
+			sizes[color]++;
+			numColors = Math.max(numColors, color + 1);
+		}
+
+		int[][] blocks = new int[numColors][];
+		for (int c = 0; c < numColors; c++)
+			blocks[c] = new int[sizes[c]];
+		int[] filled = new int[numColors];
+		for (int b = 0; b < model.numBlocks; b++)
+			if (colors[b] >= 0)
+				blocks[colors[b]][filled[colors[b]]++] = b;
+		return blocks;
+	}
+
+	/**
+	 * Runs a chain from a random assignment, with the current weights of the
+	 * ground rules, and sums the values of the atoms and the incompatibilities
+	 * of the ground rules after burn-in.
+	 *
+	 * @param numBurnIn  the number of sweeps over the blocks to discard
+	 * @param numSamples  the number of sweeps after burn-in
+	 */
+	public void sample(final int numBurnIn, int numSamples) {
+		if (numBurnIn < 0)
+			throw new IllegalArgumentException("Number of burn in samples must be non-negative.");
+		if (numSamples <= 0)
+			throw new IllegalArgumentException("Number of samples must be positive.");
+
+		model.updateWeights();
+		final double[] values = model.getValues();
+		model.randomlyInitialize(values, rand);
+		Arrays.fill(totals, 0.0);
+		Arrays.fill(ruleTotals, 0.0);
+
+		final int numSweeps = numBurnIn + numSamples;
+		long seed = rand.nextLong();
+		Runnable[] workers = new Runnable[numThreads];
+		for (int w = 0; w < numThreads; w++) {
+			workers[w] = new Worker(w, values, new Random(BlockModel.getSeed(seed, w))) {
+				@Override
+				protected void work() {
+					for (int sweep = 0; sweep < numSweeps; sweep++) {
+						for (int[] blocks : colorBlocks) {
+							for (int i = getStart(blocks.length); i < getStart(blocks.length, 1); i++)
+								model.sampleBlock(blocks[i], values, rand, p);
+							await();
+						}
+
+						/* Sums in parallel, before the next sweep changes the values */
+						if (sweep >= numBurnIn) {
+							for (int v = getStart(totals.length); v < getStart(totals.length, 1); v++)
+								totals[v] += values[v];
+							for (int r = getStart(model.numRules); r < getStart(model.numRules, 1); r++)
+								ruleTotals[r] += model.getIncompatibility(r, values);
+							await();
+						}
+					}
+				}
+			};
+		}
+
+		long start = System.nanoTime();
+		runAll(workers);
+		long time = System.nanoTime() - start;
+		numTotaled = numSamples;
+
+		lastBlockSamplesPerSecond = (double) numSweeps * numSampledBlocks / (time / 1e9);
+		log.debug("Drew {} samples of {} blocks at {} block samples per second.",
+				numSweeps, numSampledBlocks, (long) lastBlockSamplesPerSecond);
+	}
+
+	/**
+	 * Computes the expectations of the pseudo-likelihood at the current values
+	 * of the atoms, with the current weights of the ground rules.
+	 * <p>
+	 * For each block, the value of each atom is replaced by its probability,
+	 * and the incompatibility of each incident ground rule by its expectation,
+	 * given the values of the other atoms. A ground rule incident on several
+	 * blocks sums its expectations.
+	 */
+	public void computeConditionals() {
+		model.updateWeights();
+		final double[] values = model.getValues();
+		System.arraycopy(values, 0, totals, 0, totals.length);
+		Arrays.fill(ruleTotals, 0.0);
+
+		Runnable[] workers = new Runnable[numThreads];
+		for (int w = 0; w < numThreads; w++) {
+			workers[w] = new Worker(w, values, null) {
+				@Override
+				protected void work() {
+					double[] original = new double[p.length];
+					for (int[] blocks : colorBlocks) {
+						for (int i = getStart(blocks.length); i < getStart(blocks.length, 1); i++) {
+							int b = blocks[i];
+							int[] vars = model.blockVars[b];
+							for (int q = 0; q < vars.length; q++)
+								original[q] = values[vars[q]];
+
+							/* Blocks of the same color share no rules, so no other thread reads or sums them */
+							int numSettings = model.getConditional(b, values, p);
+							for (int q = 0; q < vars.length; q++)
+								totals[vars[q]] = p[q];
+							for (int s = 0; s < numSettings; s++) {
+								model.setBlock(b, s, values);
+								for (int r : model.blockRules[b])
+									ruleTotals[r] += p[s] * model.getIncompatibility(r, values);
+							}
+
+							for (int q = 0; q < vars.length; q++)
+								values[vars[q]] = original[q];
+						}
+						await();
+					}
+				}
+			};
+		}
+
+		runAll(workers);
+		numTotaled = 1;
+	}
+
+	/**
+	 * Sets the atoms to their marginal probabilities from the last call to
+	 * {@link #sample(int, int)}, or to their conditional probabilities from
+	 * the last call to {@link #computeConditionals()}.
+	 */
+	public void applyMarginals() {
+		double[] marginals = new double[totals.length];
+		for (int v = 0; v < marginals.length; v++)
+			marginals[v] = totals[v] / numTotaled;
+		model.apply(marginals);
+	}
+
+	/**
+	 * Sums the expected incompatibilities of the ground rules of each rule,
+	 * from the last call to {@link #sample(int, int)} or
+	 * {@link #computeConditionals()}.
+	 *
+	 * @return the expected incompatibility of each rule, in the given order
+	 */
+	public double[] getExpectedIncompatibility(List<WeightedRule> rules) {
+		Map<WeightedRule, Integer> indices = new HashMap<WeightedRule, Integer>(2 * rules.size());
+		for (int i = 0; i < rules.size(); i++)
+			indices.put(rules.get(i), i);
+
+		double[] expected = new double[rules.size()];
+		for (int r = 0; r < model.numRules; r++) {
+			Integer i = indices.get(model.rules[r].getRule());
+			if (i != null)
+				expected[i] += ruleTotals[r] / numTotaled;
+		}
+		return expected;
+	}
+
+	/**
+	 * @return the expected incompatibility of the r-th ground rule of the model
+	 */
+	double getExpectedIncompatibility(int r) {
+		return ruleTotals[r] / numTotaled;
+	}
+
+	/**
+	 * @return the r-th ground rule of the model
+	 */
+	WeightedGroundRule getGroundRule(int r) {
+		return model.rules[r];
+	}
+
+	/**
+	 * @return the number of ground rules of the model
+	 */
+	int getNumGroundRules() {
+		return model.numRules;
+	}
+
+	/**
+	 * Runs workers that meet at a barrier, on the calling thread if there
+	 * is only one.
+	 */
+	private void runAll(Runnable[] workers) {
+		CyclicBarrier barrier = new CyclicBarrier(workers.length);
+		for (Runnable worker : workers)
+			((Worker) worker).barrier = barrier;
+
+		if (workers.length == 1) {
+			workers[0].run();
+			return;
+		}
+
+		List<Future<?>> futures = ThreadPool.getPool().submitGroup(workers);
+		try {
+			for (Future<?> future : futures)
+				future.get();
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * One of the threads of a pass over the colors, which handles a
+	 * contiguous share of the blocks of each color.
+	 */
+	private abstract class Worker implements Runnable {
+		protected final int index;
+		protected final double[] values;
+		protected final Random rand;
+		/* Probabilities of the settings of a block */
+		protected final double[] p;
+		private CyclicBarrier barrier;
+
+		private Worker(int index, double[] values, Random rand) {
+			this.index = index;
+			this.values = values;
+			this.rand = rand;
+			p = new double[model.getMaxSettings()];
+		}
+
+		/**
+		 * @return the first of this worker's share of n items
+		 */
+		protected int getStart(int n) {
+			return getStart(n, 0);
+		}
+
+		/**
+		 * @return the first of the share of n items of the worker that is
+		 *         offset after this one
+		 */
+		protected int getStart(int n, int offset) {
+			return (int) ((long) n * (index + offset) / numThreads);
+		}
+
+		/**
+		 * Waits until every worker has finished the current phase.
+		 */
+		protected void await() {
+			try {
+				barrier.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (BrokenBarrierException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		protected abstract void work();
+
+		@Override
+		public void run() {
+			try {
+				work();
+			} catch (RuntimeException e) {
+				/* Releases the other workers instead of leaving them at the barrier */
+				barrier.reset();
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,682 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.hitandrun;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.linqs.psl.application.groundrulestore.MemoryGroundKernelStore;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.ConfidenceValues;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.TermBatch;
+import org.linqs.psl.reasoner.TermParser;
+import org.linqs.psl.reasoner.ThreadPool;
+import org.linqs.psl.reasoner.admm.ADMMReasoner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Samples the continuous distribution of a hinge-loss Markov random field,
+ * with density proportional to exp(-f(x)) on the [0,1] box intersected
+ * with the linear constraints, by hit-and-run.
+ * <p>
+ * Each move draws a random direction that keeps the equality constraints
+ * satisfied, finds the segment of the line through the current point that
+ * stays in the feasible region, and draws the next point on that segment by
+ * slice sampling. Ground rules are turned into the hyperplanes of
+ * {@link ADMMReasoner} by a {@link TermParser}.
+ * <p>
+ * The distribution factors over the connected components of the ground
+ * model, so each component is sampled by its own chain, and the chains run
+ * in parallel. The running means and variances of the atoms are kept with
+ * Welford's method. Every {@link #PUBLISH_INTERVAL_KEY} samples after
+ * burn-in, and when the chain of a component finishes, the truth value of
+ * each of its atoms is set to its running mean, and the confidence value to
+ * its precision (the inverse of its variance). The estimates can thus be
+ * read while sampling continues.
+ * <p>
+ * Chains start from the atoms' current values, which are first projected
+ * onto the feasible region.
+ */
+public class HitAndRunReasoner extends MemoryGroundKernelStore implements Reasoner {
+
+	private static final Logger log = LoggerFactory.getLogger(HitAndRunReasoner.class);
+
+	/**
+	 * Prefix of property keys used by this class.
+	 *
+	 * @see ConfigManager
+	 */
+	public static final String CONFIG_PREFIX = "hitandrunreasoner";
+
+	/**
+	 * Key for number of moves of the chain of each component, including burn-in
+	 */
+	public static final String NUM_SAMPLES_KEY = CONFIG_PREFIX + ".numsamples";
+	/** Default value for NUM_SAMPLES_KEY */
+	public static final int NUM_SAMPLES_DEFAULT = 5000;
+
+	/**
+	 * Number of burn-in moves
+	 */
+	public static final String NUM_BURN_IN_KEY = CONFIG_PREFIX + ".numburnin";
+	/** Default value for NUM_BURN_IN_KEY */
+	public static final int NUM_BURN_IN_DEFAULT = 1000;
+
+	/**
+	 * Key for non-negative integer property. Number of samples after burn-in
+	 * between the times the running means and precisions are written to the
+	 * atoms. If 0, they are only written when a chain finishes.
+	 */
+	public static final String PUBLISH_INTERVAL_KEY = CONFIG_PREFIX + ".publishinterval";
+	/** Default value for PUBLISH_INTERVAL_KEY */
+	public static final int PUBLISH_INTERVAL_DEFAULT = 1000;
+
+	/**
+	 * Number of chains to run at once
+	 */
+	public static final String NUM_THREADS_KEY = CONFIG_PREFIX + ".numthreads";
+	/** Default value for NUM_THREADS_KEY */
+	public static final int NUM_THREADS_DEFAULT = Runtime.getRuntime().availableProcessors();
+
+	/** Largest violation of a constraint by the starting point */
+	private static final double FEASIBILITY_TOLERANCE = 1e-6;
+	/** Rounds of projections onto the constraints to find a starting point */
+	private static final int MAX_FEASIBILITY_ROUNDS = 10000;
+	/** Coefficients of a direction along a line below this are treated as 0 */
+	private static final double DIRECTION_TOLERANCE = 1e-12;
+	/** Shrinkages of a slice after which a move is abandoned */
+	private static final int MAX_SHRINKS = 200;
+	/** Increment of the seeds of the chains, as in SplitMix64 */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final Random rand;
+	private final int numSamples;
+	private final int numBurnIn;
+	private final int publishInterval;
+	private final int numThreads;
+
+	/* Terms of the ground model, as in TermBatch */
+	private TermParser parser;
+	private int numTerms;
+	private int[] termOffsets;
+	private int[] termVars;
+	private double[] termCoeffs;
+	private double[] termConstants;
+	private byte[] termTypes;
+	private double[] termWeights;
+
+	/* Variables and terms of each connected component */
+	private int[][] componentVars;
+	private int[][] componentTerms;
+	/** Index of each variable in its component */
+	private int[] localIndices;
+
+	private int lastNumComponents;
+
+	public HitAndRunReasoner(ConfigBundle config) {
+		super();
+		rand = new Random();
+		numSamples = config.getInt(NUM_SAMPLES_KEY, NUM_SAMPLES_DEFAULT);
+		if (numSamples <= 0)
+			throw new IllegalArgumentException("Number of samples must be positive.");
+		numBurnIn = config.getInt(NUM_BURN_IN_KEY, NUM_BURN_IN_DEFAULT);
+		if (numBurnIn < 0)
+			throw new IllegalArgumentException("Number of burn in samples must be non-negative.");
+		if (numBurnIn >= numSamples)
+			throw new IllegalArgumentException("Number of burn in samples must be less than number of samples.");
+		publishInterval = config.getInt(PUBLISH_INTERVAL_KEY, PUBLISH_INTERVAL_DEFAULT);
+		if (publishInterval < 0)
+			throw new IllegalArgumentException("Property " + PUBLISH_INTERVAL_KEY + " must be non-negative.");
+		numThreads = config.getInt(NUM_THREADS_KEY, NUM_THREADS_DEFAULT);
+		if (numThreads <= 0)
+			throw new IllegalArgumentException("Property " + NUM_THREADS_KEY + " must be positive.");
+	}
+
+	/**
+	 * @return the number of connected components sampled in the last call to
+	 *         {@link #optimize()}
+	 */
+	public int getLastNumComponents() {
+		return lastNumComponents;
+	}
+
+	@Override
+	public void optimize() {
+		buildTerms();
+		findComponents();
+		final double[] values = parser.getValues();
+		makeFeasible(values);
+
+		/* The largest components are sampled first, so that the threads finish together */
+		final Integer[] order = new Integer[componentVars.length];
+		for (int c = 0; c < order.length; c++)
+			order[c] = c;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer c1, Integer c2) {
+				return getCost(c2) - getCost(c1);
+			}
+		});
+
+		log.info("Beginning inference of {} components.", componentVars.length);
+		final AtomicInteger nextComponent = new AtomicInteger();
+		int numWorkers = Math.max(1, Math.min(numThreads, componentVars.length));
+		long seed = rand.nextLong();
+		Runnable[] workers = new Runnable[numWorkers];
+		for (int w = 0; w < numWorkers; w++) {
+			final Random workerRand = new Random(mix64(seed + (w + 1) * GOLDEN_GAMMA));
+			workers[w] = new Runnable() {
+				@Override
+				public void run() {
+					for (int i = nextComponent.getAndIncrement(); i < order.length; i = nextComponent.getAndIncrement())
+						new Chain(order[i], values, workerRand).run();
+				}
+			};
+		}
+
+		if (numWorkers == 1)
+			workers[0].run();
+		else {
+			List<Future<?>> futures = ThreadPool.getPool().submitGroup(workers);
+			try {
+				for (Future<?> future : futures)
+					future.get();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		lastNumComponents = componentVars.length;
+		log.info("Inference complete after {} samples of each component.", numSamples);
+
+		parser = null;
+		componentVars = null;
+		componentTerms = null;
+	}
+
+	/**
+	 * Parses the ground rules into terms.
+	 */
+	private void buildTerms() {
+		parser = new TermParser();
+		List<GroundRule> groundRules = new ArrayList<GroundRule>();
+		for (GroundRule groundRule : getGroundKernels())
+			groundRules.add(groundRule);
+
+		numTerms = groundRules.size();
+		termOffsets = new int[numTerms + 1];
+		termConstants = new double[numTerms];
+		termTypes = new byte[numTerms];
+		termWeights = new double[numTerms];
+		List<Integer> vars = new ArrayList<Integer>();
+		List<Double> coeffs = new ArrayList<Double>();
+		for (int t = 0; t < numTerms; t++) {
+			parser.parse(groundRules.get(t));
+			termTypes[t] = parser.getType();
+			termWeights[t] = parser.getWeight();
+			termConstants[t] = parser.getConstant();
+			for (int j = 0; j < parser.getSize(); j++) {
+				vars.add(parser.getVariableIndex(j));
+				coeffs.add(parser.getCoefficient(j));
+			}
+			termOffsets[t + 1] = vars.size();
+		}
+		termVars = new int[vars.size()];
+		termCoeffs = new double[vars.size()];
+		for (int j = 0; j < termVars.length; j++) {
+			termVars[j] = vars.get(j);
+			termCoeffs[j] = coeffs.get(j);
+		}
+	}
+
+	/**
+	 * Finds the connected components of the variables, as
+	 * {@link ADMMReasoner} does. Components are numbered in order of their
+	 * first variable.
+	 */
+	private void findComponents() {
+		int numVars = parser.getNumVariables();
+		int[] parents = new int[numVars];
+		for (int i = 0; i < numVars; i++)
+			parents[i] = i;
+		for (int t = 0; t < numTerms; t++) {
+			if (termOffsets[t] == termOffsets[t + 1])
+				continue;
+			int root = findRoot(parents, termVars[termOffsets[t]]);
+			for (int j = termOffsets[t] + 1; j < termOffsets[t + 1]; j++) {
+				int other = findRoot(parents, termVars[j]);
+				if (other < root) {
+					parents[root] = other;
+					root = other;
+				}
+				else if (other > root)
+					parents[other] = root;
+			}
+		}
+
+		int[] varComponents = new int[numVars];
+		int numComponents = 0;
+		List<Integer> sizes = new ArrayList<Integer>();
+		localIndices = new int[numVars];
+		for (int i = 0; i < numVars; i++) {
+			int root = findRoot(parents, i);
+			if (root == i) {
+				varComponents[i] = numComponents++;
+				sizes.add(0);
+			}
+			else
+				varComponents[i] = varComponents[root];
+			localIndices[i] = sizes.get(varComponents[i]);
+			sizes.set(varComponents[i], localIndices[i] + 1);
+		}
+
+		componentVars = new int[numComponents][];
+		for (int c = 0; c < numComponents; c++)
+			componentVars[c] = new int[sizes.get(c)];
+		for (int i = 0; i < numVars; i++)
+			componentVars[varComponents[i]][localIndices[i]] = i;
+
+		int[] numComponentTerms = new int[numComponents];
+		for (int t = 0; t < numTerms; t++)
+			if (termOffsets[t] < termOffsets[t + 1])
+				numComponentTerms[varComponents[termVars[termOffsets[t]]]]++;
+		componentTerms = new int[numComponents][];
+		for (int c = 0; c < numComponents; c++)
+			componentTerms[c] = new int[numComponentTerms[c]];
+		int[] filled = new int[numComponents];
+		for (int t = 0; t < numTerms; t++) {
+			if (termOffsets[t] < termOffsets[t + 1]) {
+				int c = varComponents[termVars[termOffsets[t]]];
+				componentTerms[c][filled[c]++] = t;
+			}
+		}
+		log.debug("Found {} connected components", numComponents);
+	}
+
+	private static int findRoot(int[] parents, int i) {
+		while (parents[i] != i) {
+			/* Halves the path on the way up */
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	/**
+	 * @return the number of coefficients of the terms of a component, which
+	 *         each move of its chain reads
+	 */
+	private int getCost(int c) {
+		int cost = componentVars[c].length;
+		for (int t : componentTerms[c])
+			cost += termOffsets[t + 1] - termOffsets[t];
+		return cost;
+	}
+
+	/**
+	 * Moves a point into the feasible region by cyclic projections onto the
+	 * box and the violated constraints.
+	 *
+	 * @throws IllegalStateException  if no feasible point is found
+	 */
+	private void makeFeasible(double[] values) {
+		for (int i = 0; i < values.length; i++)
+			values[i] = Math.min(1.0, Math.max(0.0, values[i]));
+
+		double maxViolation = Double.POSITIVE_INFINITY;
+		for (int round = 0; round < MAX_FEASIBILITY_ROUNDS && maxViolation > FEASIBILITY_TOLERANCE; round++) {
+			maxViolation = 0.0;
+			for (int t = 0; t < numTerms; t++) {
+				if (!TermBatch.isConstraint(termTypes[t]))
+					continue;
+				double total = 0.0;
+				double normSquared = 0.0;
+				for (int j = termOffsets[t]; j < termOffsets[t + 1]; j++) {
+					total += termCoeffs[j] * values[termVars[j]];
+					normSquared += termCoeffs[j] * termCoeffs[j];
+				}
+				double violation = TermBatch.getIncompatibility(termTypes[t], total - termConstants[t]);
+				if (violation <= FEASIBILITY_TOLERANCE || normSquared == 0.0) {
+					maxViolation = Math.max(maxViolation, violation);
+					continue;
+				}
+				maxViolation = Math.max(maxViolation, violation);
+
+				/* Projects onto the hyperplane of the constraint, then back into the box */
+				double alpha = (total - termConstants[t]) / normSquared;
+				for (int j = termOffsets[t]; j < termOffsets[t + 1]; j++) {
+					int i = termVars[j];
+					values[i] = Math.min(1.0, Math.max(0.0, values[i] - alpha * termCoeffs[j]));
+				}
+			}
+		}
+		if (maxViolation > FEASIBILITY_TOLERANCE)
+			throw new IllegalStateException("Could not find a point that satisfies the constraints. "
+					+ "Largest violation: " + maxViolation);
+	}
+
+	/**
+	 * The SplitMix64 finalizer, which maps a sequence of seeds to
+	 * well-distributed seeds.
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * A hit-and-run chain over one connected component. Chains of different
+	 * components change disjoint parts of the shared values.
+	 */
+	private class Chain implements Runnable {
+		private final int[] vars;
+		private final int[] terms;
+		private final double[] values;
+		private final Random rand;
+
+		/** Direction of the current move, indexed like vars */
+		private final double[] direction;
+		/* coeffs^T * x and coeffs^T * direction of each term */
+		private final double[] totals;
+		private final double[] slopes;
+
+		/* Orthonormal basis of the span of the equality constraints, in sparse form */
+		private final List<int[]> basisIndices;
+		private final List<double[]> basisValues;
+
+		private Chain(int component, double[] values, Random rand) {
+			vars = componentVars[component];
+			terms = componentTerms[component];
+			this.values = values;
+			this.rand = rand;
+			direction = new double[vars.length];
+			totals = new double[terms.length];
+			slopes = new double[terms.length];
+			basisIndices = new ArrayList<int[]>();
+			basisValues = new ArrayList<double[]>();
+			buildEqualityBasis();
+		}
+
+		/**
+		 * Orthonormalizes the equality constraints by Gram-Schmidt. A
+		 * constraint only needs to be orthogonalized against the basis
+		 * vectors that share a variable with it.
+		 */
+		private void buildEqualityBasis() {
+			List<List<Integer>> varBasis = new ArrayList<List<Integer>>(vars.length);
+			for (int i = 0; i < vars.length; i++)
+				varBasis.add(null);
+			double[] row = new double[vars.length];
+			boolean[] touched = new boolean[vars.length];
+			List<Integer> support = new ArrayList<Integer>();
+
+			for (int t : terms) {
+				if (termTypes[t] != TermBatch.CONSTRAINT_EQ)
+					continue;
+
+				support.clear();
+				List<Integer> overlapping = new ArrayList<Integer>();
+				for (int j = termOffsets[t]; j < termOffsets[t + 1]; j++) {
+					int i = localIndices[termVars[j]];
+					row[i] += termCoeffs[j];
+					if (!touched[i]) {
+						touched[i] = true;
+						support.add(i);
+					}
+					if (varBasis.get(i) != null)
+						for (int q : varBasis.get(i))
+							if (!overlapping.contains(q))
+								overlapping.add(q);
+				}
+
+				for (int q : overlapping) {
+					int[] indices = basisIndices.get(q);
+					double[] basisRow = basisValues.get(q);
+					double dot = 0.0;
+					for (int k = 0; k < indices.length; k++)
+						dot += basisRow[k] * row[indices[k]];
+					for (int k = 0; k < indices.length; k++) {
+						row[indices[k]] -= dot * basisRow[k];
+						if (!touched[indices[k]]) {
+							touched[indices[k]] = true;
+							support.add(indices[k]);
+						}
+					}
+				}
+
+				double norm = 0.0;
+				for (int i : support)
+					norm += row[i] * row[i];
+				norm = Math.sqrt(norm);
+				/* Skips constraints that are combinations of earlier ones */
+				if (norm > 1e-9) {
+					int[] indices = new int[support.size()];
+					double[] basisRow = new double[support.size()];
+					for (int k = 0; k < indices.length; k++) {
+						indices[k] = support.get(k);
+						basisRow[k] = row[indices[k]] / norm;
+						if (varBasis.get(indices[k]) == null)
+							varBasis.set(indices[k], new ArrayList<Integer>());
+						varBasis.get(indices[k]).add(basisIndices.size());
+					}
+					basisIndices.add(indices);
+					basisValues.add(basisRow);
+				}
+
+				for (int i : support) {
+					row[i] = 0.0;
+					touched[i] = false;
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			double[] means = new double[vars.length];
+			double[] squares = new double[vars.length];
+			computeTotals();
+
+			for (int sample = 0; sample < numSamples; sample++) {
+				move();
+
+				/* Recomputes the totals now and then, so that rounding errors do not accumulate */
+				if ((sample + 1) % Math.max(vars.length, 100) == 0)
+					computeTotals();
+
+				/* Welford's update of the running means and sums of squared deviations */
+				if (sample >= numBurnIn) {
+					int count = sample - numBurnIn + 1;
+					for (int i = 0; i < vars.length; i++) {
+						double value = values[vars[i]];
+						double delta = value - means[i];
+						means[i] += delta / count;
+						squares[i] += delta * (value - means[i]);
+					}
+					if (sample == numSamples - 1 || (publishInterval > 0 && count % publishInterval == 0))
+						publish(means, squares, count);
+				}
+			}
+		}
+
+		/**
+		 * Sets the atoms of the component to their running means, with their
+		 * precisions as confidence values.
+		 */
+		private void publish(double[] means, double[] squares, int count) {
+			for (int i = 0; i < vars.length; i++) {
+				double variance = (count > 1) ? squares[i] / (count - 1) : 0.0;
+				parser.getVariable(vars[i]).setValue(means[i]);
+				parser.getVariable(vars[i]).setConfidence(
+						(variance > 0.0) ? Math.min(1.0 / variance, ConfidenceValues.getMax()) : ConfidenceValues.getMax());
+			}
+		}
+
+		private void computeTotals() {
+			for (int k = 0; k < terms.length; k++) {
+				int t = terms[k];
+				double total = 0.0;
+				for (int j = termOffsets[t]; j < termOffsets[t + 1]; j++)
+					total += termCoeffs[j] * values[termVars[j]];
+				totals[k] = total;
+			}
+		}
+
+		/**
+		 * Makes one hit-and-run move.
+		 */
+		private void move() {
+			if (!drawDirection())
+				return;
+
+			for (int k = 0; k < terms.length; k++) {
+				int t = terms[k];
+				double slope = 0.0;
+				for (int j = termOffsets[t]; j < termOffsets[t + 1]; j++)
+					slope += termCoeffs[j] * direction[localIndices[termVars[j]]];
+				slopes[k] = slope;
+			}
+
+			/* Finds the segment of the line in the box and the inequality constraints */
+			double lower = Double.NEGATIVE_INFINITY;
+			double upper = Double.POSITIVE_INFINITY;
+			for (int i = 0; i < vars.length; i++) {
+				double d = direction[i];
+				if (Math.abs(d) <= DIRECTION_TOLERANCE)
+					continue;
+				double value = values[vars[i]];
+				/* A point that is slightly outside may not move further outside */
+				double down = Math.min(0.0, -value) / d;
+				double up = Math.max(0.0, 1.0 - value) / d;
+				lower = Math.max(lower, Math.min(down, up));
+				upper = Math.min(upper, Math.max(down, up));
+			}
+			for (int k = 0; k < terms.length; k++) {
+				int t = terms[k];
+				if (Math.abs(slopes[k]) <= DIRECTION_TOLERANCE)
+					continue;
+				if (termTypes[t] == TermBatch.CONSTRAINT_LEQ) {
+					double slack = Math.max(0.0, termConstants[t] - totals[k]) / slopes[k];
+					if (slopes[k] > 0.0)
+						upper = Math.min(upper, slack);
+					else
+						lower = Math.max(lower, slack);
+				}
+				else if (termTypes[t] == TermBatch.CONSTRAINT_GEQ) {
+					double slack = Math.min(0.0, termConstants[t] - totals[k]) / slopes[k];
+					if (slopes[k] > 0.0)
+						lower = Math.max(lower, slack);
+					else
+						upper = Math.min(upper, slack);
+				}
+			}
+			if (!(lower < upper))
+				return;
+
+			double step = sliceSample(lower, upper);
+			if (step == 0.0)
+				return;
+			for (int i = 0; i < vars.length; i++)
+				values[vars[i]] += step * direction[i];
+			for (int k = 0; k < terms.length; k++)
+				totals[k] += step * slopes[k];
+		}
+
+		/**
+		 * Draws a uniformly random unit direction orthogonal to the equality
+		 * constraints.
+		 *
+		 * @return false if no such direction exists
+		 */
+		private boolean drawDirection() {
+			for (int i = 0; i < vars.length; i++)
+				direction[i] = rand.nextGaussian();
+			for (int q = 0; q < basisIndices.size(); q++) {
+				int[] indices = basisIndices.get(q);
+				double[] basisRow = basisValues.get(q);
+				double dot = 0.0;
+				for (int k = 0; k < indices.length; k++)
+					dot += basisRow[k] * direction[indices[k]];
+				for (int k = 0; k < indices.length; k++)
+					direction[indices[k]] -= dot * basisRow[k];
+			}
+
+			double norm = 0.0;
+			for (int i = 0; i < vars.length; i++)
+				norm += direction[i] * direction[i];
+			norm = Math.sqrt(norm);
+			if (norm <= 1e-9)
+				return false;
+			for (int i = 0; i < vars.length; i++)
+				direction[i] /= norm;
+			return true;
+		}
+
+		/**
+		 * Draws a step along the direction from the density restricted to the
+		 * segment [lower, upper], by slice sampling with shrinkage from the
+		 * whole segment.
+		 */
+		private double sliceSample(double lower, double upper) {
+			/* The slice is the steps with energy at most the level */
+			double level = getEnergy(0.0) - Math.log(1.0 - rand.nextDouble());
+			for (int shrink = 0; shrink < MAX_SHRINKS; shrink++) {
+				double step = lower + rand.nextDouble() * (upper - lower);
+				if (getEnergy(step) <= level)
+					return step;
+				if (step < 0.0)
+					lower = step;
+				else
+					upper = step;
+			}
+			return 0.0;
+		}
+
+		/**
+		 * @return the weighted incompatibility of the component after a step
+		 *         along the direction
+		 */
+		private double getEnergy(double step) {
+			double energy = 0.0;
+			for (int k = 0; k < terms.length; k++) {
+				int t = terms[k];
+				if (!TermBatch.isConstraint(termTypes[t]))
+					energy += termWeights[t] * TermBatch.getIncompatibility(termTypes[t],
+							totals[k] + step * slopes[k] - termConstants[t]);
+			}
+			return energy;
+		}
+	}
+
+	@Override
+	public void close() {
+		/* Intentionally blank */
+	}
+
+}
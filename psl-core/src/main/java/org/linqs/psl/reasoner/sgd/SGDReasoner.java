@@ -0,0 +1,277 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd;
+
+import java.util.Random;
+
+import org.linqs.psl.application.groundrulestore.MemoryGroundKernelStore;
+import org.linqs.psl.application.util.GroundKernels;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.TermBatch;
+import org.linqs.psl.reasoner.TermParser;
+import org.linqs.psl.reasoner.admm.ADMMReasoner;
+import org.linqs.psl.reasoner.function.AtomFunctionVariable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Minimizes the same objective as {@link ADMMReasoner}, a weighted sum of
+ * (squared) hinge-loss and linear terms subject to linear constraints, by
+ * the stochastic (incremental) proximal method.
+ * <p>
+ * Each step takes the proximal operator of one randomly chosen term with
+ * respect to the variables in that term only, using the current value of
+ * each variable, and then clips the variables to [0,1]. Hinge-loss and
+ * linear terms move their variables along their coefficients, and
+ * constraints project their variables onto the feasible half-space or
+ * hyperplane. The step size decreases with each epoch (pass over all terms).
+ * <p>
+ * Unlike ADMM, no term keeps local copies or dual variables, so the state is
+ * one value per variable plus the coefficients of the terms. Terms are
+ * stored contiguously and visited in batches, in random order of batches
+ * and in random order within each batch, so that each batch is one
+ * contiguous range of memory.
+ * <p>
+ * Constraints are only satisfied approximately. The infeasibility of the
+ * solution is logged with the objective.
+ */
+public class SGDReasoner extends MemoryGroundKernelStore implements Reasoner {
+
+	private static final Logger log = LoggerFactory.getLogger(SGDReasoner.class);
+
+	/**
+	 * Prefix of property keys used by this class.
+	 *
+	 * @see ConfigManager
+	 */
+	public static final String CONFIG_PREFIX = "sgdreasoner";
+
+	/**
+	 * Key for positive integer property. Maximum number of epochs, that is,
+	 * passes over all terms.
+	 */
+	public static final String MAX_EPOCHS_KEY = CONFIG_PREFIX + ".maxepochs";
+	/** Default value for MAX_EPOCHS_KEY property */
+	public static final int MAX_EPOCHS_DEFAULT = 500;
+
+	/**
+	 * Key for positive double property. Step size of the first epoch. The
+	 * step size of epoch k (counting from 0) is this value divided by k + 1.
+	 */
+	public static final String STEP_SIZE_KEY = CONFIG_PREFIX + ".stepsize";
+	/** Default value for STEP_SIZE_KEY property */
+	public static final double STEP_SIZE_DEFAULT = 1.0;
+
+	/**
+	 * Key for positive double property. Optimization stops when no variable
+	 * moved by more than this much during an epoch.
+	 */
+	public static final String TOLERANCE_KEY = CONFIG_PREFIX + ".tolerance";
+	/** Default value for TOLERANCE_KEY property */
+	public static final double TOLERANCE_DEFAULT = 1e-5;
+
+	/**
+	 * Key for positive integer property. Number of consecutive terms visited
+	 * together as a batch.
+	 */
+	public static final String BATCH_SIZE_KEY = CONFIG_PREFIX + ".batchsize";
+	/** Default value for BATCH_SIZE_KEY property */
+	public static final int BATCH_SIZE_DEFAULT = 4096;
+
+	private final int maxEpochs;
+	private final double initialStepSize;
+	private final double tolerance;
+	private final int batchSize;
+	private final Random rand;
+
+	private boolean rebuildModel;
+	private boolean updateWeights;
+	private int lastEpochs;
+	private double lastObjective;
+
+	/** Variables of the model, indexed like values */
+	private AtomFunctionVariable[] variables;
+	/** Current value of each variable */
+	private double[] values;
+
+	/** All terms, laid out in the order the ground rules are iterated */
+	private TermBatch terms;
+	/** Ground rule of each term */
+	private GroundRule[] termGroundRules;
+
+	public SGDReasoner(ConfigBundle config) {
+		super();
+		maxEpochs = config.getInt(MAX_EPOCHS_KEY, MAX_EPOCHS_DEFAULT);
+		if (maxEpochs <= 0)
+			throw new IllegalArgumentException("Property " + MAX_EPOCHS_KEY + " must be positive.");
+		initialStepSize = config.getDouble(STEP_SIZE_KEY, STEP_SIZE_DEFAULT);
+		if (initialStepSize <= 0)
+			throw new IllegalArgumentException("Property " + STEP_SIZE_KEY + " must be positive.");
+		tolerance = config.getDouble(TOLERANCE_KEY, TOLERANCE_DEFAULT);
+		if (tolerance <= 0)
+			throw new IllegalArgumentException("Property " + TOLERANCE_KEY + " must be positive.");
+		batchSize = config.getInt(BATCH_SIZE_KEY, BATCH_SIZE_DEFAULT);
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Property " + BATCH_SIZE_KEY + " must be positive.");
+		rand = new Random();
+		rebuildModel = true;
+	}
+
+	@Override
+	public void addGroundRule(GroundRule gk) {
+		super.addGroundRule(gk);
+		rebuildModel = true;
+	}
+
+	@Override
+	public void changedGroundRule(GroundRule gk) {
+		rebuildModel = true;
+	}
+
+	@Override
+	public void changedGroundKernelWeight(WeightedGroundRule gk) {
+		updateWeights = true;
+	}
+
+	@Override
+	public void changedGroundKernelWeights() {
+		updateWeights = true;
+	}
+
+	@Override
+	public void removeGroundKernel(GroundRule gk) {
+		super.removeGroundKernel(gk);
+		rebuildModel = true;
+	}
+
+	/**
+	 * @return the number of epochs performed by the last call to {@link #optimize()}
+	 */
+	public int getLastEpochs() {
+		return lastEpochs;
+	}
+
+	/**
+	 * @return the total weighted incompatibility after the last call to
+	 *         {@link #optimize()}
+	 */
+	public double getLastObjective() {
+		return lastObjective;
+	}
+
+	@Override
+	public void optimize() {
+		if (rebuildModel)
+			buildGroundModel();
+		else if (updateWeights)
+			for (int t = 0; t < terms.size(); t++)
+				if (termGroundRules[t] instanceof WeightedGroundRule)
+					terms.setWeight(t, ((WeightedGroundRule) termGroundRules[t]).getWeight().getWeight());
+		updateWeights = false;
+
+		int numTerms = terms.size();
+		log.debug("Performing optimization with {} variables and {} terms.", values.length, numTerms);
+
+		int numBatches = (numTerms + batchSize - 1) / batchSize;
+		int[] batchOrder = new int[numBatches];
+		int[] termOrder = new int[numTerms];
+		for (int b = 0; b < numBatches; b++)
+			batchOrder[b] = b;
+		for (int t = 0; t < numTerms; t++)
+			termOrder[t] = t;
+
+		int epoch = 0;
+		boolean converged = false;
+		while (!converged && epoch < maxEpochs) {
+			double stepSize = initialStepSize / (epoch + 1);
+			double maxChange = 0.0;
+
+			shuffle(batchOrder, 0, numBatches);
+			for (int b : batchOrder) {
+				int start = b * batchSize;
+				int end = Math.min(start + batchSize, numTerms);
+				shuffle(termOrder, start, end);
+				for (int k = start; k < end; k++)
+					maxChange = Math.max(maxChange, terms.step(termOrder[k], stepSize, values));
+			}
+
+			epoch++;
+			converged = maxChange <= tolerance;
+			if (epoch % 50 == 0)
+				log.trace("Largest change in epoch {}: {}", epoch, maxChange);
+		}
+
+		for (int i = 0; i < values.length; i++)
+			variables[i].setValue(values[i]);
+
+		lastEpochs = epoch;
+		lastObjective = GroundKernels.getTotalWeightedIncompatibility(getCompatibilityKernels());
+		double infeasibility = GroundKernels.getInfeasibilityNorm(getConstraintKernels());
+		log.info("Optimization completed in {} epochs. Objective: {}, Infeasibility: {}",
+				new Object[] {epoch, lastObjective, infeasibility});
+	}
+
+	/**
+	 * Shuffles a range of an array.
+	 */
+	private void shuffle(int[] array, int start, int end) {
+		for (int i = end - 1; i > start; i--) {
+			int j = start + rand.nextInt(i - start + 1);
+			int temp = array[i];
+			array[i] = array[j];
+			array[j] = temp;
+		}
+	}
+
+	/**
+	 * Collects the variables and terms of the ground rules. Terms are
+	 * created by a {@link TermParser}, as in {@link ADMMReasoner}, and are
+	 * laid out in the order the ground rules are iterated.
+	 */
+	protected void buildGroundModel() {
+		log.debug("(Re)building reasoner data structures");
+
+		TermParser parser = new TermParser();
+		terms = new TermBatch(size());
+		termGroundRules = new GroundRule[size()];
+		for (GroundRule groundRule : getGroundKernels()) {
+			parser.parse(groundRule);
+			termGroundRules[terms.size()] = groundRule;
+			terms.add(parser);
+		}
+		terms.trim();
+
+		variables = new AtomFunctionVariable[parser.getNumVariables()];
+		for (int i = 0; i < variables.length; i++)
+			variables[i] = parser.getVariable(i);
+		values = parser.getValues();
+		rebuildModel = false;
+	}
+
+	@Override
+	public void close() {
+		variables = null;
+		values = null;
+		terms = null;
+		termGroundRules = null;
+	}
+}
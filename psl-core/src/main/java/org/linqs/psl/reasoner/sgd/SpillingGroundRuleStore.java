@@ -0,0 +1,994 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.model.rule.UnweightedGroundRule;
+import org.linqs.psl.model.rule.UnweightedRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.model.weight.Weight;
+import org.linqs.psl.reasoner.TermBatch;
+import org.linqs.psl.reasoner.TermParser;
+import org.linqs.psl.reasoner.function.ConstantNumber;
+import org.linqs.psl.reasoner.function.ConstraintTerm;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+import org.linqs.psl.reasoner.function.FunctionSum;
+import org.linqs.psl.reasoner.function.FunctionSummand;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+import org.linqs.psl.reasoner.function.MaxFunction;
+import org.linqs.psl.reasoner.function.PowerOfTwo;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * A {@link GroundRuleStore} that writes each {@link GroundRule} to a spill
+ * file as a term of a hinge-loss objective when it is added, instead of
+ * keeping it in memory.
+ * <p>
+ * Each record of the file holds the type, weight and constant of one term,
+ * the index of its parent {@link Rule}, the index and coefficient of each of
+ * its variables and the indices of the GroundRule's atoms. Only the
+ * variables, the atoms, the parent Rules, a 64-bit hash and the file offset
+ * of each record and a bit per record marking removed ones stay in memory.
+ * Duplicates are found by {@link #containsGroundKernel(GroundRule)} by
+ * reading back the records with the same hash and comparing them: a
+ * GroundRule is in this store if a record has the same parent Rule, the same
+ * atoms and the same term. Once written, a GroundRule is unregistered from
+ * its atoms, so that it can be garbage collected.
+ * <p>
+ * The file is append-only. Removing a GroundRule only marks its record,
+ * which scans skip until {@link #compact()} rewrites the file without it.
+ * A changed GroundRule, or one whose own weight changed, replaces the record
+ * with the same parent Rule and atoms. The changes are collected and applied
+ * with one scan of the file before the store is next used. The weight of a
+ * GroundRule that is tied to its parent Rule's weight follows the current
+ * weight of the Rule.
+ * <p>
+ * The GroundRules returned by this store are reconstructions from the file,
+ * one per record. Their iterators support removal, and their weights can be
+ * changed like those of the original GroundRules. The iterators of a store
+ * must not be used after it was compacted.
+ */
+public class SpillingGroundRuleStore implements GroundRuleStore {
+
+	/** Size of the buffers of the spill file */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/*
+	 * Layout of a record: its number, whether its weight is tied to the
+	 * parent Rule, its weight, then the part that identifies it: the type of
+	 * its term, the index of its parent Rule, its constant, the number of
+	 * variables and atoms and the variables and atoms themselves
+	 */
+	private static final int NUMBER_POSITION = 0;
+	private static final int TIED_POSITION = 4;
+	private static final int WEIGHT_POSITION = 5;
+	private static final int TYPE_POSITION = 13;
+	private static final int RULE_POSITION = 14;
+	private static final int CONSTANT_POSITION = 18;
+	private static final int SIZE_POSITION = 26;
+	private static final int NUM_ATOMS_POSITION = 30;
+	private static final int HEADER_BYTES = 34;
+	private static final int VARIABLE_BYTES = 4 + 8;
+	private static final int ATOM_BYTES = 4;
+
+	private final File spillFile;
+	private DataOutputStream out;
+	/* Records written to the spill file, including removed ones */
+	private int numRecords;
+	private int numRemoved;
+	private BitSet removed;
+	/* Bytes written to the spill file, and bytes of them that were flushed */
+	private long numBytes;
+	private long numFlushedBytes;
+	/* Number of times the spill file was compacted, which invalidates its readers */
+	private int generation;
+	/* Opened on the first lookup of a record */
+	private RandomAccessFile lookup;
+	private byte[] lookupBuffer;
+
+	protected final TermParser parser;
+	private final Map<Rule, Integer> ruleIndices;
+	private final List<Rule> rules;
+	private final Map<GroundAtom, Integer> atomIndices;
+	private final List<GroundAtom> atoms;
+	private RecordIndex recordIndex;
+
+	/* Changed GroundRules by the parent Rule and atoms of the records they replace */
+	private Map<RecordKey, GroundRule> changedGroundRules;
+
+	/*
+	 * The GroundRule of the last parse, the sorted indices of its atoms,
+	 * whether its parent Rule and all its atoms have indices and, if so, its
+	 * record and the record's hash
+	 */
+	private GroundRule parsedGroundRule;
+	private int[] parsedAtoms;
+	private int numParsedAtoms;
+	private boolean parsedIndexed;
+	private ByteBuffer parsedRecord;
+	private int parsedLength;
+	private long parsedHash;
+
+	/**
+	 * @param spillFile  the file to write GroundRules to, which is overwritten
+	 *             and is deleted by {@link #close()}
+	 */
+	public SpillingGroundRuleStore(File spillFile) {
+		this.spillFile = spillFile;
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), BUFFER_SIZE));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not create spill file " + spillFile, e);
+		}
+		parser = new TermParser();
+		removed = new BitSet();
+		ruleIndices = new HashMap<Rule, Integer>();
+		rules = new ArrayList<Rule>();
+		atomIndices = new HashMap<GroundAtom, Integer>();
+		atoms = new ArrayList<GroundAtom>();
+		recordIndex = new RecordIndex();
+		changedGroundRules = new HashMap<RecordKey, GroundRule>();
+		parsedAtoms = new int[8];
+		parsedRecord = ByteBuffer.allocate(HEADER_BYTES + 8 * (VARIABLE_BYTES + ATOM_BYTES));
+		lookupBuffer = new byte[parsedRecord.capacity()];
+	}
+
+	/**
+	 * @return the file this store writes GroundRules to
+	 */
+	public File getSpillFile() {
+		return spillFile;
+	}
+
+	@Override
+	public void addGroundRule(GroundRule gr) {
+		if (containsGroundKernel(gr))
+			throw new IllegalArgumentException("GroundKernel has already been added: " + gr);
+		parse(gr, true);
+		writeParsedRecord();
+
+		for (GroundAtom atom : gr.getAtoms())
+			atom.unregisterGroundKernel(gr);
+	}
+
+	/**
+	 * Appends the record of the last parse to the spill file.
+	 */
+	private void writeParsedRecord() {
+		parsedRecord.putInt(NUMBER_POSITION, numRecords);
+		recordIndex.add(parsedHash, numBytes);
+		try {
+			out.write(parsedRecord.array(), 0, parsedLength);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not write to spill file " + spillFile, e);
+		}
+		numRecords++;
+		numBytes += parsedLength;
+	}
+
+	/**
+	 * Parses a GroundRule and encodes its record, reusing the last parse if
+	 * it was of the same GroundRule.
+	 *
+	 * @param add  whether to give indices to the parent Rule and atoms if
+	 *             they have none yet
+	 * @return whether the parent Rule and all the atoms have indices, so that
+	 *         the GroundRule has a record
+	 */
+	private boolean parse(GroundRule gr, boolean add) {
+		if (gr == parsedGroundRule && (parsedIndexed || !add))
+			return parsedIndexed;
+		if (gr != parsedGroundRule)
+			parser.parse(gr);
+		parsedGroundRule = gr;
+
+		int ruleIndex = indexRule(gr.getRule(), add);
+		parsedIndexed = ruleIndex != -2 && indexAtoms(gr, add);
+		if (parsedIndexed) {
+			boolean tied = gr instanceof WeightedGroundRule && gr.getRule() != null
+					&& ((WeightedGroundRule) gr).getWeight() == ((WeightedRule) gr.getRule()).getWeight();
+			encodeParsedRecord(ruleIndex, tied);
+			parsedHash = hashRecord(parsedRecord.array(), parsedLength);
+		}
+		return parsedIndexed;
+	}
+
+	/**
+	 * @param add  whether to give the Rule an index if it has none yet
+	 * @return the index of a Rule, -1 for no Rule or -2 if it has no index
+	 */
+	private int indexRule(Rule rule, boolean add) {
+		if (rule == null)
+			return -1;
+		Integer index = ruleIndices.get(rule);
+		if (index == null) {
+			if (!add)
+				return -2;
+			index = rules.size();
+			ruleIndices.put(rule, index);
+			rules.add(rule);
+		}
+		return index;
+	}
+
+	/**
+	 * Collects the indices of the atoms of a GroundRule in ascending order.
+	 *
+	 * @param add  whether to give indices to atoms that have none yet
+	 * @return whether all the atoms have indices
+	 */
+	private boolean indexAtoms(GroundRule gr, boolean add) {
+		Set<GroundAtom> grAtoms = gr.getAtoms();
+		if (parsedAtoms.length < grAtoms.size())
+			parsedAtoms = new int[Math.max(grAtoms.size(), 2 * parsedAtoms.length)];
+		numParsedAtoms = 0;
+		for (GroundAtom atom : grAtoms) {
+			Integer index = atomIndices.get(atom);
+			if (index == null) {
+				if (!add)
+					return false;
+				index = atoms.size();
+				atomIndices.put(atom, index);
+				atoms.add(atom);
+			}
+			parsedAtoms[numParsedAtoms++] = index;
+		}
+		Arrays.sort(parsedAtoms, 0, numParsedAtoms);
+		return true;
+	}
+
+	/**
+	 * Encodes the term of the last parse and its atoms as a record, without
+	 * its number.
+	 */
+	private void encodeParsedRecord(int ruleIndex, boolean tied) {
+		int size = parser.getSize();
+		parsedLength = HEADER_BYTES + VARIABLE_BYTES * size + ATOM_BYTES * numParsedAtoms;
+		if (parsedRecord.capacity() < parsedLength)
+			parsedRecord = ByteBuffer.allocate(Math.max(parsedLength, 2 * parsedRecord.capacity()));
+
+		parsedRecord.put(TIED_POSITION, (byte) (tied ? 1 : 0));
+		parsedRecord.putDouble(WEIGHT_POSITION, parser.getWeight());
+		parsedRecord.put(TYPE_POSITION, parser.getType());
+		parsedRecord.putInt(RULE_POSITION, ruleIndex);
+		parsedRecord.putDouble(CONSTANT_POSITION, parser.getConstant());
+		parsedRecord.putInt(SIZE_POSITION, size);
+		parsedRecord.putInt(NUM_ATOMS_POSITION, numParsedAtoms);
+		for (int j = 0; j < size; j++) {
+			parsedRecord.putInt(HEADER_BYTES + VARIABLE_BYTES * j, parser.getVariableIndex(j));
+			parsedRecord.putDouble(HEADER_BYTES + VARIABLE_BYTES * j + 4, parser.getCoefficient(j));
+		}
+		int atomsStart = HEADER_BYTES + VARIABLE_BYTES * size;
+		for (int k = 0; k < numParsedAtoms; k++)
+			parsedRecord.putInt(atomsStart + ATOM_BYTES * k, parsedAtoms[k]);
+	}
+
+	/**
+	 * Hashes the part of a record that identifies it, which leaves out its
+	 * number and weight. Records with the same hash are compared in full, so
+	 * the hash only needs to spread them.
+	 *
+	 * @return a 64-bit FNV-1a hash
+	 */
+	long hashRecord(byte[] record, int length) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = TYPE_POSITION; i < length; i++)
+			hash = (hash ^ (record[i] & 0xff)) * 0x100000001b3L;
+		return hash;
+	}
+
+	/**
+	 * Replaces the record with the same parent Rule and atoms as the
+	 * GroundRule once the store is next used. If several records have them,
+	 * the first one is replaced. A GroundRule without such a record is
+	 * ignored.
+	 */
+	@Override
+	public void changedGroundRule(GroundRule gr) {
+		/* The term of the last parse may be out of date */
+		parsedGroundRule = null;
+		int ruleIndex = indexRule(gr.getRule(), false);
+		if (ruleIndex != -2 && indexAtoms(gr, false))
+			changedGroundRules.put(new RecordKey(ruleIndex, Arrays.copyOf(parsedAtoms, numParsedAtoms)), gr);
+	}
+
+	/**
+	 * Replaces the record of the GroundRule like
+	 * {@link #changedGroundRule(GroundRule)}, so that it has the new weight.
+	 */
+	@Override
+	public void changedGroundKernelWeight(WeightedGroundRule gk) {
+		changedGroundRule(gk);
+	}
+
+	/**
+	 * Does nothing, since tied weights are read from the Rules. GroundRules
+	 * with weights of their own must be passed to
+	 * {@link #changedGroundKernelWeight(WeightedGroundRule)}.
+	 */
+	@Override
+	public void changedGroundKernelWeights() {
+		/* Intentionally blank */
+	}
+
+	/**
+	 * Marks the record of a GroundRule as removed. A GroundRule that is not
+	 * in this store is ignored.
+	 */
+	@Override
+	public void removeGroundKernel(GroundRule gk) {
+		applyChanges();
+		if (!parse(gk, false))
+			return;
+		int number = findParsedRecord();
+		if (number != -1)
+			removeRecord(number);
+	}
+
+	private void removeRecord(int number) {
+		if (!removed.get(number)) {
+			removed.set(number);
+			numRemoved++;
+		}
+	}
+
+	/**
+	 * Checks whether a GroundRule with the same parent Rule, the same atoms
+	 * and the same term is in this store.
+	 */
+	@Override
+	public boolean containsGroundKernel(GroundRule gk) {
+		applyChanges();
+		return parse(gk, false) && findParsedRecord() != -1;
+	}
+
+	/**
+	 * @return the number of the record that is not removed and matches the
+	 *         record of the last parse, except for the weight, or -1
+	 */
+	private int findParsedRecord() {
+		for (int slot = recordIndex.first(parsedHash); slot != -1; slot = recordIndex.next(slot, parsedHash)) {
+			int number = readRecord(recordIndex.getOffset(slot));
+			if (!removed.get(number) && matchesParsedRecord())
+				return number;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads as much of a record back from the spill file into the lookup
+	 * buffer as the record of the last parse is long.
+	 *
+	 * @return the number of the record
+	 */
+	private int readRecord(long offset) {
+		if (lookupBuffer.length < parsedLength)
+			lookupBuffer = new byte[Math.max(parsedLength, 2 * lookupBuffer.length)];
+		try {
+			if (offset + parsedLength > numFlushedBytes) {
+				out.flush();
+				numFlushedBytes = numBytes;
+			}
+			if (lookup == null)
+				lookup = new RandomAccessFile(spillFile, "r");
+			/* A record of another size cannot match, so a prefix of it is enough */
+			lookup.seek(offset);
+			lookup.readFully(lookupBuffer, 0, (int) Math.min(parsedLength, numBytes - offset));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read spill file " + spillFile, e);
+		}
+		return ByteBuffer.wrap(lookupBuffer).getInt(NUMBER_POSITION);
+	}
+
+	/**
+	 * Compares the record in the lookup buffer with the record of the last
+	 * parse. The sizes come before the variables and atoms, so a record of
+	 * another size differs before its end.
+	 */
+	private boolean matchesParsedRecord() {
+		byte[] record = parsedRecord.array();
+		for (int i = TYPE_POSITION; i < parsedLength; i++)
+			if (lookupBuffer[i] != record[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Replaces the records of changed GroundRules, with one scan of the
+	 * spill file.
+	 */
+	private void applyChanges() {
+		if (changedGroundRules.isEmpty())
+			return;
+
+		Map<RecordKey, GroundRule> changes = changedGroundRules;
+		changedGroundRules = new HashMap<RecordKey, GroundRule>();
+		List<GroundRule> replacements = new ArrayList<GroundRule>();
+		SpillReader reader = openReader();
+		while (reader.next()) {
+			GroundRule changed = changes.remove(new RecordKey(reader.ruleIndex,
+					Arrays.copyOf(reader.atomIndices, reader.numAtoms)));
+			if (changed != null) {
+				removeRecord(reader.number);
+				replacements.add(changed);
+			}
+		}
+		reader.close();
+
+		parsedGroundRule = null;
+		for (GroundRule gr : replacements) {
+			parse(gr, true);
+			writeParsedRecord();
+		}
+	}
+
+	/**
+	 * Rewrites the spill file without the removed records. Reasoners call
+	 * this when they rebuild their model from the store.
+	 */
+	protected void compact() {
+		applyChanges();
+		if (numRemoved == 0)
+			return;
+
+		RecordIndex compactedIndex = new RecordIndex();
+		long position = 0;
+		int number = 0;
+		SpillReader reader = openReader();
+		try {
+			RandomAccessFile file = new RandomAccessFile(spillFile, "rw");
+			try {
+				/* Records only move towards the start, behind the reader */
+				while (reader.next()) {
+					ByteBuffer.wrap(reader.record).putInt(NUMBER_POSITION, number);
+					file.seek(position);
+					file.write(reader.record, 0, reader.length);
+					compactedIndex.add(hashRecord(reader.record, reader.length), position);
+					position += reader.length;
+					number++;
+				}
+				file.setLength(position);
+			} finally {
+				file.close();
+			}
+			out.close();
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile, true), BUFFER_SIZE));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not compact spill file " + spillFile, e);
+		} finally {
+			reader.close();
+		}
+
+		recordIndex = compactedIndex;
+		numRecords = number;
+		numRemoved = 0;
+		removed = new BitSet();
+		numBytes = position;
+		numFlushedBytes = position;
+		generation++;
+	}
+
+	@Override
+	public Iterable<GroundRule> getGroundKernels() {
+		return getGroundKernels(-2);
+	}
+
+	@Override
+	public Iterable<WeightedGroundRule> getCompatibilityKernels() {
+		return Iterables.filter(getGroundKernels(), WeightedGroundRule.class);
+	}
+
+	@Override
+	public Iterable<UnweightedGroundRule> getConstraintKernels() {
+		return Iterables.filter(getGroundKernels(), UnweightedGroundRule.class);
+	}
+
+	@Override
+	public Iterable<GroundRule> getGroundKernels(Rule k) {
+		Integer ruleIndex = ruleIndices.get(k);
+		if (ruleIndex == null)
+			return new ArrayList<GroundRule>();
+		return getGroundKernels(ruleIndex);
+	}
+
+	/**
+	 * @param ruleIndex  the index of the parent Rule of the GroundRules to
+	 *             return, or -2 for all GroundRules
+	 */
+	private Iterable<GroundRule> getGroundKernels(final int ruleIndex) {
+		return new Iterable<GroundRule>() {
+			@Override
+			public Iterator<GroundRule> iterator() {
+				applyChanges();
+				return new SpilledGroundRuleIterator(ruleIndex);
+			}
+		};
+	}
+
+	@Override
+	public int size() {
+		return numRecords - numRemoved;
+	}
+
+	/**
+	 * @return the weight of each Rule, for the records that are tied to it
+	 */
+	protected double[] getRuleWeights() {
+		double[] ruleWeights = new double[rules.size()];
+		for (int i = 0; i < ruleWeights.length; i++)
+			if (rules.get(i) instanceof WeightedRule)
+				ruleWeights[i] = ((WeightedRule) rules.get(i)).getWeight().getWeight();
+		return ruleWeights;
+	}
+
+	/**
+	 * Opens the spill file for reading all records written so far that are
+	 * not removed. Pending changes must have been applied.
+	 */
+	protected SpillReader openReader() {
+		try {
+			out.flush();
+			numFlushedBytes = numBytes;
+			return new SpillReader(numRecords);
+		} catch (IOException e) {
+			throw new RuntimeException("Could not read spill file " + spillFile, e);
+		}
+	}
+
+	/**
+	 * Closes and deletes the spill file.
+	 */
+	public void close() {
+		try {
+			if (out != null)
+				out.close();
+			if (lookup != null)
+				lookup.close();
+		} catch (IOException e) {
+			throw new RuntimeException("Could not close spill file " + spillFile, e);
+		} finally {
+			out = null;
+			lookup = null;
+			spillFile.delete();
+		}
+	}
+
+	/**
+	 * Reads the records of the spill file in order, skipping removed ones.
+	 * After {@link #next()}, the record is available in the fields of the
+	 * reader until the next call.
+	 */
+	protected class SpillReader {
+		private final DataInputStream in;
+		private final int generation;
+		private int remaining;
+
+		/* The record as it is stored */
+		byte[] record;
+		int length;
+
+		int number;
+		boolean tied;
+		double weight;
+		byte type;
+		int ruleIndex;
+		double constant;
+		int size;
+		int[] varIndices;
+		double[] coeffs;
+		int numAtoms;
+		int[] atomIndices;
+
+		private SpillReader(int numRecords) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), BUFFER_SIZE));
+			generation = SpillingGroundRuleStore.this.generation;
+			remaining = numRecords;
+			record = new byte[HEADER_BYTES + 8 * (VARIABLE_BYTES + ATOM_BYTES)];
+			varIndices = new int[8];
+			coeffs = new double[8];
+			atomIndices = new int[8];
+		}
+
+		/**
+		 * Reads the next record that is not removed, or closes the file if
+		 * there is none.
+		 *
+		 * @return whether a record was read
+		 * @throws ConcurrentModificationException  if the store was
+		 *             compacted since this reader was opened
+		 */
+		boolean next() {
+			if (generation != SpillingGroundRuleStore.this.generation) {
+				close();
+				throw new ConcurrentModificationException("Spill file " + spillFile + " was compacted.");
+			}
+			while (remaining > 0) {
+				read();
+				remaining--;
+				if (!removed.get(number))
+					return true;
+			}
+			close();
+			return false;
+		}
+
+		private void read() {
+			try {
+				in.readFully(record, 0, HEADER_BYTES);
+				ByteBuffer buffer = ByteBuffer.wrap(record);
+				size = buffer.getInt(SIZE_POSITION);
+				numAtoms = buffer.getInt(NUM_ATOMS_POSITION);
+				length = HEADER_BYTES + VARIABLE_BYTES * size + ATOM_BYTES * numAtoms;
+				if (record.length < length) {
+					record = Arrays.copyOf(record, Math.max(length, 2 * record.length));
+					buffer = ByteBuffer.wrap(record);
+				}
+				in.readFully(record, HEADER_BYTES, length - HEADER_BYTES);
+
+				number = buffer.getInt(NUMBER_POSITION);
+				tied = buffer.get(TIED_POSITION) != 0;
+				weight = buffer.getDouble(WEIGHT_POSITION);
+				type = buffer.get(TYPE_POSITION);
+				ruleIndex = buffer.getInt(RULE_POSITION);
+				constant = buffer.getDouble(CONSTANT_POSITION);
+				if (size > varIndices.length) {
+					varIndices = Arrays.copyOf(varIndices, Math.max(size, 2 * varIndices.length));
+					coeffs = Arrays.copyOf(coeffs, varIndices.length);
+				}
+				if (numAtoms > atomIndices.length)
+					atomIndices = Arrays.copyOf(atomIndices, Math.max(numAtoms, 2 * atomIndices.length));
+				for (int j = 0; j < size; j++) {
+					varIndices[j] = buffer.getInt(HEADER_BYTES + VARIABLE_BYTES * j);
+					coeffs[j] = buffer.getDouble(HEADER_BYTES + VARIABLE_BYTES * j + 4);
+				}
+				int atomsStart = HEADER_BYTES + VARIABLE_BYTES * size;
+				for (int k = 0; k < numAtoms; k++)
+					atomIndices[k] = buffer.getInt(atomsStart + ATOM_BYTES * k);
+			} catch (EOFException e) {
+				close();
+				throw new RuntimeException("Spill file " + spillFile + " ended early.", e);
+			} catch (IOException e) {
+				close();
+				throw new RuntimeException("Could not read spill file " + spillFile, e);
+			}
+		}
+
+		void close() {
+			remaining = 0;
+			try {
+				in.close();
+			} catch (IOException e) {
+				throw new RuntimeException("Could not close spill file " + spillFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Reconstructs the GroundRules of the records of one Rule, or of all
+	 * records.
+	 */
+	private class SpilledGroundRuleIterator implements Iterator<GroundRule> {
+		private final int ruleIndex;
+		private final SpillReader reader;
+		private GroundRule next;
+		private int nextNumber;
+		/* The number of the record last returned, or -1 if there is none or it was removed */
+		private int lastNumber;
+
+		private SpilledGroundRuleIterator(int ruleIndex) {
+			this.ruleIndex = ruleIndex;
+			reader = openReader();
+			lastNumber = -1;
+			advance();
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && reader.next())
+				if (ruleIndex == -2 || reader.ruleIndex == ruleIndex) {
+					next = reconstruct(reader);
+					nextNumber = reader.number;
+				}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public GroundRule next() {
+			if (next == null)
+				throw new NoSuchElementException();
+			GroundRule current = next;
+			lastNumber = nextNumber;
+			advance();
+			return current;
+		}
+
+		@Override
+		public void remove() {
+			if (lastNumber == -1)
+				throw new IllegalStateException();
+			if (reader.generation != generation)
+				throw new ConcurrentModificationException("Spill file " + spillFile + " was compacted.");
+			removeRecord(lastNumber);
+			lastNumber = -1;
+		}
+	}
+
+	private GroundRule reconstruct(SpillReader reader) {
+		Rule rule = (reader.ruleIndex >= 0) ? rules.get(reader.ruleIndex) : null;
+		FunctionSum sum = new FunctionSum();
+		for (int j = 0; j < reader.size; j++)
+			sum.add(new FunctionSummand(reader.coeffs[j], parser.getVariable(reader.varIndices[j])));
+		Set<GroundAtom> grAtoms = new HashSet<GroundAtom>();
+		for (int k = 0; k < reader.numAtoms; k++)
+			grAtoms.add(atoms.get(reader.atomIndices[k]));
+		if (TermBatch.isConstraint(reader.type))
+			return new SpilledUnweightedGroundRule((UnweightedRule) rule, grAtoms, reader.type, sum, reader.constant);
+
+		Weight weight = (reader.tied) ? ((WeightedRule) rule).getWeight() : new PositiveWeight(reader.weight);
+		return new SpilledWeightedGroundRule((WeightedRule) rule, grAtoms, reader.type, sum, reader.constant, weight);
+	}
+
+	private static class SpilledWeightedGroundRule implements WeightedGroundRule {
+		private final WeightedRule rule;
+		private final Set<GroundAtom> atoms;
+		private final byte type;
+		private final FunctionSum sum;
+		private final double constant;
+		private Weight weight;
+
+		private SpilledWeightedGroundRule(WeightedRule rule, Set<GroundAtom> atoms, byte type,
+				FunctionSum sum, double constant, Weight weight) {
+			this.rule = rule;
+			this.atoms = atoms;
+			this.type = type;
+			this.sum = sum;
+			this.constant = constant;
+			this.weight = weight;
+		}
+
+		@Override
+		public WeightedRule getRule() {
+			return rule;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return atoms;
+		}
+
+		@Override
+		public Weight getWeight() {
+			return weight;
+		}
+
+		@Override
+		public void setWeight(Weight w) {
+			weight = w;
+		}
+
+		@Override
+		public FunctionTerm getFunctionDefinition() {
+			FunctionSum function = new FunctionSum();
+			for (FunctionSummand summand : sum)
+				function.add(summand);
+			if (constant != 0.0)
+				function.add(new FunctionSummand(1.0, new ConstantNumber(-constant)));
+
+			FunctionTerm inner = function;
+			if (type == TermBatch.HINGE || type == TermBatch.SQUARED_HINGE)
+				inner = MaxFunction.of(function, new ConstantNumber(0.0));
+			if (type == TermBatch.SQUARED_HINGE || type == TermBatch.SQUARED_LINEAR)
+				return new PowerOfTwo(inner);
+			return inner;
+		}
+
+		@Override
+		public double getIncompatibility() {
+			return TermBatch.getIncompatibility(type, sum.getValue() - constant);
+		}
+
+		@Override
+		public String toString() {
+			return "" + weight.getWeight() + ": " + getFunctionDefinition();
+		}
+	}
+
+	private static class SpilledUnweightedGroundRule implements UnweightedGroundRule {
+		private final UnweightedRule rule;
+		private final Set<GroundAtom> atoms;
+		private final byte type;
+		private final FunctionSum sum;
+		private final double constant;
+
+		private SpilledUnweightedGroundRule(UnweightedRule rule, Set<GroundAtom> atoms, byte type,
+				FunctionSum sum, double constant) {
+			this.rule = rule;
+			this.atoms = atoms;
+			this.type = type;
+			this.sum = sum;
+			this.constant = constant;
+		}
+
+		@Override
+		public UnweightedRule getRule() {
+			return rule;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return atoms;
+		}
+
+		@Override
+		public ConstraintTerm getConstraintDefinition() {
+			FunctionComparator comparator;
+			if (type == TermBatch.CONSTRAINT_LEQ)
+				comparator = FunctionComparator.SmallerThan;
+			else if (type == TermBatch.CONSTRAINT_GEQ)
+				comparator = FunctionComparator.LargerThan;
+			else
+				comparator = FunctionComparator.Equality;
+			return new ConstraintTerm(sum, comparator, constant);
+		}
+
+		@Override
+		public double getInfeasibility() {
+			return TermBatch.getIncompatibility(type, sum.getValue() - constant);
+		}
+
+		@Override
+		public String toString() {
+			return getConstraintDefinition().toString();
+		}
+	}
+
+	/**
+	 * The index of the parent Rule and the sorted indices of the atoms of a
+	 * record, which identify the GroundRule it is replaced by when changed.
+	 */
+	private static class RecordKey {
+		private final int ruleIndex;
+		private final int[] atomIndices;
+
+		private RecordKey(int ruleIndex, int[] atomIndices) {
+			this.ruleIndex = ruleIndex;
+			this.atomIndices = atomIndices;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * ruleIndex + Arrays.hashCode(atomIndices);
+		}
+
+		@Override
+		public boolean equals(Object oth) {
+			if (!(oth instanceof RecordKey))
+				return false;
+			RecordKey key = (RecordKey) oth;
+			return ruleIndex == key.ruleIndex && Arrays.equals(atomIndices, key.atomIndices);
+		}
+	}
+
+	/**
+	 * The file offsets of the records by their hashes, with open addressing,
+	 * which needs 16 to 32 bytes per record instead of the objects per record
+	 * of a HashMap. Records whose hashes collide each have their own slot.
+	 */
+	private static class RecordIndex {
+		private long[] hashes;
+		/* -1 marks an empty slot */
+		private long[] offsets;
+		private int size;
+
+		private RecordIndex() {
+			hashes = new long[1024];
+			offsets = new long[1024];
+			Arrays.fill(offsets, -1);
+		}
+
+		/**
+		 * @return the first slot of a record with the hash, or -1
+		 */
+		int first(long hash) {
+			return find(mix(hash) & (hashes.length - 1), hash);
+		}
+
+		/**
+		 * @return the slot after another of a record with the hash, or -1
+		 */
+		int next(int slot, long hash) {
+			return find((slot + 1) & (hashes.length - 1), hash);
+		}
+
+		private int find(int slot, long hash) {
+			int mask = hashes.length - 1;
+			for (int i = slot; offsets[i] != -1; i = (i + 1) & mask)
+				if (hashes[i] == hash)
+					return i;
+			return -1;
+		}
+
+		long getOffset(int slot) {
+			return offsets[slot];
+		}
+
+		void add(long hash, long offset) {
+			if (2 * (size + 1) > hashes.length)
+				grow();
+			put(hash, offset);
+			size++;
+		}
+
+		private void put(long hash, long offset) {
+			int mask = hashes.length - 1;
+			int i = mix(hash) & mask;
+			while (offsets[i] != -1)
+				i = (i + 1) & mask;
+			hashes[i] = hash;
+			offsets[i] = offset;
+		}
+
+		private void grow() {
+			long[] oldHashes = hashes;
+			long[] oldOffsets = offsets;
+			hashes = new long[2 * oldHashes.length];
+			offsets = new long[hashes.length];
+			Arrays.fill(offsets, -1);
+			for (int i = 0; i < oldHashes.length; i++)
+				if (oldOffsets[i] != -1)
+					put(oldHashes[i], oldOffsets[i]);
+		}
+
+		private static int mix(long value) {
+			return (int) (value ^ (value >>> 32)) * 0x9e3779b9;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.TermBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An out-of-core version of {@link SGDReasoner} for ground models that do
+ * not fit in memory.
+ * <p>
+ * Ground rules are written to a spill file as they are added (see
+ * {@link SpillingGroundRuleStore}), and each epoch is one sequential scan
+ * of the file. The scan reads the terms in batches of
+ * {@link SGDReasoner#BATCH_SIZE_KEY} terms and visits each batch in random
+ * order, so only one batch and the value of each variable are held in
+ * memory. Unlike {@link SGDReasoner}, the batches are visited in file order.
+ * <p>
+ * Uses the properties of {@link SGDReasoner}.
+ */
+public class StreamingSGDReasoner extends SpillingGroundRuleStore implements Reasoner {
+
+	private static final Logger log = LoggerFactory.getLogger(StreamingSGDReasoner.class);
+
+	/**
+	 * Key for String property. Directory to write the spill file to.
+	 *
+	 * @see ConfigManager
+	 */
+	public static final String SPILL_DIRECTORY_KEY = SGDReasoner.CONFIG_PREFIX + ".spilldirectory";
+	/** Default value for SPILL_DIRECTORY_KEY property (the temporary directory) */
+	public static final String SPILL_DIRECTORY_DEFAULT = System.getProperty("java.io.tmpdir");
+
+	private final int maxEpochs;
+	private final double initialStepSize;
+	private final double tolerance;
+	private final int batchSize;
+	private final Random rand;
+
+	private int lastEpochs;
+	private double lastObjective;
+
+	public StreamingSGDReasoner(ConfigBundle config) {
+		super(createSpillFile(config.getString(SPILL_DIRECTORY_KEY, SPILL_DIRECTORY_DEFAULT)));
+		maxEpochs = config.getInt(SGDReasoner.MAX_EPOCHS_KEY, SGDReasoner.MAX_EPOCHS_DEFAULT);
+		if (maxEpochs <= 0)
+			throw new IllegalArgumentException("Property " + SGDReasoner.MAX_EPOCHS_KEY + " must be positive.");
+		initialStepSize = config.getDouble(SGDReasoner.STEP_SIZE_KEY, SGDReasoner.STEP_SIZE_DEFAULT);
+		if (initialStepSize <= 0)
+			throw new IllegalArgumentException("Property " + SGDReasoner.STEP_SIZE_KEY + " must be positive.");
+		tolerance = config.getDouble(SGDReasoner.TOLERANCE_KEY, SGDReasoner.TOLERANCE_DEFAULT);
+		if (tolerance <= 0)
+			throw new IllegalArgumentException("Property " + SGDReasoner.TOLERANCE_KEY + " must be positive.");
+		batchSize = config.getInt(SGDReasoner.BATCH_SIZE_KEY, SGDReasoner.BATCH_SIZE_DEFAULT);
+		if (batchSize <= 0)
+			throw new IllegalArgumentException("Property " + SGDReasoner.BATCH_SIZE_KEY + " must be positive.");
+		rand = new Random();
+	}
+
+	private static File createSpillFile(String directory) {
+		try {
+			return File.createTempFile("psl-spill-", ".bin", new File(directory));
+		} catch (IOException e) {
+			throw new RuntimeException("Could not create spill file in " + directory, e);
+		}
+	}
+
+	/**
+	 * @return the number of epochs performed by the last call to {@link #optimize()}
+	 */
+	public int getLastEpochs() {
+		return lastEpochs;
+	}
+
+	/**
+	 * @return the total weighted incompatibility after the last call to
+	 *         {@link #optimize()}
+	 */
+	public double getLastObjective() {
+		return lastObjective;
+	}
+
+	@Override
+	public void optimize() {
+		compact();
+		double[] values = parser.getValues();
+		double[] ruleWeights = getRuleWeights();
+		log.debug("Performing optimization with {} variables and {} terms.", values.length, size());
+
+		TermBatch batch = new TermBatch(Math.min(batchSize, Math.max(size(), 1)));
+		int[] termOrder = new int[batch.capacity()];
+
+		int epoch = 0;
+		boolean converged = false;
+		while (!converged && epoch < maxEpochs) {
+			double stepSize = initialStepSize / (epoch + 1);
+			double maxChange = 0.0;
+
+			SpillReader reader = openReader();
+			boolean more = true;
+			while (more) {
+				batch.clear();
+				while (batch.size() < batchSize && (more = reader.next())) {
+					double weight = (reader.tied) ? ruleWeights[reader.ruleIndex] : reader.weight;
+					batch.add(reader.type, weight, reader.constant, reader.size, reader.varIndices, reader.coeffs);
+				}
+
+				if (termOrder.length < batch.size())
+					termOrder = new int[batch.capacity()];
+				for (int t = 0; t < batch.size(); t++)
+					termOrder[t] = t;
+				shuffle(termOrder, batch.size());
+				for (int k = 0; k < batch.size(); k++)
+					maxChange = Math.max(maxChange, batch.step(termOrder[k], stepSize, values));
+			}
+
+			epoch++;
+			converged = maxChange <= tolerance;
+			if (epoch % 50 == 0)
+				log.trace("Largest change in epoch {}: {}", epoch, maxChange);
+		}
+
+		for (int i = 0; i < values.length; i++)
+			parser.getVariable(i).setValue(values[i]);
+
+		/* One more scan for the objective and infeasibility */
+		double objective = 0.0;
+		double infeasibility = 0.0;
+		SpillReader reader = openReader();
+		while (reader.next()) {
+			double total = 0.0;
+			for (int j = 0; j < reader.size; j++)
+				total += reader.coeffs[j] * values[reader.varIndices[j]];
+			double incompatibility = TermBatch.getIncompatibility(reader.type, total - reader.constant);
+			if (TermBatch.isConstraint(reader.type))
+				infeasibility += incompatibility * incompatibility;
+			else
+				objective += incompatibility * ((reader.tied) ? ruleWeights[reader.ruleIndex] : reader.weight);
+		}
+
+		lastEpochs = epoch;
+		lastObjective = objective;
+		log.info("Optimization completed in {} epochs. Objective: {}, Infeasibility: {}",
+				new Object[] {epoch, lastObjective, Math.sqrt(infeasibility)});
+	}
+
+	/**
+	 * Shuffles the first elements of an array.
+	 */
+	private void shuffle(int[] array, int length) {
+		for (int i = length - 1; i > 0; i--) {
+			int j = rand.nextInt(i + 1);
+			int temp = array[i];
+			array[i] = array[j];
+			array[j] = temp;
+		}
+	}
+}
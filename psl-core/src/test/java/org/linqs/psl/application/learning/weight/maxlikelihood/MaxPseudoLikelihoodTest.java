@@ -0,0 +1,83 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.learning.weight.maxlikelihood;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Test;
+import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.Rule;
+import org.linqs.psl.model.rule.WeightedRule;
+
+public class MaxPseudoLikelihoodTest {
+
+	/**
+	 * Computing the expectations in parallel over the colors of the blocks
+	 * learns the same weights as computing them one block at a time.
+	 */
+	@Test
+	public void testChromatic() throws Exception {
+		List<Double> weights = learn(false);
+		List<Double> chromaticWeights = learn(true);
+		assertEquals(weights.size(), chromaticWeights.size());
+		for (int i = 0; i < weights.size(); i++)
+			assertEquals(weights.get(i), chromaticWeights.get(i), 1e-9);
+	}
+
+	private List<Double> learn(boolean chromatic) throws Exception {
+		TestModelFactory.ModelInformation model = TestModelFactory.getModel(true);
+		Set<StandardPredicate> allPredicates = new HashSet<StandardPredicate>(model.predicates.values());
+		Set<StandardPredicate> closedPredicates = new HashSet<StandardPredicate>(model.predicates.values());
+		closedPredicates.remove(model.predicates.get("Friends"));
+
+		Database trainDB = model.dataStore.getDatabase(model.targetPartition, closedPredicates, model.observationPartition);
+		Database truthDB = model.dataStore.getDatabase(model.truthPartition, allPredicates, model.observationPartition);
+
+		MaxPseudoLikelihood weightLearner = new MaxPseudoLikelihood(model.model, trainDB, truthDB, getConfig(chromatic));
+		weightLearner.learn();
+		weightLearner.close();
+
+		List<Double> weights = new ArrayList<Double>();
+		for (Rule rule : model.model.getRules())
+			if (rule instanceof WeightedRule)
+				weights.add(((WeightedRule) rule).getWeight().getWeight());
+
+		trainDB.close();
+		truthDB.close();
+		model.dataStore.close();
+		return weights;
+	}
+
+	private ConfigBundle getConfig(boolean chromatic) throws ConfigurationException {
+		ConfigBundle config = ConfigManager.getManager().getBundle("maxpseudolikelihoodtest");
+		config.setProperty(MaxPseudoLikelihood.BOOLEAN_KEY, true);
+		config.setProperty(MaxPseudoLikelihood.CHROMATIC_KEY, chromatic);
+		config.setProperty(MaxPseudoLikelihood.NUM_THREADS_KEY, 2);
+		return config;
+	}
+}
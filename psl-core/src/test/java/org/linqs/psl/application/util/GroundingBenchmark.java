@@ -0,0 +1,137 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.util;
+
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.linqs.psl.application.groundrulestore.MemoryGroundKernelStore;
+import org.linqs.psl.config.EmptyBundle;
+import org.linqs.psl.database.DataStore;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.Partition;
+import org.linqs.psl.database.loading.Inserter;
+import org.linqs.psl.database.rdbms.RDBMSDataStore;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver.Type;
+import org.linqs.psl.model.Model;
+import org.linqs.psl.model.atom.PersistedAtomManager;
+import org.linqs.psl.model.atom.QueryAtom;
+import org.linqs.psl.model.formula.Conjunction;
+import org.linqs.psl.model.formula.Implication;
+import org.linqs.psl.model.predicate.PredicateFactory;
+import org.linqs.psl.model.predicate.SpecialPredicate;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.logical.WeightedLogicalRule;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.term.Variable;
+
+/**
+ * Measures how the time of {@link Grounding#groundAll(org.linqs.psl.model.Model,
+ * org.linqs.psl.model.atom.AtomManager, org.linqs.psl.application.groundrulestore.GroundRuleStore, int)}
+ * scales from 1 to 32 threads, on a model of many independent rules
+ * Obs_i(A, B) & Obs_j(B, C) & (A - C) -> Target(A, C).
+ * <p>
+ * Not run as part of the tests. Arguments (all optional): number of rules,
+ * number of people, observed links per person and predicate, largest
+ * number of threads, number of timed runs.
+ */
+public class GroundingBenchmark {
+
+	public static void main(String[] args) {
+		int numRules = (args.length > 0) ? Integer.parseInt(args[0]) : 300;
+		int numPeople = (args.length > 1) ? Integer.parseInt(args[1]) : 60;
+		int numLinks = (args.length > 2) ? Integer.parseInt(args[2]) : 3;
+		int maxThreads = (args.length > 3) ? Integer.parseInt(args[3]) : 32;
+		int numRuns = (args.length > 4) ? Integer.parseInt(args[4]) : 3;
+
+		/* A named in-memory database, so that workers can open connections to it */
+		DataStore dataStore = new RDBMSDataStore(new H2DatabaseDriver(Type.Memory,
+				Paths.get(System.getProperty("java.io.tmpdir"), "GroundingBenchmark").toString(), true),
+				new EmptyBundle());
+		Partition observations = dataStore.getPartition("observations");
+		Partition targets = dataStore.getPartition("targets");
+
+		PredicateFactory factory = PredicateFactory.getFactory();
+		int numObserved = (int) Math.ceil(Math.sqrt(numRules));
+		Random random = new Random(4);
+		StandardPredicate[] observed = new StandardPredicate[numObserved];
+		for (int i = 0; i < numObserved; i++) {
+			observed[i] = factory.createStandardPredicate("GroundingBenchmark_Obs" + i,
+					ConstantType.UniqueID, ConstantType.UniqueID);
+			dataStore.registerPredicate(observed[i]);
+			Inserter inserter = dataStore.getInserter(observed[i], observations);
+			for (int a = 0; a < numPeople; a++) {
+				HashSet<Integer> linked = new HashSet<Integer>();
+				while (linked.size() < numLinks) {
+					int b = random.nextInt(numPeople);
+					if (b != a && linked.add(b))
+						inserter.insertValue(random.nextDouble(), "p" + a, "p" + b);
+				}
+			}
+		}
+		StandardPredicate target = factory.createStandardPredicate("GroundingBenchmark_Target",
+				ConstantType.UniqueID, ConstantType.UniqueID);
+		dataStore.registerPredicate(target);
+		Inserter inserter = dataStore.getInserter(target, targets);
+		for (int a = 0; a < numPeople; a++)
+			for (int c = 0; c < numPeople; c++)
+				if (a != c)
+					inserter.insert("p" + a, "p" + c);
+
+		Model model = new Model();
+		for (int i = 0; i < numRules; i++) {
+			model.addRule(new WeightedLogicalRule(
+					new Implication(
+						new Conjunction(
+							new QueryAtom(observed[i % numObserved], new Variable("A"), new Variable("B")),
+							new QueryAtom(observed[(i / numObserved) % numObserved], new Variable("B"), new Variable("C")),
+							new QueryAtom(SpecialPredicate.NotEqual, new Variable("A"), new Variable("C"))
+						),
+						new QueryAtom(target, new Variable("A"), new Variable("C"))
+					),
+					1.0 + i,
+					true));
+		}
+		System.out.println(numRules + " rules, " + numPeople + " people, " + numLinks + " links per person and predicate");
+
+		long baseline = 0;
+		for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+			/* The first run warms up the JIT and is not reported */
+			for (int run = 0; run <= numRuns; run++) {
+				Database db = dataStore.getDatabase(targets, new HashSet<StandardPredicate>(), observations);
+				PersistedAtomManager atomManager = new PersistedAtomManager(db);
+				MemoryGroundKernelStore store = new MemoryGroundKernelStore();
+
+				long start = System.nanoTime();
+				Grounding.groundAll(model, atomManager, store, numThreads);
+				long time = System.nanoTime() - start;
+
+				if (numThreads == 1 && run == 1)
+					baseline = time;
+				if (run > 0)
+					System.out.println(numThreads + " threads, run " + run + ": " + (time / 1000000) + " ms, "
+							+ store.size() + " ground rules, speedup " + String.format("%.2f", (double) baseline / time));
+				db.close();
+			}
+		}
+
+		dataStore.close();
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.application.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.TestModelFactory;
+import org.linqs.psl.application.groundrulestore.GroundRuleStore;
+import org.linqs.psl.application.groundrulestore.MemoryGroundKernelStore;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.model.atom.AtomManager;
+import org.linqs.psl.model.atom.PersistedAtomManager;
+import org.linqs.psl.model.atom.QueryAtom;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.arithmetic.WeightedArithmeticRule;
+import org.linqs.psl.model.rule.arithmetic.expression.ArithmeticRuleExpression;
+import org.linqs.psl.model.rule.arithmetic.expression.SummationAtomOrAtom;
+import org.linqs.psl.model.rule.arithmetic.expression.coefficient.Coefficient;
+import org.linqs.psl.model.rule.arithmetic.expression.coefficient.ConstantNumber;
+import org.linqs.psl.model.term.Variable;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+public class GroundingTest {
+
+	private TestModelFactory.ModelInformation info;
+
+	@Before
+	public final void setUp() {
+		info = TestModelFactory.getModel();
+
+		// Nice(A) + Nice(B) >= 1.0
+		info.model.addRule(new WeightedArithmeticRule(
+				new ArithmeticRuleExpression(
+					Arrays.asList((Coefficient) new ConstantNumber(1.0), (Coefficient) new ConstantNumber(1.0)),
+					Arrays.asList(
+						(SummationAtomOrAtom) new QueryAtom(info.predicates.get("Nice"), new Variable("A")),
+						(SummationAtomOrAtom) new QueryAtom(info.predicates.get("Nice"), new Variable("B"))),
+					FunctionComparator.LargerThan, new ConstantNumber(1)),
+				1.0,
+				true));
+	}
+
+	/**
+	 * Grounding several rules at the same time must add the same ground
+	 * rules in the same order as grounding one rule at a time.
+	 */
+	@Test
+	public void testParallelMatchesSequential() {
+		List<String> sequential = ground(1);
+		List<String> parallel = ground(4);
+		assertTrue(sequential.size() > 0);
+		assertEquals(sequential, parallel);
+	}
+
+	/**
+	 * Ground rules already in the store are not added again.
+	 */
+	@Test
+	public void testExistingGroundRules() {
+		Database db = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(),
+				info.observationPartition);
+		PersistedAtomManager atomManager = new PersistedAtomManager(db);
+		OrderedGroundRuleStore store = new OrderedGroundRuleStore();
+		/* Only the arithmetic rule, which does not check for duplicates, is grounded again */
+		Grounding.groundAll(info.model, atomManager, store, 4);
+		int size = store.size();
+		int arithmeticSize = 0;
+		for (GroundRule groundRule : store.getGroundKernels())
+			if (groundRule.getRule() instanceof WeightedArithmeticRule)
+				arithmeticSize++;
+
+		Grounding.groundAll(info.model, atomManager, store, 4);
+		assertEquals(size + arithmeticSize, store.order.size());
+		db.close();
+	}
+
+	/**
+	 * The GroundRuleStore is only used by the calling thread, so it need
+	 * not be thread-safe.
+	 */
+	@Test
+	public void testStoreUsedByCallingThread() {
+		Database db = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(),
+				info.observationPartition);
+		OrderedGroundRuleStore store = new OrderedGroundRuleStore();
+		Grounding.groundAll(info.model, new PersistedAtomManager(db), store, 4);
+		db.close();
+		assertTrue(store.order.size() > 0);
+		assertEquals(Collections.singleton(Thread.currentThread()), store.threads);
+	}
+
+	/**
+	 * Rules can use the whole GroundRuleStore interface while grounding,
+	 * even when they are grounded at the same time.
+	 */
+	@Test
+	public void testRuleUsingStore() {
+		// Nice(A) + Nice(B) <= 1.0, without the ground rules over Nice('Alice')
+		info.model.addRule(new WeightedArithmeticRule(
+				new ArithmeticRuleExpression(
+					Arrays.asList((Coefficient) new ConstantNumber(1.0), (Coefficient) new ConstantNumber(1.0)),
+					Arrays.asList(
+						(SummationAtomOrAtom) new QueryAtom(info.predicates.get("Nice"), new Variable("A")),
+						(SummationAtomOrAtom) new QueryAtom(info.predicates.get("Nice"), new Variable("B"))),
+					FunctionComparator.SmallerThan, new ConstantNumber(1)),
+				1.0,
+				true) {
+			@Override
+			public void groundAll(AtomManager atomManager, GroundRuleStore grs) {
+				super.groundAll(atomManager, grs);
+				List<GroundRule> alice = new ArrayList<GroundRule>();
+				for (GroundRule groundRule : grs.getGroundKernels(this))
+					if (groundRule.toString().contains("'Alice'"))
+						alice.add(groundRule);
+				for (GroundRule groundRule : alice)
+					grs.removeGroundKernel(groundRule);
+			}
+		});
+
+		List<String> sequential = ground(1);
+		List<String> parallel = ground(4);
+		assertEquals(sequential, parallel);
+		int numAdded = 0;
+		for (String groundRule : sequential) {
+			if (groundRule.contains("<=")) {
+				assertFalse(groundRule.contains("'Alice'"));
+				numAdded++;
+			}
+		}
+		assertTrue(numAdded > 0);
+	}
+
+	private List<String> ground(int numThreads) {
+		Database db = info.dataStore.getDatabase(info.targetPartition, new HashSet<StandardPredicate>(),
+				info.observationPartition);
+		OrderedGroundRuleStore store = new OrderedGroundRuleStore();
+		Grounding.groundAll(info.model, new PersistedAtomManager(db), store, numThreads);
+		db.close();
+		return store.order;
+	}
+
+	/**
+	 * Records the order in which the ground rules in the store were added,
+	 * and the threads that use the store
+	 */
+	private static class OrderedGroundRuleStore extends MemoryGroundKernelStore {
+		private final List<String> order = new ArrayList<String>();
+		private final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+
+		@Override
+		public void addGroundRule(GroundRule gk) {
+			threads.add(Thread.currentThread());
+			super.addGroundRule(gk);
+			order.add(gk.toString());
+		}
+
+		@Override
+		public boolean containsGroundKernel(GroundRule gk) {
+			threads.add(Thread.currentThread());
+			return super.containsGroundKernel(gk);
+		}
+
+		@Override
+		public void removeGroundKernel(GroundRule gk) {
+			threads.add(Thread.currentThread());
+			super.removeGroundKernel(gk);
+			order.remove(gk.toString());
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.config.EmptyBundle;
+import org.linqs.psl.database.DataStore;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.rdbms.RDBMSDataStore;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver.Type;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.predicate.PredicateFactory;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.model.weight.Weight;
+import org.linqs.psl.reasoner.function.FunctionSum;
+import org.linqs.psl.reasoner.function.FunctionSummand;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+
+public class ExecutableReasonerTest {
+
+	private DataStore dataStore;
+	private Database database;
+	private RandomVariableAtom a, b;
+	private ConfigBundle config;
+
+	@Before
+	public final void setUp() throws ConfigurationException {
+		StandardPredicate predicate = PredicateFactory.getFactory().createStandardPredicate(
+				"ExecutableReasonerTest_P", ConstantType.UniqueID);
+		dataStore = new RDBMSDataStore(new H2DatabaseDriver(Type.Memory, null, true), new EmptyBundle());
+		dataStore.registerPredicate(predicate);
+		database = dataStore.getDatabase(dataStore.getPartition("0"));
+		a = (RandomVariableAtom) database.getAtom(predicate, dataStore.getUniqueID(0));
+		b = (RandomVariableAtom) database.getAtom(predicate, dataStore.getUniqueID(1));
+
+		config = ConfigManager.getManager().getBundle("executablereasonertest");
+	}
+
+	@After
+	public final void tearDown() {
+		database.close();
+		dataStore.close();
+	}
+
+	@Test
+	public void testTextFiles() {
+		config.setProperty(ExecutableReasoner.EXECUTABLE_KEY, "cp");
+		CopyReasoner first = new CopyReasoner(config, a, 0.25);
+		CopyReasoner second = new CopyReasoner(config, a, 0.75);
+
+		first.optimize();
+		assertEquals(0.25, a.getValue(), 0.0);
+		second.optimize();
+		assertEquals(0.75, a.getValue(), 0.0);
+
+		/* Each call has its own files, which are deleted afterward */
+		assertNotEquals(first.modelFileName, second.modelFileName);
+		assertFalse(new File(first.modelFileName).exists());
+		assertFalse(new File(first.resultsFileName).exists());
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void testStreaming() {
+		config.setProperty(ExecutableReasoner.EXECUTABLE_KEY,
+				System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		config.setProperty(ExecutableReasoner.STREAMING_KEY, true);
+		StubReasoner reasoner = new StubReasoner(config);
+		LinearGroundRule changed = new LinearGroundRule(a, 3.0);
+		reasoner.addGroundRule(new LinearGroundRule(a, 2.0));
+		reasoner.addGroundRule(changed);
+		reasoner.addGroundRule(new LinearGroundRule(b, 1.0));
+
+		reasoner.optimize();
+		assertEquals(3, reasoner.getLastUpdateSize());
+		assertEquals(0.05, a.getValue(), 1e-12);
+		assertEquals(0.01, b.getValue(), 1e-12);
+
+		/* Only the changed weight is sent */
+		changed.setWeight(new PositiveWeight(5.0));
+		reasoner.changedGroundKernelWeight(changed);
+		reasoner.optimize();
+		assertEquals(1, reasoner.getLastUpdateSize());
+		assertEquals(0.07, a.getValue(), 1e-12);
+
+		reasoner.optimize();
+		assertEquals(0, reasoner.getLastUpdateSize());
+
+		/* A new ground rule resends the model to the same executable */
+		reasoner.addGroundRule(new LinearGroundRule(b, 4.0));
+		reasoner.optimize();
+		assertEquals(4, reasoner.getLastUpdateSize());
+		assertEquals(0.07, a.getValue(), 1e-12);
+		assertEquals(0.05, b.getValue(), 1e-12);
+
+		assertEquals(1, reasoner.numStarts);
+		reasoner.close();
+	}
+
+	/** Copies a value through the model file to the results file */
+	private static class CopyReasoner extends ExecutableReasoner {
+		private final RandomVariableAtom atom;
+		private final double value;
+		private String modelFileName, resultsFileName;
+
+		public CopyReasoner(ConfigBundle config, RandomVariableAtom atom, double value) {
+			super(config);
+			this.atom = atom;
+			this.value = value;
+		}
+
+		@Override
+		protected List<String> getArgs() {
+			modelFileName = getModelFileName();
+			resultsFileName = getResultsFileName();
+			return new ArrayList<String>(Arrays.asList(modelFileName, resultsFileName));
+		}
+
+		@Override
+		protected void writeModel(BufferedWriter modelWriter) throws IOException {
+			modelWriter.write(Double.toString(value));
+			modelWriter.newLine();
+		}
+
+		@Override
+		protected void readResults(BufferedReader resultsReader) throws IOException {
+			atom.setValue(Double.parseDouble(resultsReader.readLine()));
+		}
+	}
+
+	/** Runs {@link Stub} in a new JVM and counts how often it is started */
+	private static class StubReasoner extends ExecutableReasoner {
+		private int numStarts = 0;
+
+		public StubReasoner(ConfigBundle config) {
+			super(config);
+		}
+
+		@Override
+		protected List<String> getArgs() {
+			return new ArrayList<String>(Arrays.asList(
+					"-cp", System.getProperty("java.class.path"), Stub.class.getName()));
+		}
+
+		@Override
+		protected Process startReasoner() throws IOException {
+			numStarts++;
+			return super.startReasoner();
+		}
+
+		@Override
+		protected void writeModel(BufferedWriter modelWriter) throws IOException {
+			throw new UnsupportedOperationException("Only streams its model.");
+		}
+
+		@Override
+		protected void readResults(BufferedReader resultsReader) throws IOException {
+			throw new UnsupportedOperationException("Only streams its model.");
+		}
+	}
+
+	/**
+	 * Speaks the binary protocol of {@link ExecutableReasoner}, setting each
+	 * variable to a hundredth of the total weight of its terms.
+	 */
+	public static class Stub {
+		public static void main(String[] args) throws IOException {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+			double[] weights = new double[0];
+			int[][] variables = new int[0][];
+			int numVariables = 0;
+
+			while (true) {
+				byte message;
+				try {
+					message = in.readByte();
+				}
+				catch (EOFException e) {
+					return;
+				}
+
+				if (message == ExecutableReasoner.MESSAGE_MODEL) {
+					weights = new double[in.readInt()];
+					variables = new int[weights.length][];
+					for (int t = 0; t < weights.length; t++) {
+						in.readByte();
+						weights[t] = in.readDouble();
+						in.readDouble();
+						variables[t] = new int[in.readInt()];
+						for (int j = 0; j < variables[t].length; j++) {
+							variables[t][j] = in.readInt();
+							in.readDouble();
+						}
+					}
+					numVariables = in.readInt();
+					for (int i = 0; i < numVariables; i++)
+						in.readDouble();
+				}
+				else if (message == ExecutableReasoner.MESSAGE_WEIGHTS) {
+					int count = in.readInt();
+					for (int k = 0; k < count; k++)
+						weights[in.readInt()] = in.readDouble();
+				}
+				else if (message == ExecutableReasoner.MESSAGE_OPTIMIZE) {
+					double[] values = new double[numVariables];
+					for (int t = 0; t < weights.length; t++)
+						for (int i : variables[t])
+							values[i] += weights[t] / 100;
+					out.writeByte(ExecutableReasoner.STATUS_OK);
+					out.writeInt(numVariables);
+					for (double value : values)
+						out.writeDouble(value);
+					out.flush();
+				}
+				else
+					return;
+			}
+		}
+	}
+
+	/** A weighted linear potential, 1 * atom, without a parent rule */
+	private static class LinearGroundRule implements WeightedGroundRule {
+		private final RandomVariableAtom atom;
+		private final FunctionSum sum;
+		private Weight weight;
+
+		public LinearGroundRule(RandomVariableAtom atom, double weight) {
+			this.atom = atom;
+			sum = new FunctionSum();
+			sum.add(new FunctionSummand(1.0, atom.getVariable()));
+			this.weight = new PositiveWeight(weight);
+			atom.registerGroundKernel(this);
+		}
+
+		@Override
+		public WeightedRule getRule() {
+			return null;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return Collections.<GroundAtom> singleton(atom);
+		}
+
+		@Override
+		public Weight getWeight() {
+			return weight;
+		}
+
+		@Override
+		public void setWeight(Weight w) {
+			weight = w;
+		}
+
+		@Override
+		public FunctionTerm getFunctionDefinition() {
+			return sum;
+		}
+
+		@Override
+		public double getIncompatibility() {
+			return sum.getValue();
+		}
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.rule.UnweightedGroundRule;
+import org.linqs.psl.model.rule.UnweightedRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.model.weight.Weight;
+import org.linqs.psl.reasoner.function.AtomFunctionVariable;
+import org.linqs.psl.reasoner.function.ConstantNumber;
+import org.linqs.psl.reasoner.function.ConstraintTerm;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+import org.linqs.psl.reasoner.function.FunctionSum;
+import org.linqs.psl.reasoner.function.FunctionSummand;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+import org.linqs.psl.reasoner.function.MaxFunction;
+import org.linqs.psl.reasoner.function.PowerOfTwo;
+
+/**
+ * Ground models for testing {@link Reasoner Reasoners} without a database.
+ * Variables are not backed by ground atoms, and ground rules have no parent
+ * rule.
+ */
+public class TestGroundRuleFactory {
+
+	// Static only.
+	private TestGroundRuleFactory() {
+	}
+
+	/**
+	 * @return the sum of a constant and pairs of coefficients and variables
+	 */
+	public static FunctionSum sum(double constant, Object... summands) {
+		FunctionSum sum = new FunctionSum();
+		if (constant != 0.0)
+			sum.add(new FunctionSummand(1.0, new ConstantNumber(constant)));
+		for (int i = 0; i < summands.length; i += 2)
+			sum.add(new FunctionSummand((Double) summands[i], (AtomFunctionVariable) summands[i + 1]));
+		return sum;
+	}
+
+	/**
+	 * @return a ground rule with potential weight * max(0, sum), squared if
+	 *         requested
+	 */
+	public static TestGroundRule hinge(FunctionSum sum, double weight, boolean squared) {
+		MaxFunction hinge = MaxFunction.of(sum, new ConstantNumber(0.0));
+		return new TestGroundRule(squared ? new PowerOfTwo(hinge) : hinge, weight);
+	}
+
+	/**
+	 * @return a constraint sum [?] value
+	 */
+	public static TestConstraintGroundRule constraint(FunctionSum sum, FunctionComparator comparator, double value) {
+		return new TestConstraintGroundRule(sum, comparator, value);
+	}
+
+	/**
+	 * Creates a hinge-loss MRF with a prior pulling each variable up to a
+	 * random value and potentials max(0, v_i - v_j) between random pairs of
+	 * distinct variables, all with random weights.
+	 */
+	public static TestGroundRule[] randomModel(TestVariable[] variables, int numPotentials, Random random) {
+		int numVariables = variables.length;
+		TestGroundRule[] groundRules = new TestGroundRule[numVariables + numPotentials];
+		for (int i = 0; i < numVariables; i++)
+			groundRules[i] = hinge(sum(random.nextDouble(), -1.0, variables[i]), random.nextDouble(), false);
+		for (int i = 0; i < numPotentials; i++) {
+			int a = random.nextInt(numVariables);
+			int b = random.nextInt(numVariables - 1);
+			if (b >= a)
+				b++;
+			groundRules[numVariables + i] = hinge(sum(0.0, 1.0, variables[a], -1.0, variables[b]), random.nextDouble(), false);
+		}
+		return groundRules;
+	}
+
+	/** A variable that is not backed by a ground atom */
+	public static class TestVariable extends AtomFunctionVariable {
+		private double value;
+
+		public TestVariable() {
+			super(null);
+		}
+
+		@Override
+		public boolean isConstant() {
+			return false;
+		}
+
+		@Override
+		public double getValue() {
+			return value;
+		}
+
+		@Override
+		public void setValue(double val) {
+			value = val;
+		}
+
+		@Override
+		public double getConfidence() {
+			return Double.NaN;
+		}
+
+		@Override
+		public void setConfidence(double val) {
+		}
+
+		@Override
+		public int hashCode() {
+			return System.identityHashCode(this);
+		}
+
+		@Override
+		public boolean equals(Object oth) {
+			return oth == this;
+		}
+
+		@Override
+		public String toString() {
+			return "v" + hashCode();
+		}
+	}
+
+	/** A weighted ground rule without a parent rule */
+	public static class TestGroundRule implements WeightedGroundRule {
+		private final FunctionTerm function;
+		private Weight weight;
+
+		public TestGroundRule(FunctionTerm function, double weight) {
+			this.function = function;
+			this.weight = new PositiveWeight(weight);
+		}
+
+		@Override
+		public WeightedRule getRule() {
+			return null;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public Weight getWeight() {
+			return weight;
+		}
+
+		@Override
+		public void setWeight(Weight w) {
+			weight = w;
+		}
+
+		@Override
+		public FunctionTerm getFunctionDefinition() {
+			return function;
+		}
+
+		@Override
+		public double getIncompatibility() {
+			return function.getValue();
+		}
+	}
+
+	/** A linear constraint without a parent rule */
+	public static class TestConstraintGroundRule implements UnweightedGroundRule {
+		private final FunctionSum sum;
+		private final FunctionComparator comparator;
+		private final double value;
+
+		public TestConstraintGroundRule(FunctionSum sum, FunctionComparator comparator, double value) {
+			this.sum = sum;
+			this.comparator = comparator;
+			this.value = value;
+		}
+
+		@Override
+		public UnweightedRule getRule() {
+			return null;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return Collections.emptySet();
+		}
+
+		@Override
+		public ConstraintTerm getConstraintDefinition() {
+			return new ConstraintTerm(sum, comparator, value);
+		}
+
+		@Override
+		public double getInfeasibility() {
+			double violation = sum.getValue() - value;
+			if (comparator.equals(FunctionComparator.SmallerThan))
+				return Math.max(0.0, violation);
+			if (comparator.equals(FunctionComparator.LargerThan))
+				return Math.max(0.0, -violation);
+			return Math.abs(violation);
+		}
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ThreadPoolTest {
+
+	private static final String NAME = "threadpooltest";
+
+	@After
+	public final void tearDown() throws InterruptedException {
+		ThreadPool pool = ThreadPool.getPool(NAME);
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+	}
+
+	@Test(timeout = 10000)
+	public void testGroupLargerThanPool() throws Exception {
+		ThreadPool pool = ThreadPool.createPool(NAME, 2);
+		List<Future<?>> futures = pool.submitGroup(barrierTasks(5, new AtomicInteger()));
+		for (Future<?> future : futures)
+			future.get();
+		assertEquals(5, pool.getNumThreads());
+	}
+
+	@Test(timeout = 10000)
+	public void testConcurrentGroups() throws Exception {
+		final ThreadPool pool = ThreadPool.createPool(NAME, 3);
+		final AtomicInteger count = new AtomicInteger();
+
+		/* Without reserving threads, two groups of three could each take part of the pool */
+		Thread[] submitters = new Thread[4];
+		for (int i = 0; i < submitters.length; i++) {
+			submitters[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (Future<?> future : pool.submitGroup(barrierTasks(3, count)))
+							future.get();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			submitters[i].start();
+		}
+		for (Thread submitter : submitters)
+			submitter.join();
+
+		assertEquals(12, count.get());
+		assertEquals(3, pool.getNumThreads());
+		assertEquals(0, pool.getQueueSize());
+	}
+
+	@Test
+	public void testLifecycle() throws Exception {
+		final AtomicInteger created = new AtomicInteger();
+		ThreadPool pool = ThreadPool.createPool(NAME, 1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				created.incrementAndGet();
+				return new Thread(r, "custom");
+			}
+		});
+		assertSame(pool, ThreadPool.getPool(NAME));
+
+		final String[] threadName = new String[1];
+		pool.submit(new Runnable() {
+			@Override
+			public void run() {
+				threadName[0] = Thread.currentThread().getName();
+			}
+		}).get();
+		assertEquals("custom", threadName[0]);
+		assertEquals(1, created.get());
+
+		pool.shutdown();
+		assertTrue(pool.isShutdown());
+		assertNotSame(pool, ThreadPool.getPool(NAME));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testCreateExisting() {
+		ThreadPool.getPool(NAME);
+		ThreadPool.createPool(NAME, 1);
+	}
+
+	/**
+	 * @return tasks that wait for each other at a barrier and then count
+	 */
+	private static Runnable[] barrierTasks(int numTasks, final AtomicInteger count) {
+		final CyclicBarrier barrier = new CyclicBarrier(numTasks);
+		Runnable[] tasks = new Runnable[numTasks];
+		for (int i = 0; i < numTasks; i++) {
+			tasks[i] = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						barrier.await();
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+					count.incrementAndGet();
+				}
+			};
+		}
+		return tasks;
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.randomModel;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestVariable;
+
+public class ADMMCheckpointTest {
+
+	private static final int NUM_VARIABLES = 100;
+	private static final int NUM_POTENTIALS = 400;
+
+	private File file;
+	private TestVariable[] variables;
+	private List<WeightedGroundRule> groundRules;
+
+	@Before
+	public final void setUp() throws Exception {
+		file = File.createTempFile("psl-admm-checkpoint-test", ".bin");
+		file.delete();
+
+		Random random = new Random(4);
+		variables = new TestVariable[NUM_VARIABLES];
+		for (int i = 0; i < NUM_VARIABLES; i++)
+			variables[i] = new TestVariable();
+
+		groundRules = new ArrayList<WeightedGroundRule>(Arrays.asList(randomModel(variables, NUM_POTENTIALS, random)));
+	}
+
+	@After
+	public final void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testResume() throws ConfigurationException {
+		ADMMReasoner reasoner = optimize(config(false), groundRules, Integer.MAX_VALUE);
+		int fullIterations = reasoner.getLastIterations();
+		double[] expected = values();
+		reasoner.close();
+		assertTrue(fullIterations > 100);
+
+		/* Stops halfway, leaving a checkpoint behind */
+		reasoner = optimize(config(false), groundRules, fullIterations / 2);
+		assertEquals(fullIterations / 2, reasoner.getLastIterations());
+		reasoner.close();
+		assertTrue(file.isFile());
+
+		/* Resumes into a model built from the ground rules in another order */
+		List<WeightedGroundRule> reversed = new ArrayList<WeightedGroundRule>(groundRules);
+		Collections.reverse(reversed);
+		reasoner = optimize(config(true), reversed, Integer.MAX_VALUE);
+		assertTrue(reasoner.getLastIterations() < fullIterations);
+		double[] actual = values();
+		for (int i = 0; i < NUM_VARIABLES; i++)
+			assertEquals(expected[i], actual[i], 1e-3);
+		reasoner.close();
+	}
+
+	@Test
+	public void testDifferentModel() throws ConfigurationException {
+		ADMMReasoner reasoner = optimize(config(false), groundRules, Integer.MAX_VALUE);
+		int fullIterations = reasoner.getLastIterations();
+		reasoner.close();
+
+		/* A checkpoint of a model with one potential less is not restored */
+		reasoner = optimize(config(false), groundRules.subList(0, groundRules.size() - 1), fullIterations / 2);
+		reasoner.close();
+		reasoner = optimize(config(true), groundRules, Integer.MAX_VALUE);
+		assertEquals(fullIterations, reasoner.getLastIterations());
+		reasoner.close();
+	}
+
+	private ConfigBundle config(boolean resume) throws ConfigurationException {
+		ConfigBundle config = ConfigManager.getManager().getBundle("admmcheckpointtest");
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 1);
+		config.setProperty(ADMMReasoner.EPSILON_REL_KEY, 1e-5);
+		config.setProperty(ADMMReasoner.CHECKPOINT_FILE_KEY, file.getPath());
+		config.setProperty(ADMMReasoner.CHECKPOINT_INTERVAL_KEY, 25);
+		config.setProperty(ADMMReasoner.RESUME_KEY, resume);
+		return config;
+	}
+
+	private ADMMReasoner optimize(ConfigBundle config, List<WeightedGroundRule> rules, int maxIter) {
+		for (TestVariable variable : variables)
+			variable.setValue(0.0);
+
+		ADMMReasoner reasoner = new ADMMReasoner(config);
+		if (maxIter != Integer.MAX_VALUE)
+			reasoner.setMaxIter(maxIter);
+		for (WeightedGroundRule groundRule : rules)
+			reasoner.addGroundRule(groundRule);
+		reasoner.optimize();
+		return reasoner;
+	}
+
+	private double[] values() {
+		double[] values = new double[NUM_VARIABLES];
+		for (int i = 0; i < NUM_VARIABLES; i++)
+			values[i] = variables[i].getValue();
+		return values;
+	}
+}
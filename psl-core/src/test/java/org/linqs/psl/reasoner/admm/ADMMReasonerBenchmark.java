@@ -0,0 +1,83 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.randomModel;
+
+import java.util.Random;
+
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestVariable;
+
+/**
+ * Compares the wall-clock time the synchronous and asynchronous
+ * {@link ADMMReasoner} loops take to reach the same residuals on a random
+ * hinge-loss MRF.
+ * <p>
+ * Not run as part of the tests. Arguments (all optional): number of
+ * variables, number of pairwise potentials, number of threads, relative
+ * tolerance, number of timed runs, precision of the local variables.
+ */
+public class ADMMReasonerBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int numVariables = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+		int numPotentials = (args.length > 1) ? Integer.parseInt(args[1]) : 200000;
+		int numThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		double epsilonRel = (args.length > 3) ? Double.parseDouble(args[3]) : 1e-4;
+		int numRuns = (args.length > 4) ? Integer.parseInt(args[4]) : 5;
+		String precision = (args.length > 5) ? args[5] : ADMMReasoner.PRECISION_DEFAULT;
+
+		TestVariable[] variables = new TestVariable[numVariables];
+		for (int i = 0; i < numVariables; i++)
+			variables[i] = new TestVariable();
+		WeightedGroundRule[] groundRules = randomModel(variables, numPotentials, new Random(4));
+		System.out.println(numVariables + " variables, " + groundRules.length + " potentials, "
+				+ numThreads + " threads, epsilonrel=" + epsilonRel + ", " + precision + " precision");
+
+		for (boolean asynchronous : new boolean[] {false, true}) {
+			ConfigBundle config = ConfigManager.getManager().getBundle("admmbenchmark");
+			config.setProperty(ADMMReasoner.NUM_THREADS_KEY, numThreads);
+			config.setProperty(ADMMReasoner.EPSILON_REL_KEY, epsilonRel);
+			config.setProperty(ADMMReasoner.ASYNCHRONOUS_KEY, asynchronous);
+			config.setProperty(ADMMReasoner.PRECISION_KEY, precision);
+
+			/* The first run warms up the JIT and is not reported */
+			for (int run = 0; run <= numRuns; run++) {
+				/* Every run starts from the same initial values */
+				for (TestVariable variable : variables)
+					variable.setValue(0.0);
+
+				ADMMReasoner reasoner = new ADMMReasoner(config);
+				for (WeightedGroundRule groundRule : groundRules)
+					reasoner.addGroundRule(groundRule);
+
+				long start = System.nanoTime();
+				reasoner.optimize();
+				long time = System.nanoTime() - start;
+
+				if (run > 0)
+					System.out.println((asynchronous ? "asynchronous" : "synchronous") + " run " + run + ": "
+							+ (time / 1000000) + " ms, " + reasoner.getLastIterations() + " iterations");
+				reasoner.close();
+			}
+		}
+	}
+}
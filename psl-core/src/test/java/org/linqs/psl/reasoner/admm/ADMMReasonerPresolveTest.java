@@ -0,0 +1,163 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.constraint;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.hinge;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.sum;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestGroundRule;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestVariable;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+public class ADMMReasonerPresolveTest {
+
+	private ConfigBundle config;
+	private TestVariable a, b, c, d;
+	private List<GroundRule> groundRules;
+	private TestGroundRule prior, duplicate;
+
+	/**
+	 * Builds a model in which a is fixed by a value constraint, b by an
+	 * equality with a, one hinge can never be active and two hinges differ
+	 * only in weight.
+	 */
+	@Before
+	public final void setUp() throws ConfigurationException {
+		config = ConfigManager.getManager().getBundle("admmpresolvetest");
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 1);
+		config.setProperty(ADMMReasoner.EPSILON_ABS_KEY, 1e-8);
+		config.setProperty(ADMMReasoner.EPSILON_REL_KEY, 1e-6);
+
+		a = new TestVariable();
+		b = new TestVariable();
+		c = new TestVariable();
+		d = new TestVariable();
+
+		groundRules = new ArrayList<GroundRule>();
+		/* a = 0.7 */
+		groundRules.add(constraint(sum(0.0, 1.0, a), FunctionComparator.Equality, 0.7));
+		/* a + b = 1 */
+		groundRules.add(constraint(sum(0.0, 1.0, a, 1.0, b), FunctionComparator.Equality, 1.0));
+		/* max(0, c - a) */
+		groundRules.add(hinge(sum(0.0, 1.0, c, -1.0, a), 1.0, false));
+		/* max(0, c - d - 1), which is zero for all c, d in [0, 1] */
+		groundRules.add(hinge(sum(-1.0, 1.0, c, -1.0, d), 2.0, false));
+		/* max(0, 0.9 - c), twice */
+		prior = hinge(sum(0.9, -1.0, c), 1.0, false);
+		groundRules.add(prior);
+		duplicate = hinge(sum(0.9, -1.0, c), 2.0, false);
+		groundRules.add(duplicate);
+		/* max(0, d - b) */
+		groundRules.add(hinge(sum(0.0, 1.0, d, -1.0, b), 1.0, false));
+	}
+
+	@Test
+	public void testPresolve() {
+		ADMMReasoner reasoner = optimize(true);
+
+		assertEquals(2, reasoner.getNumFixedVariables());
+		/* Two fixing constraints, the inactive hinge and the duplicate */
+		assertEquals(4, reasoner.getNumRemovedTerms());
+		assertEquals(0.7, a.getValue(), 0.0);
+		assertEquals(0.3, b.getValue(), 1e-12);
+		assertEquals(0.9, c.getValue(), 1e-3);
+		assertTrue(d.getValue() <= 0.3 + 1e-3);
+		assertEquals(0, reasoner.getNumViolatedConstraints());
+
+		reasoner.close();
+	}
+
+	/**
+	 * A constraint left without free variables by presolving is checked
+	 * against the fixed values before it is dropped.
+	 */
+	@Test
+	public void testViolatedConstraint() {
+		/* a + b = 0.5, which a = 0.7 and a + b = 1 contradict */
+		groundRules.add(constraint(sum(0.0, 1.0, a, 1.0, b), FunctionComparator.Equality, 0.5));
+		ADMMReasoner reasoner = optimize(true);
+		assertEquals(1, reasoner.getNumViolatedConstraints());
+		reasoner.close();
+
+		/* a - b = 0.4, which holds */
+		groundRules.remove(groundRules.size() - 1);
+		groundRules.add(constraint(sum(0.0, 1.0, a, -1.0, b), FunctionComparator.Equality, 0.4));
+		reasoner = optimize(true);
+		assertEquals(0, reasoner.getNumViolatedConstraints());
+		reasoner.close();
+	}
+
+	@Test
+	public void testSameSolution() {
+		ADMMReasoner reasoner = optimize(false);
+		assertEquals(0, reasoner.getNumRemovedTerms());
+		double[] expected = {a.getValue(), b.getValue(), c.getValue()};
+		reasoner.close();
+
+		reasoner = optimize(true);
+		assertEquals(expected[0], a.getValue(), 1e-3);
+		assertEquals(expected[1], b.getValue(), 1e-3);
+		assertEquals(expected[2], c.getValue(), 1e-3);
+		reasoner.close();
+	}
+
+	@Test
+	public void testRemoveMergedGroundRule() {
+		/* Merged ground rules are renumbered along with their terms */
+		config.setProperty(ADMMReasoner.REORDER_KEY, true);
+		ADMMReasoner reasoner = optimize(true);
+
+		/* With the duplicate gone, the pulls on c up to 0.9 and down to 0.7 are balanced */
+		reasoner.removeGroundKernel(duplicate);
+		reasoner.optimize();
+		assertTrue(c.getValue() >= 0.7 - 1e-3 && c.getValue() <= 0.9 + 1e-3);
+
+		/* A heavier prior wins again */
+		prior.setWeight(new PositiveWeight(3.0));
+		reasoner.changedGroundKernelWeight(prior);
+		reasoner.optimize();
+		assertEquals(0.9, c.getValue(), 1e-3);
+
+		reasoner.close();
+	}
+
+	private ADMMReasoner optimize(boolean presolve) {
+		for (TestVariable variable : new TestVariable[] {a, b, c, d})
+			variable.setValue(0.0);
+
+		config.setProperty(ADMMReasoner.PRESOLVE_KEY, presolve);
+		ADMMReasoner reasoner = new ADMMReasoner(config);
+		for (GroundRule groundRule : groundRules)
+			reasoner.addGroundRule(groundRule);
+		reasoner.optimize();
+		return reasoner;
+	}
+}
@@ -0,0 +1,290 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.hinge;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.sum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestVariable;
+
+/**
+ * Checks that the optional features of {@link ADMMReasoner} reach the same
+ * objective as the default configuration on a random hinge-loss MRF.
+ */
+public class ADMMReasonerTest {
+
+	private static final int NUM_VARIABLES = 100;
+	private static final int NUM_POTENTIALS = 400;
+	private static final int GROUP_SIZE = 10;
+
+	/* Objectives of converged runs agree to about epsilonrel */
+	private static final double EPSILON_REL = 1e-6;
+	private static final double TOLERANCE = 1e-3;
+
+	private TestVariable[] variables;
+	private List<WeightedGroundRule> groundRules;
+	private double expected;
+
+	@Before
+	public final void setUp() throws ConfigurationException {
+		Random random = new Random(4);
+		variables = new TestVariable[NUM_VARIABLES];
+		for (int i = 0; i < NUM_VARIABLES; i++)
+			variables[i] = new TestVariable();
+
+		groundRules = new ArrayList<WeightedGroundRule>();
+		/* Priors pulling each variable toward two random values */
+		for (int i = 0; i < NUM_VARIABLES; i++) {
+			groundRules.add(pair(random.nextDouble(), null, variables[i], random.nextDouble()));
+			groundRules.add(pair(-random.nextDouble(), variables[i], null, random.nextDouble()));
+		}
+		/* Pairwise potentials within groups, so the model has several components */
+		for (int i = 0; i < NUM_POTENTIALS; i++) {
+			int group = random.nextInt(NUM_VARIABLES / GROUP_SIZE) * GROUP_SIZE;
+			groundRules.add(pair(0.0, variables[group + random.nextInt(GROUP_SIZE)],
+					variables[group + random.nextInt(GROUP_SIZE)], random.nextDouble()));
+		}
+
+		expected = baseline(groundRules);
+	}
+
+	/**
+	 * Rebuilding the ground model from the previous solution reaches the
+	 * same objective in fewer iterations than rebuilding it from scratch.
+	 */
+	@Test
+	public void testWarmStart() throws ConfigurationException {
+		ConfigBundle config = config();
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 2);
+		int coldIterations = rebuildWithout(config);
+		config.setProperty(ADMMReasoner.WARM_START_KEY, true);
+		int warmIterations = rebuildWithout(config);
+		assertTrue(warmIterations < coldIterations);
+	}
+
+	/**
+	 * Adding and removing ground rules after optimizing updates the built
+	 * ground model to the objective of the resulting ground rules.
+	 */
+	@Test
+	public void testIncrementalUpdates() throws ConfigurationException {
+		ADMMReasoner reasoner = optimize(config(), groundRules.subList(0, groundRules.size() / 2));
+		for (WeightedGroundRule groundRule : groundRules.subList(groundRules.size() / 2, groundRules.size()))
+			reasoner.addGroundRule(groundRule);
+		List<WeightedGroundRule> removed = groundRules.subList(0, NUM_VARIABLES);
+		for (WeightedGroundRule groundRule : removed)
+			reasoner.removeGroundKernel(groundRule);
+		removed.clear();
+		reasoner.optimize();
+		double objective = objective(groundRules);
+		reasoner.close();
+
+		assertEquals(baseline(groundRules), objective, TOLERANCE * objective);
+	}
+
+	/**
+	 * Residual balancing recovers from a poorly chosen initial step size.
+	 */
+	@Test
+	public void testAdaptiveStepSize() throws ConfigurationException {
+		ConfigBundle config = config();
+		config.setProperty(ADMMReasoner.ADAPTIVE_STEP_SIZE_KEY, true);
+		config.setProperty(ADMMReasoner.STEP_SIZE_KEY, 50.0);
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 2);
+		assertObjective(config);
+	}
+
+	@Test
+	public void testAccelerate() throws ConfigurationException {
+		ConfigBundle config = config();
+		config.setProperty(ADMMReasoner.ACCELERATE_KEY, true);
+		assertObjective(config);
+	}
+
+	/**
+	 * Accelerating with several threads and convergence checked less often
+	 * than every iteration must not deadlock.
+	 */
+	@Test(timeout = 60000)
+	public void testAccelerateStopCheck() throws ConfigurationException {
+		ConfigBundle config = config();
+		config.setProperty(ADMMReasoner.ACCELERATE_KEY, true);
+		config.setProperty(ADMMReasoner.STOP_CHECK_KEY, 5);
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 3);
+		assertObjective(config);
+	}
+
+	@Test
+	public void testOverRelaxation() throws ConfigurationException {
+		ConfigBundle config = config();
+		config.setProperty(ADMMReasoner.RELAXATION_KEY, 1.6);
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 2);
+		assertObjective(config);
+	}
+
+	/**
+	 * Reordering the terms for locality does not change the solution.
+	 */
+	@Test
+	public void testReordering() throws ConfigurationException {
+		ConfigBundle config = config();
+		config.setProperty(ADMMReasoner.REORDER_KEY, true);
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 2);
+		assertObjective(config);
+	}
+
+	/**
+	 * Components that converge early stop being updated without changing
+	 * the solution.
+	 */
+	@Test
+	public void testComponentwise() throws ConfigurationException {
+		ConfigBundle config = config();
+		config.setProperty(ADMMReasoner.COMPONENTWISE_KEY, true);
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 2);
+		assertObjective(config);
+	}
+
+	/**
+	 * Removing many terms incrementally leaves more tombstones than there are
+	 * chunks of work, which must still be divided among the threads.
+	 */
+	@Test
+	public void testRemoveManyTerms() throws ConfigurationException {
+		ConfigBundle config = config();
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 4);
+		config.setProperty(ADMMReasoner.REORDER_KEY, false);
+		ADMMReasoner reasoner = optimize(config, groundRules);
+
+		/* A contiguous block, but too few local variables to compact the terms */
+		List<WeightedGroundRule> removed = groundRules.subList(2 * NUM_VARIABLES, 2 * NUM_VARIABLES + 100);
+		for (WeightedGroundRule groundRule : removed)
+			reasoner.removeGroundKernel(groundRule);
+		removed.clear();
+		reasoner.optimize();
+		double objective = objective(groundRules);
+		reasoner.close();
+
+		assertEquals(baseline(groundRules), objective, TOLERANCE * objective);
+	}
+
+	/**
+	 * Optimizes with a configuration and checks that it reaches the
+	 * objective of the default configuration.
+	 */
+	private void assertObjective(ConfigBundle config) {
+		ADMMReasoner reasoner = optimize(config, groundRules);
+		assertEquals(expected, objective(groundRules), TOLERANCE * expected);
+		reasoner.close();
+	}
+
+	/**
+	 * Optimizes with a reasoner that rebuilds its ground model on every change,
+	 * removes a few ground rules and optimizes again, then checks the objective.
+	 *
+	 * @return the number of iterations of the second optimization
+	 */
+	private int rebuildWithout(ConfigBundle config) throws ConfigurationException {
+		for (TestVariable variable : variables)
+			variable.setValue(0.0);
+		ADMMReasoner reasoner = new ADMMReasoner(config) {
+			@Override
+			protected boolean supportsIncrementalUpdates() {
+				return false;
+			}
+		};
+		for (WeightedGroundRule groundRule : groundRules)
+			reasoner.addGroundRule(groundRule);
+		reasoner.optimize();
+
+		List<WeightedGroundRule> rules = new ArrayList<WeightedGroundRule>(groundRules);
+		for (WeightedGroundRule groundRule : rules.subList(0, 10))
+			reasoner.removeGroundKernel(groundRule);
+		rules.subList(0, 10).clear();
+		reasoner.optimize();
+		double objective = objective(rules);
+		int iterations = reasoner.getLastIterations();
+		reasoner.close();
+
+		assertEquals(baseline(rules), objective, TOLERANCE * objective);
+		return iterations;
+	}
+
+	/**
+	 * @return the objective the default configuration reaches
+	 */
+	private double baseline(List<WeightedGroundRule> rules) throws ConfigurationException {
+		ADMMReasoner reasoner = optimize(config(), rules);
+		double objective = objective(rules);
+		reasoner.close();
+		return objective;
+	}
+
+	private ConfigBundle config() throws ConfigurationException {
+		ConfigBundle config = ConfigManager.getManager().getBundle("admmreasonertest");
+		config.clear();
+		config.setProperty(ADMMReasoner.NUM_THREADS_KEY, 1);
+		config.setProperty(ADMMReasoner.EPSILON_REL_KEY, EPSILON_REL);
+		return config;
+	}
+
+	private ADMMReasoner optimize(ConfigBundle config, List<WeightedGroundRule> rules) {
+		for (TestVariable variable : variables)
+			variable.setValue(0.0);
+
+		ADMMReasoner reasoner = new ADMMReasoner(config);
+		for (WeightedGroundRule groundRule : rules)
+			reasoner.addGroundRule(groundRule);
+		reasoner.optimize();
+		return reasoner;
+	}
+
+	/**
+	 * @return the total weighted incompatibility of some ground rules
+	 */
+	private static double objective(List<WeightedGroundRule> rules) {
+		double objective = 0.0;
+		for (WeightedGroundRule groundRule : rules)
+			objective += groundRule.getWeight().getWeight() * groundRule.getIncompatibility();
+		return objective;
+	}
+
+	/**
+	 * @return a ground rule with potential weight * max(0, constant + a - b),
+	 *         where a or b may be null
+	 */
+	private static WeightedGroundRule pair(double constant, TestVariable a, TestVariable b, double weight) {
+		if (a == null)
+			return hinge(sum(constant, -1.0, b), weight, false);
+		if (b == null)
+			return hinge(sum(constant, 1.0, a), weight, false);
+		return hinge(sum(constant, 1.0, a, -1.0, b), weight, false);
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+/**
+ * Measures the time {@link ADMMObjectiveTerm#minimize()} takes for each
+ * term type at arities 1, 2 and 3, which have unrolled kernels, and at a
+ * larger arity for comparison.
+ * <p>
+ * Not run as part of the tests. Arguments (all optional): number of terms
+ * per kernel, number of timed sweeps over them.
+ */
+public class ADMMTermKernelBenchmark {
+
+	private static final String[] TYPES = {"hinge", "squaredhinge", "linear", "squaredlinear", "constraint"};
+	private static final int[] ARITIES = {1, 2, 3, 8};
+
+	public static void main(String[] args) throws Exception {
+		int numTerms = (args.length > 0) ? Integer.parseInt(args[0]) : 50000;
+		int numSweeps = (args.length > 1) ? Integer.parseInt(args[1]) : 50;
+
+		ConfigBundle config = ConfigManager.getManager().getBundle("admmkernelbenchmark");
+		Random random = new Random(4);
+
+		ADMMReasoner[] reasoners = new ADMMReasoner[TYPES.length * ARITIES.length];
+		ADMMObjectiveTerm[][] terms = new ADMMObjectiveTerm[reasoners.length][];
+		for (int k = 0; k < reasoners.length; k++) {
+			String type = TYPES[k / ARITIES.length];
+			int arity = ARITIES[k % ARITIES.length];
+
+			ADMMReasoner reasoner = new ADMMReasoner(config);
+			int numVariables = Math.max(numTerms, arity);
+			reasoner.z = new double[numVariables];
+			reasoner.lb = new double[numVariables];
+			reasoner.ub = new double[numVariables];
+			Arrays.fill(reasoner.ub, 1.0);
+			for (int i = 0; i < numVariables; i++)
+				reasoner.z[i] = random.nextDouble();
+
+			terms[k] = new ADMMObjectiveTerm[numTerms];
+			for (int t = 0; t < numTerms; t++)
+				terms[k][t] = createTerm(reasoner, type, arity, numVariables, random);
+			for (int i = 0; i < reasoner.numLocalVariables; i++)
+				reasoner.locals.setY(i, 0.1 * random.nextGaussian());
+			reasoners[k] = reasoner;
+		}
+
+		/*
+		 * Warms up the JIT on all kernels before timing any, since a ground
+		 * model mixes term types and arities from the first iteration
+		 */
+		for (int sweep = 0; sweep < numSweeps; sweep++)
+			for (int k = 0; k < reasoners.length; k++)
+				for (ADMMObjectiveTerm term : terms[k])
+					term.minimize();
+
+		for (int k = 0; k < reasoners.length; k++) {
+			long start = System.nanoTime();
+			for (int sweep = 0; sweep < numSweeps; sweep++)
+				for (ADMMObjectiveTerm term : terms[k])
+					term.minimize();
+			long time = System.nanoTime() - start;
+
+			System.out.println(String.format("%-14s arity %d: %6.1f ns per minimize", TYPES[k / ARITIES.length],
+					ARITIES[k % ARITIES.length], (double) time / numSweeps / numTerms));
+			reasoners[k].close();
+		}
+	}
+
+	private static ADMMObjectiveTerm createTerm(ADMMReasoner reasoner, String type, int arity,
+			int numVariables, Random random) {
+		int[] zIndices = new int[arity];
+		double[] coeffs = new double[arity];
+		for (int i = 0; i < arity; i++) {
+			zIndices[i] = random.nextInt(numVariables);
+			coeffs[i] = (random.nextBoolean() ? 1.0 : -1.0) * (0.5 + random.nextDouble());
+		}
+		double constant = random.nextDouble() - 0.5;
+		double weight = random.nextDouble();
+
+		if (type.equals("hinge"))
+			return new HingeLossTerm(reasoner, zIndices, coeffs, constant, weight);
+		else if (type.equals("squaredhinge"))
+			return new SquaredHingeLossTerm(reasoner, zIndices, coeffs, constant, weight);
+		else if (type.equals("linear"))
+			return new LinearLossTerm(reasoner, zIndices, coeffs, weight);
+		else if (type.equals("squaredlinear"))
+			return new SquaredLinearLossTerm(reasoner, zIndices, coeffs, constant, weight);
+		else
+			return new LinearConstraintTerm(reasoner, zIndices, coeffs, constant, FunctionComparator.SmallerThan);
+	}
+}
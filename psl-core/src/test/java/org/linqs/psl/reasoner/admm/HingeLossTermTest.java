@@ -19,8 +19,6 @@ package org.linqs.psl.reasoner.admm;
 
 import static org.junit.Assert.assertEquals;
 
-import java.util.Vector;
-
 import org.apache.commons.configuration.ConfigurationException;
 import org.junit.Before;
 import org.junit.Test;
@@ -132,11 +130,23 @@ public class HingeLossTermTest {
 	
 	private void testProblem(double[] z, double[] y, double[] coeffs, double constant,
 			double weight, final double stepSize, double[] expected) {
+		double[] x = minimize(z, y, coeffs, constant, weight, stepSize, "double");
+		for (int i = 0; i < z.length; i++)
+			assertEquals(expected[i], x[i], 5e-5);
+		
+		/* Single precision must match double precision within the residual tolerance */
+		double[] xFloat = minimize(z, y, coeffs, constant, weight, stepSize, "float");
+		for (int i = 0; i < z.length; i++)
+			assertEquals(x[i], xFloat[i], 1e-5);
+	}
+	
+	private double[] minimize(double[] z, double[] y, double[] coeffs, double constant,
+			double weight, double stepSize, String precision) {
 		config.setProperty("admmreasoner.stepsize", stepSize);
+		config.setProperty(ADMMReasoner.PRECISION_KEY, precision);
 		ADMMReasoner reasoner = new ADMMReasoner(config);
-		reasoner.z = new Vector<Double>(z.length);
-		for (int i = 0; i < z.length; i++)
-			reasoner.z.add(z[i]);
+		config.setProperty(ADMMReasoner.PRECISION_KEY, ADMMReasoner.PRECISION_DEFAULT);
+		reasoner.z = z;
 		
 		int[] zIndices = new int[z.length];
 		for (int i = 0; i < z.length; i++)
@@ -144,11 +154,13 @@ public class HingeLossTermTest {
 		
 		HingeLossTerm term = new HingeLossTerm(reasoner, zIndices, coeffs, constant, weight);
 		for (int i = 0; i < z.length; i++)
-			term.y[i] = y[i];
+			reasoner.locals.setY(term.start + i, y[i]);
 		term.minimize();
 		
+		double[] x = new double[z.length];
 		for (int i = 0; i < z.length; i++)
-			assertEquals(expected[i], term.x[i], 5e-5);
+			x[i] = reasoner.locals.getX(term.start + i);
+		return x;
 	}
 
 }
@@ -19,7 +19,7 @@ package org.linqs.psl.reasoner.admm;
 
 import static org.junit.Assert.assertEquals;
 
-import java.util.Vector;
+import java.util.Arrays;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.junit.Before;
@@ -86,13 +86,75 @@ public class LinearConstraintTermTest {
 		testProblem(z, y, coeffs, constant, comparator, stepSize, expected);
 	}
 	
+	@Test
+	public void testMinimizeUniform() {
+		
+		/*
+		 * Problem 1
+		 * 
+		 * Equality constraint, projected onto the simplex
+		 */
+		double[] z = {0.6, 0.5, 0.3, 0.1};
+		double[] y = {0.0, 0.0, 0.0, 0.0};
+		double[] coeffs = {1.0, 1.0, 1.0, 1.0};
+		double constant = 1.0;
+		FunctionComparator comparator = FunctionComparator.Equality;
+		double stepSize = 1.0;
+		double[] expected = {0.466667, 0.366667, 0.166667, 0.0};
+		testProblem(z, y, coeffs, constant, comparator, stepSize, expected);
+		
+		/*
+		 * Problem 2
+		 * 
+		 * Negative coefficients, constraint inactive at solution
+		 */
+		z = new double[] {0.2, 0.3, 0.1};
+		y = new double[] {0.1, 0.0, 0.0};
+		coeffs = new double[] {-2.0, -2.0, -2.0};
+		constant = -2.0;
+		comparator = FunctionComparator.LargerThan;
+		stepSize = 1.0;
+		expected = new double[] {0.1, 0.3, 0.1};
+		testProblem(z, y, coeffs, constant, comparator, stepSize, expected);
+		
+		/*
+		 * Problem 3
+		 * 
+		 * Negative coefficients, constraint active at solution with
+		 * variables at both bounds before the projection
+		 */
+		z = new double[] {0.9, 0.8, 0.7};
+		y = new double[] {0.0, -0.5, 0.0};
+		coeffs = new double[] {-2.0, -2.0, -2.0};
+		constant = -2.0;
+		comparator = FunctionComparator.LargerThan;
+		stepSize = 0.5;
+		expected = new double[] {0.05, 0.95, 0.0};
+		testProblem(z, y, coeffs, constant, comparator, stepSize, expected);
+		
+		/*
+		 * Problem 4
+		 * 
+		 * Bounds cannot satisfy the constraint, projected onto the hyperplane
+		 */
+		z = new double[] {0.5, 0.5, 0.5};
+		y = new double[] {0.0, 0.0, 0.0};
+		coeffs = new double[] {1.0, 1.0, 1.0};
+		constant = 5.0;
+		comparator = FunctionComparator.Equality;
+		stepSize = 1.0;
+		expected = new double[] {1.666667, 1.666667, 1.666667};
+		testProblem(z, y, coeffs, constant, comparator, stepSize, expected);
+	}
+	
 	private void testProblem(double[] z, double[] y, double[] coeffs, double constant,
 			FunctionComparator comparator, final double stepSize, double[] expected) {
 		config.setProperty("admmreasoner.stepsize", stepSize);
 		ADMMReasoner reasoner = new ADMMReasoner(config);
-		reasoner.z = new Vector<Double>(z.length);
-		for (int i = 0; i < z.length; i++)
-			reasoner.z.add(z[i]);
+		reasoner.z = z;
+		reasoner.lb = new double[z.length];
+		reasoner.ub = new double[z.length];
+		Arrays.fill(reasoner.ub, 1.0);
 		
 		int[] zIndices = new int[z.length];
 		for (int i = 0; i < z.length; i++)
@@ -100,11 +162,11 @@ public class LinearConstraintTermTest {
 		
 		LinearConstraintTerm term = new LinearConstraintTerm(reasoner, zIndices, coeffs, constant, comparator);
 		for (int i = 0; i < z.length; i++)
-			term.y[i] = y[i];
+			reasoner.locals.setY(term.start + i, y[i]);
 		term.minimize();
 		
 		for (int i = 0; i < z.length; i++)
-			assertEquals(expected[i], term.x[i], 5e-5);
+			assertEquals(expected[i], reasoner.locals.getX(term.start + i), 5e-5);
 	}
 
 }
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.admm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappedLocalVariableStoreTest {
+
+	private File directory;
+
+	@Before
+	public final void setUp() {
+		directory = new File(System.getProperty("java.io.tmpdir"), "psl-mapped-store-test-" + System.nanoTime());
+		assertTrue(directory.mkdir());
+	}
+
+	@After
+	public final void tearDown() {
+		directory.delete();
+	}
+
+	@Test
+	public void testGrowAcrossSegments() {
+		MappedLocalVariableStore store = new MappedLocalVariableStore(directory, 16);
+		assertEquals(MappedLocalVariableStore.SEGMENT_SIZE, store.capacity());
+
+		/* Writes values on both sides of a segment boundary after growing */
+		int boundary = MappedLocalVariableStore.SEGMENT_SIZE;
+		store.setX(boundary - 1, 0.25);
+		store.ensureCapacity(boundary + 1);
+		assertEquals(2 * MappedLocalVariableStore.SEGMENT_SIZE, store.capacity());
+		for (int i = boundary - 2; i <= boundary; i++) {
+			store.setX(i, i * 0.5);
+			store.setY(i, -i);
+			store.setZIndex(i, i + 1);
+			store.setCoeff(i, i * 2.0);
+			store.setLocation(i, i + 2);
+		}
+
+		for (int i = boundary - 2; i <= boundary; i++) {
+			assertEquals(i * 0.5, store.getX(i), 0.0);
+			assertEquals(-i, store.getY(i), 0.0);
+			assertEquals(i + 1, store.getZIndex(i));
+			assertEquals(i * 2.0, store.getCoeff(i), 0.0);
+			assertEquals(i + 2, store.getLocation(i));
+		}
+
+		store.close();
+	}
+
+	@Test
+	public void testMove() {
+		MappedLocalVariableStore store = new MappedLocalVariableStore(directory, 16);
+		for (int i = 0; i < 8; i++) {
+			store.setX(i, i);
+			store.setY(i, 10 * i);
+			store.setZIndex(i, 100 + i);
+			store.setCoeff(i, -i);
+		}
+
+		store.move(4, 1, 3);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(4 + i, store.getX(1 + i), 0.0);
+			assertEquals(10 * (4 + i), store.getY(1 + i), 0.0);
+			assertEquals(104 + i, store.getZIndex(1 + i));
+			assertEquals(-(4 + i), store.getCoeff(1 + i), 0.0);
+		}
+		assertEquals(0.0, store.getX(0), 0.0);
+
+		store.close();
+	}
+
+	@Test
+	public void testCloseDeletesFile() {
+		MappedLocalVariableStore store = new MappedLocalVariableStore(directory, 16);
+		assertEquals(1, directory.list().length);
+		store.close();
+		assertEquals(0, directory.list().length);
+	}
+}
@@ -19,8 +19,6 @@ package org.linqs.psl.reasoner.admm;
 
 import static org.junit.Assert.assertEquals;
 
-import java.util.Vector;
-
 import org.apache.commons.configuration.ConfigurationException;
 import org.junit.Before;
 import org.junit.Test;
@@ -58,20 +56,18 @@ public class SquaredLinearLossTermTest {
 			double weight, final double stepSize, double[] expected) {
 		config.setProperty("admmreasoner.stepsize", stepSize);
 		ADMMReasoner reasoner = new ADMMReasoner(config);
-		reasoner.z = new Vector<Double>(z.length);
-		for (int i = 0; i < z.length; i++)
-			reasoner.z.add(z[i]);
+		reasoner.z = z;
 		
 		int[] zIndices = new int[z.length];
 		for (int i = 0; i < z.length; i++)
 			zIndices[i] = i;
 		SquaredLinearLossTerm term = new SquaredLinearLossTerm(reasoner, zIndices, coeffs, constant, weight);
 		for (int i = 0; i < z.length; i++)
-			term.y[i] = y[i];
+			reasoner.locals.setY(term.start + i, y[i]);
 		term.minimize();
 		
 		for (int i = 0; i < z.length; i++)
-			assertEquals(expected[i], term.x[i], 5e-5);
+			assertEquals(expected[i], reasoner.locals.getX(term.start + i), 5e-5);
 	}
 
 }
@@ -0,0 +1,170 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.bool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Set;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.config.EmptyBundle;
+import org.linqs.psl.database.DataStore;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.rdbms.RDBMSDataStore;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver.Type;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.predicate.PredicateFactory;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.model.weight.Weight;
+import org.linqs.psl.reasoner.function.ConstantNumber;
+import org.linqs.psl.reasoner.function.FunctionSum;
+import org.linqs.psl.reasoner.function.FunctionSummand;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+
+public class BooleanMCSatTest {
+
+	private DataStore dataStore;
+	private Database database;
+	private RandomVariableAtom a, b;
+	private ConfigBundle config;
+
+	@Before
+	public final void setUp() throws ConfigurationException {
+		StandardPredicate predicate = PredicateFactory.getFactory().createStandardPredicate(
+				"BooleanMCSatTest_P", ConstantType.UniqueID);
+		dataStore = new RDBMSDataStore(new H2DatabaseDriver(Type.Memory, null, true), new EmptyBundle());
+		dataStore.registerPredicate(predicate);
+		database = dataStore.getDatabase(dataStore.getPartition("0"));
+		a = (RandomVariableAtom) database.getAtom(predicate, dataStore.getUniqueID(0));
+		b = (RandomVariableAtom) database.getAtom(predicate, dataStore.getUniqueID(1));
+
+		config = ConfigManager.getManager().getBundle("booleanmcsattest");
+		config.setProperty(BooleanMCSat.NUM_SAMPLES_KEY, 20000);
+		config.setProperty(BooleanMCSat.NUM_BURN_IN_KEY, 100);
+	}
+
+	@After
+	public final void tearDown() {
+		database.close();
+		dataStore.close();
+	}
+
+	@Test
+	public void testMarginals() {
+		BooleanMCSat reasoner = new BooleanMCSat(config);
+		addModel(reasoner);
+		reasoner.optimize();
+		assertMarginals();
+		assertEquals(20000, reasoner.getLastSamples());
+		reasoner.close();
+	}
+
+	@Test
+	public void testParallelChains() {
+		config.setProperty(BooleanMCSat.NUM_CHAINS_KEY, 4);
+		config.setProperty(BooleanMCSat.NUM_THREADS_KEY, 2);
+		config.setProperty(BooleanMCSat.MAX_RHAT_KEY, 1.0005);
+		/* Checks late enough that the marginals are within the tolerance of assertMarginals() */
+		config.setProperty(BooleanMCSat.CHECK_INTERVAL_KEY, 5000);
+		BooleanMCSat reasoner = new BooleanMCSat(config);
+		addModel(reasoner);
+		reasoner.optimize();
+		assertMarginals();
+		/* Independent atoms mix at once, so the chains agree long before the last sample */
+		assertTrue(reasoner.getLastSamples() < 20000);
+		assertTrue(reasoner.getLastRHat() <= 1.0005);
+		reasoner.close();
+	}
+
+	/**
+	 * Adds 2 * (1 - a) + 1 * a and 1 * (1 - b).
+	 */
+	private void addModel(BooleanMCSat reasoner) {
+		reasoner.addGroundRule(new LinearGroundRule(a, true, 2.0));
+		reasoner.addGroundRule(new LinearGroundRule(a, false, 1.0));
+		reasoner.addGroundRule(new LinearGroundRule(b, true, 1.0));
+	}
+
+	private void assertMarginals() {
+		assertEquals(Math.exp(-1.0) / (Math.exp(-1.0) + Math.exp(-2.0)), a.getValue(), 0.02);
+		assertEquals(1.0 / (1.0 + Math.exp(-1.0)), b.getValue(), 0.02);
+	}
+
+	/** A weighted linear potential, 1 - atom or atom, without a parent rule */
+	private static class LinearGroundRule implements WeightedGroundRule {
+		private final RandomVariableAtom atom;
+		private final FunctionSum sum;
+		private final Weight weight;
+
+		public LinearGroundRule(RandomVariableAtom atom, boolean positive, double weight) {
+			this.atom = atom;
+			sum = new FunctionSum();
+			if (positive) {
+				sum.add(new FunctionSummand(1.0, new ConstantNumber(1.0)));
+				sum.add(new FunctionSummand(-1.0, atom.getVariable()));
+			}
+			else
+				sum.add(new FunctionSummand(1.0, atom.getVariable()));
+			this.weight = new PositiveWeight(weight);
+			atom.registerGroundKernel(this);
+		}
+
+		@Override
+		public WeightedRule getRule() {
+			return null;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return Collections.<GroundAtom> singleton(atom);
+		}
+
+		@Override
+		public Weight getWeight() {
+			return weight;
+		}
+
+		@Override
+		public void setWeight(Weight w) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FunctionTerm getFunctionDefinition() {
+			return sum;
+		}
+
+		@Override
+		public double getIncompatibility() {
+			return sum.getValue();
+		}
+	}
+}
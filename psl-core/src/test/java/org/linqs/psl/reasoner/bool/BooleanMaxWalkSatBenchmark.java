@@ -0,0 +1,168 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.bool;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.config.EmptyBundle;
+import org.linqs.psl.database.DataStore;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.rdbms.RDBMSDataStore;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver.Type;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.predicate.PredicateFactory;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.model.weight.Weight;
+import org.linqs.psl.reasoner.function.ConstantNumber;
+import org.linqs.psl.reasoner.function.FunctionSum;
+import org.linqs.psl.reasoner.function.FunctionSummand;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+import org.linqs.psl.reasoner.function.MaxFunction;
+
+/**
+ * Measures the flips per second of {@link BooleanMaxWalkSat} on random
+ * weighted 3-literal clauses, with one try and with parallel tries.
+ * <p>
+ * Not run as part of the tests. Arguments (all optional): number of atoms,
+ * number of clauses, flips per try, number of threads, number of timed runs.
+ */
+public class BooleanMaxWalkSatBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int numAtoms = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		int numClauses = (args.length > 1) ? Integer.parseInt(args[1]) : 80000;
+		int maxFlips = (args.length > 2) ? Integer.parseInt(args[2]) : 1000000;
+		int numThreads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+		int numRuns = (args.length > 4) ? Integer.parseInt(args[4]) : 3;
+
+		StandardPredicate predicate = PredicateFactory.getFactory().createStandardPredicate(
+				"BooleanMaxWalkSatBenchmark_P", ConstantType.UniqueID);
+		DataStore dataStore = new RDBMSDataStore(new H2DatabaseDriver(Type.Memory, null, true), new EmptyBundle());
+		dataStore.registerPredicate(predicate);
+		Database database = dataStore.getDatabase(dataStore.getPartition("0"));
+		RandomVariableAtom[] atoms = new RandomVariableAtom[numAtoms];
+		for (int i = 0; i < numAtoms; i++)
+			atoms[i] = (RandomVariableAtom) database.getAtom(predicate, dataStore.getUniqueID(i));
+
+		Random random = new Random(4);
+		WeightedGroundRule[] clauses = new WeightedGroundRule[numClauses];
+		for (int i = 0; i < numClauses; i++) {
+			FunctionSum sum = new FunctionSum();
+			Set<GroundAtom> clauseAtoms = new HashSet<GroundAtom>();
+			double constant = 1.0;
+			while (clauseAtoms.size() < 3) {
+				RandomVariableAtom atom = atoms[random.nextInt(numAtoms)];
+				if (clauseAtoms.add(atom)) {
+					if (random.nextBoolean()) {
+						constant -= 1.0;
+						sum.add(new FunctionSummand(1.0, atom.getVariable()));
+					}
+					else
+						sum.add(new FunctionSummand(-1.0, atom.getVariable()));
+				}
+			}
+			sum.add(new FunctionSummand(1.0, new ConstantNumber(constant)));
+			clauses[i] = new ClauseGroundRule(sum, clauseAtoms, 1.0 + random.nextInt(5));
+		}
+		System.out.println(numAtoms + " atoms, " + numClauses + " clauses, " + maxFlips + " flips per try");
+
+		for (int numTries : new int[] {1, numThreads}) {
+			ConfigBundle config = ConfigManager.getManager().getBundle("booleanmaxwalksatbenchmark");
+			config.setProperty(BooleanMaxWalkSat.MAX_FLIPS_KEY, maxFlips);
+			config.setProperty(BooleanMaxWalkSat.TRIES_KEY, numTries);
+			config.setProperty(BooleanMaxWalkSat.NUM_THREADS_KEY, numThreads);
+
+			/* The first run warms up the JIT and is not reported */
+			for (int run = 0; run <= numRuns; run++) {
+				BooleanMaxWalkSat reasoner = new BooleanMaxWalkSat(config);
+				for (WeightedGroundRule clause : clauses)
+					reasoner.addGroundRule(clause);
+
+				long start = System.nanoTime();
+				reasoner.optimize();
+				long time = System.nanoTime() - start;
+
+				if (run > 0)
+					System.out.println(numTries + " tries, run " + run + ": " + (time / 1000000) + " ms, "
+							+ reasoner.getLastFlips() + " flips, "
+							+ (long) (reasoner.getLastFlips() / (time / 1e9)) + " flips/s, incompatibility "
+							+ reasoner.getLastIncompatibility());
+				reasoner.close();
+			}
+		}
+
+		database.close();
+		dataStore.close();
+	}
+
+	/** A weighted clause without a parent rule */
+	private static class ClauseGroundRule implements WeightedGroundRule {
+		private final FunctionSum sum;
+		private final Set<GroundAtom> atoms;
+		private final Weight weight;
+
+		public ClauseGroundRule(FunctionSum sum, Set<GroundAtom> atoms, double weight) {
+			this.sum = sum;
+			this.atoms = Collections.unmodifiableSet(atoms);
+			this.weight = new PositiveWeight(weight);
+			for (GroundAtom atom : atoms)
+				atom.registerGroundKernel(this);
+		}
+
+		@Override
+		public WeightedRule getRule() {
+			return null;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return atoms;
+		}
+
+		@Override
+		public Weight getWeight() {
+			return weight;
+		}
+
+		@Override
+		public void setWeight(Weight w) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FunctionTerm getFunctionDefinition() {
+			return MaxFunction.of(sum, new ConstantNumber(0.0));
+		}
+
+		@Override
+		public double getIncompatibility() {
+			return getFunctionDefinition().getValue();
+		}
+	}
+}
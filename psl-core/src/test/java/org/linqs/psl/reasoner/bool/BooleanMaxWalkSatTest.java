@@ -0,0 +1,206 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.bool;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.application.util.GroundKernels;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.config.EmptyBundle;
+import org.linqs.psl.database.DataStore;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.rdbms.RDBMSDataStore;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver.Type;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.predicate.PredicateFactory;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.model.weight.Weight;
+import org.linqs.psl.reasoner.function.ConstantNumber;
+import org.linqs.psl.reasoner.function.FunctionSum;
+import org.linqs.psl.reasoner.function.FunctionSummand;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+import org.linqs.psl.reasoner.function.MaxFunction;
+
+public class BooleanMaxWalkSatTest {
+
+	private static final int NUM_ATOMS = 12;
+
+	private DataStore dataStore;
+	private Database database;
+	private RandomVariableAtom[] atoms;
+	private ConfigBundle config;
+
+	@Before
+	public final void setUp() throws ConfigurationException {
+		StandardPredicate predicate = PredicateFactory.getFactory().createStandardPredicate(
+				"BooleanMaxWalkSatTest_P", ConstantType.UniqueID);
+		dataStore = new RDBMSDataStore(new H2DatabaseDriver(Type.Memory, null, true), new EmptyBundle());
+		dataStore.registerPredicate(predicate);
+		database = dataStore.getDatabase(dataStore.getPartition("0"));
+		atoms = new RandomVariableAtom[NUM_ATOMS];
+		for (int i = 0; i < NUM_ATOMS; i++)
+			atoms[i] = (RandomVariableAtom) database.getAtom(predicate, dataStore.getUniqueID(i));
+
+		config = ConfigManager.getManager().getBundle("booleanmaxwalksattest");
+		config.setProperty(BooleanMaxWalkSat.MAX_FLIPS_KEY, 20000);
+		config.setProperty(BooleanMaxWalkSat.NOISE_KEY, 0.2);
+	}
+
+	@After
+	public final void tearDown() {
+		database.close();
+		dataStore.close();
+	}
+
+	@Test
+	public void testOptimum() {
+		List<ClauseGroundRule> clauses = randomClauses(new Random(4), 60);
+		double optimum = bruteForceOptimum(clauses);
+
+		BooleanMaxWalkSat reasoner = new BooleanMaxWalkSat(config);
+		for (ClauseGroundRule clause : clauses)
+			reasoner.addGroundRule(clause);
+		reasoner.optimize();
+		assertEquals(optimum, reasoner.getLastIncompatibility(), 1e-9);
+		assertEquals(optimum, GroundKernels.getTotalWeightedIncompatibility(reasoner.getCompatibilityKernels()), 1e-9);
+		reasoner.close();
+	}
+
+	@Test
+	public void testParallelTries() {
+		List<ClauseGroundRule> clauses = randomClauses(new Random(5), 60);
+		double optimum = bruteForceOptimum(clauses);
+
+		config.setProperty(BooleanMaxWalkSat.TRIES_KEY, 6);
+		config.setProperty(BooleanMaxWalkSat.NUM_THREADS_KEY, 3);
+		config.setProperty(BooleanMaxWalkSat.MAX_FLIPS_KEY, 2000);
+		BooleanMaxWalkSat reasoner = new BooleanMaxWalkSat(config);
+		for (ClauseGroundRule clause : clauses)
+			reasoner.addGroundRule(clause);
+		reasoner.optimize();
+		assertEquals(optimum, reasoner.getLastIncompatibility(), 1e-9);
+		assertEquals(optimum, GroundKernels.getTotalWeightedIncompatibility(reasoner.getCompatibilityKernels()), 1e-9);
+		reasoner.close();
+	}
+
+	/**
+	 * @return weighted clauses of three random literals
+	 */
+	private List<ClauseGroundRule> randomClauses(Random random, int numClauses) {
+		List<ClauseGroundRule> clauses = new ArrayList<ClauseGroundRule>();
+		for (int i = 0; i < numClauses; i++) {
+			List<RandomVariableAtom> literals = new ArrayList<RandomVariableAtom>();
+			boolean[] negated = new boolean[3];
+			while (literals.size() < 3) {
+				RandomVariableAtom atom = atoms[random.nextInt(NUM_ATOMS)];
+				if (!literals.contains(atom)) {
+					negated[literals.size()] = random.nextBoolean();
+					literals.add(atom);
+				}
+			}
+			clauses.add(new ClauseGroundRule(literals, negated, 1.0 + random.nextInt(5)));
+		}
+		return clauses;
+	}
+
+	private double bruteForceOptimum(List<ClauseGroundRule> clauses) {
+		double optimum = Double.POSITIVE_INFINITY;
+		for (int assignment = 0; assignment < (1 << NUM_ATOMS); assignment++) {
+			for (int i = 0; i < NUM_ATOMS; i++)
+				atoms[i].setValue(((assignment >> i) & 1) == 1 ? 1.0 : 0.0);
+			double incompatibility = 0.0;
+			for (ClauseGroundRule clause : clauses)
+				incompatibility += clause.getWeight().getWeight() * clause.getIncompatibility();
+			optimum = Math.min(optimum, incompatibility);
+		}
+		return optimum;
+	}
+
+	/** A weighted disjunction of literals without a parent rule */
+	private static class ClauseGroundRule implements WeightedGroundRule {
+		private final Set<GroundAtom> atoms;
+		private final FunctionSum sum;
+		private Weight weight;
+
+		public ClauseGroundRule(List<RandomVariableAtom> literals, boolean[] negated, double weight) {
+			atoms = new HashSet<GroundAtom>(literals);
+			/* 1 - sum of the literals' truth values */
+			sum = new FunctionSum();
+			double constant = 1.0;
+			for (int i = 0; i < literals.size(); i++) {
+				if (negated[i]) {
+					constant -= 1.0;
+					sum.add(new FunctionSummand(1.0, literals.get(i).getVariable()));
+				}
+				else
+					sum.add(new FunctionSummand(-1.0, literals.get(i).getVariable()));
+			}
+			sum.add(new FunctionSummand(1.0, new ConstantNumber(constant)));
+			this.weight = new PositiveWeight(weight);
+			for (GroundAtom atom : atoms)
+				atom.registerGroundKernel(this);
+		}
+
+		@Override
+		public WeightedRule getRule() {
+			return null;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return atoms;
+		}
+
+		@Override
+		public Weight getWeight() {
+			return weight;
+		}
+
+		@Override
+		public void setWeight(Weight w) {
+			weight = w;
+		}
+
+		@Override
+		public FunctionTerm getFunctionDefinition() {
+			return MaxFunction.of(sum, new ConstantNumber(0.0));
+		}
+
+		@Override
+		public double getIncompatibility() {
+			return getFunctionDefinition().getValue();
+		}
+	}
+}
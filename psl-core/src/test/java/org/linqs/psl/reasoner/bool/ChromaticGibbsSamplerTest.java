@@ -0,0 +1,273 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.bool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.application.groundrulestore.MemoryGroundKernelStore;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.config.EmptyBundle;
+import org.linqs.psl.database.DataStore;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.rdbms.RDBMSDataStore;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver.Type;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.atom.RandomVariableAtom;
+import org.linqs.psl.model.predicate.PredicateFactory;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.rule.WeightedRule;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.model.weight.Weight;
+import org.linqs.psl.reasoner.function.ConstantNumber;
+import org.linqs.psl.reasoner.function.FunctionSum;
+import org.linqs.psl.reasoner.function.FunctionSummand;
+import org.linqs.psl.reasoner.function.FunctionTerm;
+import org.linqs.psl.reasoner.function.MaxFunction;
+
+public class ChromaticGibbsSamplerTest {
+
+	private static final int NUM_ATOMS = 8;
+
+	private DataStore dataStore;
+	private Database database;
+	private RandomVariableAtom[] atoms;
+	private List<ClauseGroundRule> clauses;
+
+	@Before
+	public final void setUp() throws ConfigurationException {
+		StandardPredicate predicate = PredicateFactory.getFactory().createStandardPredicate(
+				"ChromaticGibbsSamplerTest_P", ConstantType.UniqueID);
+		dataStore = new RDBMSDataStore(new H2DatabaseDriver(Type.Memory, null, true), new EmptyBundle());
+		dataStore.registerPredicate(predicate);
+		database = dataStore.getDatabase(dataStore.getPartition("0"));
+		atoms = new RandomVariableAtom[NUM_ATOMS];
+		for (int i = 0; i < NUM_ATOMS; i++)
+			atoms[i] = (RandomVariableAtom) database.getAtom(predicate, dataStore.getUniqueID(i));
+
+		/* A prior on each atom and random clauses of two literals */
+		Random random = new Random(6);
+		clauses = new ArrayList<ClauseGroundRule>();
+		for (int i = 0; i < NUM_ATOMS; i++)
+			clauses.add(new ClauseGroundRule(Arrays.asList(atoms[i]), new boolean[] {random.nextBoolean()},
+					0.5 + random.nextDouble()));
+		Set<Integer> pairs = new HashSet<Integer>();
+		while (pairs.size() < 12) {
+			int a = random.nextInt(NUM_ATOMS);
+			int b = random.nextInt(NUM_ATOMS);
+			if (a < b && pairs.add(a * NUM_ATOMS + b))
+				clauses.add(new ClauseGroundRule(Arrays.asList(atoms[a], atoms[b]),
+						new boolean[] {random.nextBoolean(), random.nextBoolean()}, 0.5 + 1.5 * random.nextDouble()));
+		}
+	}
+
+	@After
+	public final void tearDown() {
+		database.close();
+		dataStore.close();
+	}
+
+	@Test
+	public void testSample() {
+		double[] marginals = new double[NUM_ATOMS];
+		double[] expected = new double[clauses.size()];
+		enumerate(marginals, expected);
+
+		MemoryGroundKernelStore store = new MemoryGroundKernelStore();
+		for (ClauseGroundRule clause : clauses)
+			store.addGroundRule(clause);
+		ChromaticGibbsSampler sampler = new ChromaticGibbsSampler(store, 2);
+		assertTrue(sampler.getNumColors() > 1);
+
+		sampler.sample(100, 20000);
+		assertTrue(sampler.getLastBlockSamplesPerSecond() > 0.0);
+		assertEquals(clauses.size(), sampler.getNumGroundRules());
+		for (int r = 0; r < sampler.getNumGroundRules(); r++)
+			assertEquals(expected[clauses.indexOf(sampler.getGroundRule(r))],
+					sampler.getExpectedIncompatibility(r), 0.02);
+
+		sampler.applyMarginals();
+		for (int i = 0; i < NUM_ATOMS; i++)
+			assertEquals(marginals[i], atoms[i].getValue(), 0.02);
+	}
+
+	@Test
+	public void testConditionals() {
+		MemoryGroundKernelStore store = new MemoryGroundKernelStore();
+		for (ClauseGroundRule clause : clauses)
+			store.addGroundRule(clause);
+		ChromaticGibbsSampler sampler = new ChromaticGibbsSampler(store, 3);
+
+		Random random = new Random(7);
+		for (RandomVariableAtom atom : atoms)
+			atom.setValue(random.nextBoolean() ? 1.0 : 0.0);
+
+		/* Each atom is a block, and each clause sums its expectations over its atoms */
+		double[] probabilities = new double[NUM_ATOMS];
+		double[] expected = new double[clauses.size()];
+		for (int i = 0; i < NUM_ATOMS; i++) {
+			double original = atoms[i].getValue();
+			double[] energies = new double[2];
+			double[][] incompatibilities = new double[2][clauses.size()];
+			for (int value = 0; value < 2; value++) {
+				atoms[i].setValue(value);
+				for (int c = 0; c < clauses.size(); c++) {
+					if (clauses.get(c).getAtoms().contains(atoms[i])) {
+						incompatibilities[value][c] = clauses.get(c).getIncompatibility();
+						energies[value] += clauses.get(c).getWeight().getWeight() * incompatibilities[value][c];
+					}
+				}
+			}
+			atoms[i].setValue(original);
+			probabilities[i] = 1.0 / (1.0 + Math.exp(energies[1] - energies[0]));
+			for (int c = 0; c < clauses.size(); c++)
+				expected[c] += probabilities[i] * incompatibilities[1][c]
+						+ (1 - probabilities[i]) * incompatibilities[0][c];
+		}
+
+		double[] values = new double[NUM_ATOMS];
+		for (int i = 0; i < NUM_ATOMS; i++)
+			values[i] = atoms[i].getValue();
+		sampler.computeConditionals();
+		for (int i = 0; i < NUM_ATOMS; i++)
+			assertEquals(values[i], atoms[i].getValue(), 0.0);
+		for (int r = 0; r < sampler.getNumGroundRules(); r++)
+			assertEquals(expected[clauses.indexOf(sampler.getGroundRule(r))],
+					sampler.getExpectedIncompatibility(r), 1e-9);
+
+		sampler.applyMarginals();
+		for (int i = 0; i < NUM_ATOMS; i++)
+			assertEquals(probabilities[i], atoms[i].getValue(), 1e-9);
+	}
+
+	@Test
+	public void testReasoner() throws ConfigurationException {
+		double[] marginals = new double[NUM_ATOMS];
+		enumerate(marginals, new double[clauses.size()]);
+
+		ConfigBundle config = ConfigManager.getManager().getBundle("chromaticgibbssamplertest");
+		config.setProperty(BooleanChromaticGibbs.NUM_SAMPLES_KEY, 20000);
+		config.setProperty(BooleanChromaticGibbs.NUM_BURN_IN_KEY, 100);
+		config.setProperty(BooleanChromaticGibbs.NUM_THREADS_KEY, 2);
+		BooleanChromaticGibbs reasoner = new BooleanChromaticGibbs(config);
+		for (ClauseGroundRule clause : clauses)
+			reasoner.addGroundRule(clause);
+		reasoner.optimize();
+		for (int i = 0; i < NUM_ATOMS; i++)
+			assertEquals(marginals[i], atoms[i].getValue(), 0.02);
+		assertTrue(reasoner.getLastNumColors() > 1);
+		reasoner.close();
+	}
+
+	/**
+	 * Computes the marginals of the atoms and the expected incompatibilities
+	 * of the clauses by enumerating all assignments.
+	 */
+	private void enumerate(double[] marginals, double[] expected) {
+		double z = 0.0;
+		for (int assignment = 0; assignment < (1 << NUM_ATOMS); assignment++) {
+			for (int i = 0; i < NUM_ATOMS; i++)
+				atoms[i].setValue((assignment >> i) & 1);
+			double energy = 0.0;
+			for (ClauseGroundRule clause : clauses)
+				energy += clause.getWeight().getWeight() * clause.getIncompatibility();
+			double p = Math.exp(-energy);
+			z += p;
+			for (int i = 0; i < NUM_ATOMS; i++)
+				marginals[i] += p * atoms[i].getValue();
+			for (int c = 0; c < clauses.size(); c++)
+				expected[c] += p * clauses.get(c).getIncompatibility();
+		}
+		for (int i = 0; i < NUM_ATOMS; i++)
+			marginals[i] /= z;
+		for (int c = 0; c < clauses.size(); c++)
+			expected[c] /= z;
+	}
+
+	/** A weighted disjunction of literals without a parent rule */
+	private static class ClauseGroundRule implements WeightedGroundRule {
+		private final Set<GroundAtom> atoms;
+		private final FunctionSum sum;
+		private final Weight weight;
+
+		public ClauseGroundRule(List<RandomVariableAtom> literals, boolean[] negated, double weight) {
+			atoms = Collections.<GroundAtom> unmodifiableSet(new HashSet<GroundAtom>(literals));
+			/* 1 - sum of the literals' truth values */
+			sum = new FunctionSum();
+			double constant = 1.0;
+			for (int i = 0; i < literals.size(); i++) {
+				if (negated[i]) {
+					constant -= 1.0;
+					sum.add(new FunctionSummand(1.0, literals.get(i).getVariable()));
+				}
+				else
+					sum.add(new FunctionSummand(-1.0, literals.get(i).getVariable()));
+			}
+			sum.add(new FunctionSummand(1.0, new ConstantNumber(constant)));
+			this.weight = new PositiveWeight(weight);
+			for (GroundAtom atom : atoms)
+				atom.registerGroundKernel(this);
+		}
+
+		@Override
+		public WeightedRule getRule() {
+			return null;
+		}
+
+		@Override
+		public Set<GroundAtom> getAtoms() {
+			return atoms;
+		}
+
+		@Override
+		public Weight getWeight() {
+			return weight;
+		}
+
+		@Override
+		public void setWeight(Weight w) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public FunctionTerm getFunctionDefinition() {
+			return MaxFunction.of(sum, new ConstantNumber(0.0));
+		}
+
+		@Override
+		public double getIncompatibility() {
+			return getFunctionDefinition().getValue();
+		}
+	}
+}
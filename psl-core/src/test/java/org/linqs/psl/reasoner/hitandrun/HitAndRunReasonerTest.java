@@ -0,0 +1,187 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.hitandrun;
+
+import static org.junit.Assert.assertEquals;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.constraint;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.hinge;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.sum;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestVariable;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+public class HitAndRunReasonerTest {
+
+	private ConfigBundle config;
+
+	@Before
+	public final void setUp() throws ConfigurationException {
+		config = ConfigManager.getManager().getBundle("hitandrunreasonertest");
+		config.clear();
+		config.setProperty(HitAndRunReasoner.NUM_SAMPLES_KEY, 40000);
+		config.setProperty(HitAndRunReasoner.NUM_BURN_IN_KEY, 1000);
+	}
+
+	@Test
+	public void testOneVariable() {
+		ConfidenceVariable x = new ConfidenceVariable();
+		HitAndRunReasoner reasoner = new HitAndRunReasoner(config);
+		/* 2 * max(0, x) */
+		reasoner.addGroundRule(hinge(sum(0.0, 1.0, x), 2.0, false));
+		reasoner.optimize();
+
+		/* The density of x is proportional to exp(-2x) */
+		double[] moments = integrate(new Energy() {
+			@Override
+			public double get(double t) {
+				return 2.0 * t;
+			}
+		});
+		assertEquals(moments[0], x.getValue(), 0.01);
+		assertEquals(1.0 / moments[1], x.confidence, 0.1 / moments[1]);
+		reasoner.close();
+	}
+
+	@Test
+	public void testEqualityConstraint() {
+		ConfidenceVariable x = new ConfidenceVariable();
+		ConfidenceVariable y = new ConfidenceVariable();
+		HitAndRunReasoner reasoner = new HitAndRunReasoner(config);
+		/* 2 * max(0, x) + 3 * max(0, 0.8 - y)^2, such that x + y = 1 */
+		reasoner.addGroundRule(hinge(sum(0.0, 1.0, x), 2.0, false));
+		reasoner.addGroundRule(hinge(sum(0.8, -1.0, y), 3.0, true));
+		reasoner.addGroundRule(constraint(sum(0.0, 1.0, x, 1.0, y), FunctionComparator.Equality, 1.0));
+		reasoner.optimize();
+
+		/* Along the line x = t and y = 1 - t */
+		double[] moments = integrate(new Energy() {
+			@Override
+			public double get(double t) {
+				double hinge = Math.max(0.0, t - 0.2);
+				return 2.0 * t + 3.0 * hinge * hinge;
+			}
+		});
+		assertEquals(moments[0], x.getValue(), 0.01);
+		assertEquals(1.0 - moments[0], y.getValue(), 0.01);
+		assertEquals(1.0, x.getValue() + y.getValue(), 1e-9);
+		assertEquals(1.0 / moments[1], x.confidence, 0.1 / moments[1]);
+		assertEquals(1.0 / moments[1], y.confidence, 0.1 / moments[1]);
+		reasoner.close();
+	}
+
+	@Test
+	public void testParallelComponents() {
+		config.setProperty(HitAndRunReasoner.NUM_THREADS_KEY, 2);
+		ConfidenceVariable x = new ConfidenceVariable();
+		ConfidenceVariable y = new ConfidenceVariable();
+		ConfidenceVariable z = new ConfidenceVariable();
+		HitAndRunReasoner reasoner = new HitAndRunReasoner(config);
+		/* x + y <= 1 without potentials, and 2 * max(0, z) */
+		reasoner.addGroundRule(constraint(sum(0.0, 1.0, x, 1.0, y), FunctionComparator.SmallerThan, 1.0));
+		reasoner.addGroundRule(hinge(sum(0.0, 1.0, z), 2.0, false));
+		reasoner.optimize();
+		assertEquals(2, reasoner.getLastNumComponents());
+
+		/* x and y are uniform on a triangle */
+		assertEquals(1.0 / 3.0, x.getValue(), 0.01);
+		assertEquals(1.0 / 3.0, y.getValue(), 0.01);
+		assertEquals(18.0, x.confidence, 1.8);
+		assertEquals(18.0, y.confidence, 1.8);
+
+		double[] moments = integrate(new Energy() {
+			@Override
+			public double get(double t) {
+				return 2.0 * t;
+			}
+		});
+		assertEquals(moments[0], z.getValue(), 0.01);
+		reasoner.close();
+	}
+
+	/**
+	 * The estimates are written to the atoms every publication interval while
+	 * sampling, and once more when the chain finishes.
+	 */
+	@Test
+	public void testPublishInterval() {
+		config.setProperty(HitAndRunReasoner.NUM_SAMPLES_KEY, 10500);
+		config.setProperty(HitAndRunReasoner.PUBLISH_INTERVAL_KEY, 2000);
+		ConfidenceVariable x = new ConfidenceVariable();
+		HitAndRunReasoner reasoner = new HitAndRunReasoner(config);
+		reasoner.addGroundRule(hinge(sum(0.0, 1.0, x), 2.0, false));
+		reasoner.optimize();
+		reasoner.close();
+		/* 9500 samples after burn-in */
+		assertEquals(5, x.numPublished);
+
+		config.setProperty(HitAndRunReasoner.PUBLISH_INTERVAL_KEY, 0);
+		x.numPublished = 0;
+		reasoner = new HitAndRunReasoner(config);
+		reasoner.addGroundRule(hinge(sum(0.0, 1.0, x), 2.0, false));
+		reasoner.optimize();
+		reasoner.close();
+		assertEquals(1, x.numPublished);
+	}
+
+	/** An energy along a segment */
+	private interface Energy {
+		double get(double t);
+	}
+
+	/**
+	 * @return the mean and variance of the density proportional to
+	 *         exp(-energy) on [0,1]
+	 */
+	private static double[] integrate(Energy energy) {
+		int n = 100000;
+		double z = 0.0;
+		double first = 0.0;
+		double second = 0.0;
+		for (int i = 0; i < n; i++) {
+			double t = (i + 0.5) / n;
+			double p = Math.exp(-energy.get(t));
+			z += p;
+			first += p * t;
+			second += p * t * t;
+		}
+		double mean = first / z;
+		return new double[] {mean, second / z - mean * mean};
+	}
+
+	/** A variable that keeps its confidence value */
+	private static class ConfidenceVariable extends TestVariable {
+		private double confidence = Double.NaN;
+		private int numPublished = 0;
+
+		@Override
+		public double getConfidence() {
+			return confidence;
+		}
+
+		@Override
+		public void setConfidence(double val) {
+			confidence = val;
+			numPublished++;
+		}
+	}
+}
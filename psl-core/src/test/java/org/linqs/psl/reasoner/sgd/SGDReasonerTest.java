@@ -0,0 +1,128 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.constraint;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.hinge;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.sum;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.application.util.GroundKernels;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestGroundRule;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestVariable;
+import org.linqs.psl.reasoner.admm.ADMMReasoner;
+import org.linqs.psl.reasoner.function.FunctionComparator;
+
+public class SGDReasonerTest {
+
+	private ConfigBundle config;
+
+	@Before
+	public final void setUp() throws ConfigurationException {
+		config = ConfigManager.getManager().getBundle("sgdreasonertest");
+		config.setProperty(SGDReasoner.TOLERANCE_KEY, 1e-6);
+		config.setProperty(SGDReasoner.MAX_EPOCHS_KEY, 5000);
+		config.setProperty(SGDReasoner.BATCH_SIZE_KEY, 4);
+	}
+
+	@Test
+	public void testHingeLoss() {
+		TestVariable a = new TestVariable();
+		SGDReasoner reasoner = new SGDReasoner(config);
+		/* 2 * max(0, 0.8 - a) + max(0, a - 0.3) */
+		reasoner.addGroundRule(hinge(sum(0.8, -1.0, a), 2.0, false));
+		reasoner.addGroundRule(hinge(sum(-0.3, 1.0, a), 1.0, false));
+		reasoner.optimize();
+		assertEquals(0.8, a.getValue(), 1e-3);
+		assertEquals(0.5, reasoner.getLastObjective(), 1e-3);
+
+		/* Changing only a weight keeps the model */
+		TestGroundRule upper = hinge(sum(-0.3, 1.0, a), 1.0, true);
+		reasoner.addGroundRule(upper);
+		upper.setWeight(new PositiveWeight(10.0));
+		reasoner.changedGroundKernelWeight(upper);
+		reasoner.optimize();
+		/* Minimizes 2 * (0.8 - a) + (a - 0.3) + 10 * (a - 0.3)^2 */
+		assertEquals(0.35, a.getValue(), 1e-3);
+		reasoner.close();
+	}
+
+	@Test
+	public void testConstraint() {
+		TestVariable a = new TestVariable();
+		TestVariable b = new TestVariable();
+		SGDReasoner reasoner = new SGDReasoner(config);
+		/* a + b = 1, pulling a and b up to 0.9 with weights 1 and 2 */
+		reasoner.addGroundRule(constraint(sum(0.0, 1.0, a, 1.0, b), FunctionComparator.Equality, 1.0));
+		reasoner.addGroundRule(hinge(sum(0.9, -1.0, a), 1.0, false));
+		reasoner.addGroundRule(hinge(sum(0.9, -1.0, b), 2.0, false));
+		reasoner.optimize();
+		assertEquals(0.1, a.getValue(), 1e-2);
+		assertEquals(0.9, b.getValue(), 1e-2);
+		assertTrue(GroundKernels.getInfeasibilityNorm(reasoner.getConstraintKernels()) < 1e-2);
+		reasoner.close();
+	}
+
+	@Test
+	public void testSameObjectiveAsADMM() {
+		Random random = new Random(4);
+		TestVariable[] variables = new TestVariable[50];
+		for (int i = 0; i < variables.length; i++)
+			variables[i] = new TestVariable();
+		List<GroundRule> groundRules = new ArrayList<GroundRule>();
+		/* Priors pulling each variable up and down, so that the objective cannot reach zero */
+		for (int i = 0; i < variables.length; i++) {
+			groundRules.add(hinge(sum(random.nextDouble(), -1.0, variables[i]), random.nextDouble(), false));
+			groundRules.add(hinge(sum(-random.nextDouble(), 1.0, variables[i]), random.nextDouble(), false));
+		}
+		for (int i = 0; i < 200; i++) {
+			TestVariable a = variables[random.nextInt(variables.length)];
+			TestVariable b = variables[random.nextInt(variables.length)];
+			groundRules.add(hinge(sum(0.0, 1.0, a, -1.0, b), random.nextDouble(), random.nextBoolean()));
+		}
+
+		config.setProperty(SGDReasoner.MAX_EPOCHS_KEY, 2000);
+		double admmObjective = optimize(new ADMMReasoner(config), groundRules, variables);
+		double sgdObjective = optimize(new SGDReasoner(config), groundRules, variables);
+		assertEquals(admmObjective, sgdObjective, 1e-2 * admmObjective);
+	}
+
+	private static double optimize(Reasoner reasoner, List<GroundRule> groundRules, TestVariable[] variables) {
+		for (TestVariable variable : variables)
+			variable.setValue(0.0);
+		for (GroundRule groundRule : groundRules)
+			reasoner.addGroundRule(groundRule);
+		reasoner.optimize();
+		double objective = GroundKernels.getTotalWeightedIncompatibility(reasoner.getCompatibilityKernels());
+		reasoner.close();
+		return objective;
+	}
+}
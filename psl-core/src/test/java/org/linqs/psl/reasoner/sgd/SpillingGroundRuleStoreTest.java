@@ -0,0 +1,271 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.hinge;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.sum;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.config.EmptyBundle;
+import org.linqs.psl.database.DataStore;
+import org.linqs.psl.database.Database;
+import org.linqs.psl.database.rdbms.RDBMSDataStore;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver;
+import org.linqs.psl.database.rdbms.driver.H2DatabaseDriver.Type;
+import org.linqs.psl.model.atom.GroundAtom;
+import org.linqs.psl.model.predicate.PredicateFactory;
+import org.linqs.psl.model.predicate.StandardPredicate;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.model.term.ConstantType;
+import org.linqs.psl.model.weight.PositiveWeight;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestGroundRule;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestVariable;
+
+public class SpillingGroundRuleStoreTest {
+
+	private static final int NUM_VARIABLES = 50;
+
+	private DataStore dataStore;
+	private Database database;
+	private GroundAtom first, second;
+
+	/**
+	 * Distinct ground rules whose records have the same hash are all stored
+	 * and found, including records that are still in the write buffer.
+	 */
+	@Test
+	public void testHashCollisions() throws IOException {
+		SpillingGroundRuleStore store = new SpillingGroundRuleStore(File.createTempFile("psl-spill-test-", ".bin")) {
+			@Override
+			long hashRecord(byte[] record, int length) {
+				return super.hashRecord(record, length) & 3;
+			}
+		};
+		TestVariable[] variables = new TestVariable[NUM_VARIABLES];
+		for (int i = 0; i < NUM_VARIABLES; i++)
+			variables[i] = new TestVariable();
+
+		/* Enough records to fill the write buffer of the spill file */
+		int size = 0;
+		for (int a = 0; a < NUM_VARIABLES; a++) {
+			for (int b = 0; b < NUM_VARIABLES; b++) {
+				if (a == b)
+					continue;
+				assertFalse(store.containsGroundKernel(pair(variables[a], variables[b])));
+				store.addGroundRule(pair(variables[a], variables[b]));
+				size++;
+			}
+		}
+		assertEquals(size, store.size());
+
+		for (int a = 0; a < NUM_VARIABLES; a++)
+			for (int b = 0; b < NUM_VARIABLES; b++)
+				assertEquals(a != b, store.containsGroundKernel(pair(variables[a], variables[b])));
+		try {
+			store.addGroundRule(pair(variables[0], variables[1]));
+			throw new AssertionError("Added a ground rule twice.");
+		} catch (IllegalArgumentException e) {
+			/* Expected */
+		}
+
+		int count = 0;
+		for (GroundRule groundRule : store.getGroundKernels()) {
+			assertTrue(groundRule.getAtoms().size() <= 2);
+			count++;
+		}
+		assertEquals(size, count);
+		store.close();
+	}
+
+	/**
+	 * Removed ground rules are left out until they are added again, and
+	 * compaction keeps the other ground rules.
+	 */
+	@Test
+	public void testRemove() throws IOException {
+		SpillingGroundRuleStore store = new SpillingGroundRuleStore(File.createTempFile("psl-spill-test-", ".bin"));
+		TestVariable[] variables = new TestVariable[4];
+		for (int i = 0; i < variables.length; i++)
+			variables[i] = new TestVariable();
+		for (int a = 0; a < variables.length; a++)
+			for (int b = 0; b < variables.length; b++)
+				if (a != b)
+					store.addGroundRule(pair(variables[a], variables[b]));
+
+		store.removeGroundKernel(pair(variables[0], variables[1]));
+		assertFalse(store.containsGroundKernel(pair(variables[0], variables[1])));
+		assertEquals(11, store.size());
+		assertEquals(11, count(store));
+
+		/* Ground rules that are not in the store are ignored */
+		store.removeGroundKernel(pair(variables[0], variables[1]));
+		store.removeGroundKernel(pair(variables[0], new TestVariable()));
+		assertEquals(11, store.size());
+
+		store.addGroundRule(pair(variables[0], variables[1]));
+		assertTrue(store.containsGroundKernel(pair(variables[0], variables[1])));
+		assertEquals(12, store.size());
+
+		/* Removes the ground rules max(0, variables[0] - b), the only ones that are violated */
+		variables[0].setValue(1.0);
+		Iterator<GroundRule> iterator = store.getGroundKernels().iterator();
+		while (iterator.hasNext())
+			if (((WeightedGroundRule) iterator.next()).getIncompatibility() > 0.0)
+				iterator.remove();
+		assertEquals(9, store.size());
+		assertEquals(9, count(store));
+
+		long length = store.getSpillFile().length();
+		store.compact();
+		assertTrue(store.getSpillFile().length() < length);
+		assertEquals(9, store.size());
+		assertEquals(9, count(store));
+		for (int a = 0; a < variables.length; a++)
+			for (int b = 0; b < variables.length; b++)
+				assertEquals(a != b && a != 0, store.containsGroundKernel(pair(variables[a], variables[b])));
+
+		store.addGroundRule(pair(variables[0], variables[1]));
+		assertTrue(store.containsGroundKernel(pair(variables[0], variables[1])));
+		assertEquals(10, count(store));
+		store.close();
+	}
+
+	/**
+	 * Ground rules with the same term but different atoms, such as those
+	 * whose observed atoms have the same value, are distinct.
+	 */
+	@Test
+	public void testSameTermDifferentAtoms() throws IOException {
+		SpillingGroundRuleStore store = new SpillingGroundRuleStore(File.createTempFile("psl-spill-test-", ".bin"));
+		TestVariable a = new TestVariable();
+		GroundRule withFirst = withAtom(hinge(sum(1.0, -1.0, a), 1.0, false), first);
+		GroundRule withSecond = withAtom(hinge(sum(1.0, -1.0, a), 1.0, false), second);
+		store.addGroundRule(withFirst);
+		assertFalse(store.containsGroundKernel(withSecond));
+		store.addGroundRule(withSecond);
+		assertTrue(store.containsGroundKernel(withFirst));
+		assertTrue(store.containsGroundKernel(withSecond));
+		assertEquals(2, store.size());
+
+		Set<GroundAtom> atoms = new HashSet<GroundAtom>();
+		for (GroundRule groundRule : store.getGroundKernels())
+			atoms.addAll(groundRule.getAtoms());
+		assertEquals(2, atoms.size());
+
+		store.close();
+	}
+
+	/**
+	 * A changed ground rule replaces the one with the same atoms.
+	 */
+	@Test
+	public void testChangedGroundRule() throws IOException {
+		SpillingGroundRuleStore store = new SpillingGroundRuleStore(File.createTempFile("psl-spill-test-", ".bin"));
+		TestVariable a = new TestVariable();
+		TestGroundRule withFirst = withAtom(hinge(sum(1.0, -1.0, a), 1.0, false), first);
+		store.addGroundRule(withFirst);
+		store.addGroundRule(withAtom(hinge(sum(1.0, -1.0, a), 1.0, false), second));
+
+		withFirst.setWeight(new PositiveWeight(3.0));
+		store.changedGroundKernelWeight(withFirst);
+		assertEquals(2, store.size());
+		double total = 0.0;
+		for (WeightedGroundRule groundRule : store.getCompatibilityKernels())
+			total += groundRule.getWeight().getWeight();
+		assertEquals(4.0, total, 0.0);
+
+		/* Reconstructed ground rules are changed the same way */
+		for (WeightedGroundRule groundRule : store.getCompatibilityKernels()) {
+			if (groundRule.getAtoms().contains(second)) {
+				groundRule.setWeight(new PositiveWeight(2.0));
+				store.changedGroundKernelWeight(groundRule);
+			}
+		}
+		total = 0.0;
+		for (WeightedGroundRule groundRule : store.getCompatibilityKernels())
+			total += groundRule.getWeight().getWeight();
+		assertEquals(5.0, total, 0.0);
+
+		TestGroundRule changed = withAtom(hinge(sum(0.5, -1.0, a), 3.0, false), first);
+		store.changedGroundRule(changed);
+		assertTrue(store.containsGroundKernel(changed));
+		assertFalse(store.containsGroundKernel(withFirst));
+		assertEquals(2, store.size());
+
+		/* Ground rules without a record are ignored */
+		store.changedGroundRule(pair(a, new TestVariable()));
+		assertEquals(2, count(store));
+		store.close();
+	}
+
+	@Before
+	public final void setUp() {
+		StandardPredicate predicate = PredicateFactory.getFactory().createStandardPredicate(
+				"SpillingGroundRuleStoreTest_P", ConstantType.UniqueID);
+		dataStore = new RDBMSDataStore(new H2DatabaseDriver(Type.Memory, null, true), new EmptyBundle());
+		dataStore.registerPredicate(predicate);
+		database = dataStore.getDatabase(dataStore.getPartition("0"));
+		first = database.getAtom(predicate, dataStore.getUniqueID(0));
+		second = database.getAtom(predicate, dataStore.getUniqueID(1));
+	}
+
+	@After
+	public final void tearDown() {
+		database.close();
+		dataStore.close();
+	}
+
+	private static int count(SpillingGroundRuleStore store) {
+		int count = 0;
+		for (GroundRule groundRule : store.getGroundKernels())
+			count++;
+		return count;
+	}
+
+	/**
+	 * @return a ground rule with the potential of another and one atom
+	 */
+	private static TestGroundRule withAtom(TestGroundRule groundRule, final GroundAtom atom) {
+		return new TestGroundRule(groundRule.getFunctionDefinition(), groundRule.getWeight().getWeight()) {
+			@Override
+			public Set<GroundAtom> getAtoms() {
+				return Collections.singleton(atom);
+			}
+		};
+	}
+
+	/**
+	 * @return a ground rule with potential max(0, a - b)
+	 */
+	private static TestGroundRule pair(TestVariable a, TestVariable b) {
+		return hinge(sum(0.0, 1.0, a, -1.0, b), 1.0, false);
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * This file is part of the PSL software.
+ * Copyright 2011-2015 University of Maryland
+ * Copyright 2013-2017 The Regents of the University of California
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.linqs.psl.reasoner.sgd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.hinge;
+import static org.linqs.psl.reasoner.TestGroundRuleFactory.sum;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.junit.Before;
+import org.junit.Test;
+import org.linqs.psl.application.util.GroundKernels;
+import org.linqs.psl.config.ConfigBundle;
+import org.linqs.psl.config.ConfigManager;
+import org.linqs.psl.model.rule.GroundRule;
+import org.linqs.psl.model.rule.WeightedGroundRule;
+import org.linqs.psl.reasoner.Reasoner;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestGroundRule;
+import org.linqs.psl.reasoner.TestGroundRuleFactory.TestVariable;
+
+public class StreamingSGDReasonerTest {
+
+	private ConfigBundle config;
+
+	@Before
+	public final void setUp() throws ConfigurationException {
+		config = ConfigManager.getManager().getBundle("streamingsgdreasonertest");
+		config.setProperty(SGDReasoner.TOLERANCE_KEY, 1e-6);
+		config.setProperty(SGDReasoner.MAX_EPOCHS_KEY, 2000);
+		config.setProperty(SGDReasoner.BATCH_SIZE_KEY, 16);
+	}
+
+	@Test
+	public void testSpilledGroundRules() {
+		TestVariable a = new TestVariable();
+		TestVariable b = new TestVariable();
+		StreamingSGDReasoner reasoner = new StreamingSGDReasoner(config);
+		File spillFile = reasoner.getSpillFile();
+
+		/* 2 * max(0, 0.8 - a) + (a - b)^2 */
+		reasoner.addGroundRule(hinge(sum(0.8, -1.0, a), 2.0, false));
+		TestGroundRule pair = hinge(sum(0.0, 1.0, a, -1.0, b), 1.0, true);
+		assertFalse(reasoner.containsGroundKernel(pair));
+		reasoner.addGroundRule(pair);
+		assertTrue(reasoner.containsGroundKernel(hinge(sum(0.0, 1.0, a, -1.0, b), 1.0, true)));
+		assertFalse(reasoner.containsGroundKernel(hinge(sum(0.0, 1.0, a, -2.0, b), 1.0, true)));
+		try {
+			reasoner.addGroundRule(hinge(sum(0.0, 1.0, a, -1.0, b), 1.0, true));
+			throw new AssertionError("Added a ground rule twice.");
+		} catch (IllegalArgumentException e) {
+			/* Expected */
+		}
+		assertEquals(2, reasoner.size());
+
+		reasoner.optimize();
+		assertEquals(0.8, a.getValue(), 1e-2);
+
+		/* Reconstructed ground rules have the same incompatibilities */
+		a.setValue(1.0);
+		b.setValue(0.5);
+		int count = 0;
+		for (WeightedGroundRule groundRule : reasoner.getCompatibilityKernels()) {
+			assertEquals(groundRule.getIncompatibility(), groundRule.getFunctionDefinition().getValue(), 1e-9);
+			count++;
+		}
+		assertEquals(2, count);
+		assertEquals(0.25, GroundKernels.getTotalWeightedIncompatibility(reasoner.getCompatibilityKernels()), 1e-9);
+
+		/* Without the prior, a and b only need to be equal, and the removed record is compacted away */
+		long length = spillFile.length();
+		reasoner.removeGroundKernel(hinge(sum(0.8, -1.0, a), 2.0, false));
+		assertEquals(1, reasoner.size());
+		reasoner.optimize();
+		assertTrue(spillFile.length() < length);
+		assertEquals(a.getValue(), b.getValue(), 1e-2);
+
+		reasoner.close();
+		assertFalse(spillFile.exists());
+	}
+
+	@Test
+	public void testSameObjectiveAsSGD() {
+		Random random = new Random(7);
+		TestVariable[] variables = new TestVariable[50];
+		for (int i = 0; i < variables.length; i++)
+			variables[i] = new TestVariable();
+		List<GroundRule> groundRules = new ArrayList<GroundRule>();
+		/* Priors pulling each variable up and down, so that the objective cannot reach zero */
+		for (int i = 0; i < variables.length; i++) {
+			groundRules.add(hinge(sum(random.nextDouble(), -1.0, variables[i]), random.nextDouble(), false));
+			groundRules.add(hinge(sum(-random.nextDouble(), 1.0, variables[i]), random.nextDouble(), false));
+		}
+		/* Pairs are distinct, since the store identifies ground rules by their terms */
+		Set<Integer> pairs = new HashSet<Integer>();
+		for (int i = 0; i < 200; i++) {
+			int a = random.nextInt(variables.length);
+			int b = random.nextInt(variables.length);
+			if (a != b && pairs.add(a * variables.length + b))
+				groundRules.add(hinge(sum(0.0, 1.0, variables[a], -1.0, variables[b]),
+						random.nextDouble(), random.nextBoolean()));
+		}
+
+		double sgdObjective = optimize(new SGDReasoner(config), groundRules, variables);
+		double streamingObjective = optimize(new StreamingSGDReasoner(config), groundRules, variables);
+		assertEquals(sgdObjective, streamingObjective, 1e-2 * sgdObjective);
+	}
+
+	private static double optimize(Reasoner reasoner, List<GroundRule> groundRules, TestVariable[] variables) {
+		for (TestVariable variable : variables)
+			variable.setValue(0.0);
+		for (GroundRule groundRule : groundRules)
+			reasoner.addGroundRule(groundRule);
+		reasoner.optimize();
+		double objective = GroundKernels.getTotalWeightedIncompatibility(reasoner.getCompatibilityKernels());
+		reasoner.close();
+		return objective;
+	}
+}